@@ -0,0 +1,280 @@
+package net.skim.bench;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.annotation.Arg;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * It generates a pair of CSV files shaped like sample_1.csv, the crime data of the City of Chicago: a baseline file
+ * and a changed copy of it. Rows of the changed file are removed, changed or added in the given ratios, and both files
+ * are written in an order which is sorted by ID to the given degree.
+ * <p>
+ * Every row is generated from its ID and the seed only, so the same arguments always give the same files, and a row
+ * left unchanged is byte-identical in both files.
+ */
+public class CsvGenerator {
+    static final String HEADER = "ID,Case Number,Date,Block,IUCR,Primary Type,Description,Location Description,"
+            + "Arrest,Domestic,Beat,District,Ward,Community Area,FBI Code,X Coordinate,Y Coordinate,Year,Updated On,"
+            + "Latitude,Longitude,Location";
+
+    private static final long FIRST_ID = 8000000;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private static final String[] STREETS = {"S HOYNE AVE", "W MADISON ST", "N CLARK ST", "S HALSTED ST",
+            "W 63RD ST", "N MILWAUKEE AVE", "S COTTAGE GROVE AVE", "W CHICAGO AVE"};
+    private static final String[][] CRIMES = {
+            {"0486", "BATTERY", "DOMESTIC BATTERY SIMPLE", "08B"},
+            {"0820", "THEFT", "$500 AND UNDER", "06"},
+            {"0610", "BURGLARY", "FORCIBLE ENTRY", "05"},
+            {"1310", "CRIMINAL DAMAGE", "TO PROPERTY", "14"},
+            {"0910", "MOTOR VEHICLE THEFT", "AUTOMOBILE", "07"},
+            {"2027", "NARCOTICS", "POSS: CRACK", "18"},
+            {"0560", "ASSAULT", "SIMPLE", "08A"}};
+    private static final String[] PLACES = {"RESIDENCE", "STREET", "APARTMENT", "SIDEWALK", "PARKING LOT",
+            "SMALL RETAIL STORE", "ALLEY", "RESTAURANT"};
+    private static final String[] DETAILS = {"NO INJURY", "REPORTED LATE", "FORCED ENTRY", "WITNESS PRESENT"};
+
+    private final long seed;
+    private long rows = 100000;
+    private double changeRatio = 0.01;
+    private double addedRatio = 0.01;
+    private double removedRatio = 0.01;
+    private double sortedness = 1;
+    private double quotingDensity = 0.1;
+
+    /**
+     * @param seed
+     */
+    public CsvGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param rows number of rows of the baseline file
+     */
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @param changeRatio share of the baseline rows changed in the changed file
+     */
+    public void setChangeRatio(double changeRatio) {
+        this.changeRatio = checkRatio("changeRatio", changeRatio);
+    }
+
+    /**
+     * @param addedRatio number of rows added to the changed file, as a share of the baseline rows
+     */
+    public void setAddedRatio(double addedRatio) {
+        this.addedRatio = checkRatio("addedRatio", addedRatio);
+    }
+
+    /**
+     * @param removedRatio share of the baseline rows left out of the changed file
+     */
+    public void setRemovedRatio(double removedRatio) {
+        this.removedRatio = checkRatio("removedRatio", removedRatio);
+    }
+
+    /**
+     * @param sortedness share of the rows written in ID order. 1 sorts the files by ID, and 0 shuffles them
+     */
+    public void setSortedness(double sortedness) {
+        this.sortedness = checkRatio("sortedness", sortedness);
+    }
+
+    /**
+     * @param quotingDensity share of the free-text values quoted because they contain a comma. Location is quoted
+     *                       in every row, as in the original data
+     */
+    public void setQuotingDensity(double quotingDensity) {
+        this.quotingDensity = checkRatio("quotingDensity", quotingDensity);
+    }
+
+    /**
+     * It writes both files
+     *
+     * @param baselineFile
+     * @param changedFile
+     * @throws IOException
+     */
+    public void generate(File baselineFile, File changedFile) throws IOException {
+        long added = Math.round(rows * addedRatio);
+        write(baselineFile, order(rows, 1), false);
+        write(changedFile, order(rows + added, 2), true);
+    }
+
+    /**
+     * @param count number of row numbers
+     * @param salt  makes the files shuffled differently
+     * @return row numbers in the order they are written
+     */
+    private long[] order(long count, long salt) {
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many rows: " + count);
+        }
+        long[] order = new long[(int) count];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // Swaps every row out of place with the given probability
+        Random random = new Random(seed * 31 + salt);
+        for (int i = order.length - 1; i > 0; i--) {
+            if (random.nextDouble() >= sortedness) {
+                int j = random.nextInt(i + 1);
+                long row = order[i];
+                order[i] = order[j];
+                order[j] = row;
+            }
+        }
+        return order;
+    }
+
+    private void write(File file, long[] order, boolean changed) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), OUTPUT_BUFFER_SIZE);
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            StringBuilder line = new StringBuilder(256);
+            for (long row : order) {
+                Random random = new Random(seed ^ (row * 0x9E3779B97F4A7C15L));
+                boolean revised = false;
+                if (changed && row < rows) {
+                    // Each baseline row is either removed, changed or kept, by the same draw in every run
+                    double draw = random.nextDouble();
+                    if (draw < removedRatio) {
+                        continue;
+                    }
+                    revised = draw < removedRatio + changeRatio;
+                } else {
+                    random.nextDouble();
+                }
+                line.setLength(0);
+                appendRow(line, FIRST_ID + row, random, revised);
+                writer.append(line);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void appendRow(StringBuilder line, long id, Random random, boolean revised) {
+        String[] crime = CRIMES[random.nextInt(CRIMES.length)];
+        int year = 2001 + random.nextInt(16);
+        double latitude = 41.65 + random.nextDouble() * 0.37;
+        double longitude = -87.93 + random.nextDouble() * 0.4;
+        String coordinates = String.format(Locale.ROOT, "%.9f,%.9f", latitude, longitude);
+
+        line.append(id).append(',');
+        line.append("HT").append(100000 + random.nextInt(900000)).append(',');
+        appendDate(line, random, year);
+        line.append(',');
+        appendText(line, random, String.format(Locale.ROOT, "%03dXX ", random.nextInt(130)) + STREETS[random.nextInt(STREETS.length)]);
+        line.append(',').append(crime[0]).append(',').append(crime[1]).append(',');
+        appendText(line, random, crime[2]);
+        line.append(',');
+        appendText(line, random, PLACES[random.nextInt(PLACES.length)]);
+        // A changed row is arrested later, which changes two columns
+        boolean arrest = random.nextInt(4) == 0;
+        line.append(',').append(arrest || revised);
+        line.append(',').append(random.nextInt(8) == 0);
+        line.append(',').append(String.format(Locale.ROOT, "%04d", 100 + random.nextInt(2400)));
+        line.append(',').append(String.format(Locale.ROOT, "%03d", 1 + random.nextInt(25)));
+        line.append(',').append(1 + random.nextInt(50));
+        line.append(',').append(1 + random.nextInt(77));
+        line.append(',').append(crime[3]);
+        line.append(',').append(1100000 + random.nextInt(100000));
+        line.append(',').append(1810000 + random.nextInt(150000));
+        line.append(',').append(year).append(',');
+        appendDate(line, random, revised ? 2017 : 2016);
+        line.append(',').append(coordinates);
+        line.append(",\"(").append(coordinates.replace(",", ", ")).append(")\"\n");
+    }
+
+    private static void appendDate(StringBuilder line, Random random, int year) {
+        int hour = random.nextInt(12) + 1;
+        line.append(String.format(Locale.ROOT, "%02d/%02d/%d %02d:%02d:%02d %s", 1 + random.nextInt(12), 1 + random.nextInt(28),
+                year, hour, random.nextInt(60), random.nextInt(60), random.nextBoolean() ? "AM" : "PM"));
+    }
+
+    private void appendText(StringBuilder line, Random random, String text) {
+        if (random.nextDouble() < quotingDensity) {
+            line.append('"').append(text).append(", ").append(DETAILS[random.nextInt(DETAILS.length)]).append('"');
+        } else {
+            line.append(text);
+        }
+    }
+
+    private static double checkRatio(String name, double ratio) {
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException(name + " needs to be between 0 and 1: " + ratio);
+        }
+        return ratio;
+    }
+
+    public static void main(String[] args) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("CsvGenerator")
+                .defaultHelp(true)
+                .description("Generates a baseline CSV file and a changed copy of it");
+        parser.addArgument("baseline").help("Baseline file to write");
+        parser.addArgument("changed").help("Changed file to write");
+        parser.addArgument("-n", "--rows").type(Long.class).setDefault(100000L).help("Rows of the baseline file");
+        parser.addArgument("--change-ratio").type(Double.class).setDefault(0.01).help("Share of rows changed");
+        parser.addArgument("--added-ratio").type(Double.class).setDefault(0.01).help("Share of rows added");
+        parser.addArgument("--removed-ratio").type(Double.class).setDefault(0.01).help("Share of rows removed");
+        parser.addArgument("--sortedness").type(Double.class).setDefault(1.0).help("Share of rows in ID order");
+        parser.addArgument("--quoting-density").type(Double.class).setDefault(0.1).help("Share of free-text values quoted");
+        parser.addArgument("--seed").type(Long.class).setDefault(1L).help("Seed of the random rows");
+
+        Options opt = new Options();
+        try {
+            parser.parseArgs(args, opt);
+            CsvGenerator generator = new CsvGenerator(opt.seed);
+            generator.setRows(opt.rows);
+            generator.setChangeRatio(opt.changeRatio);
+            generator.setAddedRatio(opt.addedRatio);
+            generator.setRemovedRatio(opt.removedRatio);
+            generator.setSortedness(opt.sortedness);
+            generator.setQuotingDensity(opt.quotingDensity);
+            generator.generate(new File(opt.baseline), new File(opt.changed));
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static class Options {
+        @Arg(dest = "baseline")
+        private String baseline;
+        @Arg(dest = "changed")
+        private String changed;
+        @Arg(dest = "rows")
+        private long rows;
+        @Arg(dest = "change_ratio")
+        private double changeRatio;
+        @Arg(dest = "added_ratio")
+        private double addedRatio;
+        @Arg(dest = "removed_ratio")
+        private double removedRatio;
+        @Arg(dest = "sortedness")
+        private double sortedness;
+        @Arg(dest = "quoting_density")
+        private double quotingDensity;
+        @Arg(dest = "seed")
+        private long seed;
+    }
+}
@@ -0,0 +1,75 @@
+package net.skim.bench;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+import com.univocity.parsers.csv.CsvWriter;
+import net.skim.CsvValidator;
+import net.skim.diff.DiffEngine;
+import net.skim.diff.FingerprintDiffEngine;
+import net.skim.diff.MergeJoinDiffEngine;
+import net.skim.diff.PartitionedDiffEngine;
+import net.skim.diff.ResultRowWriter;
+import net.skim.diff.SortMergeDiffEngine;
+import net.skim.exception.ValidatorException;
+import net.skim.index.CommonRows;
+import net.skim.index.IdIndex;
+import net.skim.utils.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * It measures whole runs over the generated pair of files, as the command line does them, in every mode. Results are
+ * written in rows to a discarding stream. Scores are runs per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xms512m", "-Xmx4096m"})
+public class EndToEndBenchmark {
+    @Param({"legacy", "fingerprint", "sortmerge", "mergejoin", "partitioned"})
+    public String mode;
+
+    @Benchmark
+    public void diff(GeneratedFiles files) throws IOException, ValidatorException {
+        CsvValidator cv = new CsvValidator();
+        CsvParserSettings csvParserSettings = cv.getCsvParserSettings();
+        String indexFileName = files.baselineFile.getAbsolutePath();
+        String targetFileName = files.changedFile.getAbsolutePath();
+        FileUtils fileUtils = new FileUtils(indexFileName, targetFileName);
+        CsvWriter csvWriter = LegacyPhaseBenchmark.newCsvWriter();
+
+        if ("legacy".equals(mode)) {
+            CsvParser csvParser = new CsvParser(csvParserSettings);
+            IdIndex indexedIdList = cv.getIndexedIdList(fileUtils.getIndexFileName(), csvParser, csvWriter);
+            CommonRows commonRows = cv.readTargetAndWriteAsync(fileUtils.getTargetFileName(), csvParser, csvWriter, indexedIdList);
+            cv.readIndexAndWriteAsync(fileUtils.getIndexFileName(), csvParser, csvWriter, commonRows);
+            cv.compareCommonRows(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), csvWriter, commonRows);
+        } else {
+            DiffEngine engine;
+            if ("sortmerge".equals(mode)) {
+                engine = new SortMergeDiffEngine(csvParserSettings, fileUtils);
+            } else if ("mergejoin".equals(mode)) {
+                engine = new MergeJoinDiffEngine(csvParserSettings, fileUtils);
+            } else if ("partitioned".equals(mode)) {
+                engine = new PartitionedDiffEngine(csvParserSettings, fileUtils);
+            } else {
+                engine = new FingerprintDiffEngine(csvParserSettings, fileUtils, Runtime.getRuntime().availableProcessors());
+            }
+            engine.diff(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), new ResultRowWriter(csvWriter));
+        }
+        csvWriter.close();
+    }
+}
@@ -0,0 +1,84 @@
+package net.skim.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A pair of files made by {@link CsvGenerator} once per trial in a temporary directory. The shape of the files is
+ * given by the parameters, e.g. {@code -p rows=1000000 -p sortedness=0}.
+ */
+@State(Scope.Benchmark)
+public class GeneratedFiles {
+    @Param("100000")
+    public long rows;
+
+    @Param("0.01")
+    public double changeRatio;
+
+    @Param("0.01")
+    public double addedRatio;
+
+    @Param("0.01")
+    public double removedRatio;
+
+    @Param("1")
+    public double sortedness;
+
+    @Param("0.1")
+    public double quotingDensity;
+
+    File directory;
+    File baselineFile;
+    File changedFile;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = File.createTempFile("csv-bench", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Can't create the directory: " + directory);
+        }
+        baselineFile = new File(directory, "baseline.csv");
+        changedFile = new File(directory, "changed.csv");
+
+        CsvGenerator generator = new CsvGenerator(1);
+        generator.setRows(rows);
+        generator.setChangeRatio(changeRatio);
+        generator.setAddedRatio(addedRatio);
+        generator.setRemovedRatio(removedRatio);
+        generator.setSortedness(sortedness);
+        generator.setQuotingDensity(quotingDensity);
+        generator.generate(baselineFile, changedFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * A sink for the result files, so that the disk doesn't take part in the measurements
+     */
+    static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+        }
+    }
+}
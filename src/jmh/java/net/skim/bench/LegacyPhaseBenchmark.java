@@ -0,0 +1,107 @@
+package net.skim.bench;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvWriter;
+import com.univocity.parsers.csv.CsvWriterSettings;
+import net.skim.CsvValidator;
+import net.skim.exception.ValidatorException;
+import net.skim.index.CommonRows;
+import net.skim.index.IdIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * It measures each pass of the legacy pipeline on its own. The inputs of a pass are made by running the passes before
+ * it once per trial, or once per invocation for the pass over the index file, which fills the offsets of the common
+ * rows. Scores are passes per second over the generated pair of files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xms512m", "-Xmx4096m"})
+public class LegacyPhaseBenchmark {
+    private CsvValidator cv;
+    private IdIndex indexedIdList;
+    private CommonRows commonRows;
+
+    @Setup(Level.Trial)
+    public void prepare(GeneratedFiles files) throws IOException, ValidatorException {
+        cv = new CsvValidator();
+
+        CsvWriter csvWriter = newCsvWriter();
+        indexedIdList = cv.getIndexedIdList(files.baselineFile.getAbsolutePath(), newCsvParser(), csvWriter);
+        commonRows = cv.readTargetAndWriteAsync(files.changedFile.getAbsolutePath(), newCsvParser(), csvWriter, indexedIdList);
+        cv.readIndexAndWriteAsync(files.baselineFile.getAbsolutePath(), newCsvParser(), csvWriter, commonRows);
+        csvWriter.close();
+    }
+
+    @Benchmark
+    public IdIndex getIndexedIdList(GeneratedFiles files) throws IOException, ValidatorException {
+        CsvWriter csvWriter = newCsvWriter();
+        IdIndex index = cv.getIndexedIdList(files.baselineFile.getAbsolutePath(), newCsvParser(), csvWriter);
+        csvWriter.close();
+        return index;
+    }
+
+    @Benchmark
+    public CommonRows readTargetAndWriteAsync(GeneratedFiles files) throws IOException {
+        CsvWriter csvWriter = newCsvWriter();
+        CommonRows common = cv.readTargetAndWriteAsync(files.changedFile.getAbsolutePath(), newCsvParser(), csvWriter, indexedIdList);
+        csvWriter.close();
+        return common;
+    }
+
+    @Benchmark
+    public void readIndexAndWriteAsync(GeneratedFiles files, TargetRows targetRows) throws IOException {
+        CsvWriter csvWriter = newCsvWriter();
+        cv.readIndexAndWriteAsync(files.baselineFile.getAbsolutePath(), newCsvParser(), csvWriter, targetRows.commonRows);
+        csvWriter.close();
+    }
+
+    @Benchmark
+    public boolean compareCommonRows(GeneratedFiles files) throws IOException, ValidatorException {
+        CsvWriter csvWriter = newCsvWriter();
+        boolean result = cv.compareCommonRows(files.baselineFile.getAbsolutePath(), files.changedFile.getAbsolutePath(), csvWriter, commonRows);
+        csvWriter.close();
+        return result;
+    }
+
+    private CsvParser newCsvParser() {
+        return new CsvParser(cv.getCsvParserSettings());
+    }
+
+    /**
+     * The common rows of the target pass, made again before every pass over the index file
+     */
+    @State(Scope.Thread)
+    public static class TargetRows {
+        CommonRows commonRows;
+
+        @Setup(Level.Invocation)
+        public void prepare(LegacyPhaseBenchmark benchmark, GeneratedFiles files) throws IOException {
+            CsvWriter csvWriter = newCsvWriter();
+            commonRows = benchmark.cv.readTargetAndWriteAsync(files.changedFile.getAbsolutePath(), benchmark.newCsvParser(), csvWriter, benchmark.indexedIdList);
+            csvWriter.close();
+        }
+    }
+
+    static CsvWriter newCsvWriter() {
+        CsvWriterSettings csvWriterSettings = new CsvWriterSettings();
+        csvWriterSettings.setInputEscaped(true);
+        return new CsvWriter(new GeneratedFiles.NullOutputStream(), "utf8", csvWriterSettings);
+    }
+}
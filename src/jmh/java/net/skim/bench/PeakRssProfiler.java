@@ -0,0 +1,73 @@
+package net.skim.bench;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * A JMH profiler reporting the peak resident set size of the benchmark JVM, read from VmHWM in /proc/self/status.
+ * The peak never goes down within a fork, so it covers the iterations run so far. Nothing is reported where there is
+ * no /proc, as on macOS.
+ * <p>
+ * Run with {@code -prof net.skim.bench.PeakRssProfiler}.
+ */
+public class PeakRssProfiler implements InternalProfiler {
+    private static final File STATUS_FILE = new File("/proc/self/status");
+    private static final String PEAK_RSS_FIELD = "VmHWM:";
+
+    @Override
+    public String getDescription() {
+        return "Peak resident set size, from /proc/self/status";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+        long peakKiB = readPeakKiB();
+        if (peakKiB < 0) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new ScalarResult("peak.rss", peakKiB / 1024.0, "MB", AggregationPolicy.MAX));
+    }
+
+    /**
+     * @return the peak RSS in KiB, or -1 if it is not known
+     */
+    static long readPeakKiB() {
+        if (!STATUS_FILE.isFile()) {
+            return -1;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(STATUS_FILE), "US-ASCII"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(PEAK_RSS_FIELD)) {
+                        // VmHWM:    123456 kB
+                        return Long.parseLong(line.substring(PEAK_RSS_FIELD.length()).replace("kB", "").trim());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not reported
+        }
+        return -1;
+    }
+}
@@ -5,36 +5,103 @@ import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 import com.univocity.parsers.csv.CsvWriter;
 import com.univocity.parsers.csv.CsvWriterSettings;
+import net.skim.batch.BaselineRunner;
+import net.skim.batch.BatchManifest;
+import net.skim.batch.BatchPair;
+import net.skim.batch.BatchRunner;
+import net.skim.diff.BinaryCellDiffWriter;
+import net.skim.diff.CellDiffWriter;
+import net.skim.diff.ColumnSchema;
+import net.skim.diff.ColumnSchemaFilter;
+import net.skim.diff.DiffEngine;
+import net.skim.diff.DiffListener;
+import net.skim.diff.DiffWriter;
+import net.skim.diff.EquivalenceChecker;
+import net.skim.diff.FingerprintDiffEngine;
+import net.skim.diff.IndexedFile;
+import net.skim.diff.MeasuredListener;
+import net.skim.diff.MergeJoinDiffEngine;
+import net.skim.diff.PartitionedDiffEngine;
+import net.skim.diff.ResultRowWriter;
+import net.skim.diff.RowComparator;
+import net.skim.diff.SortMergeDiffEngine;
+import net.skim.diff.SwappedSidesWriter;
 import net.skim.exception.ValidatorException;
+import net.skim.index.BloomFilter;
+import net.skim.index.CommonRows;
+import net.skim.index.IdIndex;
+import net.skim.io.CsvScanner;
+import net.skim.io.KeyColumns;
+import net.skim.io.KeyEncoder;
+import net.skim.io.OutputPipeline;
+import net.skim.io.ParsingRecordCursor;
+import net.skim.io.RecordFetcher;
+import net.skim.io.RecordReader;
+import net.skim.metrics.RowSampler;
+import net.skim.metrics.RunMetrics;
+import net.skim.server.DiffClient;
+import net.skim.server.DiffServer;
+import net.skim.server.IndexCache;
 import net.skim.utils.FileUtils;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.annotation.Arg;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * A validator for CSV files. It compares two files and stores the difference in a different CSV file
- * A function excluding columns is not implemented yet.
+ * <p>
+ * By default, it uses {@link FingerprintDiffEngine}, which reads each file once. The original pipeline described
+ * below is available with the option "--mode legacy".
  * <p>
  * First of all, it creates an index of the smaller file. After that, it walks through the target file, which is larger,
  * to looking for the different rows. If they are found, they are saved in the result file. If each ID of the rows is the same
- * with that in the list, it creates another list of common rows and stores related rows in a file, "common_rows_target.txt".
- * The, it walks through the index file again with the list of common IDs. It save the rows which are not in the list
- * to the result file and stores the rows related with IDs in a file, "common_rows_index.txt", to find the differences
- * between two files about common rows. If the differences are found between two rows, they are saved in the result.
+ * with that in the list, it adds the ID to another list of common rows with the byte offset of its row. Then, it walks
+ * through the index file again with the list of common IDs. It saves the rows which are not in the list to the result
+ * file and records the offsets of the rows of the common IDs. Finally, the common rows of both files are fetched by their
+ * offsets and paired by their IDs. If the differences are found between two rows, they are saved in the result.
+ * <p>
+ * Rows are identified by their {@link KeyColumns}, ID by default, whose values are encoded into the index as bytes.
+ * <p>
+ * With "--filter-memory", the index is a {@link BloomFilter} of bounded size instead of the keys themselves. Target
+ * rows the filter rules out are added for sure. The others are candidates, whose keys are kept, and the pass over the
+ * index file tells which of them are really common. The rows of the false positives are then fetched from the target
+ * file and sent to the result file. The candidates are kept in {@link CommonRows}, a key and two offsets each, so the
+ * filter bounds the memory of the index file only: where the files mostly share their keys, the candidates take
+ * about as much memory as the keys of the target file.
+ * <p>
+ * With "--metrics" or "--jmx", every pass counts its rows, bytes and the time it spends in parsing, lookups and
+ * writing into {@link RunMetrics}, which are published over JMX during the run and written as JSON at its end.
  */
 public class CsvValidator {
     static final Logger log = LogManager.getLogger(CsvValidator.class.getName());
 
     private static final String RESULT_FILE_NAME = "result_diff.csv";
+    private static final int FETCH_BATCH_SIZE = 4096;
+
+    private static final String MODE_FINGERPRINT = "fingerprint";
+    private static final String MODE_LEGACY = "legacy";
+    private static final String MODE_SORT_MERGE = "sortmerge";
+    private static final String MODE_PARTITIONED = "partitioned";
+    private static final String MODE_MERGE_JOIN = "mergejoin";
+
+    private static final int EXIT_EQUAL = 0;
+    private static final int EXIT_DIFFERENT = 1;
+    private static final int EXIT_ERROR = 2;
+
+    private static final String FORMAT_ROWS = "rows";
+    private static final String FORMAT_CELLS = "cells";
+    private static final String FORMAT_BINARY = "binary";
 
     private CsvParserSettings csvParserSettings;
+    private RunMetrics metrics = RunMetrics.DISABLED;
+    private KeyColumns keyColumns = KeyColumns.DEFAULT;
+    private ColumnSchema columnSchema = ColumnSchema.EXACT;
 
     public CsvValidator() {
         csvParserSettings = new CsvParserSettings();
@@ -46,6 +113,59 @@ public class CsvValidator {
         return csvParserSettings;
     }
 
+    /**
+     * @param metrics the metrics the passes of the legacy pipeline are counted into
+     */
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param keyColumns the columns identifying a row in the legacy pipeline
+     */
+    public void setKeyColumns(KeyColumns keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * @param columnSchema how the values of common rows are compared in the legacy pipeline
+     */
+    public void setColumnSchema(ColumnSchema columnSchema) {
+        this.columnSchema = columnSchema;
+    }
+
+    /**
+     * It makes the parser skip columns, so their values are neither kept nor compared. The names are matched
+     * ignoring case, and every name needs to be in the headers of the files.
+     *
+     * @param columnNames
+     */
+    public void excludeColumns(List<String> columnNames) {
+        if (columnNames != null && !columnNames.isEmpty()) {
+            csvParserSettings.excludeFields(columnNames.toArray(new String[columnNames.size()]));
+        }
+    }
+
+    /**
+     * @param headerRecord
+     * @param fileName
+     * @return an encoder of the keys of the rows having the header
+     * @throws ValidatorException if a key column is not in the header
+     */
+    private KeyEncoder newKeyEncoder(String headerRecord, String fileName) throws ValidatorException {
+        return new KeyEncoder(keyColumns.resolve(ParsingRecordCursor.parseHeader(csvParserSettings, headerRecord), fileName));
+    }
+
+    /**
+     * It turns the text of {@link Arrays#toString(Object[])} into a row of the result file
+     *
+     * @param stringLine
+     * @return values separated by commas, without brackets
+     */
+    private static String toResultRow(String stringLine) {
+        return stringLine.replaceAll("\\[", "").replaceAll("\\]", "");
+    }
+
     /**
      * It retuns a parser for command-line arguments
      *
@@ -54,52 +174,174 @@ public class CsvValidator {
     private static ArgumentParser getArgParser() {
         ArgumentParser parser = ArgumentParsers.newArgumentParser(CsvValidator.class.getName());
         parser.addArgument("fileName")
-                .nargs(2)
-                .help("CSV file to be compared");
+                .nargs("*")
+                .help("Two CSV files to be compared. In the batch mode, a manifest of pairs or two directories of files paired by name. "
+                        + "With --baseline, the candidates compared against the baseline");
         parser.addArgument("-o", "--out")
-                .help("Destination file")
-                .setDefault(RESULT_FILE_NAME);
+                .help("Destination file, " + RESULT_FILE_NAME + " by default. It is compressed with gzip if its name ends with .gz. "
+                        + "In the batch mode, the directory of the results, the current directory by default");
+        parser.addArgument("-k", "--key")
+                .nargs("+")
+                .setDefault(Arrays.asList(KeyColumns.DEFAULT.getNames()))
+                .help("Columns identifying a row, such as ID, or Case Number and Date together");
         parser.addArgument("-ex", "--exclude")
-                .type(new PossibleColumn())
                 .nargs("*")
-                .help("Excludes the columns when comparing two files. The first column (the primary key), ID, is not available");
+                .help("Excludes the columns when comparing two files. They are skipped by the parser and left out of the result. The key columns are not available");
+        parser.addArgument("-c", "--check")
+                .action(Arguments.storeTrue())
+                .help("Only checks whether the files have the same header and rows, in any order, and writes no result. "
+                        + "Exits with 0 if they do, 1 if they don't and 2 on errors");
+        parser.addArgument("-f", "--format")
+                .choices(FORMAT_ROWS, FORMAT_CELLS, FORMAT_BINARY)
+                .setDefault(FORMAT_ROWS)
+                .help("Result format. rows writes whole differing rows, cells writes added and removed keys and the changed cells only, "
+                        + "binary writes the cells as length-prefixed values. The legacy mode writes rows only");
+        parser.addArgument("-m", "--mode")
+                .choices(MODE_FINGERPRINT, MODE_SORT_MERGE, MODE_PARTITIONED, MODE_MERGE_JOIN, MODE_LEGACY)
+                .setDefault(MODE_FINGERPRINT)
+                .help("Diff engine. fingerprint reads each file once, sortmerge sorts keys on disk for files larger than memory, "
+                        + "partitioned diffs hash buckets on all cores, mergejoin streams files sorted by ID in lockstep, "
+                        + "legacy runs the original four passes");
+        parser.addArgument("-t", "--threads")
+                .type(Integer.class)
+                .setDefault(Runtime.getRuntime().availableProcessors())
+                .help("Number of worker threads. Files are parsed in parallel byte ranges in the fingerprint mode");
+        parser.addArgument("--partitions")
+                .type(Integer.class)
+                .setDefault(0)
+                .help("Number of hash buckets in the partitioned mode. Four per thread by default");
+        parser.addArgument("--assume-sorted")
+                .action(Arguments.storeTrue())
+                .help("In the mergejoin mode, writes differences as they are found instead of checking the order first. "
+                        + "Unsorted files fail instead of falling back to the fingerprint mode");
+        parser.addArgument("--memory-budget")
+                .type(Integer.class)
+                .setDefault((int) (SortMergeDiffEngine.DEFAULT_MEMORY_BUDGET >> 20))
+                .help("Megabytes of keys buffered in memory before they are spilled to disk in the sortmerge mode");
+        parser.addArgument("--snapshot")
+                .action(Arguments.storeTrue())
+                .help("In the fingerprint mode, saves the index of the smaller file in a snapshot, and loads it instead of indexing "
+                        + "the file again while the file doesn't change");
+        parser.addArgument("--skip-identical")
+                .action(Arguments.storeTrue())
+                .help("In the fingerprint mode, finds byte ranges both files have in common before parsing, and diffs the other "
+                        + "ranges only. IDs need to be unique in each file");
+        parser.addArgument("--off-heap")
+                .action(Arguments.storeTrue())
+                .help("In the fingerprint mode, keeps the index of the smaller file in direct memory instead of the heap, "
+                        + "which is limited by -XX:MaxDirectMemorySize. Snapshots are not used then");
+        parser.addArgument("--snapshot-dir")
+                .help("Directory of the index snapshots. Next to the indexed file by default");
+        parser.addArgument("--temp-dir")
+                .help("Directory of the temporary files. The system temporary directory by default");
+        parser.addArgument("--filter-memory")
+                .type(Integer.class)
+                .setDefault(0)
+                .help("In the legacy mode, keeps a Bloom filter of the keys of the smaller file in at most the given megabytes "
+                        + "instead of the keys themselves. Only the target rows passing the filter are kept and verified. "
+                        + "It bounds the memory of the smaller file only: the keys of the target rows passing the "
+                        + "filter are kept in memory, which is about all of them where the files mostly share their keys");
+        parser.addArgument("--schema")
+                .help("File of column types, a column per line: name = numeric [tolerance], name = datetime [format | ...], "
+                        + "name = text [ignore-case] [ignore-space] or name = exact. Changed rows whose values are all "
+                        + "equivalent by their types are not differences, and the cells format leaves out equivalent cells. "
+                        + "Values are only parsed where their text differs");
+        parser.addArgument("--batch")
+                .action(Arguments.storeTrue())
+                .help("Compares many pairs of files, listed in a manifest with a pair per line, file1,file2[,result], or paired "
+                        + "by name in two directories. Pairs are compared by the worker threads, one thread each, and every pair "
+                        + "writes its result file into the output directory along with " + BatchRunner.SUMMARY_FILE_NAME + ". "
+                        + "Exits with 0 if all pairs are equal, 1 if any differ and 2 if any fail");
+        parser.addArgument("--batch-memory")
+                .type(Integer.class)
+                .setDefault(0)
+                .help("In the batch mode, megabytes of indexes shared by the pairs compared at the same time. A pair starts "
+                        + "once the index estimated from the size of its smaller file fits. Three quarters of the heap by default");
+        parser.addArgument("--baseline")
+                .help("Compares every file against this baseline, which is indexed once. Candidates are walked through against "
+                        + "the index by the worker threads at the same time, and each writes its result into the output directory "
+                        + "along with " + BaselineRunner.SUMMARY_FILE_NAME + ", which counts the added, removed and changed rows of "
+                        + "every candidate. Rows only in a candidate are added. Runs the fingerprint mode. Exits like the batch mode");
+        parser.addArgument("--serve")
+                .action(Arguments.storeTrue())
+                .help("Runs a server on the local port which takes comparisons from " + DiffClient.class.getName() + ", with the "
+                        + "same arguments as the command line, so they don't pay for the start of a JVM. Indexes of recently "
+                        + "compared files are kept in memory while the files don't change. Up to --threads comparisons run at "
+                        + "the same time. Clients authenticate with a secret the server writes into a file in "
+                        + DiffClient.DEFAULT_SECRET_DIRECTORY + " readable by its user only");
+        parser.addArgument("--port")
+                .type(Integer.class)
+                .setDefault(DiffClient.DEFAULT_PORT)
+                .help("Port of the server, on the loopback interface only");
+        parser.addArgument("--cache-memory")
+                .type(Integer.class)
+                .setDefault(0)
+                .help("Megabytes of indexes kept by the server. A quarter of the heap by default");
+        parser.addArgument("--metrics")
+                .help("Writes a JSON summary of the run into the file: rows and bytes per second, time spent in parsing, lookups, "
+                        + "hashing and writing, the size of the index and the numbers of added, removed and changed rows");
+        parser.addArgument("--jmx")
+                .action(Arguments.storeTrue())
+                .help("Publishes the metrics of the run as the MBean " + RunMetrics.OBJECT_NAME + " while it runs");
         return parser;
     }
 
     /**
-     * It walks through the target file with the indexedIdList, and makes another list containing common IDs, which is
-     * used to find rows of the index file. It also sends rows not in the indexedIdList to the result file, and saves
-     * common rows matching with the common IDs into a common_rows_target.txt file. These rows are compared with those
-     * of the indexed file, and saved in the result file if they are not same.
+     * It walks through the target file with the indexedIdList, and makes a list of the common IDs with the byte offsets
+     * of their rows, which is used to find rows of the index file. It also sends rows not in the indexedIdList to the
+     * result file. The common rows are fetched again by their offsets and compared with those of the index file, and
+     * saved in the result file if they are not same. A common ID repeated in the target file keeps its first row.
      *
      * @param targetFileName
+     * @param csvParser
      * @param csvWriter
      * @param indexedIdList
-     * @return
+     * @return the common IDs
      * @throws IOException
      */
-    public ArrayList<String> readTargetAndWriteAsync(String targetFileName, String commonRowsFile, CsvParser csvParser, CsvWriter csvWriter, ArrayList<String> indexedIdList) throws IOException {
-        ExecutorService executor = Executors.newFixedThreadPool(10);
-        ArrayList<String> commonIdList = new ArrayList<String>(10000);
+    public CommonRows readTargetAndWriteAsync(String targetFileName, CsvParser csvParser, CsvWriter csvWriter, IdIndex indexedIdList) throws IOException {
+        return readTarget(targetFileName, csvParser, csvWriter, indexedIdList, null);
+    }
+
+    /**
+     * It walks through the target file with a filter of the keys of the index file. Rows the filter rules out are sent
+     * to the result file. The others are kept as candidates, to be verified by
+     * {@link #verifyCandidates(String, CsvWriter, CommonRows)} once the index file is read. The candidates are held in
+     * memory, so their number, not the filter, bounds the memory of the pass.
+     *
+     * @param targetFileName
+     * @param csvParser
+     * @param csvWriter
+     * @param filter
+     * @return the IDs of the candidates
+     * @throws IOException
+     */
+    public CommonRows readTargetWithFilter(String targetFileName, CsvParser csvParser, CsvWriter csvWriter, BloomFilter filter) throws IOException {
+        return readTarget(targetFileName, csvParser, csvWriter, null, filter);
+    }
+
+    private CommonRows readTarget(String targetFileName, CsvParser csvParser, CsvWriter csvWriter, IdIndex indexedIdList, BloomFilter filter) throws IOException {
+        CommonRows commonRows = new CommonRows(indexedIdList != null ? indexedIdList.size() : 1024);
 
         boolean header = true;
-        InputStream is = null;
-        InputStreamReader isr = null;
-        BufferedReader br = null;
-        String[] parsedHeader = null;
-        BufferedWriter bw = new BufferedWriter(new FileWriter(commonRowsFile));
+        RecordReader reader = null;
+        OutputPipeline resultOutput = new OutputPipeline(OutputPipeline.csvWriterSink(csvWriter));
+        metrics.watch(resultOutput);
+        RowSampler sampler = metrics.newSampler();
+        KeyEncoder key = null;
+        long added = 0;
+        long duplicates = 0;
         try {
-            is = new FileInputStream(targetFileName);
-            isr = new InputStreamReader(is);
-            br = new BufferedReader(isr);
+            reader = new RecordReader(new FileInputStream(targetFileName), CsvScanner.of(csvParserSettings));
 
             String stringLine = null;
             Record rowRecord = null;
             log.debug("Processing: " + targetFileName);
-            while ((stringLine = br.readLine()) != null) {
+            while ((stringLine = reader.readRecord()) != null) {
                 if (header) {
                     header = false;
                     csvParser.parseLine(stringLine);
+                    key = newKeyEncoder(stringLine, targetFileName);
                     continue;
                 }
 
@@ -108,67 +350,80 @@ public class CsvValidator {
                     throw new ValidatorException("rowRecord is null");
                 }
 
-                String id = rowRecord.getString("ID");
-                if (indexedIdList.contains(id)) {
-                    commonIdList.add(id);
-                    Runnable commonRowWriterWorker = new CommonRowWriterRunner(bw, Arrays.toString(rowRecord.getValues()));
-                    executor.execute(commonRowWriterWorker);
+                key.encode(rowRecord.getValues());
+                sampler.mark(RunMetrics.Phase.PARSING);
+                boolean common = filter != null
+                        ? filter.mightContain(key.getBytes(), 0, key.getLength())
+                        : indexedIdList.indexOf(key.getBytes(), 0, key.getLength()) >= 0;
+                if (common) {
+                    if (commonRows.addTarget(key.getBytes(), 0, key.getLength(), reader.getRecordOffset()) < 0) {
+                        duplicates++;
+                    }
+                    sampler.mark(RunMetrics.Phase.LOOKUP);
                 } else {
-                    log.debug(Arrays.toString(rowRecord.getValues()));
-                    Runnable resultWriterWorker = new CsvWriterForStringRunner(csvWriter, Arrays.toString(rowRecord.getValues()));
-                    executor.execute(resultWriterWorker);
+                    sampler.mark(RunMetrics.Phase.LOOKUP);
+                    added++;
+                    resultOutput.write(toResultRow(Arrays.toString(rowRecord.getValues())));
                 }
+                sampler.mark(RunMetrics.Phase.WRITING);
+                sampler.endRow();
             }
-            executor.shutdown();
-            while (!executor.isTerminated()) {
+            resultOutput.close();
+            sampler.flush();
+            metrics.addBytes(new File(targetFileName).length());
+            metrics.addAdded(added);
+            if (filter != null) {
+                metrics.addFilterResults(added, 0);
+            }
+            if (duplicates > 0) {
+                log.warn(String.format("%d rows having duplicate IDs are ignored in %s", duplicates, targetFileName));
             }
             log.debug("Processing done: " + targetFileName);
 
-        } catch (IOException | ValidatorException e) {
-            System.exit(1);
+        } catch (ValidatorException e) {
+            throw new IOException(e.getMessage(), e);
         } finally {
+            resultOutput.abort();
             try {
-                if (bw != null) bw.close();
-                if (is != null) is.close();
-                if (isr != null) isr.close();
-                if (br != null) br.close();
+                if (reader != null) reader.close();
             } catch (IOException e) {
                 // closing
             }
         }
-        return commonIdList;
+        return commonRows;
     }
 
     /**
-     * It walks through the index file with the list of the common IDs, and sends rows not in the commonIdList
-     * to the result file, and saves common rows matching with the common IDs into a common_rows_index.txt file.
-     * These rows are compared with those of the target file, and saved in the result file if they are not same.
+     * It walks through the index file with the list of the common IDs, and sends rows not in the commonRows to the
+     * result file. The offsets of the rows of the common IDs are added to the commonRows, so these rows can be compared
+     * with those of the target file. A common ID repeated in the index file keeps its first row.
      *
      * @param indexFileName
+     * @param csvParser
      * @param csvWriter
-     * @param commonIdList
+     * @param commonRows
      * @throws IOException
      */
-    public void readIndexAndWriteAsync(String indexFileName, String commonRowsFile, CsvParser csvParser, CsvWriter csvWriter, ArrayList<String> commonIdList) throws IOException {
-        ExecutorService executor = Executors.newFixedThreadPool(10);
-
+    public void readIndexAndWriteAsync(String indexFileName, CsvParser csvParser, CsvWriter csvWriter, CommonRows commonRows) throws IOException {
         boolean header = true;
-        InputStream is = null;
-        InputStreamReader isr = null;
-        BufferedReader br = null;
-        BufferedWriter bw = new BufferedWriter(new FileWriter(commonRowsFile));
+        RecordReader reader = null;
+        OutputPipeline resultOutput = new OutputPipeline(OutputPipeline.csvWriterSink(csvWriter));
+        metrics.watch(resultOutput);
+        RowSampler sampler = metrics.newSampler();
+        KeyEncoder key = null;
+        long removed = 0;
+        long duplicates = 0;
         try {
-            is = new FileInputStream(indexFileName);
-            isr = new InputStreamReader(is);
-            br = new BufferedReader(isr);
+            reader = new RecordReader(new FileInputStream(indexFileName), CsvScanner.of(csvParserSettings));
 
             String stringLine = null;
             Record rowRecord = null;
             log.debug("Processing: " + indexFileName);
-            while ((stringLine = br.readLine()) != null) {
+            while ((stringLine = reader.readRecord()) != null) {
                 if (header) {
                     header = false;
                     csvParser.parseLine(stringLine);
+                    key = newKeyEncoder(stringLine, indexFileName);
                     continue;
                 }
 
@@ -177,28 +432,37 @@ public class CsvValidator {
                     throw new ValidatorException("rowRecord is null");
                 }
 
-                String id = rowRecord.getString("ID");
-                if (commonIdList.contains(id)) {
-                    Runnable commonRowWriterWorker = new CommonRowWriterRunner(bw, Arrays.toString(rowRecord.getValues()));
-                    executor.execute(commonRowWriterWorker);
+                key.encode(rowRecord.getValues());
+                sampler.mark(RunMetrics.Phase.PARSING);
+                int ordinal = commonRows.indexOf(key.getBytes(), 0, key.getLength());
+                if (ordinal >= 0) {
+                    if (!commonRows.setIndexOffset(ordinal, reader.getRecordOffset())) {
+                        duplicates++;
+                    }
+                    sampler.mark(RunMetrics.Phase.LOOKUP);
                 } else {
-                    Runnable resultWriterWorker = new CsvWriterForStringRunner(csvWriter, Arrays.toString(rowRecord.getValues()));
-                    executor.execute(resultWriterWorker);
+                    sampler.mark(RunMetrics.Phase.LOOKUP);
+                    removed++;
+                    resultOutput.write(toResultRow(Arrays.toString(rowRecord.getValues())));
                 }
+                sampler.mark(RunMetrics.Phase.WRITING);
+                sampler.endRow();
             }
-            executor.shutdown();
-            while (!executor.isTerminated()) {
+            resultOutput.close();
+            sampler.flush();
+            metrics.addBytes(new File(indexFileName).length());
+            metrics.addRemoved(removed);
+            if (duplicates > 0) {
+                log.warn(String.format("%d rows having duplicate IDs are ignored in %s", duplicates, indexFileName));
             }
             log.debug("Processing done: " + indexFileName);
 
-        } catch (IOException | ValidatorException e) {
-            System.exit(1);
+        } catch (ValidatorException e) {
+            throw new IOException(e.getMessage(), e);
         } finally {
+            resultOutput.abort();
             try {
-                if (bw != null) bw.close();
-                if (is != null) is.close();
-                if (isr != null) isr.close();
-                if (br != null) br.close();
+                if (reader != null) reader.close();
             } catch (IOException e) {
                 // closing
             }
@@ -206,99 +470,209 @@ public class CsvValidator {
     }
 
     /**
-     * It compares common rows in two files and saves the differences in the result file
+     * It verifies the candidates of the filtered target pass against the rows found in the index file. Candidates
+     * without a row in the index file are false positives of the filter: their rows are fetched from the target file
+     * and sent to the result file as added rows.
      *
+     * @param targetFileName
      * @param csvWriter
+     * @param commonRows     the candidates of {@link #readTargetWithFilter}, after the pass over the index file
+     * @return the number of false positives
      * @throws IOException
+     * @throws ValidatorException
      */
-    public boolean compareCommonRows(String commonRowsFile1, String commonRowsFile2, CsvWriter csvWriter, boolean fromResources) throws IOException {
-        boolean result = true;
-        ExecutorService executor = Executors.newFixedThreadPool(10);
-
-        BufferedReader br1 = null;
-        BufferedReader br2 = null;
-        InputStream is1 = null;
-        InputStream is2 = null;
+    public long verifyCandidates(String targetFileName, CsvWriter csvWriter, CommonRows commonRows) throws IOException, ValidatorException {
+        RecordFetcher targetFetcher = new RecordFetcher(new File(targetFileName), csvParserSettings, readHeaderRecord(targetFileName));
+        OutputPipeline resultOutput = new OutputPipeline(OutputPipeline.csvWriterSink(csvWriter));
+        metrics.watch(resultOutput);
+        long falsePositives = 0;
         try {
-            if (fromResources) {
-                is1 = Thread.currentThread().getContextClassLoader().getResourceAsStream(commonRowsFile1);
-                is2 = Thread.currentThread().getContextClassLoader().getResourceAsStream(commonRowsFile2);
-            } else {
-                is1 = new FileInputStream(commonRowsFile1);
-                is2 = new FileInputStream(commonRowsFile2);
+            // Ordinals follow the order of the target file, so the offsets are ascending
+            for (int ordinal = 0; ordinal < commonRows.size(); ordinal++) {
+                if (commonRows.getIndexOffset(ordinal) < 0) {
+                    falsePositives++;
+                    resultOutput.write(toResultRow(Arrays.toString(targetFetcher.fetch(commonRows.getTargetOffset(ordinal)))));
+                }
             }
+            resultOutput.close();
+        } finally {
+            resultOutput.abort();
+            targetFetcher.close();
+        }
+        metrics.addAdded(falsePositives);
+        metrics.addFilterResults(0, falsePositives);
+        log.debug(String.format("%d of %d candidates are false positives", falsePositives, commonRows.size()));
+        return falsePositives;
+    }
 
-            // Create the object of BufferedReader object
-            br1 = new BufferedReader(new InputStreamReader(is1));
-            br2 = new BufferedReader(new InputStreamReader(is2));
+    /**
+     * It compares the rows of the common IDs in two files and saves the differences in the result file. The rows are
+     * fetched by their offsets in batches. Within a batch, each file is read in ascending offset order with positional
+     * reads, and rows are paired by their IDs, so the files may be in different orders. If both files have the same
+     * header, rows whose text is the same are equal without being parsed. Parsed rows which differ are compared again
+     * with the column schema.
+     *
+     * @param indexFileName
+     * @param targetFileName
+     * @param csvWriter
+     * @param commonRows     the common IDs, after the pass over the index file
+     * @return true if all common rows are the same
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public boolean compareCommonRows(String indexFileName, String targetFileName, CsvWriter csvWriter, final CommonRows commonRows) throws IOException, ValidatorException {
+        boolean result = true;
+        RowSampler sampler = metrics.newSampler();
+        long changed = 0;
+        long bytes = 0;
+        String indexHeaderRecord = readHeaderRecord(indexFileName);
+        String targetHeaderRecord = readHeaderRecord(targetFileName);
+        boolean sameHeaders = indexHeaderRecord.equals(targetHeaderRecord);
+        RowComparator comparator = columnSchema.resolve(ParsingRecordCursor.parseHeader(csvParserSettings, indexHeaderRecord));
+        RecordFetcher indexFetcher = new RecordFetcher(new File(indexFileName), csvParserSettings, indexHeaderRecord);
+        RecordFetcher targetFetcher = new RecordFetcher(new File(targetFileName), csvParserSettings, targetHeaderRecord);
+        OutputPipeline resultOutput = new OutputPipeline(OutputPipeline.csvWriterSink(csvWriter));
+        metrics.watch(resultOutput);
+        try {
+            log.debug("Comparing two files");
+            for (int start = 0; start < commonRows.size(); start += FETCH_BATCH_SIZE) {
+                int end = Math.min(start + FETCH_BATCH_SIZE, commonRows.size());
+                Integer[] byIndexOffset = new Integer[end - start];
+                for (int i = 0; i < byIndexOffset.length; i++) {
+                    byIndexOffset[i] = start + i;
+                }
 
-            String stringLine1 = br1.readLine();
-            String stringLine2 = br2.readLine();
+                // Fetches the rows of the index file in offset order, so the file is read forward
+                Arrays.sort(byIndexOffset, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        long offsetA = commonRows.getIndexOffset(a);
+                        long offsetB = commonRows.getIndexOffset(b);
+                        return offsetA < offsetB ? -1 : (offsetA == offsetB ? 0 : 1);
+                    }
+                });
+                String[] indexRecords = new String[byIndexOffset.length];
+                for (Integer ordinal : byIndexOffset) {
+                    long offset = commonRows.getIndexOffset(ordinal);
+                    if (offset >= 0) {
+                        indexRecords[ordinal - start] = indexFetcher.fetchRecord(offset);
+                        bytes += indexFetcher.getLastRecordLength();
+                    }
+                }
 
-            log.debug("Comparing two files");
-            while ((stringLine1 != null || (stringLine2 != null))) {
-                if (stringLine1 == null || stringLine2 == null) {
-                    if (stringLine1 != null) {
-                        result = false;
-                        Runnable resultWriterWorker = new CsvWriterForStringRunner(csvWriter, stringLine1);
-                        executor.execute(resultWriterWorker);
-                    } else {
+                // Ordinals follow the order of the target file
+                for (int ordinal = start; ordinal < end; ordinal++) {
+                    String indexRecord = indexRecords[ordinal - start];
+                    if (indexRecord == null) {
+                        // A candidate of the filter which is not in the index file
+                        continue;
+                    }
+                    String targetRecord = targetFetcher.fetchRecord(commonRows.getTargetOffset(ordinal));
+                    bytes += targetFetcher.getLastRecordLength();
+                    if (sameHeaders && indexRecord.equals(targetRecord)) {
+                        sampler.mark(RunMetrics.Phase.PARSING);
+                        sampler.endRow();
+                        continue;
+                    }
+                    String[] indexValues = indexFetcher.parse(indexRecord);
+                    String[] targetValues = targetFetcher.parse(targetRecord);
+                    String indexRow = Arrays.toString(indexValues);
+                    String targetRow = Arrays.toString(targetValues);
+                    sampler.mark(RunMetrics.Phase.PARSING);
+                    if (!indexRow.equals(targetRow) && !comparator.equivalent(indexValues, targetValues)) {
+                        changed++;
                         result = false;
-                        Runnable resultWriterWorker = new CsvWriterForStringRunner(csvWriter, stringLine2);
-                        executor.execute(resultWriterWorker);
+                        resultOutput.write(toResultRow(indexRow));
+                        resultOutput.write(toResultRow(targetRow));
                     }
-                } else if (!stringLine1.equals(stringLine2)) {
-                    result = false;
-                    Runnable resultWriterWorker = new CsvWriterForStringRunner(csvWriter, stringLine1, stringLine2);
-                    executor.execute(resultWriterWorker);
-                } else {
-                    // Do nothing
+                    sampler.mark(RunMetrics.Phase.WRITING);
+                    sampler.endRow();
                 }
-
-                stringLine1 = br1.readLine();
-                stringLine2 = br2.readLine();
-            }
-            executor.shutdown();
-            while (!executor.isTerminated()) {
             }
+            resultOutput.close();
+            sampler.flush();
+            metrics.addBytes(bytes);
+            metrics.addChanged(changed);
             log.debug("Comparing done");
-
-        } catch (NullPointerException | IOException e) {
-            log.error(e.getMessage(), Arrays.toString(e.getStackTrace()));
-            System.exit(1);
         } finally {
-            try {
-                if (br1 != null) br1.close();
-                if (br2 != null) br2.close();
-                if (is1 != null) is1.close();
-                if (is2 != null) is2.close();
-            } catch (IOException e) {
-                // closing
-            }
+            resultOutput.abort();
+            indexFetcher.close();
+            targetFetcher.close();
         }
         return result;
     }
 
-    public void compareCommonRows(String commonRowsFile1, String commonRowsFile2, CsvWriter csvWriter) throws IOException {
-        compareCommonRows(commonRowsFile1, commonRowsFile2, csvWriter, false);
+    /**
+     * @param fileName
+     * @return the first record of the file
+     * @throws IOException
+     * @throws ValidatorException if the file is empty
+     */
+    private String readHeaderRecord(String fileName) throws IOException, ValidatorException {
+        RecordReader reader = new RecordReader(new FileInputStream(fileName), CsvScanner.of(csvParserSettings));
+        try {
+            String headerRecord = reader.readRecord();
+            if (headerRecord == null) {
+                throw new ValidatorException(fileName + " is empty");
+            }
+            return headerRecord;
+        } finally {
+            reader.close();
+        }
     }
 
     /**
-     * It creates a list of IDs in the index file. While walking though the smaller file, it saves the whole IDs in the
-     * file
+     * It creates a hashed index of IDs in the index file. While walking though the smaller file, it saves the whole IDs
+     * in the file. Lookups in the index take constant time, and numeric IDs are kept as primitive longs. The ID of a
+     * row is the value of its key columns.
      *
      * @param indexFileName
      * @param csvParser
      * @param csvWriter
      * @return
      * @throws IOException
+     * @throws ValidatorException if a key column is not in the header
      */
-    public ArrayList<String> getIndexedIdList(String indexFileName, CsvParser csvParser, CsvWriter csvWriter, boolean fromResources) throws IOException {
-        ArrayList<String> indexedIdList = new ArrayList<String>();
+    public IdIndex getIndexedIdList(String indexFileName, CsvParser csvParser, CsvWriter csvWriter, boolean fromResources) throws IOException, ValidatorException {
+        IdIndex indexedIdList = new IdIndex();
+        indexKeys(indexFileName, csvParser, csvWriter, fromResources, indexedIdList, null);
+        metrics.setIndex(indexedIdList.size(), indexedIdList.memoryUsage());
+        return indexedIdList;
+    }
+
+    public IdIndex getIndexedIdList(String indexFileName, CsvParser csvParser, CsvWriter csvWriter) throws IOException, ValidatorException {
+        return getIndexedIdList(indexFileName, csvParser, csvWriter, false);
+    }
+
+    /**
+     * It creates a filter of the keys in the index file, in place of {@link #getIndexedIdList}. The filter takes at
+     * most the given memory however many keys there are, and rules out most of the keys which are not in the file.
+     *
+     * @param indexFileName
+     * @param csvParser
+     * @param csvWriter
+     * @param memoryBytes   the memory ceiling of the filter
+     * @return the filter
+     * @throws IOException
+     * @throws ValidatorException if a key column is not in the header
+     */
+    public BloomFilter getIndexedKeyFilter(String indexFileName, CsvParser csvParser, CsvWriter csvWriter, long memoryBytes) throws IOException, ValidatorException {
+        // Rows of the sample files are about 250 bytes long
+        BloomFilter filter = new BloomFilter(memoryBytes, new File(indexFileName).length() / 250);
+        indexKeys(indexFileName, csvParser, csvWriter, false, null, filter);
+        metrics.setFilter(filter.memoryUsage(), filter.expectedFalsePositiveRate());
+        log.debug(String.format("Key filter: %d keys, %d bytes, %d hashes, %.4f%% expected false positives", filter.getInsertions(),
+                filter.memoryUsage(), filter.getHashes(), filter.expectedFalsePositiveRate() * 100));
+        return filter;
+    }
+
+    /**
+     * It adds the keys of the index file to an index or to a filter
+     */
+    private void indexKeys(String indexFileName, CsvParser csvParser, CsvWriter csvWriter, boolean fromResources, IdIndex indexedIdList, BloomFilter filter) throws IOException, ValidatorException {
 
         InputStream is = null;
-        InputStreamReader isr = null;
-        BufferedReader br = null;
+        RecordReader reader = null;
         boolean header = true;
 
         if (fromResources) {
@@ -307,16 +681,18 @@ public class CsvValidator {
             is = new FileInputStream(indexFileName);
         }
 
-        isr = new InputStreamReader(is);
-        br = new BufferedReader(isr);
+        reader = new RecordReader(is, CsvScanner.of(csvParserSettings));
         String stringLine = null;
         String[] parsedLine = null;
+        KeyEncoder key = null;
+        RowSampler sampler = metrics.newSampler();
 
         log.debug("Indexing: " + indexFileName);
-        while ((stringLine = br.readLine()) != null) {
+        while ((stringLine = reader.readRecord()) != null) {
             if (header) {
                 header = false;
                 csvParser.parseLine(stringLine);
+                key = newKeyEncoder(stringLine, indexFileName);
 
                 // Saves the header in the result file
                 csvWriter.writeRow(stringLine);
@@ -324,37 +700,114 @@ public class CsvValidator {
             }
 
             parsedLine = csvParser.parseLine(stringLine);
-            indexedIdList.add(parsedLine[0]);
+            sampler.mark(RunMetrics.Phase.PARSING);
+            key.encode(parsedLine);
+            if (filter != null) {
+                filter.add(key.getBytes(), 0, key.getLength());
+            } else {
+                indexedIdList.add(key.getBytes(), 0, key.getLength());
+            }
+            sampler.mark(RunMetrics.Phase.LOOKUP);
+            sampler.endRow();
         }
+        sampler.flush();
+        metrics.addBytes(reader.getPosition());
         log.debug("Indexing done: " + indexFileName);
         try {
-            if (is != null) is.close();
-            if (isr != null) isr.close();
-            if (br != null) br.close();
+            reader.close();
         } catch (IOException e) {
             // closing
         }
-
-        return indexedIdList;
     }
 
-    public ArrayList<String> getIndexedIdList(String indexFileName, CsvParser csvParser, CsvWriter csvWriter) throws IOException {
-        return getIndexedIdList(indexFileName, csvParser, csvWriter, false);
+    public static void main(String[] args) {
+        if (Arrays.asList(args).contains("--serve")) {
+            System.exit(serve(args));
+        }
+        System.exit(run(args, null, null, null));
     }
 
-    public static void main(String[] args) {
+    /**
+     * It runs a comparison as the command line would, and returns its exit status instead of exiting
+     *
+     * @param args             the arguments of the command line
+     * @param workingDirectory the directory relative paths are resolved against, or null for the current directory
+     * @param indexCache       a cache of the indexes of the fingerprint mode, or null. The server passes its cache, and
+     *                         its requests can't use --jmx, whose MBean has one name per JVM
+     * @param err              the writer of errors, or null to print usage errors on the console and log the others
+     * @return the exit status
+     */
+    public static int run(String[] args, File workingDirectory, IndexCache indexCache, PrintWriter err) {
         // Gets arguments
         ArgumentParser parser = getArgParser();
         ArgParserOption opt = new ArgParserOption();
         try {
             parser.parseArgs(args, opt);
+            if (opt.serve) {
+                throw new ArgumentParserException("The server is started from the command line only", parser);
+            }
+            if (opt.jmx && indexCache != null) {
+                throw new ArgumentParserException("--jmx can't be used in requests to the server, which run in the same JVM", parser);
+            }
+            if (opt.baseline != null) {
+                if (opt.fileName.isEmpty()) {
+                    throw new ArgumentParserException("The baseline is compared with at least one file", parser);
+                }
+                if (opt.batch || opt.check || opt.skipIdentical || !MODE_FINGERPRINT.equals(opt.mode) || opt.metrics != null || opt.jmx) {
+                    throw new ArgumentParserException("The baseline runs the fingerprint mode, without --batch, --check, --skip-identical, --metrics or --jmx", parser);
+                }
+            } else if (opt.batch) {
+                if (opt.fileName.isEmpty() || opt.fileName.size() > 2) {
+                    throw new ArgumentParserException("The batch mode takes a manifest or two directories", parser);
+                }
+                if (opt.check || MODE_LEGACY.equals(opt.mode) || opt.metrics != null || opt.jmx) {
+                    throw new ArgumentParserException("The batch mode can't be used with --check, --metrics, --jmx or the legacy mode", parser);
+                }
+            } else if (opt.fileName.size() != 2) {
+                throw new ArgumentParserException("Two files are compared", parser);
+            }
+            if (opt.schema != null && opt.check) {
+                throw new ArgumentParserException("The schema can't be used with --check", parser);
+            }
+            KeyColumns keyColumns = new KeyColumns(opt.keyColumns);
+            if (opt.columnNames != null) {
+                for (String columnName : opt.columnNames) {
+                    if (keyColumns.contains(columnName)) {
+                        throw new ArgumentParserException("The key column " + columnName + " cannot be excluded", parser);
+                    }
+                }
+            }
         } catch (ArgumentParserException e) {
-            parser.handleError(e);
-            parser.printHelp();
-            System.exit(1);
+            if (err == null) {
+                parser.handleError(e);
+                parser.printHelp();
+            } else {
+                err.println(e.getMessage());
+                parser.printUsage(err);
+            }
+            return EXIT_ERROR;
+        }
+        if (opt.out == null) {
+            opt.out = opt.batch || opt.baseline != null ? "." : RESULT_FILE_NAME;
+        }
+        if (workingDirectory != null) {
+            opt.resolvePaths(workingDirectory);
         }
 
+        KeyColumns keyColumns = new KeyColumns(opt.keyColumns);
+        ColumnSchema schema = ColumnSchema.EXACT;
+        if (opt.schema != null) {
+            try {
+                schema = ColumnSchema.read(new File(opt.schema));
+            } catch (ValidatorException e) {
+                reportError(err, e);
+                return EXIT_ERROR;
+            }
+        }
         CsvValidator cv = new CsvValidator();
+        cv.excludeColumns(opt.columnNames);
+        cv.setKeyColumns(keyColumns);
+        cv.setColumnSchema(schema);
 
         // Init CSV writer
         CsvWriter csvWriter = null;
@@ -363,45 +816,373 @@ public class CsvValidator {
         CsvParserSettings csvParserSettings = cv.csvParserSettings;
         CsvParser csvParser = new CsvParser(csvParserSettings);
 
+        if (opt.check) {
+            return check(csvParserSettings, opt.fileName.get(0), opt.fileName.get(1), opt.threads, err);
+        }
+        if (opt.baseline != null) {
+            return compareBaseline(opt, csvParserSettings, csvWriterSettings, keyColumns, schema, indexCache, err);
+        }
+        if (opt.batch) {
+            return batch(opt, csvParserSettings, csvWriterSettings, keyColumns, schema, err);
+        }
+
         FileUtils fileUtils = null;
         OutputStream fos = null;
-        ArrayList<String> indexedIdList = null;
-        ArrayList<String> commonIdList = null;
+        IdIndex indexedIdList = null;
+        CommonRows commonRows = null;
+        RunMetrics metrics = RunMetrics.DISABLED;
         try {
             fileUtils = new FileUtils(opt.fileName.get(0), opt.fileName.get(1));
+            fileUtils.setDecompressionThreads(opt.threads);
+            if (opt.metrics != null || opt.jmx) {
+                metrics = new RunMetrics(opt.mode, fileUtils.getIndexFileName(), fileUtils.getTargetFileName());
+                if (opt.jmx) {
+                    metrics.register();
+                }
+            }
+            cv.setMetrics(metrics);
 
             fos = fileUtils.getFileOutputStream(opt.out);
             csvWriter = new CsvWriter(fos, "utf8", csvWriterSettings);
 
-            indexedIdList = cv.getIndexedIdList(fileUtils.getIndexFileName(), csvParser, csvWriter);
-            commonIdList = cv.readTargetAndWriteAsync(fileUtils.getTargetFileName(), fileUtils.getCommonRowsInTargetFile(), csvParser, csvWriter, indexedIdList);
-            cv.readIndexAndWriteAsync(fileUtils.getIndexFileName(), fileUtils.getCommonRowsInIndexFile(), csvParser, csvWriter, commonIdList);
-            cv.compareCommonRows(fileUtils.getCommonRowsInIndexFile(), fileUtils.getCommonRowsInTargetFile(), csvWriter);
+            if (opt.filterMemory > 0 && !MODE_LEGACY.equals(opt.mode)) {
+                throw new ValidatorException("The key filter is used by the legacy mode only");
+            }
+            if (MODE_LEGACY.equals(opt.mode)) {
+                if (!FORMAT_ROWS.equals(opt.format)) {
+                    throw new ValidatorException("The legacy mode writes rows only");
+                }
+                if (fileUtils.getLocalFile(fileUtils.getIndexFileName()) == null || fileUtils.getLocalFile(fileUtils.getTargetFileName()) == null) {
+                    throw new ValidatorException("The legacy mode reads uncompressed files only");
+                }
+                if (opt.filterMemory > 0) {
+                    BloomFilter filter = cv.getIndexedKeyFilter(fileUtils.getIndexFileName(), csvParser, csvWriter, (long) opt.filterMemory << 20);
+                    commonRows = cv.readTargetWithFilter(fileUtils.getTargetFileName(), csvParser, csvWriter, filter);
+                    cv.readIndexAndWriteAsync(fileUtils.getIndexFileName(), csvParser, csvWriter, commonRows);
+                    cv.verifyCandidates(fileUtils.getTargetFileName(), csvWriter, commonRows);
+                } else {
+                    indexedIdList = cv.getIndexedIdList(fileUtils.getIndexFileName(), csvParser, csvWriter);
+                    commonRows = cv.readTargetAndWriteAsync(fileUtils.getTargetFileName(), csvParser, csvWriter, indexedIdList);
+                    cv.readIndexAndWriteAsync(fileUtils.getIndexFileName(), csvParser, csvWriter, commonRows);
+                }
+                cv.compareCommonRows(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), csvWriter, commonRows);
+            } else {
+                DiffEngine engine = newEngine(opt, csvParserSettings, fileUtils, keyColumns, opt.threads, metrics);
+                DiffWriter writer = newWriter(opt.format, csvWriter, fos, schema, fileUtils.isSwapped());
+                try {
+                    DiffListener listener = newListener(writer, metrics, schema);
+                    if (indexCache != null && engine instanceof FingerprintDiffEngine && !opt.skipIdentical) {
+                        FingerprintDiffEngine fingerprintEngine = (FingerprintDiffEngine) engine;
+                        IndexedFile indexedFile = indexCache.get(fileUtils.getIndexFileName(), indexSettings(opt), fingerprintEngine);
+                        fingerprintEngine.diff(indexedFile, fileUtils.getTargetFileName(), listener);
+                    } else {
+                        engine.diff(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), listener);
+                    }
+                } finally {
+                    writer.close();
+                }
+            }
+            metrics.finish();
+            if (opt.metrics != null) {
+                metrics.writeSummary(new File(opt.metrics));
+            }
         } catch (IOException | ValidatorException e) {
+            reportError(err, e);
+            return EXIT_ERROR;
+        } finally {
+            if (csvWriter != null) {
+                csvWriter.close();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * It serves comparisons to {@link DiffClient}s on a local port until the process is stopped
+     *
+     * @param args
+     * @return the exit status if the server can't be started
+     */
+    private static int serve(String[] args) {
+        ArgumentParser parser = getArgParser();
+        ArgParserOption opt = new ArgParserOption();
+        try {
+            parser.parseArgs(args, opt);
+            if (!opt.fileName.isEmpty()) {
+                throw new ArgumentParserException("The server takes no files", parser);
+            }
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            return EXIT_ERROR;
+        }
+        long cacheMemory = opt.cacheMemory > 0 ? (long) opt.cacheMemory << 20 : Runtime.getRuntime().maxMemory() / 4;
+        final IndexCache indexCache = new IndexCache(cacheMemory);
+        DiffServer server = new DiffServer(opt.port, opt.threads, new DiffServer.Handler() {
+            @Override
+            public int handle(String[] args, File workingDirectory, PrintWriter err) {
+                return run(args, workingDirectory, indexCache, err);
+            }
+        });
+        try {
+            server.start();
+            server.serve();
+            return EXIT_EQUAL;
+        } catch (IOException e) {
             log.error(e);
-            System.exit(1);
+            return EXIT_ERROR;
         }
+    }
 
-        csvWriter.close();
+    /**
+     * @param opt
+     * @return the options an index of the fingerprint mode depends on
+     */
+    private static String indexSettings(ArgParserOption opt) {
+        return opt.keyColumns + "|" + opt.columnNames + "|" + opt.offHeap;
     }
 
+    private static void reportError(PrintWriter err, Exception e) {
+        log.error(e);
+        if (err != null) {
+            err.println(e);
+        }
+    }
 
     /**
-     * It is for guarding argument option -ex, which excludes columns when reading CSV files
-     * Currently, not used because the source code is not implemented yet.
+     * It makes the diff engine of the mode
+     *
+     * @param opt
+     * @param csvParserSettings
+     * @param fileUtils
+     * @param keyColumns
+     * @param threads
+     * @param metrics
+     * @return the engine
      */
-    private static class PossibleColumn implements ArgumentType<String> {
-        @Override
-        public String convert(ArgumentParser parser, Argument arg, String value) throws ArgumentParserException {
-            try {
-                String columnName = value;
-                if (columnName == null || "ID".equals(columnName)) {
-                    throw new IllegalArgumentException("The first column, ID, cannot be excluded");
+    private static DiffEngine newEngine(ArgParserOption opt, CsvParserSettings csvParserSettings, FileUtils fileUtils,
+                                        KeyColumns keyColumns, int threads, RunMetrics metrics) {
+        File tempDirectory = opt.tempDir == null ? null : new File(opt.tempDir);
+        if (MODE_SORT_MERGE.equals(opt.mode)) {
+            SortMergeDiffEngine sortMergeEngine = new SortMergeDiffEngine(csvParserSettings, fileUtils, (long) opt.memoryBudget << 20, tempDirectory);
+            sortMergeEngine.setKeyColumns(keyColumns);
+            return sortMergeEngine;
+        } else if (MODE_MERGE_JOIN.equals(opt.mode)) {
+            MergeJoinDiffEngine mergeJoinEngine = new MergeJoinDiffEngine(csvParserSettings, fileUtils, threads, tempDirectory);
+            mergeJoinEngine.setStreaming(opt.assumeSorted);
+            mergeJoinEngine.setKeyColumns(keyColumns);
+            return mergeJoinEngine;
+        } else if (MODE_PARTITIONED.equals(opt.mode)) {
+            PartitionedDiffEngine partitionedEngine = new PartitionedDiffEngine(csvParserSettings, fileUtils, threads, opt.partitions, tempDirectory);
+            partitionedEngine.setKeyColumns(keyColumns);
+            return partitionedEngine;
+        }
+        return newFingerprintEngine(opt, csvParserSettings, fileUtils, keyColumns, threads, metrics);
+    }
+
+    private static FingerprintDiffEngine newFingerprintEngine(ArgParserOption opt, CsvParserSettings csvParserSettings, FileUtils fileUtils,
+                                                              KeyColumns keyColumns, int threads, RunMetrics metrics) {
+        if (opt.snapshotDir != null) {
+            fileUtils.setSnapshotDirectory(new File(opt.snapshotDir));
+        }
+        FingerprintDiffEngine fingerprintEngine = new FingerprintDiffEngine(csvParserSettings, fileUtils, threads);
+        fingerprintEngine.setSnapshots(opt.snapshot);
+        fingerprintEngine.setSkipIdenticalBlocks(opt.skipIdentical);
+        fingerprintEngine.setOffHeap(opt.offHeap);
+        fingerprintEngine.setMetrics(metrics);
+        fingerprintEngine.setKeyColumns(keyColumns);
+        return fingerprintEngine;
+    }
+
+    /**
+     * It makes the writer of the result in the format, which the caller closes in a finally block. The cell formats
+     * have the first file on the left even if the second one is indexed.
+     *
+     * @param format
+     * @param csvWriter
+     * @param fos
+     * @param schema
+     * @param swapped   true if the second file is the index file
+     * @return the writer
+     */
+    private static DiffWriter newWriter(String format, CsvWriter csvWriter, OutputStream fos, ColumnSchema schema, boolean swapped) {
+        DiffWriter writer;
+        if (FORMAT_CELLS.equals(format)) {
+            writer = new CellDiffWriter(csvWriter, schema);
+        } else if (FORMAT_BINARY.equals(format)) {
+            writer = new BinaryCellDiffWriter(fos, schema);
+        } else {
+            return new ResultRowWriter(csvWriter);
+        }
+        return swapped ? new SwappedSidesWriter(writer) : writer;
+    }
+
+    /**
+     * It makes the listener passing the differences to the writer. Changed rows equivalent under a schema are dropped
+     * before they are counted and written.
+     *
+     * @param writer
+     * @param metrics
+     * @param schema
+     * @return the listener
+     */
+    private static DiffListener newListener(DiffWriter writer, RunMetrics metrics, ColumnSchema schema) {
+        DiffListener listener = writer;
+        if (metrics.isEnabled()) {
+            listener = new MeasuredListener(listener, metrics);
+        }
+        if (!schema.isExact()) {
+            listener = new ColumnSchemaFilter(listener, schema);
+        }
+        return listener;
+    }
+
+    /**
+     * @param listener a listener of {@link #newListener(DiffWriter, RunMetrics, ColumnSchema)}
+     * @return true if the listener dropped every difference as equivalent under the schema
+     */
+    private static boolean onlyEquivalentChanges(DiffListener listener) {
+        return listener instanceof ColumnSchemaFilter && !((ColumnSchemaFilter) listener).hasDifferences();
+    }
+
+    /**
+     * It compares the pairs of a batch, each on a single worker thread, and writes their results into the output
+     * directory
+     *
+     * @param opt
+     * @param csvParserSettings
+     * @param csvWriterSettings
+     * @param keyColumns
+     * @param schema
+     * @param err
+     * @return the exit status
+     */
+    private static int batch(final ArgParserOption opt, final CsvParserSettings csvParserSettings, final CsvWriterSettings csvWriterSettings,
+                             final KeyColumns keyColumns, final ColumnSchema schema, PrintWriter err) {
+        try {
+            File outDirectory = new File(opt.out);
+            List<BatchPair> pairs;
+            if (opt.fileName.size() == 1) {
+                pairs = BatchManifest.read(new File(opt.fileName.get(0)), outDirectory);
+            } else {
+                pairs = BatchManifest.pairDirectories(new File(opt.fileName.get(0)), new File(opt.fileName.get(1)), outDirectory);
+            }
+            long memory = opt.batchMemory > 0 ? (long) opt.batchMemory << 20 : Runtime.getRuntime().maxMemory() / 4 * 3;
+            BatchRunner runner = new BatchRunner(opt.threads, memory, new BatchRunner.PairComparator() {
+                @Override
+                public boolean compare(BatchPair pair, FileUtils fileUtils) throws IOException, ValidatorException {
+                    OutputStream fos = fileUtils.getFileOutputStream(pair.getResultFileName());
+                    CsvWriter csvWriter = new CsvWriter(fos, "utf8", csvWriterSettings);
+                    DiffWriter writer = null;
+                    try {
+                        DiffEngine engine = newEngine(opt, csvParserSettings, fileUtils, keyColumns, 1, RunMetrics.DISABLED);
+                        writer = newWriter(opt.format, csvWriter, fos, schema, fileUtils.isSwapped());
+                        DiffListener listener = newListener(writer, RunMetrics.DISABLED, schema);
+                        return engine.diff(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), listener)
+                                || onlyEquivalentChanges(listener);
+                    } finally {
+                        if (writer != null) {
+                            writer.close();
+                        }
+                        csvWriter.close();
+                    }
+                }
+            });
+            runner.run(pairs, outDirectory);
+            if (runner.getCount(BatchRunner.Status.FAILED) > 0) {
+                return EXIT_ERROR;
+            }
+            return runner.getCount(BatchRunner.Status.DIFFERENT) > 0 ? EXIT_DIFFERENT : EXIT_EQUAL;
+        } catch (IOException | ValidatorException e) {
+            reportError(err, e);
+            return EXIT_ERROR;
+        } catch (InterruptedException e) {
+            reportError(err, e);
+            Thread.currentThread().interrupt();
+            return EXIT_ERROR;
+        }
+    }
+
+    /**
+     * It indexes the baseline once and compares the candidates against it at the same time, and writes their results
+     * into the output directory
+     *
+     * @param opt
+     * @param csvParserSettings
+     * @param csvWriterSettings
+     * @param keyColumns
+     * @param schema
+     * @param indexCache a cache the index of the baseline is taken from, or null
+     * @param err
+     * @return the exit status
+     */
+    private static int compareBaseline(final ArgParserOption opt, CsvParserSettings csvParserSettings, final CsvWriterSettings csvWriterSettings,
+                                       KeyColumns keyColumns, final ColumnSchema schema, IndexCache indexCache, PrintWriter err) {
+        try {
+            File outDirectory = new File(opt.out);
+            List<BatchPair> pairs = BatchManifest.pairBaseline(opt.baseline, opt.fileName, outDirectory);
+            final FileUtils fileUtils = new FileUtils(opt.baseline, opt.baseline);
+            fileUtils.setDecompressionThreads(opt.threads);
+            FingerprintDiffEngine indexEngine = newFingerprintEngine(opt, csvParserSettings, fileUtils, keyColumns, opt.threads, RunMetrics.DISABLED);
+            IndexedFile baseline = indexCache == null ? indexEngine.buildIndex(opt.baseline)
+                    : indexCache.get(opt.baseline, indexSettings(opt), indexEngine);
+
+            // the threads are shared by the candidates compared at the same time
+            int workers = Math.max(1, Math.min(opt.threads, pairs.size()));
+            int candidateThreads = Math.max(1, opt.threads / workers);
+            fileUtils.setDecompressionThreads(candidateThreads);
+            final FingerprintDiffEngine engine = newFingerprintEngine(opt, csvParserSettings, fileUtils, keyColumns, candidateThreads, RunMetrics.DISABLED);
+            BaselineRunner runner = new BaselineRunner(workers, new BaselineRunner.CandidateComparator() {
+                @Override
+                public boolean compare(BatchPair pair, IndexedFile baseline, RunMetrics metrics) throws IOException, ValidatorException {
+                    OutputStream fos = fileUtils.getFileOutputStream(pair.getResultFileName());
+                    CsvWriter csvWriter = new CsvWriter(fos, "utf8", csvWriterSettings);
+                    DiffWriter writer = null;
+                    try {
+                        writer = newWriter(opt.format, csvWriter, fos, schema, false);
+                        DiffListener listener = newListener(writer, metrics, schema);
+                        return engine.diff(baseline, pair.getFileTwoName(), listener) || onlyEquivalentChanges(listener);
+                    } finally {
+                        if (writer != null) {
+                            writer.close();
+                        }
+                        csvWriter.close();
+                    }
                 }
-                return columnName;
-            } catch (IllegalArgumentException e) {
-                throw new ArgumentParserException(e, parser);
+            });
+            runner.run(baseline, pairs, outDirectory);
+            if (runner.getCount(BatchRunner.Status.FAILED) > 0) {
+                return EXIT_ERROR;
             }
+            return runner.getCount(BatchRunner.Status.DIFFERENT) > 0 ? EXIT_DIFFERENT : EXIT_EQUAL;
+        } catch (IOException | ValidatorException e) {
+            reportError(err, e);
+            return EXIT_ERROR;
+        } catch (InterruptedException e) {
+            reportError(err, e);
+            Thread.currentThread().interrupt();
+            return EXIT_ERROR;
+        }
+    }
+
+    /**
+     * It checks whether two files are equivalent, without writing any result
+     *
+     * @param csvParserSettings
+     * @param fileOneName
+     * @param fileTwoName
+     * @param threads
+     * @param err
+     * @return the exit status
+     */
+    private static int check(CsvParserSettings csvParserSettings, String fileOneName, String fileTwoName, int threads, PrintWriter err) {
+        try {
+            FileUtils fileUtils = new FileUtils(fileOneName, fileTwoName);
+            fileUtils.setDecompressionThreads(threads);
+            EquivalenceChecker checker = new EquivalenceChecker(csvParserSettings, fileUtils, threads);
+            return checker.check(fileOneName, fileTwoName) ? EXIT_EQUAL : EXIT_DIFFERENT;
+        } catch (IOException | ValidatorException e) {
+            reportError(err, e);
+            return EXIT_ERROR;
         }
     }
 
@@ -416,73 +1197,102 @@ public class CsvValidator {
         @Arg(dest = "out")
         public String out;
 
+        @Arg(dest = "key")
+        public List<String> keyColumns;
+
         @Arg(dest = "exclude")
         public ArrayList<String> columnNames;
-    }
 
-    /**
-     * It is a runner for {@link ExecutorService}. It writes common rows into
-     * a specific file via {@link BufferedWriter}. The written common rows in
-     * two files are compared if they are the same, and the differences are saved
-     * in to the result file by {@link CommonRowWriterRunner}
-     *
-     * @see CsvValidator#readIndexAndWriteAsync(String, String, CsvParser, CsvWriter, ArrayList)
-     * @see CsvValidator#readTargetAndWriteAsync(String, String, CsvParser, CsvWriter, ArrayList)
-     */
-    private static class CommonRowWriterRunner implements Runnable {
+        @Arg(dest = "check")
+        public boolean check;
 
-        private BufferedWriter bw;
-        private String stringLine;
+        @Arg(dest = "format")
+        public String format;
 
-        public CommonRowWriterRunner(BufferedWriter bw, String stringLine) {
-            this.bw = bw;
-            this.stringLine = stringLine;
-        }
+        @Arg(dest = "mode")
+        public String mode;
 
-        @Override
-        public void run() {
-            try {
-                bw.write(stringLine);
-                bw.newLine();
-            } catch (IOException e) {
-                log.error("Failed to write common lines", e);
-            }
-        }
-    }
+        @Arg(dest = "assume_sorted")
+        public boolean assumeSorted;
 
-    /**
-     * It is a runner for {@link ExecutorService}. It writes common rows into
-     * a specific file via {@link BufferedWriter}. The written common rows in
-     * two files are compared if they are the same, and the differences are saved
-     * in to the result file by {@link CommonRowWriterRunner}
-     *
-     * @see CsvValidator#readIndexAndWriteAsync(String, String, CsvParser, CsvWriter, ArrayList)
-     * @see CsvValidator#readTargetAndWriteAsync(String, String, CsvParser, CsvWriter, ArrayList)
-     * @see CsvValidator#compareCommonRows(String, String, CsvWriter)
-     */
-    private static class CsvWriterForStringRunner implements Runnable {
+        @Arg(dest = "memory_budget")
+        public int memoryBudget;
 
-        private CsvWriter csvWriter;
-        private String stringLine1;
-        private String stringLine2;
+        @Arg(dest = "temp_dir")
+        public String tempDir;
 
-        public CsvWriterForStringRunner(CsvWriter csvWriter, String stringLine) {
-            this(csvWriter, stringLine, null);
-        }
+        @Arg(dest = "snapshot")
+        public boolean snapshot;
 
-        public CsvWriterForStringRunner(CsvWriter csvWriter, String stringLine1, String stringLine2) {
-            this.csvWriter = csvWriter;
-            this.stringLine1 = stringLine1;
-            this.stringLine2 = stringLine2;
+        @Arg(dest = "off_heap")
+        public boolean offHeap;
+
+        @Arg(dest = "snapshot_dir")
+        public String snapshotDir;
+
+        @Arg(dest = "skip_identical")
+        public boolean skipIdentical;
+
+        @Arg(dest = "threads")
+        public int threads;
+
+        @Arg(dest = "partitions")
+        public int partitions;
+
+        @Arg(dest = "filter_memory")
+        public int filterMemory;
+
+        @Arg(dest = "schema")
+        public String schema;
+
+        @Arg(dest = "batch")
+        public boolean batch;
+
+        @Arg(dest = "batch_memory")
+        public int batchMemory;
+
+        @Arg(dest = "baseline")
+        public String baseline;
+
+        @Arg(dest = "serve")
+        public boolean serve;
+
+        @Arg(dest = "port")
+        public int port;
+
+        @Arg(dest = "cache_memory")
+        public int cacheMemory;
+
+        @Arg(dest = "metrics")
+        public String metrics;
+
+        @Arg(dest = "jmx")
+        public boolean jmx;
+
+        /**
+         * It resolves the relative paths of the arguments against a directory
+         *
+         * @param directory
+         */
+        void resolvePaths(File directory) {
+            List<String> fileNames = new ArrayList<String>(fileName.size());
+            for (String name : fileName) {
+                fileNames.add(resolve(directory, name));
+            }
+            fileName = fileNames;
+            out = resolve(directory, out);
+            tempDir = resolve(directory, tempDir);
+            snapshotDir = resolve(directory, snapshotDir);
+            schema = resolve(directory, schema);
+            baseline = resolve(directory, baseline);
+            metrics = resolve(directory, metrics);
         }
 
-        @Override
-        public void run() {
-            csvWriter.writeRow(stringLine1.replaceAll("\\[", "").replaceAll("\\]", ""));
-            if (stringLine2 != null) {
-                csvWriter.writeRow(stringLine2.replaceAll("\\[", "").replaceAll("\\]", ""));
+        private static String resolve(File directory, String path) {
+            if (path == null || new File(path).isAbsolute()) {
+                return path;
             }
+            return new File(directory, path).getPath();
         }
     }
-
 }
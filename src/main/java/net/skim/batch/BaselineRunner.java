@@ -0,0 +1,140 @@
+package net.skim.batch;
+
+import net.skim.diff.IndexedFile;
+import net.skim.exception.ValidatorException;
+import net.skim.metrics.RunMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * It compares many candidate files against one baseline indexed once. The index isn't modified by the comparisons, so
+ * a pool of workers walks through the candidates against it at the same time. A candidate failing is logged and
+ * recorded, and the others carry on.
+ * <p>
+ * A summary of the candidates, with the numbers of added, removed and changed rows of each, is written into
+ * {@link #SUMMARY_FILE_NAME} in the output directory.
+ */
+public class BaselineRunner {
+    static final Logger log = LogManager.getLogger(BaselineRunner.class.getName());
+
+    public static final String SUMMARY_FILE_NAME = "baseline_summary.csv";
+
+    /**
+     * It compares a candidate against the baseline
+     */
+    public interface CandidateComparator {
+
+        /**
+         * @param pair     the baseline, the candidate and the result file of the candidate
+         * @param baseline the indexed baseline, shared by the candidates
+         * @param metrics  the differences of the candidate are counted into it
+         * @return true if the candidate is equivalent to the baseline
+         * @throws IOException
+         * @throws ValidatorException
+         */
+        boolean compare(BatchPair pair, IndexedFile baseline, RunMetrics metrics) throws IOException, ValidatorException;
+    }
+
+    private final int workers;
+    private final CandidateComparator comparator;
+    private final int[] counts = new int[BatchRunner.Status.values().length];
+
+    /**
+     * @param workers    number of candidates compared at the same time
+     * @param comparator
+     */
+    public BaselineRunner(int workers, CandidateComparator comparator) {
+        this.workers = Math.max(1, workers);
+        this.comparator = comparator;
+    }
+
+    /**
+     * It compares the candidates and writes the summary
+     *
+     * @param baseline     the indexed baseline
+     * @param pairs        the baseline paired with every candidate
+     * @param outDirectory
+     * @throws IOException if the summary can't be written
+     * @throws InterruptedException
+     */
+    public void run(final IndexedFile baseline, List<BatchPair> pairs, File outDirectory) throws IOException, InterruptedException {
+        if (!outDirectory.isDirectory() && !outDirectory.mkdirs()) {
+            throw new IOException("Can't create the output directory: " + outDirectory);
+        }
+        log.info(String.format("Comparing %d candidates against %s with %d workers", pairs.size(), baseline.getFileName(), workers));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, Math.max(1, pairs.size())));
+        List<Future<String[]>> futures = new ArrayList<Future<String[]>>(pairs.size());
+        try {
+            for (final BatchPair pair : pairs) {
+                futures.add(executor.submit(new Callable<String[]>() {
+                    @Override
+                    public String[] call() {
+                        return compare(baseline, pair);
+                    }
+                }));
+            }
+            writeSummary(pairs, futures, new File(outDirectory, SUMMARY_FILE_NAME));
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info(String.format("%d candidates equal to the baseline, %d different, %d failed",
+                getCount(BatchRunner.Status.EQUAL), getCount(BatchRunner.Status.DIFFERENT), getCount(BatchRunner.Status.FAILED)));
+    }
+
+    /**
+     * @param status
+     * @return the number of candidates having the status
+     */
+    public int getCount(BatchRunner.Status status) {
+        return counts[status.ordinal()];
+    }
+
+    private String[] compare(IndexedFile baseline, BatchPair pair) {
+        RunMetrics metrics = new RunMetrics("baseline", pair.getFileOneName(), pair.getFileTwoName());
+        long start = System.currentTimeMillis();
+        BatchRunner.Status status;
+        String error = "";
+        try {
+            status = comparator.compare(pair, baseline, metrics) ? BatchRunner.Status.EQUAL : BatchRunner.Status.DIFFERENT;
+        } catch (Exception e) {
+            log.error(String.format("Failed to compare %s: %s", pair, e));
+            status = BatchRunner.Status.FAILED;
+            error = String.valueOf(e);
+        }
+        long millis = System.currentTimeMillis() - start;
+        log.debug(String.format("%s: %s in %d ms", pair, status, millis));
+        return new String[]{pair.getFileTwoName(), pair.getResultFileName(), status.name(),
+                String.valueOf(metrics.getAddedRows()), String.valueOf(metrics.getRemovedRows()),
+                String.valueOf(metrics.getChangedRows()), String.valueOf(millis), error};
+    }
+
+    private void writeSummary(List<BatchPair> pairs, List<Future<String[]>> futures, File summary) throws IOException, InterruptedException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(summary), Charset.forName("UTF-8")))) {
+            writer.write("candidate,result,status,added,removed,changed,millis,error\n");
+            for (int i = 0; i < pairs.size(); i++) {
+                BatchPair pair = pairs.get(i);
+                String[] row;
+                try {
+                    row = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    row = new String[]{pair.getFileTwoName(), pair.getResultFileName(), BatchRunner.Status.FAILED.name(),
+                            "0", "0", "0", "0", String.valueOf(e.getCause())};
+                }
+                counts[BatchRunner.Status.valueOf(row[2]).ordinal()]++;
+                for (int j = 0; j < row.length; j++) {
+                    if (j > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(BatchRunner.quote(row[j]));
+                }
+                writer.write('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package net.skim.batch;
+
+import net.skim.exception.ValidatorException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * It lists the pairs of files of a batch, from a manifest or from two directories. Every pair gets a result file in
+ * the output directory, named after its first file.
+ */
+public class BatchManifest {
+    static final Logger log = LogManager.getLogger(BatchManifest.class.getName());
+
+    private static final String RESULT_SUFFIX = ".diff.csv";
+
+    private BatchManifest() {
+    }
+
+    /**
+     * It reads a manifest having a pair per line: the two files and optionally the name of the result file, separated
+     * by a comma or a tab. Blank lines and lines starting with # are skipped. Relative paths of the files are resolved
+     * against the directory of the manifest, and those of the result files against the output directory.
+     *
+     * @param manifest
+     * @param outDirectory
+     * @return the pairs in the order of the manifest
+     * @throws ValidatorException if the manifest can't be read or a line is malformed
+     */
+    public static List<BatchPair> read(File manifest, File outDirectory) throws ValidatorException {
+        File baseDirectory = manifest.getAbsoluteFile().getParentFile();
+        List<BatchPair> pairs = new ArrayList<BatchPair>();
+        Set<String> resultNames = new HashSet<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), Charset.forName("UTF-8")))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("[,\t]");
+                if (fields.length < 2 || fields.length > 3) {
+                    throw new ValidatorException(String.format("Malformed line %d of %s: %s", lineNumber, manifest, line));
+                }
+                String fileOneName = resolve(baseDirectory, fields[0].trim());
+                String fileTwoName = resolve(baseDirectory, fields[1].trim());
+                String resultName = fields.length == 3 ? fields[2].trim() : resultNameOf(new File(fileOneName).getName());
+                pairs.add(new BatchPair(fileOneName, fileTwoName, resolve(outDirectory, unique(resultName, resultNames))));
+            }
+        } catch (IOException e) {
+            throw new ValidatorException(e);
+        }
+        return pairs;
+    }
+
+    /**
+     * It pairs the files of two directories having the same name. Files in one directory only are left out with a
+     * warning.
+     *
+     * @param directoryOne
+     * @param directoryTwo
+     * @param outDirectory
+     * @return the pairs in the order of the names
+     * @throws ValidatorException if a directory can't be listed
+     */
+    public static List<BatchPair> pairDirectories(File directoryOne, File directoryTwo, File outDirectory) throws ValidatorException {
+        SortedSet<String> namesOne = listFiles(directoryOne);
+        SortedSet<String> namesTwo = listFiles(directoryTwo);
+        List<BatchPair> pairs = new ArrayList<BatchPair>();
+        Set<String> resultNames = new HashSet<String>();
+        for (String name : namesOne) {
+            if (namesTwo.contains(name)) {
+                pairs.add(new BatchPair(new File(directoryOne, name).getPath(), new File(directoryTwo, name).getPath(),
+                        resolve(outDirectory, unique(resultNameOf(name), resultNames))));
+            } else {
+                log.warn(String.format("%s has no counterpart in %s", new File(directoryOne, name), directoryTwo));
+            }
+        }
+        for (String name : namesTwo) {
+            if (!namesOne.contains(name)) {
+                log.warn(String.format("%s has no counterpart in %s", new File(directoryTwo, name), directoryOne));
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * It pairs a baseline with every candidate. The result file of a pair is named after its candidate.
+     *
+     * @param baselineFileName
+     * @param candidateFileNames
+     * @param outDirectory
+     * @return the pairs in the order of the candidates
+     */
+    public static List<BatchPair> pairBaseline(String baselineFileName, List<String> candidateFileNames, File outDirectory) {
+        List<BatchPair> pairs = new ArrayList<BatchPair>();
+        Set<String> resultNames = new HashSet<String>();
+        for (String candidateFileName : candidateFileNames) {
+            String resultName = unique(resultNameOf(new File(candidateFileName).getName()), resultNames);
+            pairs.add(new BatchPair(baselineFileName, candidateFileName, resolve(outDirectory, resultName)));
+        }
+        return pairs;
+    }
+
+    /**
+     * @param fileName
+     * @return the name of the result file of a pair, the name of its first file without the .gz and .csv extensions
+     */
+    static String resultNameOf(String fileName) {
+        String name = fileName;
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        if (name.endsWith(".csv")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return name + RESULT_SUFFIX;
+    }
+
+    private static String unique(String name, Set<String> names) {
+        String unique = name;
+        for (int i = 1; !names.add(unique); i++) {
+            unique = i + "_" + name;
+        }
+        return unique;
+    }
+
+    private static String resolve(File directory, String fileName) {
+        File file = new File(fileName);
+        return file.isAbsolute() ? file.getPath() : new File(directory, fileName).getPath();
+    }
+
+    private static SortedSet<String> listFiles(File directory) throws ValidatorException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new ValidatorException("Can't list the directory: " + directory);
+        }
+        SortedSet<String> names = new TreeSet<String>();
+        for (File file : files) {
+            if (file.isFile() && !file.isHidden()) {
+                names.add(file.getName());
+            }
+        }
+        return names;
+    }
+}
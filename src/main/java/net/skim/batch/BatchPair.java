@@ -0,0 +1,38 @@
+package net.skim.batch;
+
+/**
+ * A pair of files compared in a batch, and the file its result is written to
+ */
+public class BatchPair {
+    private final String fileOneName;
+    private final String fileTwoName;
+    private final String resultFileName;
+
+    /**
+     * @param fileOneName
+     * @param fileTwoName
+     * @param resultFileName
+     */
+    public BatchPair(String fileOneName, String fileTwoName, String resultFileName) {
+        this.fileOneName = fileOneName;
+        this.fileTwoName = fileTwoName;
+        this.resultFileName = resultFileName;
+    }
+
+    public String getFileOneName() {
+        return fileOneName;
+    }
+
+    public String getFileTwoName() {
+        return fileTwoName;
+    }
+
+    public String getResultFileName() {
+        return resultFileName;
+    }
+
+    @Override
+    public String toString() {
+        return fileOneName + " - " + fileTwoName;
+    }
+}
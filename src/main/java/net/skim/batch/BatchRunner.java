@@ -0,0 +1,216 @@
+package net.skim.batch;
+
+import net.skim.exception.ValidatorException;
+import net.skim.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * It compares many pairs of files concurrently in one JVM. A fixed pool of workers takes the pairs, largest first,
+ * and a pair starts once the estimated size of its index fits in a {@link MemoryBudget} shared by all of them. A pair
+ * failing is logged and recorded, and the others carry on.
+ * <p>
+ * A summary of the pairs is written into {@link #SUMMARY_FILE_NAME} in the output directory.
+ */
+public class BatchRunner {
+    static final Logger log = LogManager.getLogger(BatchRunner.class.getName());
+
+    public static final String SUMMARY_FILE_NAME = "batch_summary.csv";
+
+    // average bytes of a row, for estimating the number of rows from the size of a file
+    private static final int ROW_SIZE = 250;
+    // bytes of the heap index taken by a row: the key, its fingerprint and its offset
+    private static final int INDEX_BYTES_PER_ROW = 64;
+    // expected compression ratio of gzip files
+    private static final int GZIP_RATIO = 5;
+
+    /**
+     * It compares the files of a pair
+     */
+    public interface PairComparator {
+
+        /**
+         * @param pair
+         * @param fileUtils files of the pair, ordered by size
+         * @return true if the files are equivalent
+         * @throws IOException
+         * @throws ValidatorException
+         */
+        boolean compare(BatchPair pair, FileUtils fileUtils) throws IOException, ValidatorException;
+    }
+
+    /**
+     * The outcome of a pair
+     */
+    public enum Status {
+        EQUAL, DIFFERENT, FAILED
+    }
+
+    private final int workers;
+    private final MemoryBudget budget;
+    private final PairComparator comparator;
+    private final Map<Status, Integer> counts = new EnumMap<Status, Integer>(Status.class);
+
+    /**
+     * @param workers      number of pairs compared at the same time
+     * @param memoryBudget bytes of index shared by the pairs compared at the same time
+     * @param comparator
+     */
+    public BatchRunner(int workers, long memoryBudget, PairComparator comparator) {
+        this.workers = Math.max(1, workers);
+        this.budget = new MemoryBudget(memoryBudget);
+        this.comparator = comparator;
+        for (Status status : Status.values()) {
+            counts.put(status, 0);
+        }
+    }
+
+    /**
+     * It compares the pairs and writes the summary
+     *
+     * @param pairs
+     * @param outDirectory
+     * @throws IOException if the summary can't be written
+     * @throws InterruptedException
+     */
+    public void run(List<BatchPair> pairs, File outDirectory) throws IOException, InterruptedException {
+        if (!outDirectory.isDirectory() && !outDirectory.mkdirs()) {
+            throw new IOException("Can't create the output directory: " + outDirectory);
+        }
+        final Map<BatchPair, Long> estimates = new HashMap<BatchPair, Long>();
+        for (BatchPair pair : pairs) {
+            estimates.put(pair, estimateIndexSize(pair));
+        }
+        List<BatchPair> ordered = new ArrayList<BatchPair>(pairs);
+        Collections.sort(ordered, new Comparator<BatchPair>() {
+            @Override
+            public int compare(BatchPair a, BatchPair b) {
+                return Long.compare(estimates.get(b), estimates.get(a));
+            }
+        });
+        log.info(String.format("Comparing %d pairs with %d workers and a memory budget of %d MB",
+                pairs.size(), workers, budget.getCapacity() >> 20));
+
+        // a pair is submitted once a worker is idle and its memory is granted, so no memory is held by queued pairs
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        final Semaphore idleWorkers = new Semaphore(workers);
+        Map<BatchPair, Future<String[]>> futures = new HashMap<BatchPair, Future<String[]>>();
+        try {
+            for (BatchPair pair : ordered) {
+                final BatchPair job = pair;
+                idleWorkers.acquire();
+                final long granted;
+                try {
+                    granted = budget.acquire(estimates.get(pair));
+                } catch (InterruptedException e) {
+                    idleWorkers.release();
+                    throw e;
+                }
+                try {
+                    futures.put(pair, executor.submit(new Callable<String[]>() {
+                        @Override
+                        public String[] call() {
+                            try {
+                                return compare(job);
+                            } finally {
+                                budget.release(granted);
+                                idleWorkers.release();
+                            }
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    budget.release(granted);
+                    idleWorkers.release();
+                    throw e;
+                }
+            }
+            writeSummary(pairs, futures, new File(outDirectory, SUMMARY_FILE_NAME));
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info(String.format("%d pairs equal, %d different, %d failed",
+                getCount(Status.EQUAL), getCount(Status.DIFFERENT), getCount(Status.FAILED)));
+    }
+
+    /**
+     * @param status
+     * @return the number of pairs having the status
+     */
+    public int getCount(Status status) {
+        return counts.get(status);
+    }
+
+    /**
+     * It estimates the bytes of the index of a pair from the size of its smaller file
+     *
+     * @param pair
+     * @return the estimated bytes, or 0 if the files can't be sized
+     */
+    static long estimateIndexSize(BatchPair pair) {
+        try {
+            FileUtils fileUtils = new FileUtils(pair.getFileOneName(), pair.getFileTwoName());
+            String indexFileName = fileUtils.getIndexFileName();
+            double size = fileUtils.getFileSize(indexFileName);
+            if (indexFileName.endsWith(".gz")) {
+                size *= GZIP_RATIO;
+            }
+            return (long) (size / ROW_SIZE * INDEX_BYTES_PER_ROW);
+        } catch (ValidatorException | IOException | IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private String[] compare(BatchPair pair) {
+        long start = System.currentTimeMillis();
+        Status status;
+        String error = "";
+        try {
+            FileUtils fileUtils = new FileUtils(pair.getFileOneName(), pair.getFileTwoName());
+            status = comparator.compare(pair, fileUtils) ? Status.EQUAL : Status.DIFFERENT;
+        } catch (Exception e) {
+            log.error(String.format("Failed to compare %s: %s", pair, e));
+            status = Status.FAILED;
+            error = String.valueOf(e);
+        }
+        long millis = System.currentTimeMillis() - start;
+        log.debug(String.format("%s: %s in %d ms", pair, status, millis));
+        return new String[]{pair.getFileOneName(), pair.getFileTwoName(), pair.getResultFileName(),
+                status.name(), String.valueOf(millis), error};
+    }
+
+    private void writeSummary(List<BatchPair> pairs, Map<BatchPair, Future<String[]>> futures, File summary) throws IOException, InterruptedException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(summary), Charset.forName("UTF-8")))) {
+            writer.write("file1,file2,result,status,millis,error\n");
+            for (BatchPair pair : pairs) {
+                String[] row;
+                try {
+                    row = futures.get(pair).get();
+                } catch (ExecutionException e) {
+                    row = new String[]{pair.getFileOneName(), pair.getFileTwoName(), pair.getResultFileName(),
+                            Status.FAILED.name(), "0", String.valueOf(e.getCause())};
+                }
+                Status status = Status.valueOf(row[3]);
+                counts.put(status, counts.get(status) + 1);
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(quote(row[i]));
+                }
+                writer.write('\n');
+            }
+        }
+    }
+
+    static String quote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
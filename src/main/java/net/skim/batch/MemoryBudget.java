@@ -0,0 +1,65 @@
+package net.skim.batch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A number of bytes shared by jobs running at the same time. A job is admitted once the bytes it needs are available,
+ * and gives them back when it is done. Jobs are admitted in the order they ask, so a large job isn't starved by
+ * smaller ones asking after it. A job needing more than the whole budget is admitted alone.
+ */
+public class MemoryBudget {
+    private final long capacity;
+    private final Deque<Object> waiting = new ArrayDeque<Object>();
+    private long available;
+
+    /**
+     * @param capacity the number of bytes shared by the jobs
+     */
+    public MemoryBudget(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity needs to be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.available = capacity;
+    }
+
+    /**
+     * It waits until the bytes are available and every job which asked before is admitted
+     *
+     * @param bytes the bytes needed by a job
+     * @return the bytes granted, to be given back with {@link #release(long)}
+     * @throws InterruptedException
+     */
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        long granted = Math.max(0, Math.min(bytes, capacity));
+        Object ticket = new Object();
+        waiting.addLast(ticket);
+        try {
+            while (waiting.peekFirst() != ticket || available < granted) {
+                wait();
+            }
+        } finally {
+            waiting.remove(ticket);
+            notifyAll();
+        }
+        available -= granted;
+        return granted;
+    }
+
+    /**
+     * @param granted the bytes granted by {@link #acquire(long)}
+     */
+    public synchronized void release(long granted) {
+        available = Math.min(capacity, available + granted);
+        notifyAll();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getAvailable() {
+        return available;
+    }
+}
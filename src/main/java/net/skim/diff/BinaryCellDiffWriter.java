@@ -0,0 +1,86 @@
+package net.skim.diff;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link DiffListener} writing the differences of {@link CellDiffWriter} in a compact binary form. Every event
+ * starts with the type byte of {@link DiffEventWriter}, and strings are written as their length and UTF-8 bytes
+ * (-1 for null):
+ * <pre>
+ * HEADER  int count, count column names
+ * ADDED   key
+ * REMOVED key
+ * CHANGED key, int count, count times (int column, left value, right value)
+ * FINISH
+ * </pre>
+ * The left value of a changed cell is the one of the index file, as in {@link CellDiffWriter}. The stream is flushed
+ * but not closed when the diff is finished.
+ */
+public class BinaryCellDiffWriter implements DiffWriter {
+    private final DataOutputStream out;
+    private final ColumnSchema schema;
+    private RowComparator comparator = RowComparator.EXACT;
+
+    public BinaryCellDiffWriter(OutputStream out) {
+        this(out, ColumnSchema.EXACT);
+    }
+
+    public BinaryCellDiffWriter(OutputStream out, ColumnSchema schema) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.schema = schema;
+    }
+
+    @Override
+    public void onHeader(String[] header) throws IOException {
+        comparator = schema.resolve(header);
+        out.writeByte(DiffEventWriter.HEADER);
+        out.writeInt(header.length);
+        for (String name : header) {
+            DiffEventWriter.writeValue(out, name);
+        }
+    }
+
+    @Override
+    public void onAdded(String id, String[] targetRow) throws IOException {
+        out.writeByte(DiffEventWriter.ADDED);
+        DiffEventWriter.writeValue(out, id);
+    }
+
+    @Override
+    public void onRemoved(String id, String[] indexRow) throws IOException {
+        out.writeByte(DiffEventWriter.REMOVED);
+        DiffEventWriter.writeValue(out, id);
+    }
+
+    @Override
+    public void onChanged(String id, String[] indexRow, String[] targetRow) throws IOException {
+        int[] columns = CellDiffWriter.changedColumns(indexRow, targetRow, comparator);
+        if (columns.length == 0) {
+            return;
+        }
+        out.writeByte(DiffEventWriter.CHANGED);
+        DiffEventWriter.writeValue(out, id);
+        out.writeInt(columns.length);
+        for (int column : columns) {
+            out.writeInt(column);
+            DiffEventWriter.writeValue(out, CellDiffWriter.valueAt(indexRow, column));
+            DiffEventWriter.writeValue(out, CellDiffWriter.valueAt(targetRow, column));
+        }
+    }
+
+    @Override
+    public void onFinish() throws IOException {
+        out.writeByte(DiffEventWriter.FINISH);
+        out.flush();
+    }
+
+    /**
+     * The stream belongs to the caller, so there is nothing to release
+     */
+    @Override
+    public void close() {
+    }
+}
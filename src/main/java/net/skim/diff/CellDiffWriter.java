@@ -0,0 +1,121 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvWriter;
+import net.skim.io.OutputPipeline;
+
+import java.io.IOException;
+
+/**
+ * A {@link DiffListener} writing the differences cell by cell instead of whole rows. Every line starts with a marker:
+ * <pre>
+ * op,key,column,left,right
+ * +,8036341
+ * -,8036337
+ * ~,8036339,Location,"(41.8, -87.6)","(41.9, -87.6)"
+ * </pre>
+ * "+" is a row only in the target file, "-" a row only in the index file, and "~" a cell which differs between the
+ * index file (left) and the target file (right). A missing value is written as an empty field. Quoted values keep
+ * their quotes like in the parsed rows, so the values are written as they are. {@link SwappedSidesWriter} puts the
+ * target file on the left.
+ * <p>
+ * With a {@link ColumnSchema}, cells whose values are equivalent are not written.
+ */
+public class CellDiffWriter implements DiffWriter {
+    static final String ADDED = "+";
+    static final String REMOVED = "-";
+    static final String CHANGED = "~";
+
+    private final OutputPipeline output;
+    private final ColumnSchema schema;
+    private String[] header = new String[0];
+    private RowComparator comparator = RowComparator.EXACT;
+
+    public CellDiffWriter(CsvWriter csvWriter) {
+        this(csvWriter, ColumnSchema.EXACT);
+    }
+
+    public CellDiffWriter(CsvWriter csvWriter, ColumnSchema schema) {
+        this.output = new OutputPipeline(OutputPipeline.csvWriterSink(csvWriter));
+        this.schema = schema;
+    }
+
+    @Override
+    public void onHeader(String[] header) throws IOException {
+        this.header = header;
+        this.comparator = schema.resolve(header);
+        output.write("op,key,column,left,right");
+    }
+
+    @Override
+    public void onAdded(String id, String[] targetRow) throws IOException {
+        output.write(ADDED + "," + id);
+    }
+
+    @Override
+    public void onRemoved(String id, String[] indexRow) throws IOException {
+        output.write(REMOVED + "," + id);
+    }
+
+    @Override
+    public void onChanged(String id, String[] indexRow, String[] targetRow) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int column : changedColumns(indexRow, targetRow, comparator)) {
+            sb.setLength(0);
+            sb.append(CHANGED).append(',').append(id).append(',').append(columnName(header, column)).append(',');
+            append(sb, valueAt(indexRow, column)).append(',');
+            append(sb, valueAt(targetRow, column));
+            output.write(sb.toString());
+        }
+    }
+
+    @Override
+    public void onFinish() throws IOException {
+        output.close();
+    }
+
+    /**
+     * It stops the writer thread if the comparison failed before it finished
+     */
+    @Override
+    public void close() {
+        output.abort();
+    }
+
+    /**
+     * @param indexRow
+     * @param targetRow
+     * @param comparator
+     * @return the positions of the values which aren't equivalent. A value missing from a shorter row is taken as
+     * null.
+     */
+    static int[] changedColumns(String[] indexRow, String[] targetRow, RowComparator comparator) {
+        int length = Math.max(indexRow.length, targetRow.length);
+        int[] columns = new int[length];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (!comparator.equivalent(i, valueAt(indexRow, i), valueAt(targetRow, i))) {
+                columns[count++] = i;
+            }
+        }
+        int[] changed = new int[count];
+        System.arraycopy(columns, 0, changed, 0, count);
+        return changed;
+    }
+
+    static String valueAt(String[] row, int column) {
+        return column < row.length ? row[column] : null;
+    }
+
+    /**
+     * @param header
+     * @param column
+     * @return the name of a column, or its position if the header doesn't have it
+     */
+    static String columnName(String[] header, int column) {
+        return column < header.length ? header[column] : String.valueOf(column);
+    }
+
+    private static StringBuilder append(StringBuilder sb, String value) {
+        return value == null ? sb : sb.append(value);
+    }
+}
@@ -0,0 +1,17 @@
+package net.skim.diff;
+
+/**
+ * It compares two values of a column by their meaning rather than their text, like numbers within a tolerance or
+ * dates written in different formats. Values are those of the parser, quotes included.
+ * <p>
+ * It is only asked about values whose text differs, so it may parse them. A comparator is thread-safe.
+ */
+public interface ColumnComparator {
+
+    /**
+     * @param left  a value of the index file, not null
+     * @param right a value of the target file, not null and different from the left value
+     * @return true if the values mean the same
+     */
+    boolean equivalent(String left, String right);
+}
@@ -0,0 +1,214 @@
+package net.skim.diff;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The {@link ColumnComparator}s of a {@link ColumnSchema}
+ */
+public class ColumnComparators {
+    static final String NUMERIC = "numeric";
+    static final String DATETIME = "datetime";
+    static final String TEXT = "text";
+    static final String EXACT = "exact";
+
+    static final String IGNORE_CASE = "ignore-case";
+    static final String IGNORE_SPACE = "ignore-space";
+
+    /**
+     * Formats tried when a date/time column names none
+     */
+    static final String[] DEFAULT_DATE_FORMATS = {
+            "MM/dd/yyyy hh:mm:ss a", "yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd HH:mm:ss",
+            "MM/dd/yyyy", "yyyy-MM-dd"};
+
+    private ColumnComparators() {
+    }
+
+    /**
+     * @param tolerance the largest absolute difference of equivalent numbers
+     * @return a comparator of decimal numbers
+     */
+    public static ColumnComparator numeric(double tolerance) {
+        return new NumericComparator(tolerance);
+    }
+
+    /**
+     * @param formats patterns of {@link SimpleDateFormat} the values may be written in, tried in order
+     * @return a comparator of dates and times, equivalent if they are the same instant
+     */
+    public static ColumnComparator dateTime(String... formats) {
+        return new DateTimeComparator(formats.length == 0 ? DEFAULT_DATE_FORMATS : formats);
+    }
+
+    /**
+     * @param ignoreCase
+     * @param ignoreSpace if true, leading and trailing whitespace is ignored and runs of whitespace are the same as one
+     * @return a comparator of text
+     */
+    public static ColumnComparator text(boolean ignoreCase, boolean ignoreSpace) {
+        return new TextComparator(ignoreCase, ignoreSpace);
+    }
+
+    /**
+     * @param type      {@link #NUMERIC}, {@link #DATETIME}, {@link #TEXT} or {@link #EXACT}
+     * @param arguments the tolerance of a numeric column, the formats of a date/time column, or the options of a text
+     *                  column
+     * @return the comparator, or null for an exact column
+     * @throws IllegalArgumentException if the type or the arguments are unknown
+     */
+    static ColumnComparator of(String type, List<String> arguments) {
+        if (NUMERIC.equals(type)) {
+            if (arguments.size() > 1) {
+                throw new IllegalArgumentException("A numeric column takes a tolerance only: " + arguments);
+            }
+            return numeric(arguments.isEmpty() ? 0 : Double.parseDouble(arguments.get(0)));
+        } else if (DATETIME.equals(type)) {
+            for (String format : arguments) {
+                new SimpleDateFormat(format, Locale.US);
+            }
+            return dateTime(arguments.toArray(new String[arguments.size()]));
+        } else if (TEXT.equals(type)) {
+            boolean ignoreCase = arguments.isEmpty();
+            boolean ignoreSpace = arguments.isEmpty();
+            for (String argument : arguments) {
+                if (IGNORE_CASE.equals(argument)) {
+                    ignoreCase = true;
+                } else if (IGNORE_SPACE.equals(argument)) {
+                    ignoreSpace = true;
+                } else {
+                    throw new IllegalArgumentException("Unknown option of a text column: " + argument);
+                }
+            }
+            return text(ignoreCase, ignoreSpace);
+        } else if (EXACT.equals(type)) {
+            return null;
+        }
+        throw new IllegalArgumentException("Unknown column type: " + type);
+    }
+
+    /**
+     * @param value
+     * @return the value without its surrounding quotes, which the parser keeps
+     */
+    static String unquote(String value) {
+        int length = value.length();
+        if (length >= 2 && value.charAt(0) == '"' && value.charAt(length - 1) == '"') {
+            return value.substring(1, length - 1).replace("\"\"", "\"");
+        }
+        return value;
+    }
+
+    private static class NumericComparator implements ColumnComparator {
+        private final double tolerance;
+
+        private NumericComparator(double tolerance) {
+            if (tolerance < 0 || Double.isNaN(tolerance)) {
+                throw new IllegalArgumentException("A tolerance can't be negative: " + tolerance);
+            }
+            this.tolerance = tolerance;
+        }
+
+        @Override
+        public boolean equivalent(String left, String right) {
+            try {
+                double a = Double.parseDouble(unquote(left).trim());
+                double b = Double.parseDouble(unquote(right).trim());
+                return a == b || Math.abs(a - b) <= tolerance;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+    }
+
+    private static class DateTimeComparator implements ColumnComparator {
+        private final String[] formats;
+        // SimpleDateFormat isn't thread-safe, so every thread has its own
+        private final ThreadLocal<SimpleDateFormat[]> dateFormats = new ThreadLocal<SimpleDateFormat[]>() {
+            @Override
+            protected SimpleDateFormat[] initialValue() {
+                SimpleDateFormat[] dateFormats = new SimpleDateFormat[formats.length];
+                for (int i = 0; i < formats.length; i++) {
+                    dateFormats[i] = new SimpleDateFormat(formats[i], Locale.US);
+                    dateFormats[i].setLenient(false);
+                    dateFormats[i].setTimeZone(TimeZone.getTimeZone("UTC"));
+                }
+                return dateFormats;
+            }
+        };
+
+        private DateTimeComparator(String[] formats) {
+            this.formats = formats.clone();
+        }
+
+        @Override
+        public boolean equivalent(String left, String right) {
+            Date a = parse(unquote(left).trim());
+            Date b = parse(unquote(right).trim());
+            return a != null && a.equals(b);
+        }
+
+        private Date parse(String value) {
+            for (SimpleDateFormat dateFormat : dateFormats.get()) {
+                ParsePosition position = new ParsePosition(0);
+                Date date = dateFormat.parse(value, position);
+                if (date != null && position.getIndex() == value.length()) {
+                    return date;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class TextComparator implements ColumnComparator {
+        private final boolean ignoreCase;
+        private final boolean ignoreSpace;
+
+        private TextComparator(boolean ignoreCase, boolean ignoreSpace) {
+            this.ignoreCase = ignoreCase;
+            this.ignoreSpace = ignoreSpace;
+        }
+
+        @Override
+        public boolean equivalent(String left, String right) {
+            String a = unquote(left);
+            String b = unquote(right);
+            int i = ignoreSpace ? skipSpace(a, 0) : 0;
+            int j = ignoreSpace ? skipSpace(b, 0) : 0;
+            while (i < a.length() && j < b.length()) {
+                char x = a.charAt(i);
+                char y = b.charAt(j);
+                if (ignoreSpace && (Character.isWhitespace(x) || Character.isWhitespace(y))) {
+                    if (!Character.isWhitespace(x) || !Character.isWhitespace(y)) {
+                        return false;
+                    }
+                    i = skipSpace(a, i);
+                    j = skipSpace(b, j);
+                    continue;
+                }
+                if (x != y && (!ignoreCase || (Character.toUpperCase(x) != Character.toUpperCase(y)
+                        && Character.toLowerCase(x) != Character.toLowerCase(y)))) {
+                    return false;
+                }
+                i++;
+                j++;
+            }
+            if (ignoreSpace) {
+                return skipSpace(a, i) == a.length() && skipSpace(b, j) == b.length();
+            }
+            return i == a.length() && j == b.length();
+        }
+
+        private static int skipSpace(String value, int from) {
+            int i = from;
+            while (i < value.length() && Character.isWhitespace(value.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+    }
+}
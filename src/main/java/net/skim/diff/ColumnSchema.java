@@ -0,0 +1,121 @@
+package net.skim.diff;
+
+import net.skim.exception.ValidatorException;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * How the values of columns are compared. A schema file has a column per line, its name and its type separated by
+ * "=", and the arguments of the type separated by spaces:
+ * <pre>
+ * # column = type arguments
+ * Latitude = numeric 0.000001
+ * Date = datetime MM/dd/yyyy hh:mm:ss a | yyyy-MM-dd'T'HH:mm:ss
+ * Description = text ignore-case
+ * </pre>
+ * A numeric column takes the largest absolute difference of equivalent values, 0 by default. A date/time column takes
+ * the formats of {@link java.text.SimpleDateFormat} its values may be written in, separated by "|", and a few common
+ * ones by default. A text column ignores case and whitespace by default, or what its options say. Other columns are
+ * compared as they are written.
+ * <p>
+ * The schema is resolved once per header into a {@link RowComparator}.
+ */
+public class ColumnSchema {
+    /**
+     * A schema comparing every column as it is written
+     */
+    public static final ColumnSchema EXACT = new ColumnSchema(new LinkedHashMap<String, ColumnComparator>());
+
+    private final Map<String, ColumnComparator> comparators;
+
+    /**
+     * @param comparators comparators by column name. A null comparator compares the column as it is written
+     */
+    public ColumnSchema(Map<String, ColumnComparator> comparators) {
+        this.comparators = new LinkedHashMap<String, ColumnComparator>(comparators);
+    }
+
+    /**
+     * It reads a schema file
+     *
+     * @param file
+     * @return the schema
+     * @throws ValidatorException if the file can't be read or a line is malformed
+     */
+    public static ColumnSchema read(File file) throws ValidatorException {
+        Map<String, ColumnComparator> comparators = new LinkedHashMap<String, ColumnComparator>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf('=');
+                if (separator <= 0) {
+                    throw new ValidatorException(String.format("Malformed line %d of %s: %s", lineNumber, file, line));
+                }
+                String column = line.substring(0, separator).trim();
+                String definition = line.substring(separator + 1).trim();
+                int space = definition.indexOf(' ');
+                String type = space < 0 ? definition : definition.substring(0, space);
+                String arguments = space < 0 ? "" : definition.substring(space + 1).trim();
+                List<String> argumentList = new ArrayList<String>();
+                if (!arguments.isEmpty()) {
+                    for (String argument : arguments.split(ColumnComparators.DATETIME.equals(type) ? "\\s*\\|\\s*" : "\\s+")) {
+                        argumentList.add(argument);
+                    }
+                }
+                try {
+                    comparators.put(column, ColumnComparators.of(type, argumentList));
+                } catch (IllegalArgumentException e) {
+                    throw new ValidatorException(String.format("Malformed line %d of %s: %s", lineNumber, file, e.getMessage()), e);
+                }
+            }
+        } catch (IOException e) {
+            throw new ValidatorException(e);
+        }
+        return new ColumnSchema(comparators);
+    }
+
+    /**
+     * @return true if every column is compared as it is written
+     */
+    public boolean isExact() {
+        for (ColumnComparator comparator : comparators.values()) {
+            if (comparator != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the names of the columns of the schema
+     */
+    public Set<String> getColumns() {
+        return Collections.unmodifiableSet(comparators.keySet());
+    }
+
+    /**
+     * It finds the comparator of every column of a header. Columns of the schema which are not in the header are
+     * ignored.
+     *
+     * @param header
+     * @return the comparator of rows having the header
+     */
+    public RowComparator resolve(String[] header) {
+        ColumnComparator[] byPosition = new ColumnComparator[header.length];
+        for (Map.Entry<String, ColumnComparator> entry : comparators.entrySet()) {
+            int position = Arrays.asList(header).indexOf(entry.getKey());
+            if (position >= 0) {
+                byPosition[position] = entry.getValue();
+            }
+        }
+        return new RowComparator(byPosition);
+    }
+}
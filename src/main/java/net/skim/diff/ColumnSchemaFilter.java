@@ -0,0 +1,84 @@
+package net.skim.diff;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link DiffListener} dropping the changed rows whose values are all equivalent under a {@link ColumnSchema}
+ * before handing the differences over to another listener. Engines only report rows whose bytes differ, so values are
+ * only parsed by the comparators for those rows, and only where their text differs.
+ */
+public class ColumnSchemaFilter implements DiffListener {
+    static final Logger log = LogManager.getLogger(ColumnSchemaFilter.class.getName());
+
+    private final DiffListener listener;
+    private final ColumnSchema schema;
+    private RowComparator comparator = RowComparator.EXACT;
+    private long equivalentRows;
+    private boolean differences;
+
+    public ColumnSchemaFilter(DiffListener listener, ColumnSchema schema) {
+        this.listener = listener;
+        this.schema = schema;
+    }
+
+    @Override
+    public void onHeader(String[] header) throws IOException {
+        List<String> columns = Arrays.asList(header);
+        for (String column : schema.getColumns()) {
+            if (!columns.contains(column)) {
+                log.warn(String.format("The header has no %s column. It is compared as it is written", column));
+            }
+        }
+        comparator = schema.resolve(header);
+        listener.onHeader(header);
+    }
+
+    @Override
+    public void onAdded(String id, String[] targetRow) throws IOException {
+        differences = true;
+        listener.onAdded(id, targetRow);
+    }
+
+    @Override
+    public void onRemoved(String id, String[] indexRow) throws IOException {
+        differences = true;
+        listener.onRemoved(id, indexRow);
+    }
+
+    @Override
+    public void onChanged(String id, String[] indexRow, String[] targetRow) throws IOException {
+        if (comparator.equivalent(indexRow, targetRow)) {
+            equivalentRows++;
+            return;
+        }
+        differences = true;
+        listener.onChanged(id, indexRow, targetRow);
+    }
+
+    @Override
+    public void onFinish() throws IOException {
+        if (equivalentRows > 0) {
+            log.debug(String.format("%d changed rows are equivalent under the schema", equivalentRows));
+        }
+        listener.onFinish();
+    }
+
+    /**
+     * @return true if any difference was handed over
+     */
+    public boolean hasDifferences() {
+        return differences;
+    }
+
+    /**
+     * @return the number of changed rows dropped as equivalent
+     */
+    public long getEquivalentRows() {
+        return equivalentRows;
+    }
+}
@@ -0,0 +1,23 @@
+package net.skim.diff;
+
+import net.skim.exception.ValidatorException;
+
+import java.io.IOException;
+
+/**
+ * A strategy finding the differences between two CSV files
+ */
+public interface DiffEngine {
+
+    /**
+     * It compares two files and reports the differences to the listener
+     *
+     * @param indexFileName
+     * @param targetFileName
+     * @param listener
+     * @return true if there are no differences
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    boolean diff(String indexFileName, String targetFileName, DiffListener listener) throws IOException, ValidatorException;
+}
@@ -0,0 +1,116 @@
+package net.skim.diff;
+
+import java.util.Arrays;
+
+/**
+ * A difference between two CSV files, made by {@link DiffEventListener}. Rows are the values as the parser gives
+ * them, with the quotes it keeps, and {@link #getIndexValue(int)} and {@link #getTargetValue(int)} give a value
+ * without them.
+ */
+public class DiffEvent {
+
+    public enum Type {
+        ADDED, REMOVED, CHANGED
+    }
+
+    private static final int[] NO_COLUMNS = new int[0];
+
+    private final Type type;
+    private final String id;
+    private final String[] header;
+    private final String[] indexRow;
+    private final String[] targetRow;
+    private final int[] changedColumns;
+
+    DiffEvent(Type type, String id, String[] header, String[] indexRow, String[] targetRow, int[] changedColumns) {
+        this.type = type;
+        this.id = id;
+        this.header = header;
+        this.indexRow = indexRow;
+        this.targetRow = targetRow;
+        this.changedColumns = changedColumns != null ? changedColumns : NO_COLUMNS;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return column names of the index file
+     */
+    public String[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the row of the index file, or null if the row was added
+     */
+    public String[] getIndexRow() {
+        return indexRow;
+    }
+
+    /**
+     * @return the row of the target file, or null if the row was removed
+     */
+    public String[] getTargetRow() {
+        return targetRow;
+    }
+
+    /**
+     * @return the positions of the values which aren't equivalent in a changed row, or none for other rows
+     */
+    public int[] getChangedColumns() {
+        return changedColumns.clone();
+    }
+
+    /**
+     * @param column
+     * @return the name of a column, or its position if the header doesn't have it
+     */
+    public String getColumnName(int column) {
+        return CellDiffWriter.columnName(header, column);
+    }
+
+    /**
+     * @param column
+     * @return the value of the index row without its quotes, or null if there is none
+     */
+    public String getIndexValue(int column) {
+        return valueAt(indexRow, column);
+    }
+
+    /**
+     * @param column
+     * @return the value of the target row without its quotes, or null if there is none
+     */
+    public String getTargetValue(int column) {
+        return valueAt(targetRow, column);
+    }
+
+    private static String valueAt(String[] row, int column) {
+        if (row == null) {
+            return null;
+        }
+        String value = CellDiffWriter.valueAt(row, column);
+        return value != null ? ColumnComparators.unquote(value) : null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(type).append(' ').append(id);
+        if (type == Type.CHANGED) {
+            for (int column : changedColumns) {
+                sb.append(", ").append(getColumnName(column)).append(": ")
+                        .append(getIndexValue(column)).append(" -> ").append(getTargetValue(column));
+            }
+        } else {
+            sb.append(' ').append(Arrays.toString(type == Type.ADDED ? targetRow : indexRow));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package net.skim.diff;
+
+import java.io.IOException;
+
+/**
+ * A {@link DiffListener} turning the differences into {@link DiffEvent}s. The values of a changed row which aren't
+ * equivalent under the {@link ColumnSchema} are listed by the event.
+ */
+public abstract class DiffEventListener implements DiffListener {
+    private final ColumnSchema schema;
+    private RowComparator comparator = RowComparator.EXACT;
+    private String[] header = new String[0];
+
+    protected DiffEventListener() {
+        this(ColumnSchema.EXACT);
+    }
+
+    /**
+     * @param schema how the values of changed rows are compared
+     */
+    protected DiffEventListener(ColumnSchema schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * It is called for every difference, on the thread calling the listener
+     *
+     * @param event
+     * @throws IOException
+     */
+    protected abstract void onEvent(DiffEvent event) throws IOException;
+
+    @Override
+    public void onHeader(String[] header) throws IOException {
+        this.header = header;
+        comparator = schema.resolve(header);
+    }
+
+    @Override
+    public void onAdded(String id, String[] targetRow) throws IOException {
+        onEvent(new DiffEvent(DiffEvent.Type.ADDED, id, header, null, targetRow, null));
+    }
+
+    @Override
+    public void onRemoved(String id, String[] indexRow) throws IOException {
+        onEvent(new DiffEvent(DiffEvent.Type.REMOVED, id, header, indexRow, null, null));
+    }
+
+    @Override
+    public void onChanged(String id, String[] indexRow, String[] targetRow) throws IOException {
+        int[] changedColumns = CellDiffWriter.changedColumns(indexRow, targetRow, comparator);
+        onEvent(new DiffEvent(DiffEvent.Type.CHANGED, id, header, indexRow, targetRow, changedColumns));
+    }
+
+    @Override
+    public void onFinish() throws IOException {
+    }
+}
@@ -0,0 +1,88 @@
+package net.skim.diff;
+
+import net.skim.exception.ValidatorException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * It replays the differences spilled by {@link DiffEventWriter}
+ */
+class DiffEventReader {
+
+    private DiffEventReader() {
+    }
+
+    /**
+     * It sends the differences in a file to the listener. The header and the end of the file are only sent if
+     * asked, so several files can be replayed as a single diff.
+     *
+     * @param file
+     * @param listener
+     * @param withHeader
+     * @param withFinish
+     * @throws IOException
+     * @throws ValidatorException if the file was not finished
+     */
+    static void replay(File file, DiffListener listener, boolean withHeader, boolean withFinish) throws IOException, ValidatorException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            while (true) {
+                int type;
+                try {
+                    type = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    throw new ValidatorException("Differences are incomplete: " + file.getAbsolutePath());
+                }
+                switch (type) {
+                    case DiffEventWriter.HEADER:
+                        String[] header = readRow(in);
+                        if (withHeader) {
+                            listener.onHeader(header);
+                        }
+                        break;
+                    case DiffEventWriter.ADDED:
+                        listener.onAdded(readValue(in), readRow(in));
+                        break;
+                    case DiffEventWriter.REMOVED:
+                        listener.onRemoved(readValue(in), readRow(in));
+                        break;
+                    case DiffEventWriter.CHANGED:
+                        listener.onChanged(readValue(in), readRow(in), readRow(in));
+                        break;
+                    case DiffEventWriter.FINISH:
+                        if (withFinish) {
+                            listener.onFinish();
+                        }
+                        return;
+                    default:
+                        throw new ValidatorException(String.format("Unknown difference type %d in %s", type, file.getAbsolutePath()));
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String[] readRow(DataInputStream in) throws IOException {
+        String[] row = new String[in.readInt()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = readValue(in);
+        }
+        return row;
+    }
+
+    static String readValue(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, DiffEventWriter.UTF_8);
+    }
+}
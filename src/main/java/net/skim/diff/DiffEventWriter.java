@@ -0,0 +1,110 @@
+package net.skim.diff;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * A {@link DiffListener} spilling the differences into a binary file, so they can be replayed later in a
+ * deterministic order with {@link DiffEventReader}. Values are written as length-prefixed UTF-8.
+ */
+class DiffEventWriter implements DiffListener {
+    static final int HEADER = 0;
+    static final int ADDED = 1;
+    static final int REMOVED = 2;
+    static final int CHANGED = 3;
+    static final int FINISH = 4;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DataOutputStream out;
+    private long events;
+
+    DiffEventWriter(File file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    @Override
+    public void onHeader(String[] header) throws IOException {
+        out.writeByte(HEADER);
+        writeRow(header);
+    }
+
+    @Override
+    public void onAdded(String id, String[] targetRow) throws IOException {
+        out.writeByte(ADDED);
+        writeValue(id);
+        writeRow(targetRow);
+        events++;
+    }
+
+    @Override
+    public void onRemoved(String id, String[] indexRow) throws IOException {
+        out.writeByte(REMOVED);
+        writeValue(id);
+        writeRow(indexRow);
+        events++;
+    }
+
+    @Override
+    public void onChanged(String id, String[] indexRow, String[] targetRow) throws IOException {
+        out.writeByte(CHANGED);
+        writeValue(id);
+        writeRow(indexRow);
+        writeRow(targetRow);
+        events++;
+    }
+
+    @Override
+    public void onFinish() throws IOException {
+        out.writeByte(FINISH);
+        out.close();
+    }
+
+    /**
+     * @return the number of differences written
+     */
+    long getEvents() {
+        return events;
+    }
+
+    /**
+     * It closes the file without marking it finished
+     *
+     * @throws IOException
+     */
+    void close() throws IOException {
+        out.close();
+    }
+
+    private void writeRow(String[] row) throws IOException {
+        out.writeInt(row.length);
+        for (String value : row) {
+            writeValue(value);
+        }
+    }
+
+    private void writeValue(String value) throws IOException {
+        writeValue(out, value);
+    }
+
+    /**
+     * It writes a value as its length and its UTF-8 bytes. The length of null is -1.
+     *
+     * @param out
+     * @param value
+     * @throws IOException
+     */
+    static void writeValue(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
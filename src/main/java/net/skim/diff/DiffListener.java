@@ -0,0 +1,55 @@
+package net.skim.diff;
+
+import java.io.IOException;
+
+/**
+ * It receives the differences found by a {@link DiffEngine}. Rows are the parsed values of the records.
+ * The index file is the one the engine indexes, and the target file is the one it walks through.
+ * <p>
+ * Methods are called on a single thread.
+ */
+public interface DiffListener {
+
+    /**
+     * It is called once before any difference
+     *
+     * @param header column names of the index file
+     * @throws IOException
+     */
+    void onHeader(String[] header) throws IOException;
+
+    /**
+     * It is called for a row which is only in the target file
+     *
+     * @param id
+     * @param targetRow
+     * @throws IOException
+     */
+    void onAdded(String id, String[] targetRow) throws IOException;
+
+    /**
+     * It is called for a row which is only in the index file
+     *
+     * @param id
+     * @param indexRow
+     * @throws IOException
+     */
+    void onRemoved(String id, String[] indexRow) throws IOException;
+
+    /**
+     * It is called for an ID which is in both files with different rows
+     *
+     * @param id
+     * @param indexRow
+     * @param targetRow
+     * @throws IOException
+     */
+    void onChanged(String id, String[] indexRow, String[] targetRow) throws IOException;
+
+    /**
+     * It is called once after all differences
+     *
+     * @throws IOException
+     */
+    void onFinish() throws IOException;
+}
@@ -0,0 +1,14 @@
+package net.skim.diff;
+
+import java.io.Closeable;
+
+/**
+ * A {@link DiffListener} writing the differences into an output. {@link #onFinish()} completes the output, and
+ * {@link #close()} releases what the writer holds, such as its writer thread, without completing the output. Closing
+ * a finished writer does nothing, so it is closed in a finally block whether the comparison failed or not.
+ */
+public interface DiffWriter extends DiffListener, Closeable {
+
+    @Override
+    void close();
+}
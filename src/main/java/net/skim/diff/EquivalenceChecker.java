@@ -0,0 +1,224 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.io.ChunkedCsvReader;
+import net.skim.io.RecordCursor;
+import net.skim.utils.ConcurrentUtils;
+import net.skim.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * It tells whether two CSV files have the same rows, in any order, without finding the differences.
+ * <p>
+ * Headers are compared first. Then every row of both files is reduced to its fingerprint, and the files are compared
+ * by their numbers of rows and the sums of the fingerprints, which don't depend on the order of the rows. Ranges of
+ * both files are hashed in parallel, and the check stops as soon as a difference is proven: once all ranges of one
+ * file are done, the other file having more rows so far is enough.
+ * <p>
+ * Files having different rows are told apart with very high probability, but not with certainty, as two sums of
+ * fingerprints may collide. Duplicate rows count as many times as they appear.
+ */
+public class EquivalenceChecker {
+    static final Logger log = LogManager.getLogger(EquivalenceChecker.class.getName());
+
+    private static final int INTERRUPT_CHECK_INTERVAL = 4096;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final CsvParserSettings csvParserSettings;
+    private final FileUtils fileUtils;
+    private final int threads;
+    private long minChunkSize = ChunkedCsvReader.MIN_CHUNK_SIZE;
+
+    /**
+     * @param csvParserSettings
+     * @param fileUtils
+     * @param threads           number of threads hashing the files
+     */
+    public EquivalenceChecker(CsvParserSettings csvParserSettings, FileUtils fileUtils, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads needs to be positive: " + threads);
+        }
+        this.csvParserSettings = csvParserSettings;
+        this.fileUtils = fileUtils;
+        this.threads = threads;
+    }
+
+    /**
+     * @param minChunkSize the smallest byte range hashed by a thread
+     */
+    public void setMinChunkSize(long minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    /**
+     * It checks whether two files have the same header and the same rows
+     *
+     * @param fileOneName
+     * @param fileTwoName
+     * @return true if the files are equivalent
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public boolean check(String fileOneName, String fileTwoName) throws IOException, ValidatorException {
+        if (!Arrays.equals(readHeader(fileOneName), readHeader(fileTwoName))) {
+            log.info(String.format("Headers are different: %s, %s", fileOneName, fileTwoName));
+            return false;
+        }
+
+        BlockingQueue<RowSum> done = new LinkedBlockingQueue<RowSum>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, ConcurrentUtils.daemonThreadFactory("checker"));
+        try {
+            List<Future<RowSum>> futures = new ArrayList<Future<RowSum>>();
+            int[] pending = new int[2];
+            pending[0] = submit(executor, fileOneName, 0, done, futures);
+            pending[1] = submit(executor, fileTwoName, 1, done, futures);
+
+            RowSum[] totals = {new RowSum(0), new RowSum(1)};
+            while (pending[0] + pending[1] > 0) {
+                RowSum range = take(done, futures);
+                if (range.failed) {
+                    // throws the failure of the range
+                    ConcurrentUtils.getAll(futures);
+                }
+                totals[range.file].add(range);
+                pending[range.file]--;
+                for (int file = 0; file < 2; file++) {
+                    if (pending[file] == 0 && totals[1 - file].rows > totals[file].rows) {
+                        log.info(String.format("Numbers of rows are different: %s, %s", fileOneName, fileTwoName));
+                        return false;
+                    }
+                }
+            }
+            if (totals[0].rows != totals[1].rows) {
+                log.info(String.format("Numbers of rows are different: %s, %s", fileOneName, fileTwoName));
+                return false;
+            }
+            if (totals[0].sum != totals[1].sum) {
+                log.info(String.format("Rows are different: %s, %s", fileOneName, fileTwoName));
+                return false;
+            }
+            return true;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String[] readHeader(String fileName) throws IOException, ValidatorException {
+        RecordCursor cursor = fileUtils.openRecordCursor(fileName, csvParserSettings);
+        try {
+            return cursor.getHeader();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * It submits the ranges of a file. A local file is split into ranges, and other files are read as a whole.
+     *
+     * @return the number of ranges
+     */
+    private int submit(ExecutorService executor, final String fileName, final int file, final BlockingQueue<RowSum> done,
+                       List<Future<RowSum>> futures) throws IOException, ValidatorException {
+        final ChunkedCsvReader.ChunkProcessor<RowSum> processor = new ChunkedCsvReader.ChunkProcessor<RowSum>() {
+            @Override
+            public RowSum process(RecordCursor cursor) throws IOException {
+                RowSum range = new RowSum(file);
+                try {
+                    range.read(cursor);
+                } catch (IOException | RuntimeException e) {
+                    range.failed = true;
+                    throw e;
+                } finally {
+                    done.add(range);
+                }
+                return range;
+            }
+        };
+        File localFile = fileUtils.getLocalFile(fileName);
+        if (localFile != null) {
+            ChunkedCsvReader reader = new ChunkedCsvReader(localFile, csvParserSettings);
+            reader.setMapped(fileUtils.isMappable(fileName));
+            List<Future<RowSum>> ranges = reader.submit(executor, threads, minChunkSize, processor);
+            futures.addAll(ranges);
+            return ranges.size();
+        }
+        futures.add(executor.submit(new Callable<RowSum>() {
+            @Override
+            public RowSum call() throws Exception {
+                RecordCursor cursor = fileUtils.openRecordCursor(fileName, csvParserSettings);
+                try {
+                    return processor.process(cursor);
+                } finally {
+                    cursor.close();
+                }
+            }
+        }));
+        return 1;
+    }
+
+    /**
+     * It waits for the next range. A range failing before it is read, such as one whose cursor can't be opened, is
+     * never added to the queue, so the failures of finished tasks are checked while waiting.
+     */
+    private static RowSum take(BlockingQueue<RowSum> done, List<Future<RowSum>> futures) throws IOException, ValidatorException {
+        try {
+            RowSum range;
+            while ((range = done.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                for (Future<RowSum> future : futures) {
+                    if (future.isDone()) {
+                        ConcurrentUtils.get(future);
+                    }
+                }
+            }
+            return range;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValidatorException("Interrupted while waiting for workers", e);
+        }
+    }
+
+    /**
+     * The number of rows of a range and the sum of their fingerprints
+     */
+    private static class RowSum {
+        private final int file;
+        private long rows;
+        private long sum;
+        private volatile boolean failed;
+
+        RowSum(int file) {
+            this.file = file;
+        }
+
+        void read(RecordCursor cursor) throws IOException {
+            while (cursor.next()) {
+                rows++;
+                sum += cursor.getFingerprint();
+                // The check may be over before the range is done
+                if (rows % INTERRUPT_CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+            }
+        }
+
+        void add(RowSum range) {
+            rows += range.rows;
+            sum += range.sum;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package net.skim.diff;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * It sorts (key, fingerprint, offset) entries by key under a memory budget. Entries are buffered until the budget is
+ * reached, then sorted and spilled to a run file in the temporary directory. {@link #finish()} merges the runs into
+ * a single sorted stream. At most {@link #MAX_FAN_IN} runs are merged at once, so the memory used by merging is also
+ * bounded.
+ * <p>
+ * A key is written as its length in UTF-8 bytes and the bytes, or as {@link #NULL_KEY} if it is null, so keys of any
+ * length survive the runs.
+ */
+class ExternalKeySorter implements Closeable {
+    static final Logger log = LogManager.getLogger(ExternalKeySorter.class.getName());
+
+    static final int MAX_FAN_IN = 64;
+    private static final int RUN_BUFFER_SIZE = 1 << 16;
+    private static final int NULL_KEY = -1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long memoryBudget;
+    private final File tempDirectory;
+    private final String prefix;
+    private final List<File> runs = new ArrayList<File>();
+
+    private RunEntry[] entries = new RunEntry[1024];
+    private int size;
+    private long bufferedBytes;
+
+    /**
+     * @param memoryBudget  bytes which buffered entries may take
+     * @param tempDirectory directory of the run files
+     * @param prefix        prefix of the run file names
+     */
+    ExternalKeySorter(long memoryBudget, File tempDirectory, String prefix) {
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+        this.prefix = prefix;
+    }
+
+    void add(String key, long fingerprint, long offset) throws IOException {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        RunEntry entry = new RunEntry(key, fingerprint, offset);
+        entries[size++] = entry;
+        bufferedBytes += entry.memoryUsage() + 8;
+        if (bufferedBytes >= memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * It spills the remaining entries and merges the runs until a single merge can read all of them
+     *
+     * @return a reader of all entries sorted by key
+     * @throws IOException
+     */
+    RunReader finish() throws IOException {
+        if (size > 0 || runs.isEmpty()) {
+            spill();
+        }
+        while (runs.size() > MAX_FAN_IN) {
+            List<File> group = new ArrayList<File>(runs.subList(0, MAX_FAN_IN));
+            runs.subList(0, MAX_FAN_IN).clear();
+            File merged = newRunFile();
+            RunReader reader = new MergingRunReader(group);
+            try {
+                writeRun(merged, reader);
+            } finally {
+                reader.close();
+            }
+            for (File file : group) {
+                delete(file);
+            }
+            runs.add(merged);
+        }
+        log.debug(String.format("Merging %d runs of %s", runs.size(), prefix));
+        return new MergingRunReader(runs);
+    }
+
+    /**
+     * It deletes the run files
+     */
+    @Override
+    public void close() {
+        for (File file : runs) {
+            delete(file);
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        Arrays.sort(entries, 0, size);
+        File run = newRunFile();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_SIZE));
+        try {
+            for (int i = 0; i < size; i++) {
+                writeEntry(out, entries[i]);
+                entries[i] = null;
+            }
+        } finally {
+            out.close();
+        }
+        log.debug(String.format("Spilled %d entries into %s", size, run.getName()));
+        runs.add(run);
+        size = 0;
+        bufferedBytes = 0;
+    }
+
+    private void writeRun(File run, RunReader reader) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_SIZE));
+        try {
+            while (reader.next()) {
+                writeEntry(out, reader.current());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, RunEntry entry) throws IOException {
+        if (entry.key == null) {
+            out.writeInt(NULL_KEY);
+        } else {
+            byte[] key = entry.key.getBytes(UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+        }
+        out.writeLong(entry.fingerprint);
+        out.writeLong(entry.offset);
+    }
+
+    private File newRunFile() throws IOException {
+        return File.createTempFile(prefix, ".run", tempDirectory);
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            log.warn(String.format("Can't delete the run file: %s", file.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * A forward-only reader of entries sorted by key
+     */
+    interface RunReader extends Closeable {
+        boolean next() throws IOException;
+
+        RunEntry current();
+    }
+
+    /**
+     * A reader of a single run file
+     */
+    static class FileRunReader implements RunReader {
+        private final DataInputStream in;
+        private final RunEntry entry = new RunEntry(null, 0, 0);
+        private byte[] key = new byte[64];
+
+        FileRunReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), RUN_BUFFER_SIZE));
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (!hasMore()) {
+                return false;
+            }
+            entry.key = readKey();
+            entry.fingerprint = in.readLong();
+            entry.offset = in.readLong();
+            return true;
+        }
+
+        private String readKey() throws IOException {
+            int length = in.readInt();
+            if (length == NULL_KEY) {
+                return null;
+            }
+            if (length > key.length) {
+                key = new byte[Math.max(length, key.length * 2)];
+            }
+            in.readFully(key, 0, length);
+            return new String(key, 0, length, UTF_8);
+        }
+
+        private boolean hasMore() throws IOException {
+            in.mark(1);
+            int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            in.reset();
+            return true;
+        }
+
+        @Override
+        public RunEntry current() {
+            return entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * A k-way merge of run files with a priority queue
+     */
+    static class MergingRunReader implements RunReader {
+        private final List<FileRunReader> readers = new ArrayList<FileRunReader>();
+        private final PriorityQueue<FileRunReader> queue;
+        private FileRunReader head;
+
+        MergingRunReader(List<File> runs) throws IOException {
+            queue = new PriorityQueue<FileRunReader>(Math.max(1, runs.size()), new Comparator<FileRunReader>() {
+                @Override
+                public int compare(FileRunReader a, FileRunReader b) {
+                    return a.current().compareTo(b.current());
+                }
+            });
+            try {
+                for (File run : runs) {
+                    FileRunReader reader = new FileRunReader(run);
+                    readers.add(reader);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (head != null && head.next()) {
+                queue.add(head);
+            }
+            head = queue.poll();
+            return head != null;
+        }
+
+        @Override
+        public RunEntry current() {
+            return head.current();
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (FileRunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,700 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvFormat;
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.index.FingerprintIndex;
+import net.skim.index.Hashing;
+import net.skim.index.IndexSnapshot;
+import net.skim.index.LongList;
+import net.skim.io.BlockMatcher;
+import net.skim.io.ChunkedCsvReader;
+import net.skim.io.KeyColumns;
+import net.skim.io.KeyEncoder;
+import net.skim.io.ParsingRecordCursor;
+import net.skim.io.RecordCursor;
+import net.skim.io.RecordFetcher;
+import net.skim.metrics.RowSampler;
+import net.skim.metrics.RunMetrics;
+import net.skim.utils.ConcurrentUtils;
+import net.skim.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link DiffEngine} joining two files on their IDs with row fingerprints. The ID is the value of the
+ * {@link KeyColumns} of the engine, ID by default, and keys are encoded by {@link KeyEncoder} without making strings.
+ * <p>
+ * The indexing pass reads the index file once, and keeps a 64-bit fingerprint and the byte offset of every row by
+ * its ID. The target pass reads the target file once, and classifies every row on the fly: a row whose ID is not in
+ * the index is added, and a row whose fingerprint differs from the indexed one is changed. IDs never seen in the
+ * target pass are removed. Only the rows of removed and changed IDs are fetched again by their offsets, so neither
+ * file is read twice and no temporary files are written.
+ * <p>
+ * With more than one thread, local files are parsed in parallel by {@link ChunkedCsvReader}. Results of the ranges
+ * are merged in file order, so the output is the same as with a single thread. Ranges are at most
+ * {@link #MAX_CHUNK_SIZE} long and only a few per thread are parsed or waiting at once, so the results held on the
+ * heap stay bounded however long the file is. Matched rows are merged into a bit set as they come, and only changed
+ * rows keep their ordinals and offsets.
+ * <p>
+ * With snapshots enabled, the index of a local index file is saved as an {@link IndexSnapshot} after indexing, and
+ * loaded instead of indexing the file again as long as the file and the parser settings don't change.
+ * <p>
+ * With identical blocks skipped, {@link BlockMatcher} finds the byte ranges both local files have in common before
+ * anything is parsed, and only the other ranges are indexed and walked through. The time then depends on the size of
+ * the changes rather than on the size of the files. Snapshots are not used then, as the index covers the differing
+ * ranges only.
+ * <p>
+ * With an off-heap index, the keys, fingerprints and offsets are kept in direct memory by
+ * {@link FingerprintIndex#offHeap(int)}, so the heap stays small and collections stay short for files of any number of
+ * rows. Snapshots are not used then.
+ * <p>
+ * Rows read, the time spent in parsing, hashing and lookups, the size of the index and the tasks waiting for the
+ * workers are counted into the {@link RunMetrics} of the engine, if any.
+ */
+public class FingerprintDiffEngine implements DiffEngine {
+    static final Logger log = LogManager.getLogger(FingerprintDiffEngine.class.getName());
+
+    private static final int FETCH_BATCH_SIZE = 4096;
+    // largest range of a file parsed by a worker at once
+    private static final long MAX_CHUNK_SIZE = 1 << 20;
+    // ranges parsed or waiting to be merged per thread
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private final CsvParserSettings csvParserSettings;
+    private final FileUtils fileUtils;
+    private final int threads;
+    private long minChunkSize = ChunkedCsvReader.MIN_CHUNK_SIZE;
+    private boolean snapshots;
+    private boolean skipIdenticalBlocks;
+    private boolean offHeap;
+    private KeyColumns keyColumns = KeyColumns.DEFAULT;
+    private RunMetrics metrics = RunMetrics.DISABLED;
+
+    public FingerprintDiffEngine(CsvParserSettings csvParserSettings, FileUtils fileUtils) {
+        this(csvParserSettings, fileUtils, 1);
+    }
+
+    /**
+     * @param csvParserSettings
+     * @param fileUtils
+     * @param threads           number of threads parsing each file
+     */
+    public FingerprintDiffEngine(CsvParserSettings csvParserSettings, FileUtils fileUtils, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads needs to be positive: " + threads);
+        }
+        this.csvParserSettings = csvParserSettings;
+        this.fileUtils = fileUtils;
+        this.threads = threads;
+    }
+
+    /**
+     * @param minChunkSize the smallest byte range parsed by a thread
+     */
+    public void setMinChunkSize(long minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    /**
+     * @param snapshots true to load the index from a snapshot of the index file, and to save one after indexing.
+     *                  Snapshots are kept where {@link FileUtils#getSnapshotFile(String)} locates them.
+     */
+    public void setSnapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * @param skipIdenticalBlocks true to leave the byte ranges both files have in common out of the diff. Every ID
+     *                            needs to be unique in each file then.
+     */
+    public void setSkipIdenticalBlocks(boolean skipIdenticalBlocks) {
+        this.skipIdenticalBlocks = skipIdenticalBlocks;
+    }
+
+    /**
+     * @param offHeap true to keep the index in direct memory instead of the heap
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @param keyColumns the columns rows are joined on
+     */
+    public void setKeyColumns(KeyColumns keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * @param metrics the metrics the passes are counted into
+     */
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean diff(String indexFileName, String targetFileName, DiffListener listener) throws IOException, ValidatorException {
+        if (skipIdenticalBlocks) {
+            BlockMatcher matcher = matchBlocks(indexFileName, targetFileName);
+            if (matcher != null) {
+                IndexedFile indexedFile = readIndex(indexFileName, matcher.getIndexRanges());
+                return diff(indexedFile, targetFileName, matcher.getTargetRanges(), listener);
+            }
+        }
+        IndexedFile indexedFile = buildIndex(indexFileName);
+        return diff(indexedFile, targetFileName, listener);
+    }
+
+    /**
+     * @param indexFileName
+     * @param targetFileName
+     * @return the matched blocks, or null if the files can't be matched by blocks
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    private BlockMatcher matchBlocks(String indexFileName, String targetFileName) throws IOException, ValidatorException {
+        File indexFile = fileUtils.getLocalFile(indexFileName);
+        File targetFile = fileUtils.getLocalFile(targetFileName);
+        if (indexFile == null || targetFile == null) {
+            log.debug("Identical blocks are skipped in local files only");
+            return null;
+        }
+        ChunkedCsvReader indexReader = new ChunkedCsvReader(indexFile, csvParserSettings);
+        ChunkedCsvReader targetReader = new ChunkedCsvReader(targetFile, csvParserSettings);
+        if (!indexReader.getHeaderRecord().equals(targetReader.getHeaderRecord())) {
+            log.debug("Headers are different. Identical blocks are not skipped");
+            return null;
+        }
+        BlockMatcher matcher = new BlockMatcher(indexReader, targetReader);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, ConcurrentUtils.daemonThreadFactory("block-matcher"));
+        try {
+            matcher.match(executor, threads, minChunkSize);
+        } finally {
+            executor.shutdownNow();
+        }
+        log.debug(String.format("%d identical bytes are skipped in %s and %s", matcher.getIdenticalBytes(), indexFileName, targetFileName));
+        return matcher;
+    }
+
+    /**
+     * It indexes the fingerprints and the offsets of the rows of the index file. If snapshots are enabled, a valid
+     * snapshot is loaded instead, and a missing or stale one is rebuilt.
+     *
+     * @param indexFileName
+     * @return the indexed file
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public IndexedFile buildIndex(String indexFileName) throws IOException, ValidatorException {
+        if (!snapshots || offHeap || fileUtils.getSnapshotFile(indexFileName) == null) {
+            return readIndex(indexFileName, null);
+        }
+        String[] header;
+        RecordCursor cursor = fileUtils.openRecordCursor(indexFileName, csvParserSettings);
+        try {
+            header = cursor.getHeader();
+        } finally {
+            cursor.close();
+        }
+        int[] keyPositions = keyColumns.resolve(header, indexFileName);
+        long signature = settingsSignature(csvParserSettings, header, keyColumns);
+
+        IndexSnapshot snapshot = fileUtils.loadSnapshot(indexFileName, signature);
+        if (snapshot != null) {
+            log.debug(String.format("Index is loaded from the snapshot: %s, %d IDs", indexFileName, snapshot.getIndex().size()));
+            metrics.setIndex(snapshot.getIndex().size(), snapshot.getIndex().memoryUsage());
+            return new IndexedFile(indexFileName, snapshot.getHeaderRecord(), header, keyPositions, snapshot.getIndex());
+        }
+        IndexedFile indexedFile = readIndex(indexFileName, null);
+        fileUtils.saveSnapshot(indexFileName, signature, indexedFile.getHeaderRecord(), indexedFile.getIndex());
+        return indexedFile;
+    }
+
+    /**
+     * It reads the index file once and indexes the fingerprints and the offsets of its rows
+     *
+     * @param indexFileName
+     * @param ranges        byte ranges of a local file to be indexed, in pairs, or null for the whole file
+     * @return the indexed file
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    private IndexedFile readIndex(String indexFileName, long[] ranges) throws IOException, ValidatorException {
+        int expectedRows = ranges != null ? estimateRowCount(ranges) : estimateRowCount(indexFileName);
+        FingerprintIndex index = offHeap ? FingerprintIndex.offHeap(expectedRows) : new FingerprintIndex(expectedRows);
+        log.debug("Indexing: " + indexFileName);
+        File localFile = fileUtils.getLocalFile(indexFileName);
+        String headerRecord;
+        String[] header;
+        int[] keyPositions;
+        if ((threads > 1 || ranges != null) && localFile != null) {
+            ChunkedCsvReader reader = new ChunkedCsvReader(localFile, csvParserSettings);
+            reader.setMapped(fileUtils.isMappable(indexFileName));
+            headerRecord = reader.getHeaderRecord();
+            header = ParsingRecordCursor.parseHeader(csvParserSettings, headerRecord);
+            keyPositions = keyColumns.resolve(header, indexFileName);
+            final int[] chunkKeyPositions = keyPositions;
+            final FingerprintIndex chunkIndex = index;
+            ExecutorService executor = Executors.newFixedThreadPool(threads, ConcurrentUtils.daemonThreadFactory("index-reader"));
+            metrics.watch(executor);
+            try {
+                process(reader, executor, ranges, new ChunkedCsvReader.ChunkProcessor<IndexChunk>() {
+                    @Override
+                    public IndexChunk process(RecordCursor cursor) throws IOException {
+                        RowSampler sampler = metrics.newSampler();
+                        try {
+                            return IndexChunk.read(cursor, new KeyEncoder(chunkKeyPositions), sampler);
+                        } finally {
+                            sampler.flush();
+                        }
+                    }
+                }, new ChunkMerger<IndexChunk>() {
+                    @Override
+                    public void merge(IndexChunk chunk) {
+                        long start = System.nanoTime();
+                        chunk.addTo(chunkIndex);
+                        metrics.addTime(RunMetrics.Phase.LOOKUP, System.nanoTime() - start);
+                    }
+                });
+            } finally {
+                executor.shutdownNow();
+            }
+        } else {
+            RecordCursor cursor = fileUtils.openRecordCursor(indexFileName, csvParserSettings);
+            try {
+                headerRecord = cursor.getHeaderRecord();
+                header = cursor.getHeader();
+                keyPositions = keyColumns.resolve(header, indexFileName);
+                KeyEncoder key = new KeyEncoder(keyPositions);
+                RowSampler sampler = metrics.newSampler();
+                while (cursor.next()) {
+                    key.encode(cursor);
+                    sampler.mark(RunMetrics.Phase.PARSING);
+                    long fingerprint = cursor.getFingerprint();
+                    sampler.mark(RunMetrics.Phase.HASHING);
+                    index.add(key.getBytes(), 0, key.getLength(), fingerprint, cursor.getOffset());
+                    sampler.mark(RunMetrics.Phase.LOOKUP);
+                    sampler.endRow();
+                }
+                sampler.flush();
+            } finally {
+                cursor.close();
+            }
+        }
+        addBytesRead(indexFileName, ranges);
+        metrics.setIndex(index.size(), index.memoryUsage());
+        if (index.getDuplicates() > 0) {
+            log.warn(String.format("%d rows having duplicate IDs are ignored in %s", index.getDuplicates(), indexFileName));
+        }
+        log.debug(String.format("Indexing done: %s, %d IDs, %d bytes", indexFileName, index.size(), index.memoryUsage()));
+        return new IndexedFile(indexFileName, headerRecord, header, keyPositions, index);
+    }
+
+    /**
+     * It walks through the target file once against an indexed file. The indexed file is not modified, so it can
+     * be shared by several target files.
+     *
+     * @param indexedFile
+     * @param targetFileName
+     * @param listener
+     * @return true if there are no differences
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public boolean diff(IndexedFile indexedFile, String targetFileName, DiffListener listener) throws IOException, ValidatorException {
+        return diff(indexedFile, targetFileName, null, listener);
+    }
+
+    /**
+     * @param indexedFile
+     * @param targetFileName
+     * @param ranges         byte ranges of a local target file to be walked through, in pairs, or null for the whole
+     *                       file
+     * @param listener
+     * @return true if there are no differences
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    private boolean diff(IndexedFile indexedFile, String targetFileName, long[] ranges, DiffListener listener) throws IOException, ValidatorException {
+        final FingerprintIndex index = indexedFile.getIndex();
+        final TargetMerge merge = new TargetMerge(index, targetFileName);
+        boolean result = true;
+        String targetHeaderRecord;
+        String[] targetHeader;
+
+        listener.onHeader(indexedFile.getHeader());
+        log.debug("Processing: " + targetFileName);
+        File localFile = fileUtils.getLocalFile(targetFileName);
+        if ((threads > 1 || ranges != null) && localFile != null) {
+            ChunkedCsvReader reader = new ChunkedCsvReader(localFile, csvParserSettings);
+            reader.setMapped(fileUtils.isMappable(targetFileName));
+            targetHeaderRecord = reader.getHeaderRecord();
+            targetHeader = ParsingRecordCursor.parseHeader(csvParserSettings, targetHeaderRecord);
+            final int[] keyPositions = keyColumns.resolve(targetHeader, targetFileName);
+            ExecutorService executor = Executors.newFixedThreadPool(threads, ConcurrentUtils.daemonThreadFactory("target-reader"));
+            metrics.watch(executor);
+            try {
+                process(reader, executor, ranges, new ChunkedCsvReader.ChunkProcessor<TargetChunk>() {
+                    @Override
+                    public TargetChunk process(RecordCursor cursor) throws IOException {
+                        RowSampler sampler = metrics.newSampler();
+                        try {
+                            return TargetChunk.read(cursor, new KeyEncoder(keyPositions), index, null, null, sampler);
+                        } finally {
+                            sampler.flush();
+                        }
+                    }
+                }, new ChunkMerger<TargetChunk>() {
+                    @Override
+                    public void merge(TargetChunk chunk) {
+                        merge.merge(chunk);
+                    }
+                });
+            } finally {
+                executor.shutdownNow();
+            }
+        } else {
+            RecordCursor cursor = fileUtils.openRecordCursor(targetFileName, csvParserSettings);
+            try {
+                targetHeaderRecord = cursor.getHeaderRecord();
+                targetHeader = cursor.getHeader();
+                KeyEncoder key = new KeyEncoder(keyColumns.resolve(targetHeader, targetFileName));
+                RowSampler sampler = metrics.newSampler();
+                TargetChunk chunk = TargetChunk.read(cursor, key, index, listener, merge, sampler);
+                sampler.flush();
+                result = chunk.added == 0;
+            } finally {
+                cursor.close();
+            }
+        }
+        addBytesRead(targetFileName, ranges);
+        if (!Arrays.equals(indexedFile.getHeader(), targetHeader)) {
+            log.warn(String.format("Headers are different: %s, %s", indexedFile.getFileName(), targetFileName));
+        }
+        log.debug("Processing done: " + targetFileName);
+
+        RecordFetcher indexFetcher = new RecordFetcher(fileUtils, indexedFile.getFileName(), csvParserSettings, indexedFile.getHeaderRecord());
+        RecordFetcher targetFetcher = new RecordFetcher(fileUtils, targetFileName, csvParserSettings, targetHeaderRecord);
+        try {
+            LongList addedOffsets = merge.addedOffsets;
+            if (addedOffsets.size() > 0) {
+                result = false;
+                KeyEncoder key = new KeyEncoder(keyColumns.resolve(targetHeader, targetFileName));
+                for (int i = 0; i < addedOffsets.size(); i++) {
+                    String[] targetRow = targetFetcher.fetch(addedOffsets.get(i));
+                    key.encode(targetRow);
+                    listener.onAdded(KeyColumns.display(key.toString()), targetRow);
+                }
+            }
+            if (merge.matched.cardinality() < index.size()) {
+                result = false;
+                emitRemoved(index, merge.matched, indexFetcher, listener);
+            }
+            if (merge.changedOrdinals.size() > 0) {
+                result = false;
+                emitChanged(index, merge.changedOrdinals, merge.changedTargetOffsets, indexFetcher, targetFetcher, listener);
+            }
+        } finally {
+            indexFetcher.close();
+            targetFetcher.close();
+        }
+        listener.onFinish();
+        return result;
+    }
+
+    private void emitRemoved(FingerprintIndex index, BitSet matched, RecordFetcher indexFetcher, DiffListener listener) throws IOException, ValidatorException {
+        // Ordinals follow the order of the index file, so the offsets are ascending
+        for (int ordinal = matched.nextClearBit(0); ordinal < index.size(); ordinal = matched.nextClearBit(ordinal + 1)) {
+            listener.onRemoved(KeyColumns.display(index.getId(ordinal)), indexFetcher.fetch(index.getOffset(ordinal)));
+        }
+    }
+
+    private void emitChanged(final FingerprintIndex index, LongList changedOrdinals, LongList changedTargetOffsets,
+                             RecordFetcher indexFetcher, RecordFetcher targetFetcher, DiffListener listener) throws IOException, ValidatorException {
+        for (int start = 0; start < changedOrdinals.size(); start += FETCH_BATCH_SIZE) {
+            int end = Math.min(start + FETCH_BATCH_SIZE, changedOrdinals.size());
+            final int[] ordinals = new int[end - start];
+            Integer[] byIndexOffset = new Integer[ordinals.length];
+            for (int i = 0; i < ordinals.length; i++) {
+                ordinals[i] = (int) changedOrdinals.get(start + i);
+                byIndexOffset[i] = i;
+            }
+
+            // Fetches the rows of the index file in offset order, so the file is read forward
+            Arrays.sort(byIndexOffset, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    long offsetA = index.getOffset(ordinals[a]);
+                    long offsetB = index.getOffset(ordinals[b]);
+                    return offsetA < offsetB ? -1 : (offsetA == offsetB ? 0 : 1);
+                }
+            });
+            String[][] indexRows = new String[ordinals.length][];
+            for (Integer i : byIndexOffset) {
+                indexRows[i] = indexFetcher.fetch(index.getOffset(ordinals[i]));
+            }
+
+            for (int i = 0; i < ordinals.length; i++) {
+                String[] targetRow = targetFetcher.fetch(changedTargetOffsets.get(start + i));
+                listener.onChanged(KeyColumns.display(index.getId(ordinals[i])), indexRows[i], targetRow);
+            }
+        }
+    }
+
+    /**
+     * It parses ranges of a file on the workers and merges their results in file order. Only
+     * {@link #CHUNKS_PER_THREAD} ranges per thread are submitted ahead of the merge, so the results held stay bounded.
+     *
+     * @param reader
+     * @param executor
+     * @param ranges    byte ranges to be parsed, in pairs, or null for the whole file split into ranges of at most
+     *                  {@link #MAX_CHUNK_SIZE}
+     * @param processor
+     * @param merger
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    private <T> void process(ChunkedCsvReader reader, ExecutorService executor, long[] ranges, ChunkedCsvReader.ChunkProcessor<T> processor,
+                             ChunkMerger<T> merger) throws IOException, ValidatorException {
+        if (ranges == null) {
+            ranges = reader.splitRanges(executor, threads, minChunkSize, Math.max(minChunkSize, MAX_CHUNK_SIZE));
+        }
+        Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+        int next = 0;
+        while (next < ranges.length || !pending.isEmpty()) {
+            while (next < ranges.length && pending.size() < CHUNKS_PER_THREAD * threads) {
+                pending.addAll(reader.submitRanges(executor, Arrays.copyOfRange(ranges, next, next + 2), processor));
+                next += 2;
+            }
+            merger.merge(ConcurrentUtils.get(pending.poll()));
+        }
+    }
+
+    /**
+     * It takes the results of the ranges of a file in file order
+     */
+    private interface ChunkMerger<T> {
+        void merge(T chunk);
+    }
+
+    private static int estimateRowCount(long[] ranges) {
+        return (int) Math.min(1 << 26, Math.max(1024, rangeLength(ranges) / 250));
+    }
+
+    private static long rangeLength(long[] ranges) {
+        long length = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            length += ranges[i + 1] - ranges[i];
+        }
+        return length;
+    }
+
+    /**
+     * It counts the bytes of a pass into the metrics: the given ranges, or the whole file as it is stored
+     */
+    private void addBytesRead(String fileName, long[] ranges) {
+        if (!metrics.isEnabled()) {
+            return;
+        }
+        try {
+            metrics.addBytes(ranges != null ? rangeLength(ranges) : (long) fileUtils.getFileSize(fileName));
+        } catch (IllegalArgumentException | IOException e) {
+            log.debug("The size is unknown: " + fileName);
+        }
+    }
+
+    private int estimateRowCount(String fileName) {
+        try {
+            // Rows of the sample files are about 250 bytes long
+            return (int) Math.min(1 << 26, Math.max(1024, fileUtils.getFileSize(fileName) / 250));
+        } catch (IllegalArgumentException | IOException e) {
+            return 1024;
+        }
+    }
+
+    /**
+     * It computes a signature of everything the index depends on besides the file: the selected columns, the key
+     * columns and the parser settings changing values
+     *
+     * @param csvParserSettings
+     * @param header            the selected columns of the file
+     * @param keyColumns
+     * @return the signature
+     */
+    static long settingsSignature(CsvParserSettings csvParserSettings, String[] header, KeyColumns keyColumns) {
+        CsvFormat format = csvParserSettings.getFormat();
+        String[] settings = {
+                String.valueOf(format.getDelimiter()),
+                String.valueOf(format.getQuote()),
+                String.valueOf(format.getQuoteEscape()),
+                String.valueOf(format.getComment()),
+                String.valueOf(csvParserSettings.getKeepQuotes()),
+                String.valueOf(csvParserSettings.getIgnoreLeadingWhitespaces()),
+                String.valueOf(csvParserSettings.getIgnoreTrailingWhitespaces()),
+                csvParserSettings.getNullValue(),
+                csvParserSettings.getEmptyValue()
+        };
+        long signature = Hashing.combine(Hashing.fingerprint(header), Hashing.fingerprint(settings));
+        return Hashing.combine(signature, Hashing.fingerprint(keyColumns.getNames()));
+    }
+
+    /**
+     * Rows of a range of the index file, to be added to the index in file order. Encoded keys are packed one after
+     * another in a single byte array.
+     */
+    private static class IndexChunk {
+        private byte[] keys = new byte[1 << 12];
+        private int keysLength;
+        private final LongList keyEnds = new LongList();
+        private final LongList fingerprints = new LongList();
+        private final LongList offsets = new LongList();
+
+        static IndexChunk read(RecordCursor cursor, KeyEncoder key, RowSampler sampler) throws IOException {
+            IndexChunk chunk = new IndexChunk();
+            while (cursor.next()) {
+                key.encode(cursor);
+                chunk.addKey(key.getBytes(), key.getLength());
+                sampler.mark(RunMetrics.Phase.PARSING);
+                chunk.fingerprints.add(cursor.getFingerprint());
+                sampler.mark(RunMetrics.Phase.HASHING);
+                chunk.offsets.add(cursor.getOffset());
+                sampler.endRow();
+            }
+            return chunk;
+        }
+
+        private void addKey(byte[] bytes, int length) {
+            if (keysLength + length > keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(keysLength + length, keys.length * 2));
+            }
+            System.arraycopy(bytes, 0, keys, keysLength, length);
+            keysLength += length;
+            keyEnds.add(keysLength);
+        }
+
+        void addTo(FingerprintIndex index) {
+            int start = 0;
+            for (int i = 0; i < keyEnds.size(); i++) {
+                int end = (int) keyEnds.get(i);
+                index.add(keys, start, end - start, fingerprints.get(i), offsets.get(i));
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * Matches of the target file against the index, merged in file order. The first row of a repeated ID is kept.
+     */
+    private static class TargetMerge {
+        private final FingerprintIndex index;
+        private final String targetFileName;
+        private final BitSet matched;
+        private final LongList changedOrdinals = new LongList();
+        private final LongList changedTargetOffsets = new LongList();
+        private final LongList addedOffsets = new LongList();
+
+        TargetMerge(FingerprintIndex index, String targetFileName) {
+            this.index = index;
+            this.targetFileName = targetFileName;
+            this.matched = new BitSet(index.size());
+        }
+
+        /**
+         * @param ordinal
+         * @param changedOffset the offset of the target row if its fingerprint differs, or -1
+         */
+        void match(int ordinal, long changedOffset) {
+            if (matched.get(ordinal)) {
+                log.warn(String.format("Duplicate ID is ignored in %s: %s", targetFileName, KeyColumns.display(index.getId(ordinal))));
+                return;
+            }
+            matched.set(ordinal);
+            if (changedOffset >= 0) {
+                changedOrdinals.add(ordinal);
+                changedTargetOffsets.add(changedOffset);
+            }
+        }
+
+        void merge(TargetChunk chunk) {
+            int changed = 0;
+            for (int i = 0; i < chunk.matches.size(); i++) {
+                long match = chunk.matches.get(i);
+                if (match >= 0) {
+                    match((int) match, -1);
+                } else {
+                    match((int) (-match - 1), chunk.changedOffsets.get(changed++));
+                }
+            }
+            for (int i = 0; i < chunk.addedOffsets.size(); i++) {
+                addedOffsets.add(chunk.addedOffsets.get(i));
+            }
+        }
+    }
+
+    /**
+     * Outcome of a range of the target file. Matches are kept in file order, so duplicate IDs are resolved the
+     * same way as in a single pass.
+     */
+    private static class TargetChunk {
+        // ordinals of the matched rows, as -(ordinal + 1) for a changed row
+        private final LongList matches = new LongList();
+        private final LongList changedOffsets = new LongList();
+        private final LongList addedOffsets = new LongList();
+        private long added;
+
+        /**
+         * @param cursor
+         * @param key      the encoder of the keys of the cursor
+         * @param index
+         * @param listener receives added rows right away if given. Otherwise their offsets are kept
+         * @param merge    takes matches right away if given. Otherwise they are kept
+         * @param sampler
+         * @return the outcome
+         * @throws IOException
+         */
+        static TargetChunk read(RecordCursor cursor, KeyEncoder key, FingerprintIndex index, DiffListener listener, TargetMerge merge,
+                                RowSampler sampler) throws IOException {
+            TargetChunk chunk = new TargetChunk();
+            while (cursor.next()) {
+                key.encode(cursor);
+                sampler.mark(RunMetrics.Phase.PARSING);
+                int ordinal = index.indexOf(key.getBytes(), 0, key.getLength());
+                sampler.mark(RunMetrics.Phase.LOOKUP);
+                if (ordinal < 0) {
+                    chunk.added++;
+                    if (listener != null) {
+                        listener.onAdded(KeyColumns.display(key.toString()), cursor.getValues());
+                    } else {
+                        chunk.addedOffsets.add(cursor.getOffset());
+                    }
+                } else {
+                    long fingerprint = cursor.getFingerprint();
+                    sampler.mark(RunMetrics.Phase.HASHING);
+                    long changedOffset = index.getFingerprint(ordinal) != fingerprint ? cursor.getOffset() : -1;
+                    if (merge != null) {
+                        merge.match(ordinal, changedOffset);
+                    } else if (changedOffset >= 0) {
+                        chunk.matches.add(-(long) ordinal - 1);
+                        chunk.changedOffsets.add(changedOffset);
+                    } else {
+                        chunk.matches.add(ordinal);
+                    }
+                }
+                sampler.endRow();
+            }
+            return chunk;
+        }
+    }
+}
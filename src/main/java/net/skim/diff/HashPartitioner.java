@@ -0,0 +1,115 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.index.Hashing;
+import net.skim.io.CsvScanner;
+import net.skim.io.KeyColumns;
+import net.skim.io.KeyEncoder;
+import net.skim.io.ParsingRecordCursor;
+import net.skim.io.RawFields;
+import net.skim.io.RecordReader;
+import net.skim.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * It splits a CSV file into bucket files by the hash of the key of every record. Each bucket file starts with the
+ * header of the input, so it is a valid CSV file by itself. Records are copied as raw bytes; only the key fields are
+ * located, so partitioning costs much less than parsing. The fields of a composite key are hashed together,
+ * separated like in {@link KeyEncoder}.
+ */
+class HashPartitioner {
+    static final Logger log = LogManager.getLogger(HashPartitioner.class.getName());
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUCKET_BUFFER_SIZE = 1 << 16;
+
+    private final FileUtils fileUtils;
+    private final CsvParserSettings csvParserSettings;
+    private final KeyColumns keyColumns;
+
+    HashPartitioner(FileUtils fileUtils, CsvParserSettings csvParserSettings, KeyColumns keyColumns) {
+        this.fileUtils = fileUtils;
+        this.csvParserSettings = csvParserSettings;
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * @param keyBytes
+     * @param length
+     * @param partitions
+     * @return the bucket of the key
+     */
+    static int bucketOf(byte[] keyBytes, int length, int partitions) {
+        return (int) ((Hashing.hashBytes(keyBytes, 0, length) >>> 1) % partitions);
+    }
+
+    /**
+     * @param fileName
+     * @param buckets  files to be created, one per partition
+     * @return the number of records
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    long partition(String fileName, File[] buckets) throws IOException, ValidatorException {
+        CsvScanner scanner = CsvScanner.of(csvParserSettings);
+        RecordReader reader = new RecordReader(fileUtils.getFileInputStream(fileName), scanner);
+        OutputStream[] outs = new OutputStream[buckets.length];
+        long records = 0;
+        try {
+            String headerRecord = reader.readRecord();
+            if (headerRecord == null) {
+                throw new ValidatorException("The input has no header: " + fileName);
+            }
+            // The key is found in the raw record, so its position is taken from all the columns, not only the selected ones
+            String[] header = ParsingRecordCursor.newRowParser(csvParserSettings, headerRecord).getContext().headers();
+            int[] keyPositions = keyColumns.resolve(header, fileName);
+
+            byte[] headerBytes = (headerRecord + "\n").getBytes(UTF_8);
+            for (int i = 0; i < buckets.length; i++) {
+                outs[i] = new BufferedOutputStream(new FileOutputStream(buckets[i]), BUCKET_BUFFER_SIZE);
+                outs[i].write(headerBytes);
+            }
+
+            log.debug(String.format("Partitioning: %s into %d buckets", fileName, buckets.length));
+            int[] range = new int[2];
+            byte[] key = new byte[64];
+            while (reader.nextRecord()) {
+                byte[] record = reader.getRecordBytes();
+                int length = reader.getRecordLength();
+                int keyLength = 0;
+                for (int i = 0; i < keyPositions.length; i++) {
+                    if (i > 0) {
+                        key[keyLength++] = (byte) KeyEncoder.SEPARATOR;
+                    }
+                    if (RawFields.find(record, length, keyPositions[i], scanner, range)) {
+                        if (key.length < keyLength + range[1] - range[0] + 1) {
+                            key = Arrays.copyOf(key, Math.max(key.length * 2, keyLength + range[1] - range[0] + 1));
+                        }
+                        keyLength += RawFields.unquote(record, range[0], range[1], key, keyLength);
+                    }
+                }
+                int bucket = bucketOf(key, keyLength, buckets.length);
+                outs[bucket].write(record, 0, length);
+                outs[bucket].write('\n');
+                records++;
+            }
+            log.debug(String.format("Partitioning done: %s, %d records", fileName, records));
+        } finally {
+            reader.close();
+            for (OutputStream out : outs) {
+                if (out != null) out.close();
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,48 @@
+package net.skim.diff;
+
+import net.skim.index.FingerprintIndex;
+
+/**
+ * An index file after its indexing pass: its header and the fingerprints and offsets of its rows by ID
+ */
+public class IndexedFile {
+    private final String fileName;
+    private final String headerRecord;
+    private final String[] header;
+    private final int[] keyPositions;
+    private final FingerprintIndex index;
+
+    public IndexedFile(String fileName, String headerRecord, String[] header, int[] keyPositions, FingerprintIndex index) {
+        this.fileName = fileName;
+        this.headerRecord = headerRecord;
+        this.header = header;
+        this.keyPositions = keyPositions;
+        this.index = index;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return the header as it is in the file
+     */
+    public String getHeaderRecord() {
+        return headerRecord;
+    }
+
+    public String[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the positions of the key columns in the header
+     */
+    public int[] getKeyPositions() {
+        return keyPositions;
+    }
+
+    public FingerprintIndex getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,62 @@
+package net.skim.diff;
+
+import net.skim.metrics.QueueGauge;
+import net.skim.metrics.RunMetrics;
+
+import java.io.IOException;
+
+/**
+ * A {@link DiffListener} counting the differences into {@link RunMetrics} before handing them over to another
+ * listener. The time spent in the other listener is the writing time of the run. If the other listener queues its
+ * output, the queue is watched too.
+ */
+public class MeasuredListener implements DiffListener {
+    private final DiffListener listener;
+    private final RunMetrics metrics;
+
+    public MeasuredListener(DiffListener listener, RunMetrics metrics) {
+        this.listener = listener;
+        this.metrics = metrics;
+        if (listener instanceof QueueGauge) {
+            metrics.watch((QueueGauge) listener);
+        }
+    }
+
+    @Override
+    public void onHeader(String[] header) throws IOException {
+        long start = System.nanoTime();
+        listener.onHeader(header);
+        metrics.addTime(RunMetrics.Phase.WRITING, System.nanoTime() - start);
+    }
+
+    @Override
+    public void onAdded(String id, String[] targetRow) throws IOException {
+        long start = System.nanoTime();
+        listener.onAdded(id, targetRow);
+        metrics.addTime(RunMetrics.Phase.WRITING, System.nanoTime() - start);
+        metrics.addAdded(1);
+    }
+
+    @Override
+    public void onRemoved(String id, String[] indexRow) throws IOException {
+        long start = System.nanoTime();
+        listener.onRemoved(id, indexRow);
+        metrics.addTime(RunMetrics.Phase.WRITING, System.nanoTime() - start);
+        metrics.addRemoved(1);
+    }
+
+    @Override
+    public void onChanged(String id, String[] indexRow, String[] targetRow) throws IOException {
+        long start = System.nanoTime();
+        listener.onChanged(id, indexRow, targetRow);
+        metrics.addTime(RunMetrics.Phase.WRITING, System.nanoTime() - start);
+        metrics.addChanged(1);
+    }
+
+    @Override
+    public void onFinish() throws IOException {
+        long start = System.nanoTime();
+        listener.onFinish();
+        metrics.addTime(RunMetrics.Phase.WRITING, System.nanoTime() - start);
+    }
+}
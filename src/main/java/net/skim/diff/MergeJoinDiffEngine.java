@@ -0,0 +1,205 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.index.IdIndex;
+import net.skim.io.KeyColumns;
+import net.skim.io.RecordCursor;
+import net.skim.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A {@link DiffEngine} for files which are already sorted by ID, in the order of {@link IdIndex#compareIds}. Files
+ * joined on a composite key are sorted by its columns one after another, as {@link KeyColumns#compareKeys} compares.
+ * <p>
+ * Both files are read once in lockstep, holding only the current row of each: an ID only in the index file is
+ * removed, an ID only in the target file is added, and an ID in both with different fingerprints is changed.
+ * Differences are found in ID order, and nothing is indexed or fetched again.
+ * <p>
+ * The order is checked while reading. By default, the differences are spilled to a temporary file and sent to the
+ * listener once both files turn out to be sorted; otherwise the spill is dropped and the files are compared by
+ * {@link FingerprintDiffEngine}. In streaming mode, differences are sent to the listener as they are found, and an
+ * unsorted file fails the diff.
+ */
+public class MergeJoinDiffEngine implements DiffEngine {
+    static final Logger log = LogManager.getLogger(MergeJoinDiffEngine.class.getName());
+
+    private final CsvParserSettings csvParserSettings;
+    private final FileUtils fileUtils;
+    private final int threads;
+    private final File tempDirectory;
+    private boolean streaming;
+    private KeyColumns keyColumns = KeyColumns.DEFAULT;
+
+    public MergeJoinDiffEngine(CsvParserSettings csvParserSettings, FileUtils fileUtils) {
+        this(csvParserSettings, fileUtils, 1, null);
+    }
+
+    /**
+     * @param csvParserSettings
+     * @param fileUtils
+     * @param threads           number of threads of {@link FingerprintDiffEngine} if the files are not sorted
+     * @param tempDirectory     directory of the spilled differences. The default temporary directory if null
+     */
+    public MergeJoinDiffEngine(CsvParserSettings csvParserSettings, FileUtils fileUtils, int threads, File tempDirectory) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads needs to be positive: " + threads);
+        }
+        this.csvParserSettings = csvParserSettings;
+        this.fileUtils = fileUtils;
+        this.threads = threads;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * @param streaming true to send differences as they are found, without falling back on unsorted files
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * @param keyColumns the columns rows are joined on
+     */
+    public void setKeyColumns(KeyColumns keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    @Override
+    public boolean diff(String indexFileName, String targetFileName, DiffListener listener) throws IOException, ValidatorException {
+        if (streaming) {
+            return join(indexFileName, targetFileName, listener);
+        }
+
+        File spill = File.createTempFile("csv-validator-merge-", ".bin", tempDirectory);
+        try {
+            DiffEventWriter writer = new DiffEventWriter(spill);
+            boolean result;
+            try {
+                result = join(indexFileName, targetFileName, writer);
+            } catch (UnsortedInputException e) {
+                writer.close();
+                log.info(e.getMessage() + ", falling back to the fingerprint join");
+                FingerprintDiffEngine fallback = new FingerprintDiffEngine(csvParserSettings, fileUtils, threads);
+                fallback.setKeyColumns(keyColumns);
+                return fallback.diff(indexFileName, targetFileName, listener);
+            } catch (IOException | ValidatorException | RuntimeException e) {
+                writer.close();
+                throw e;
+            }
+            DiffEventReader.replay(spill, listener, true, true);
+            return result;
+        } finally {
+            if (!spill.delete()) {
+                spill.deleteOnExit();
+            }
+        }
+    }
+
+    private boolean join(String indexFileName, String targetFileName, DiffListener listener) throws IOException, ValidatorException {
+        SortedCursor index = null;
+        SortedCursor target = null;
+        try {
+            index = new SortedCursor(fileUtils.openRecordCursor(indexFileName, csvParserSettings), indexFileName, keyColumns);
+            target = new SortedCursor(fileUtils.openRecordCursor(targetFileName, csvParserSettings), targetFileName, keyColumns);
+            listener.onHeader(index.cursor.getHeader());
+            if (!index.cursor.getHeaderRecord().equals(target.cursor.getHeaderRecord())) {
+                log.warn(String.format("Headers are different: %s, %s", indexFileName, targetFileName));
+            }
+            log.debug(String.format("Joining: %s, %s", indexFileName, targetFileName));
+
+            boolean result = true;
+            boolean hasIndex = index.next();
+            boolean hasTarget = target.next();
+            while (hasIndex || hasTarget) {
+                int order;
+                if (!hasIndex) {
+                    order = 1;
+                } else if (!hasTarget) {
+                    order = -1;
+                } else {
+                    order = KeyColumns.compareKeys(index.id, target.id);
+                }
+
+                if (order < 0) {
+                    result = false;
+                    listener.onRemoved(KeyColumns.display(index.id), index.cursor.getValues());
+                    hasIndex = index.next();
+                } else if (order > 0) {
+                    result = false;
+                    listener.onAdded(KeyColumns.display(target.id), target.cursor.getValues());
+                    hasTarget = target.next();
+                } else {
+                    if (index.cursor.getFingerprint() != target.cursor.getFingerprint()) {
+                        result = false;
+                        listener.onChanged(KeyColumns.display(index.id), index.cursor.getValues(), target.cursor.getValues());
+                    }
+                    hasIndex = index.next();
+                    hasTarget = target.next();
+                }
+            }
+            listener.onFinish();
+            log.debug(String.format("Joining done: %s, %s", indexFileName, targetFileName));
+            return result;
+        } finally {
+            if (index != null) index.close();
+            if (target != null) target.close();
+        }
+    }
+
+    /**
+     * A cursor checking that IDs are ascending. Rows having the same ID as the previous one are skipped, so the
+     * first row of a duplicate ID is kept.
+     */
+    private static class SortedCursor {
+        private final RecordCursor cursor;
+        private final String fileName;
+        private final int[] keyPositions;
+        private String id;
+        private long rows;
+
+        SortedCursor(RecordCursor cursor, String fileName, KeyColumns keyColumns) throws IOException, ValidatorException {
+            this.cursor = cursor;
+            this.fileName = fileName;
+            try {
+                this.keyPositions = keyColumns.resolve(cursor.getHeader(), fileName);
+            } catch (ValidatorException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+
+        boolean next() throws IOException, UnsortedInputException {
+            while (cursor.next()) {
+                String next = KeyColumns.keyOf(cursor, keyPositions);
+                int order = rows == 0 ? 1 : KeyColumns.compareKeys(next, id);
+                if (order < 0) {
+                    throw new UnsortedInputException(String.format("%s is not sorted by ID: %s after %s", fileName,
+                            KeyColumns.display(next), KeyColumns.display(id)));
+                }
+                if (order == 0) {
+                    log.warn("Duplicate key is ignored: " + KeyColumns.display(next));
+                    continue;
+                }
+                id = next;
+                rows++;
+                return true;
+            }
+            return false;
+        }
+
+        void close() throws IOException {
+            cursor.close();
+        }
+    }
+
+    private static class UnsortedInputException extends ValidatorException {
+        UnsortedInputException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.io.KeyColumns;
+import net.skim.utils.ConcurrentUtils;
+import net.skim.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A grace hash join {@link DiffEngine} using every core.
+ * <p>
+ * Both files are split into the same number of buckets by the hash of the key with {@link HashPartitioner}, so a key
+ * is always in the bucket pair of the same number. The bucket pairs are then diffed independently on worker threads
+ * by {@link FingerprintDiffEngine}, each with its own parser. Each worker spills its differences into its own shard,
+ * and the shards are replayed to the listener in bucket order at the end, so the output doesn't depend on
+ * scheduling.
+ */
+public class PartitionedDiffEngine implements DiffEngine {
+    static final Logger log = LogManager.getLogger(PartitionedDiffEngine.class.getName());
+
+    private final CsvParserSettings csvParserSettings;
+    private final FileUtils fileUtils;
+    private final int threads;
+    private final int partitions;
+    private final File tempDirectory;
+    private KeyColumns keyColumns = KeyColumns.DEFAULT;
+
+    public PartitionedDiffEngine(CsvParserSettings csvParserSettings, FileUtils fileUtils) {
+        this(csvParserSettings, fileUtils, Runtime.getRuntime().availableProcessors(), 0, null);
+    }
+
+    /**
+     * @param csvParserSettings
+     * @param fileUtils
+     * @param threads           number of worker threads
+     * @param partitions        number of buckets. Four per thread if not positive
+     * @param tempDirectory     directory of the buckets and the shards. The default temporary directory if null
+     */
+    public PartitionedDiffEngine(CsvParserSettings csvParserSettings, FileUtils fileUtils, int threads, int partitions, File tempDirectory) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads needs to be positive: " + threads);
+        }
+        this.csvParserSettings = csvParserSettings;
+        this.fileUtils = fileUtils;
+        this.threads = threads;
+        this.partitions = partitions > 0 ? partitions : threads * 4;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * @param keyColumns the columns rows are partitioned and joined on
+     */
+    public void setKeyColumns(KeyColumns keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    @Override
+    public boolean diff(final String indexFileName, final String targetFileName, DiffListener listener) throws IOException, ValidatorException {
+        File workDirectory = tempDirectory == null
+                ? Files.createTempDirectory("csv-validator-").toFile()
+                : Files.createTempDirectory(tempDirectory.toPath(), "csv-validator-").toFile();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, ConcurrentUtils.daemonThreadFactory("diff-worker"));
+        try {
+            final File[] indexBuckets = new File[partitions];
+            final File[] targetBuckets = new File[partitions];
+            final File[] shards = new File[partitions];
+            for (int i = 0; i < partitions; i++) {
+                indexBuckets[i] = new File(workDirectory, "index-" + i + ".csv");
+                targetBuckets[i] = new File(workDirectory, "target-" + i + ".csv");
+                shards[i] = new File(workDirectory, "shard-" + i + ".bin");
+            }
+
+            final HashPartitioner partitioner = new HashPartitioner(fileUtils, csvParserSettings, keyColumns);
+            List<Future<Long>> partitioning = new ArrayList<Future<Long>>(2);
+            partitioning.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return partitioner.partition(indexFileName, indexBuckets);
+                }
+            }));
+            partitioning.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return partitioner.partition(targetFileName, targetBuckets);
+                }
+            }));
+            ConcurrentUtils.getAll(partitioning);
+
+            List<Future<Boolean>> workers = new ArrayList<Future<Boolean>>(partitions);
+            for (int i = 0; i < partitions; i++) {
+                final int bucket = i;
+                workers.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return diffBucket(indexBuckets[bucket], targetBuckets[bucket], shards[bucket]);
+                    }
+                }));
+            }
+            boolean result = true;
+            for (Boolean bucketResult : ConcurrentUtils.getAll(workers)) {
+                result &= bucketResult;
+            }
+
+            log.debug(String.format("Merging %d shards", partitions));
+            for (int i = 0; i < partitions; i++) {
+                DiffEventReader.replay(shards[i], listener, i == 0, false);
+            }
+            listener.onFinish();
+            return result;
+        } finally {
+            executor.shutdownNow();
+            deleteDirectory(workDirectory);
+        }
+    }
+
+    private boolean diffBucket(File indexBucket, File targetBucket, File shard) throws IOException, ValidatorException {
+        FileUtils bucketFileUtils = new FileUtils(indexBucket.getAbsolutePath(), targetBucket.getAbsolutePath());
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(csvParserSettings, bucketFileUtils);
+        engine.setKeyColumns(keyColumns);
+        DiffEventWriter writer = new DiffEventWriter(shard);
+        try {
+            return engine.diff(indexBucket.getAbsolutePath(), targetBucket.getAbsolutePath(), writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    log.warn(String.format("Can't delete the temporary file: %s", file.getAbsolutePath()));
+                }
+            }
+        }
+        if (!directory.delete()) {
+            log.warn(String.format("Can't delete the temporary directory: %s", directory.getAbsolutePath()));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvWriter;
+import net.skim.io.OutputPipeline;
+import net.skim.metrics.QueueGauge;
+
+import java.io.IOException;
+
+/**
+ * A {@link DiffListener} writing the differences into the result file in the format of the original validator:
+ * the header, then a line of comma-separated values for every differing row. For a changed row, the row of the
+ * index file is followed by that of the target file.
+ * <p>
+ * Rows are written by the writer thread of an {@link OutputPipeline}, so the engine doesn't wait for the output.
+ */
+public class ResultRowWriter implements DiffWriter, QueueGauge {
+    private final OutputPipeline output;
+
+    public ResultRowWriter(CsvWriter csvWriter) {
+        this.output = new OutputPipeline(OutputPipeline.csvWriterSink(csvWriter));
+    }
+
+    @Override
+    public void onHeader(String[] header) throws IOException {
+        output.write(join(header, ","));
+    }
+
+    @Override
+    public void onAdded(String id, String[] targetRow) throws IOException {
+        output.write(join(targetRow, ", "));
+    }
+
+    @Override
+    public void onRemoved(String id, String[] indexRow) throws IOException {
+        output.write(join(indexRow, ", "));
+    }
+
+    @Override
+    public void onChanged(String id, String[] indexRow, String[] targetRow) throws IOException {
+        output.write(join(indexRow, ", "));
+        output.write(join(targetRow, ", "));
+    }
+
+    @Override
+    public void onFinish() throws IOException {
+        output.close();
+    }
+
+    /**
+     * It stops the writer thread if the comparison failed before it finished
+     */
+    @Override
+    public void close() {
+        output.abort();
+    }
+
+    /**
+     * @return batches of rows waiting for the writer thread
+     */
+    @Override
+    public int getQueueDepth() {
+        return output.getQueueDepth();
+    }
+
+    static String join(String[] values, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package net.skim.diff;
+
+/**
+ * It compares rows column by column with the {@link ColumnComparator}s of a {@link ColumnSchema}. Values which are
+ * written the same are equal without asking a comparator, so values are only parsed where their text differs.
+ * <p>
+ * It is thread-safe.
+ */
+public class RowComparator {
+    /**
+     * A comparator of rows comparing every column as it is written
+     */
+    public static final RowComparator EXACT = new RowComparator(new ColumnComparator[0]);
+
+    private final ColumnComparator[] comparators;
+
+    /**
+     * @param comparators comparators by position. A missing or null comparator compares the column as it is written
+     */
+    RowComparator(ColumnComparator[] comparators) {
+        this.comparators = comparators.clone();
+    }
+
+    /**
+     * @param column
+     * @param left   a value of the index file, or null if it is missing
+     * @param right  a value of the target file, or null if it is missing
+     * @return true if the values are written the same or the comparator of the column takes them as equivalent
+     */
+    public boolean equivalent(int column, String left, String right) {
+        if (left == null || right == null) {
+            return left == right;
+        }
+        if (left.equals(right)) {
+            return true;
+        }
+        ColumnComparator comparator = column < comparators.length ? comparators[column] : null;
+        return comparator != null && comparator.equivalent(left, right);
+    }
+
+    /**
+     * @param indexRow
+     * @param targetRow
+     * @return true if every value is equivalent. A value missing from a shorter row is taken as null.
+     */
+    public boolean equivalent(String[] indexRow, String[] targetRow) {
+        int length = Math.max(indexRow.length, targetRow.length);
+        for (int i = 0; i < length; i++) {
+            if (!equivalent(i, CellDiffWriter.valueAt(indexRow, i), CellDiffWriter.valueAt(targetRow, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every column is compared as it is written
+     */
+    public boolean isExact() {
+        for (ColumnComparator comparator : comparators) {
+            if (comparator != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+package net.skim.diff;
+
+/**
+ * A key of a row with its fingerprint and byte offset, as it is spilled to sorted runs. The key is null if the row has
+ * no value in a single key column, and such keys sort first.
+ */
+class RunEntry implements Comparable<RunEntry> {
+    String key;
+    long fingerprint;
+    long offset;
+
+    RunEntry(String key, long fingerprint, long offset) {
+        this.key = key;
+        this.fingerprint = fingerprint;
+        this.offset = offset;
+    }
+
+    /**
+     * @return approximate number of bytes held by the entry and its key
+     */
+    long memoryUsage() {
+        return 32 + 8 + 40 + (key != null ? 2L * key.length() : 0);
+    }
+
+    @Override
+    public int compareTo(RunEntry other) {
+        int result = compareKeys(key, other.key);
+        if (result != 0) {
+            return result;
+        }
+        return offset < other.offset ? -1 : (offset == other.offset ? 0 : 1);
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return the order of the keys in the runs, where null comes first
+     */
+    static int compareKeys(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareTo(b);
+    }
+}
@@ -0,0 +1,260 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.io.KeyColumns;
+import net.skim.io.ParsingRecordCursor;
+import net.skim.io.RecordCursor;
+import net.skim.io.RecordFetcher;
+import net.skim.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An out-of-core {@link DiffEngine} for files whose keys don't fit in memory.
+ * <p>
+ * Each file is read once, and (key, fingerprint, offset) entries are spilled to sorted runs under the memory budget
+ * by {@link ExternalKeySorter}. The runs of each file are k-way merged into a stream sorted by key, and the two
+ * streams are joined in lockstep: a key only in the index file is removed, a key only in the target file is added,
+ * and a key in both with different fingerprints is changed. Differing rows are fetched by their offsets in batches.
+ * <p>
+ * Memory use depends on the budget, not on the size of the files.
+ */
+public class SortMergeDiffEngine implements DiffEngine {
+    static final Logger log = LogManager.getLogger(SortMergeDiffEngine.class.getName());
+
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    private static final int FETCH_BATCH_SIZE = 4096;
+
+    private final CsvParserSettings csvParserSettings;
+    private final FileUtils fileUtils;
+    private final long memoryBudget;
+    private final File tempDirectory;
+    private KeyColumns keyColumns = KeyColumns.DEFAULT;
+
+    public SortMergeDiffEngine(CsvParserSettings csvParserSettings, FileUtils fileUtils) {
+        this(csvParserSettings, fileUtils, DEFAULT_MEMORY_BUDGET, null);
+    }
+
+    /**
+     * @param csvParserSettings
+     * @param fileUtils
+     * @param memoryBudget      bytes which buffered keys may take while sorting
+     * @param tempDirectory     directory of the sorted runs. The default temporary directory if null
+     */
+    public SortMergeDiffEngine(CsvParserSettings csvParserSettings, FileUtils fileUtils, long memoryBudget, File tempDirectory) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget needs to be positive: " + memoryBudget);
+        }
+        this.csvParserSettings = csvParserSettings;
+        this.fileUtils = fileUtils;
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * @param keyColumns the columns rows are joined on
+     */
+    public void setKeyColumns(KeyColumns keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    @Override
+    public boolean diff(String indexFileName, String targetFileName, DiffListener listener) throws IOException, ValidatorException {
+        ExternalKeySorter indexSorter = new ExternalKeySorter(memoryBudget, tempDirectory, "csv-validator-index-");
+        ExternalKeySorter targetSorter = new ExternalKeySorter(memoryBudget, tempDirectory, "csv-validator-target-");
+        try {
+            String indexHeaderRecord = sort(indexFileName, indexSorter);
+            String targetHeaderRecord = sort(targetFileName, targetSorter);
+
+            listener.onHeader(ParsingRecordCursor.parseHeader(csvParserSettings, indexHeaderRecord));
+            if (!indexHeaderRecord.equals(targetHeaderRecord)) {
+                log.warn(String.format("Headers are different: %s, %s", indexFileName, targetFileName));
+            }
+
+            RecordFetcher indexFetcher = new RecordFetcher(fileUtils, indexFileName, csvParserSettings, indexHeaderRecord);
+            RecordFetcher targetFetcher = new RecordFetcher(fileUtils, targetFileName, csvParserSettings, targetHeaderRecord);
+            UniqueKeyReader indexReader = null;
+            UniqueKeyReader targetReader = null;
+            try {
+                indexReader = new UniqueKeyReader(indexSorter.finish());
+                targetReader = new UniqueKeyReader(targetSorter.finish());
+                boolean result = join(indexReader, targetReader, new EventBatch(indexFetcher, targetFetcher, listener));
+                listener.onFinish();
+                return result;
+            } finally {
+                if (indexReader != null) indexReader.close();
+                if (targetReader != null) targetReader.close();
+                indexFetcher.close();
+                targetFetcher.close();
+            }
+        } finally {
+            indexSorter.close();
+            targetSorter.close();
+        }
+    }
+
+    private String sort(String fileName, ExternalKeySorter sorter) throws IOException, ValidatorException {
+        RecordCursor cursor = fileUtils.openRecordCursor(fileName, csvParserSettings);
+        try {
+            int[] keyPositions = keyColumns.resolve(cursor.getHeader(), fileName);
+            log.debug("Sorting: " + fileName);
+            long rows = 0;
+            while (cursor.next()) {
+                sorter.add(KeyColumns.keyOf(cursor, keyPositions), cursor.getFingerprint(), cursor.getOffset());
+                rows++;
+            }
+            log.debug(String.format("Sorting done: %s, %d rows", fileName, rows));
+            return cursor.getHeaderRecord();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean join(UniqueKeyReader indexReader, UniqueKeyReader targetReader, EventBatch batch) throws IOException, ValidatorException {
+        boolean result = true;
+        boolean hasIndex = indexReader.next();
+        boolean hasTarget = targetReader.next();
+        while (hasIndex || hasTarget) {
+            int order;
+            if (!hasIndex) {
+                order = 1;
+            } else if (!hasTarget) {
+                order = -1;
+            } else {
+                order = RunEntry.compareKeys(indexReader.current().key, targetReader.current().key);
+            }
+
+            if (order < 0) {
+                result = false;
+                batch.add(EventBatch.REMOVED, indexReader.current().key, indexReader.current().offset, -1);
+                hasIndex = indexReader.next();
+            } else if (order > 0) {
+                result = false;
+                batch.add(EventBatch.ADDED, targetReader.current().key, -1, targetReader.current().offset);
+                hasTarget = targetReader.next();
+            } else {
+                if (indexReader.current().fingerprint != targetReader.current().fingerprint) {
+                    result = false;
+                    batch.add(EventBatch.CHANGED, indexReader.current().key, indexReader.current().offset, targetReader.current().offset);
+                }
+                hasIndex = indexReader.next();
+                hasTarget = targetReader.next();
+            }
+        }
+        batch.flush();
+        return result;
+    }
+
+    /**
+     * It skips entries having the same key as the previous one, so the first row of a duplicate key is kept
+     */
+    private static class UniqueKeyReader {
+        private final ExternalKeySorter.RunReader reader;
+        private final RunEntry entry = new RunEntry(null, 0, 0);
+        private boolean hasEntry;
+
+        UniqueKeyReader(ExternalKeySorter.RunReader reader) {
+            this.reader = reader;
+        }
+
+        boolean next() throws IOException {
+            while (reader.next()) {
+                RunEntry next = reader.current();
+                if (!hasEntry || RunEntry.compareKeys(entry.key, next.key) != 0) {
+                    hasEntry = true;
+                    entry.key = next.key;
+                    entry.fingerprint = next.fingerprint;
+                    entry.offset = next.offset;
+                    return true;
+                }
+                log.warn("Duplicate key is ignored: " + KeyColumns.display(next.key));
+            }
+            return false;
+        }
+
+        RunEntry current() {
+            return entry;
+        }
+
+        void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * A bounded batch of differences in key order. When it is full, the rows are fetched in offset order from each
+     * file and the differences are sent to the listener in key order.
+     */
+    private static class EventBatch {
+        static final int ADDED = 0;
+        static final int REMOVED = 1;
+        static final int CHANGED = 2;
+
+        private final RecordFetcher indexFetcher;
+        private final RecordFetcher targetFetcher;
+        private final DiffListener listener;
+        private final List<String> keys = new ArrayList<String>(FETCH_BATCH_SIZE);
+        private final int[] types = new int[FETCH_BATCH_SIZE];
+        private final long[] indexOffsets = new long[FETCH_BATCH_SIZE];
+        private final long[] targetOffsets = new long[FETCH_BATCH_SIZE];
+
+        EventBatch(RecordFetcher indexFetcher, RecordFetcher targetFetcher, DiffListener listener) {
+            this.indexFetcher = indexFetcher;
+            this.targetFetcher = targetFetcher;
+            this.listener = listener;
+        }
+
+        void add(int type, String key, long indexOffset, long targetOffset) throws IOException, ValidatorException {
+            int i = keys.size();
+            keys.add(key);
+            types[i] = type;
+            indexOffsets[i] = indexOffset;
+            targetOffsets[i] = targetOffset;
+            if (keys.size() == FETCH_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException, ValidatorException {
+            int size = keys.size();
+            Map<Long, String[]> indexRows = fetch(indexFetcher, indexOffsets, size);
+            Map<Long, String[]> targetRows = fetch(targetFetcher, targetOffsets, size);
+            for (int i = 0; i < size; i++) {
+                String key = KeyColumns.display(keys.get(i));
+                switch (types[i]) {
+                    case ADDED:
+                        listener.onAdded(key, targetRows.get(targetOffsets[i]));
+                        break;
+                    case REMOVED:
+                        listener.onRemoved(key, indexRows.get(indexOffsets[i]));
+                        break;
+                    default:
+                        listener.onChanged(key, indexRows.get(indexOffsets[i]), targetRows.get(targetOffsets[i]));
+                }
+            }
+            keys.clear();
+        }
+
+        private static Map<Long, String[]> fetch(RecordFetcher fetcher, long[] offsets, int size) throws IOException, ValidatorException {
+            long[] sorted = Arrays.copyOf(offsets, size);
+            Arrays.sort(sorted);
+            Map<Long, String[]> rows = new HashMap<Long, String[]>(size * 2);
+            for (long offset : sorted) {
+                if (offset >= 0) {
+                    rows.put(offset, fetcher.fetch(offset));
+                }
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.skim.diff;
+
+import java.io.IOException;
+
+/**
+ * A {@link DiffWriter} handing the differences over to another writer with the index and the target file swapped.
+ * The smaller file is indexed, so it keeps the sides of a writer in the order of the arguments when the second file
+ * is the index file: a row only in the target file is removed, and a changed row has the target row on the left.
+ */
+public class SwappedSidesWriter implements DiffWriter {
+    private final DiffWriter writer;
+
+    public SwappedSidesWriter(DiffWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void onHeader(String[] header) throws IOException {
+        writer.onHeader(header);
+    }
+
+    @Override
+    public void onAdded(String id, String[] targetRow) throws IOException {
+        writer.onRemoved(id, targetRow);
+    }
+
+    @Override
+    public void onRemoved(String id, String[] indexRow) throws IOException {
+        writer.onAdded(id, indexRow);
+    }
+
+    @Override
+    public void onChanged(String id, String[] indexRow, String[] targetRow) throws IOException {
+        writer.onChanged(id, targetRow, indexRow);
+    }
+
+    @Override
+    public void onFinish() throws IOException {
+        writer.onFinish();
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+}
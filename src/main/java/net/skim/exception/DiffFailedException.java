@@ -0,0 +1,11 @@
+package net.skim.exception;
+
+/**
+ * Unchecked exception of a comparison failing where checked exceptions can't be thrown, as in an iterator. The cause
+ * is the {@link java.io.IOException} or the {@link ValidatorException} it failed with.
+ */
+public class DiffFailedException extends RuntimeException {
+    public DiffFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,102 @@
+package net.skim.index;
+
+/**
+ * A Bloom filter of keys given as UTF-8 bytes. It tells for sure that a key was never added, and lets through a small
+ * share of the keys which were not added, its false positives. It takes a fixed number of bits whatever the number of
+ * keys, so it replaces an {@link IdIndex} where the keys don't fit in memory.
+ * <p>
+ * The bits are a power of two no larger than the memory ceiling, sized for a false-positive rate of about 1% at the
+ * expected number of keys. Positions are derived from one 64-bit hash by double hashing.
+ * <p>
+ * It is not thread-safe for writes, but concurrent lookups are safe once the filter is fully built.
+ */
+public class BloomFilter {
+    private static final int MIN_BITS = 1 << 10;
+    private static final long MAX_BITS = 1L << 36;
+    // bits per key giving a false-positive rate of about 1%
+    private static final int BITS_PER_KEY = 10;
+    private static final int MAX_HASHES = 16;
+
+    private final long[] words;
+    private final long mask;
+    private final int hashes;
+    private long insertions;
+
+    /**
+     * @param memoryBytes        the largest number of bytes the bits may take
+     * @param expectedInsertions the expected number of keys, or 0 if it is not known to fill the memory ceiling
+     */
+    public BloomFilter(long memoryBytes, long expectedInsertions) {
+        long ceiling = Math.max(MIN_BITS, Math.min(MAX_BITS, Long.highestOneBit(Math.max(1, memoryBytes) * 8)));
+        long bits = ceiling;
+        if (expectedInsertions > 0 && expectedInsertions * BITS_PER_KEY < ceiling) {
+            bits = Math.max(MIN_BITS, Long.highestOneBit(expectedInsertions * BITS_PER_KEY - 1) << 1);
+        }
+        words = new long[(int) (bits >>> 6)];
+        mask = bits - 1;
+        long keys = Math.max(1, expectedInsertions);
+        hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) bits / keys * Math.log(2))));
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    public void add(byte[] bytes, int offset, int length) {
+        long hash = Hashing.hashBytes(bytes, offset, length);
+        long step = Hashing.mix64(hash) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (hash + i * step) & mask;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        insertions++;
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return false if the key was never added, true if it may have been
+     */
+    public boolean mightContain(byte[] bytes, int offset, int length) {
+        long hash = Hashing.hashBytes(bytes, offset, length);
+        long step = Hashing.mix64(hash) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (hash + i * step) & mask;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of keys added, duplicates included
+     */
+    public long getInsertions() {
+        return insertions;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    public long bitCount() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of bytes held by the filter
+     */
+    public long memoryUsage() {
+        return 8L * words.length;
+    }
+
+    /**
+     * @return the false-positive rate expected from the keys added so far, (1 - e^(-kn/m))^k
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashes * insertions / bitCount()), hashes);
+    }
+}
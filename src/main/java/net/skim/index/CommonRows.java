@@ -0,0 +1,94 @@
+package net.skim.index;
+
+/**
+ * The IDs of the rows found in both files, with the byte offsets of their rows in each file. The rows are fetched
+ * again by their offsets when they are compared, so they are never copied.
+ * <p>
+ * IDs are added from the target file, and their ordinals follow its order. An ID has no row in the index file until
+ * {@link #setIndexOffset(int, long)} is called for it. A repeated ID keeps its first row in each file.
+ */
+public class CommonRows {
+    private final IdIndex ids;
+    private final LongList targetOffsets;
+    private final LongList indexOffsets;
+
+    public CommonRows() {
+        this(1024);
+    }
+
+    public CommonRows(int expectedSize) {
+        ids = new IdIndex(expectedSize);
+        targetOffsets = new LongList(expectedSize);
+        indexOffsets = new LongList(expectedSize);
+    }
+
+    /**
+     * It adds the ID of a row of the target file given as UTF-8 bytes
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @param rowOffset the byte offset of the row in the target file
+     * @return the ordinal of the ID, or -1 if it is already in the list
+     */
+    public int addTarget(byte[] bytes, int offset, int length, long rowOffset) {
+        int size = ids.size();
+        int ordinal = ids.add(bytes, offset, length);
+        if (ordinal < size) {
+            return -1;
+        }
+        targetOffsets.add(rowOffset);
+        indexOffsets.add(-1);
+        return ordinal;
+    }
+
+    /**
+     * @param ordinal
+     * @param rowOffset the byte offset of the row of the ID in the index file
+     * @return false if the ID already has a row in the index file, which is kept
+     */
+    public boolean setIndexOffset(int ordinal, long rowOffset) {
+        if (indexOffsets.get(ordinal) >= 0) {
+            return false;
+        }
+        indexOffsets.set(ordinal, rowOffset);
+        return true;
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return the ordinal of the ID given as UTF-8 bytes, or -1 if it is not in the list
+     */
+    public int indexOf(byte[] bytes, int offset, int length) {
+        return ids.indexOf(bytes, offset, length);
+    }
+
+    public String getId(int ordinal) {
+        return ids.get(ordinal);
+    }
+
+    public long getTargetOffset(int ordinal) {
+        return targetOffsets.get(ordinal);
+    }
+
+    /**
+     * @param ordinal
+     * @return the byte offset of the row in the index file, or -1 if the ID has no row there
+     */
+    public long getIndexOffset(int ordinal) {
+        return indexOffsets.get(ordinal);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return approximate number of bytes held by the list
+     */
+    public long memoryUsage() {
+        return ids.memoryUsage() + 16L * ids.size();
+    }
+}
@@ -0,0 +1,203 @@
+package net.skim.index;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An {@link IdIndex} which also keeps the fingerprint and the byte offset of the row of every ID. Comparing
+ * fingerprints tells whether two rows are equal without keeping the rows, and the offset allows to fetch the row
+ * again only when it is needed.
+ * <p>
+ * Values are kept in primitive arrays addressed by the ordinal of the ID. An index made by {@link #offHeap(int)}
+ * keeps the IDs and the values in an {@link OffHeapKeyTable} instead, which leaves the heap alone whatever the
+ * number of rows. IDs are then stored as bytes even when they are numeric, and the index can't be saved as a snapshot.
+ */
+public class FingerprintIndex {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final IdIndex ids;
+    private final OffHeapKeyTable table;
+    private long[] fingerprints;
+    private long[] offsets;
+    private long duplicates;
+
+    public FingerprintIndex() {
+        this(1024);
+    }
+
+    public FingerprintIndex(int expectedSize) {
+        ids = new IdIndex(expectedSize);
+        table = null;
+        fingerprints = new long[Math.max(16, expectedSize)];
+        offsets = new long[Math.max(16, expectedSize)];
+    }
+
+    private FingerprintIndex(OffHeapKeyTable table) {
+        this.ids = null;
+        this.table = table;
+    }
+
+    private FingerprintIndex(IdIndex ids, long[] fingerprints, long[] offsets, long duplicates) {
+        this.ids = ids;
+        this.table = null;
+        this.fingerprints = fingerprints;
+        this.offsets = offsets;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * @param expectedSize
+     * @return an empty index kept outside the heap
+     */
+    public static FingerprintIndex offHeap(int expectedSize) {
+        return new FingerprintIndex(new OffHeapKeyTable(expectedSize));
+    }
+
+    /**
+     * It adds a row. If the ID is already in the index, the first row is kept.
+     *
+     * @param id          the ID, or null for the empty ID
+     * @param fingerprint
+     * @param offset
+     * @return the ordinal of the ID
+     */
+    public int add(String id, long fingerprint, long offset) {
+        if (table != null) {
+            byte[] bytes = id != null ? id.getBytes(UTF_8) : new byte[0];
+            return add(bytes, 0, bytes.length, fingerprint, offset);
+        }
+        int size = ids.size();
+        return set(ids.add(id), size, fingerprint, offset);
+    }
+
+    /**
+     * It adds a row by its ID given as UTF-8 bytes, like {@link #add(String, long, long)}
+     *
+     * @param bytes
+     * @param start
+     * @param length
+     * @param fingerprint
+     * @param offset
+     * @return the ordinal of the ID
+     */
+    public int add(byte[] bytes, int start, int length, long fingerprint, long offset) {
+        if (table != null) {
+            int size = table.size();
+            int ordinal = table.add(bytes, start, length, fingerprint, offset);
+            if (ordinal < size) {
+                duplicates++;
+            }
+            return ordinal;
+        }
+        int size = ids.size();
+        return set(ids.add(bytes, start, length), size, fingerprint, offset);
+    }
+
+    /**
+     * @param ordinal the ordinal of the added ID
+     * @param size    the number of IDs before it was added, so a lower ordinal is a duplicate
+     */
+    private int set(int ordinal, int size, long fingerprint, long offset) {
+        if (ordinal < size) {
+            duplicates++;
+            return ordinal;
+        }
+        if (ordinal == fingerprints.length) {
+            int grown = LongHashSet.grownLength(fingerprints.length);
+            fingerprints = Arrays.copyOf(fingerprints, grown);
+            offsets = Arrays.copyOf(offsets, grown);
+        }
+        fingerprints[ordinal] = fingerprint;
+        offsets[ordinal] = offset;
+        return ordinal;
+    }
+
+    /**
+     * @param id
+     * @return the ordinal of the ID, or -1 if it is not in the index
+     */
+    public int indexOf(String id) {
+        if (table != null) {
+            byte[] bytes = id != null ? id.getBytes(UTF_8) : new byte[0];
+            return table.indexOf(bytes, 0, bytes.length);
+        }
+        return ids.indexOf(id);
+    }
+
+    /**
+     * @param bytes
+     * @param start
+     * @param length
+     * @return the ordinal of the ID given as UTF-8 bytes, or -1 if it is not in the index
+     */
+    public int indexOf(byte[] bytes, int start, int length) {
+        return table != null ? table.indexOf(bytes, start, length) : ids.indexOf(bytes, start, length);
+    }
+
+    public String getId(int ordinal) {
+        return table != null ? table.getKey(ordinal) : ids.get(ordinal);
+    }
+
+    public long getFingerprint(int ordinal) {
+        return table != null ? table.getFingerprint(ordinal) : fingerprints[ordinal];
+    }
+
+    public long getOffset(int ordinal) {
+        return table != null ? table.getOffset(ordinal) : offsets[ordinal];
+    }
+
+    public int size() {
+        return table != null ? table.size() : ids.size();
+    }
+
+    /**
+     * @return true if the index is kept outside the heap
+     */
+    public boolean isOffHeap() {
+        return table != null;
+    }
+
+    /**
+     * @return the number of rows which were ignored because their IDs were already in the index
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return approximate number of bytes held by the index, on the heap or off it
+     */
+    public long memoryUsage() {
+        if (table != null) {
+            return table.memoryUsage();
+        }
+        return ids.memoryUsage() + 8L * fingerprints.length + 8L * offsets.length;
+    }
+
+    void writeTo(SnapshotOutput out) throws IOException {
+        if (table != null) {
+            throw new IOException("An off-heap index can't be saved as a snapshot");
+        }
+        int size = size();
+        out.writeInt(size);
+        out.writeLong(duplicates);
+        out.writeLongs(fingerprints, size);
+        out.writeLongs(offsets, size);
+        ids.writeTo(out);
+    }
+
+    static FingerprintIndex readFrom(SnapshotInput in) throws IOException {
+        int size = in.readLength(16);
+        long duplicates = in.readLong();
+        long[] fingerprints = new long[Math.max(16, size)];
+        in.readLongs(fingerprints, size);
+        long[] offsets = new long[Math.max(16, size)];
+        in.readLongs(offsets, size);
+        IdIndex ids = IdIndex.readFrom(in);
+        if (ids.size() != size) {
+            throw new IOException(String.format("Corrupted snapshot: %d IDs for %d rows", ids.size(), size));
+        }
+        return new FingerprintIndex(ids, fingerprints, offsets, duplicates);
+    }
+}
@@ -0,0 +1,156 @@
+package net.skim.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hash functions shared by the key indexes. They are not cryptographic; they only need to spread keys well over
+ * open-addressing tables and to be stable between runs.
+ */
+public final class Hashing {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long NULL_HASH = 0x6a09e667f3bcc909L;
+    public static final long FINGERPRINT_SEED = 0x9e3779b97f4a7c15L;
+
+    private Hashing() {
+    }
+
+    /**
+     * It is the finalizer of MurmurHash3. It scrambles all bits of the given value
+     *
+     * @param value
+     * @return mixed value
+     */
+    public static long mix64(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * It hashes a range of bytes with FNV-1a and mixes the result
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return 64-bit hash
+     */
+    public static long hashBytes(byte[] bytes, int offset, int length) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= bytes[i] & 0xff;
+            h *= FNV_PRIME;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * @return the initial state of a FNV-1a hash fed byte by byte with {@link #updateFnv(long, byte)}
+     */
+    public static long fnvBasis() {
+        return FNV_OFFSET_BASIS;
+    }
+
+    /**
+     * It feeds a byte to a FNV-1a hash. The state is to be mixed with {@link #mix64(long)} once all bytes are fed,
+     * which gives the same hash as {@link #hashBytes(byte[], int, int)}.
+     *
+     * @param h    the state
+     * @param b
+     * @return the new state
+     */
+    public static long updateFnv(long h, byte b) {
+        return (h ^ (b & 0xff)) * FNV_PRIME;
+    }
+
+    /**
+     * It hashes the characters of a value with FNV-1a and mixes the result
+     *
+     * @param value
+     * @return 64-bit hash. A null value has its own hash, different from that of an empty value
+     */
+    public static long hashChars(CharSequence value) {
+        if (value == null) {
+            return NULL_HASH;
+        }
+        long h = FNV_OFFSET_BASIS;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * It hashes ASCII bytes in a buffer. The result is the same as {@link #hashChars(CharSequence)} of the string
+     * having those bytes, so values can be hashed without being decoded.
+     *
+     * @param buffer
+     * @param start
+     * @param end    exclusive
+     * @return 64-bit hash
+     */
+    public static long hashAscii(ByteBuffer buffer, int start, int end) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = start; i < end; i++) {
+            h ^= buffer.get(i);
+            h *= FNV_PRIME;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * @return the hash {@link #hashChars(CharSequence)} gives to null
+     */
+    public static long nullHash() {
+        return NULL_HASH;
+    }
+
+    /**
+     * It computes a 64-bit fingerprint of a row. Two rows having the same values in the same order have the same
+     * fingerprint, and rows differing in any value have different fingerprints with very high probability.
+     *
+     * @param values
+     * @return fingerprint of the row
+     */
+    public static long fingerprint(String[] values) {
+        long h = FINGERPRINT_SEED;
+        for (String value : values) {
+            h = combine(h, hashChars(value));
+        }
+        return h;
+    }
+
+    /**
+     * It adds the hash of a value to a running, order-sensitive fingerprint
+     *
+     * @param fingerprint
+     * @param valueHash
+     * @return the new fingerprint
+     */
+    public static long combine(long fingerprint, long valueHash) {
+        return mix64(fingerprint * FNV_PRIME + valueHash);
+    }
+
+    /**
+     * It returns a table capacity, which is a power of two, able to hold the expected number of entries under
+     * the load factor of one half
+     *
+     * @param expectedSize
+     * @return capacity
+     */
+    static int tableCapacity(int expectedSize) {
+        long capacity = 16;
+        while (capacity < (long) expectedSize * 2) {
+            capacity <<= 1;
+        }
+        if (capacity > (1 << 30)) {
+            throw new IllegalStateException("Too many keys for a single index: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+}
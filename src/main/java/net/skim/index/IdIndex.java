@@ -0,0 +1,229 @@
+package net.skim.index;
+
+import java.io.IOException;
+
+/**
+ * A hashed index of row IDs with O(1) lookups. It replaces lists of IDs which are searched linearly.
+ * <p>
+ * IDs like "8036341" are stored in a {@link LongHashSet}. Only canonical decimal numbers are treated as numbers,
+ * so "0915" and "915" stay different IDs. As soon as an ID is not numeric, every ID is moved to a
+ * {@link StringHashSet} keeping their ordinals, and the index works with strings from then on.
+ * <p>
+ * Every ID has an ordinal in insertion order, from 0 to {@link #size()} - 1.
+ * <p>
+ * IDs can also be given as UTF-8 bytes, such as keys encoded by {@link net.skim.io.KeyEncoder}. Numeric IDs are then
+ * parsed from the bytes, and other IDs are stored as they are, so no {@link String} is made for them.
+ * <p>
+ * A null ID, from an empty key cell, is the empty ID, as {@link net.skim.io.KeyEncoder} encodes a missing value.
+ */
+public class IdIndex {
+    private static final int MAX_NUMERIC_DIGITS = 18;
+
+    private LongHashSet numericIds;
+    private StringHashSet stringIds;
+
+    public IdIndex() {
+        this(1024);
+    }
+
+    public IdIndex(int expectedSize) {
+        numericIds = new LongHashSet(expectedSize);
+    }
+
+    private IdIndex(LongHashSet numericIds, StringHashSet stringIds) {
+        this.numericIds = numericIds;
+        this.stringIds = stringIds;
+    }
+
+    /**
+     * It adds the ID if it is not in the index yet
+     *
+     * @param id
+     * @return the ordinal of the ID
+     */
+    public int add(String id) {
+        if (id == null) {
+            id = "";
+        }
+        if (numericIds != null) {
+            long numericId = parseCanonicalLong(id);
+            if (numericId >= 0) {
+                return numericIds.add(numericId);
+            }
+            switchToStrings();
+        }
+        return stringIds.add(id);
+    }
+
+    /**
+     * It adds the ID given as UTF-8 bytes if it is not in the index yet
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return the ordinal of the ID
+     */
+    public int add(byte[] bytes, int offset, int length) {
+        if (numericIds != null) {
+            long numericId = parseCanonicalLong(bytes, offset, length);
+            if (numericId >= 0) {
+                return numericIds.add(numericId);
+            }
+            switchToStrings();
+        }
+        return stringIds.add(bytes, offset, length);
+    }
+
+    /**
+     * @param id
+     * @return the ordinal of the ID, or -1 if it is not in the index
+     */
+    public int indexOf(String id) {
+        if (id == null) {
+            id = "";
+        }
+        if (numericIds != null) {
+            long numericId = parseCanonicalLong(id);
+            return numericId >= 0 ? numericIds.indexOf(numericId) : -1;
+        }
+        return stringIds.indexOf(id);
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return the ordinal of the ID given as UTF-8 bytes, or -1 if it is not in the index
+     */
+    public int indexOf(byte[] bytes, int offset, int length) {
+        if (numericIds != null) {
+            long numericId = parseCanonicalLong(bytes, offset, length);
+            return numericId >= 0 ? numericIds.indexOf(numericId) : -1;
+        }
+        return stringIds.indexOf(bytes, offset, length);
+    }
+
+    public boolean contains(String id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * @param ordinal
+     * @return the ID having the ordinal
+     */
+    public String get(int ordinal) {
+        if (numericIds != null) {
+            return Long.toString(numericIds.get(ordinal));
+        }
+        return stringIds.get(ordinal);
+    }
+
+    public int size() {
+        return numericIds != null ? numericIds.size() : stringIds.size();
+    }
+
+    /**
+     * @return true if all IDs are numeric and stored as primitive longs
+     */
+    public boolean isNumeric() {
+        return numericIds != null;
+    }
+
+    /**
+     * @return approximate number of bytes held by the index
+     */
+    public long memoryUsage() {
+        return numericIds != null ? numericIds.memoryUsage() : stringIds.memoryUsage();
+    }
+
+    void writeTo(SnapshotOutput out) throws IOException {
+        out.writeByte(numericIds != null ? 1 : 0);
+        if (numericIds != null) {
+            numericIds.writeTo(out);
+        } else {
+            stringIds.writeTo(out);
+        }
+    }
+
+    static IdIndex readFrom(SnapshotInput in) throws IOException {
+        if (in.readByte() == 1) {
+            return new IdIndex(LongHashSet.readFrom(in), null);
+        }
+        return new IdIndex(null, StringHashSet.readFrom(in));
+    }
+
+    private void switchToStrings() {
+        int size = numericIds.size();
+        stringIds = new StringHashSet(Math.max(1024, size));
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            stringIds.add(Long.toString(numericIds.get(ordinal)));
+        }
+        numericIds = null;
+    }
+
+    /**
+     * It compares IDs in the order of exports sorted by ID: numeric IDs by their values, followed by the other IDs in
+     * lexicographic order. Null is the smallest ID.
+     *
+     * @param a
+     * @param b
+     * @return a negative number, zero, or a positive number as a is less than, equal to, or greater than b
+     */
+    public static int compareIds(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        long numericA = parseCanonicalLong(a);
+        long numericB = parseCanonicalLong(b);
+        if (numericA >= 0 && numericB >= 0) {
+            return numericA < numericB ? -1 : (numericA == numericB ? 0 : 1);
+        }
+        if (numericA >= 0 || numericB >= 0) {
+            return numericA >= 0 ? -1 : 1;
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * It parses a canonical, non-negative decimal number which has neither a sign nor leading zeros
+     *
+     * @param value
+     * @return the number, or -1 if the value is not a canonical number
+     */
+    public static long parseCanonicalLong(String value) {
+        int length = value.length();
+        if (length == 0 || length > MAX_NUMERIC_DIGITS || (length > 1 && value.charAt(0) == '0')) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return the canonical number the ASCII bytes spell, or -1 like {@link #parseCanonicalLong(String)}
+     */
+    public static long parseCanonicalLong(byte[] bytes, int offset, int length) {
+        if (length == 0 || length > MAX_NUMERIC_DIGITS || (length > 1 && bytes[offset] == '0')) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            result = result * 10 + (b - '0');
+        }
+        return result;
+    }
+}
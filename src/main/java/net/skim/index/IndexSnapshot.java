@@ -0,0 +1,150 @@
+package net.skim.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link FingerprintIndex} saved to a file, so an index file which doesn't change is indexed only once.
+ * <p>
+ * A snapshot is stamped with the path, the size, the modification time and a checksum of its source file, and with
+ * a signature of the parser settings the fingerprints were computed with. It is only loaded while all of them
+ * match, so a stale snapshot is never used. The checksum covers the whole source, so a file edited in place with
+ * the same size and time is indexed again. Checking it is a sequential read of the file, far cheaper than parsing
+ * it.
+ * <p>
+ * The hash tables are saved as they are, and loading a snapshot copies them out of a memory-mapped file without
+ * hashing a key again. Snapshots are written to a temporary file first and renamed, so a reader never sees a
+ * partial snapshot.
+ */
+public class IndexSnapshot {
+    public static final String SUFFIX = ".fpidx";
+
+    private static final int CHECKSUM_BUFFER_SIZE = 1 << 20;
+
+    private static final long MAGIC = 0x4353564650494458L;
+    private static final int VERSION = 2;
+
+    private final String headerRecord;
+    private final FingerprintIndex index;
+
+    private IndexSnapshot(String headerRecord, FingerprintIndex index) {
+        this.headerRecord = headerRecord;
+        this.index = index;
+    }
+
+    /**
+     * @return the header of the source file as it is in the file
+     */
+    public String getHeaderRecord() {
+        return headerRecord;
+    }
+
+    public FingerprintIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * It saves the index of a source file
+     *
+     * @param snapshotFile
+     * @param sourceFile        the indexed file
+     * @param settingsSignature a signature of the settings the fingerprints were computed with
+     * @param headerRecord      the header of the source file
+     * @param index
+     * @throws IOException
+     */
+    public static void write(File snapshotFile, File sourceFile, long settingsSignature, String headerRecord, FingerprintIndex index) throws IOException {
+        File partial = File.createTempFile(snapshotFile.getName(), ".tmp", snapshotFile.getAbsoluteFile().getParentFile());
+        try {
+            SnapshotOutput out = new SnapshotOutput(partial);
+            try {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                writeStamp(out, sourceFile, settingsSignature);
+                out.writeString(headerRecord);
+                index.writeTo(out);
+                out.writeLong(MAGIC);
+            } finally {
+                out.close();
+            }
+            if (snapshotFile.exists() && !snapshotFile.delete()) {
+                throw new IOException("Unable to replace the snapshot: " + snapshotFile.getAbsolutePath());
+            }
+            if (!partial.renameTo(snapshotFile)) {
+                throw new IOException("Unable to create the snapshot: " + snapshotFile.getAbsolutePath());
+            }
+        } finally {
+            if (partial.exists() && !partial.delete()) {
+                partial.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * It loads the index of a source file if the snapshot is up to date
+     *
+     * @param snapshotFile
+     * @param sourceFile
+     * @param settingsSignature
+     * @return the snapshot, or null if there is no snapshot or it doesn't match the source file and the settings
+     * @throws IOException if the snapshot can't be read
+     */
+    public static IndexSnapshot read(File snapshotFile, File sourceFile, long settingsSignature) throws IOException {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        SnapshotInput in = new SnapshotInput(snapshotFile);
+        try {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION || !matchesStamp(in, sourceFile, settingsSignature)) {
+                return null;
+            }
+            String headerRecord = in.readString();
+            FingerprintIndex index = FingerprintIndex.readFrom(in);
+            if (in.readLong() != MAGIC) {
+                throw new IOException("Corrupted snapshot: " + snapshotFile.getAbsolutePath());
+            }
+            return new IndexSnapshot(headerRecord, index);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeStamp(SnapshotOutput out, File sourceFile, long settingsSignature) throws IOException {
+        out.writeString(sourceFile.getCanonicalPath());
+        out.writeLong(sourceFile.length());
+        out.writeLong(sourceFile.lastModified());
+        out.writeLong(checksum(sourceFile));
+        out.writeLong(settingsSignature);
+    }
+
+    private static boolean matchesStamp(SnapshotInput in, File sourceFile, long settingsSignature) throws IOException {
+        return in.readString().equals(sourceFile.getCanonicalPath())
+                && in.readLong() == sourceFile.length()
+                && in.readLong() == sourceFile.lastModified()
+                && in.readLong() == checksum(sourceFile)
+                && in.readLong() == settingsSignature;
+    }
+
+    /**
+     * @param file
+     * @return the CRC-32 of all the bytes of the file
+     * @throws IOException
+     */
+    static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+}
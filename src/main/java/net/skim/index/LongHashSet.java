@@ -0,0 +1,151 @@
+package net.skim.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash set of primitive longs. Keys are stored densely in insertion order, so every key has an
+ * ordinal which can be used to attach other primitive values to it. The probing table only keeps ordinals.
+ * <p>
+ * It takes about 16 bytes per key, while a boxed key in an {@link java.util.ArrayList} takes more than 50 bytes.
+ * It is not thread-safe for writes, but concurrent lookups are safe once the set is fully built.
+ */
+public class LongHashSet {
+    private long[] keys;
+    private int[] slots;
+    private int mask;
+    private int size;
+
+    public LongHashSet() {
+        this(1024);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Hashing.tableCapacity(expectedSize);
+        keys = new long[Math.max(16, expectedSize)];
+        slots = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private LongHashSet(long[] keys, int[] slots, int size) {
+        this.keys = keys;
+        this.slots = slots;
+        this.mask = slots.length - 1;
+        this.size = size;
+    }
+
+    /**
+     * It adds the key if it is not in the set yet
+     *
+     * @param key
+     * @return the ordinal of the key
+     */
+    public int add(long key) {
+        int slot = (int) Hashing.mix64(key) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (keys[entry - 1] == key) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int ordinal = size;
+        if (ordinal == keys.length) {
+            keys = Arrays.copyOf(keys, grownLength(keys.length));
+        }
+        keys[ordinal] = key;
+        slots[slot] = ordinal + 1;
+        size++;
+        if (size * 2 > slots.length) {
+            rehash(slots.length << 1);
+        }
+        return ordinal;
+    }
+
+    /**
+     * @param key
+     * @return the ordinal of the key, or -1 if it is not in the set
+     */
+    public int indexOf(long key) {
+        int slot = (int) Hashing.mix64(key) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (keys[entry - 1] == key) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean contains(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public long get(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size);
+        }
+        return keys[ordinal];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate number of bytes held by the set
+     */
+    public long memoryUsage() {
+        return 8L * keys.length + 4L * slots.length;
+    }
+
+    void writeTo(SnapshotOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(slots.length);
+        out.writeLongs(keys, size);
+        out.writeInts(slots, slots.length);
+    }
+
+    static LongHashSet readFrom(SnapshotInput in) throws IOException {
+        int size = in.readLength(8);
+        int capacity = readCapacity(in, size);
+        long[] keys = new long[Math.max(16, size)];
+        in.readLongs(keys, size);
+        int[] slots = new int[capacity];
+        in.readInts(slots, capacity);
+        return new LongHashSet(keys, slots, size);
+    }
+
+    /**
+     * @return the capacity of a probing table read from a snapshot, checked against the number of keys
+     */
+    static int readCapacity(SnapshotInput in, int size) throws IOException {
+        int capacity = in.readLength(4);
+        if (Integer.bitCount(capacity) != 1 || (long) size * 2 > capacity) {
+            throw new IOException(String.format("Corrupted snapshot: %d keys in %d slots", size, capacity));
+        }
+        return capacity;
+    }
+
+    private void rehash(int capacity) {
+        if (capacity > (1 << 30)) {
+            throw new IllegalStateException("Too many keys for a single index: " + size);
+        }
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            int slot = (int) Hashing.mix64(keys[ordinal]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = ordinal + 1;
+        }
+    }
+
+    static int grownLength(int length) {
+        long grown = (long) length + (length >> 1) + 16;
+        return (int) Math.min(grown, Integer.MAX_VALUE - 8);
+    }
+}
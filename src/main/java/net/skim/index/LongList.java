@@ -0,0 +1,55 @@
+package net.skim.index;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive longs
+ */
+public class LongList {
+    private long[] values;
+    private int size;
+
+    public LongList() {
+        this(16);
+    }
+
+    public LongList(int capacity) {
+        values = new long[Math.max(16, capacity)];
+    }
+
+    public void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, LongHashSet.grownLength(values.length));
+        }
+        values[size++] = value;
+    }
+
+    public long get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index: " + i + ", size: " + size);
+        }
+        return values[i];
+    }
+
+    public void set(int i, long value) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index: " + i + ", size: " + size);
+        }
+        values[i] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return a copy of the values
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
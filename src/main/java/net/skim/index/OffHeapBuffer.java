@@ -0,0 +1,120 @@
+package net.skim.index;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A growing run of bytes outside the heap, addressed by long positions. It is made of direct {@link ByteBuffer} pages
+ * of one size, a power of two, so it can hold more than 2GB. Pages are allocated as the buffer grows and are zeroed.
+ * <p>
+ * Values of fixed size never cross a page as long as they are aligned on their size. Direct memory is given back when
+ * the buffer is garbage collected, and its total is limited by -XX:MaxDirectMemorySize.
+ * <p>
+ * It is not thread-safe for writes, but concurrent reads are safe once it is fully written.
+ */
+class OffHeapBuffer {
+    static final int MAX_PAGE_SHIFT = 27;
+    private static final int MIN_PAGE_SHIFT = 12;
+
+    private final int pageShift;
+    private final int pageMask;
+    private ByteBuffer[] pages = new ByteBuffer[0];
+
+    /**
+     * @param expectedBytes the expected number of bytes, which sizes the pages up to 128MB
+     */
+    OffHeapBuffer(long expectedBytes) {
+        int shift = 64 - Long.numberOfLeadingZeros(Math.max(1, expectedBytes) - 1);
+        pageShift = Math.max(MIN_PAGE_SHIFT, Math.min(MAX_PAGE_SHIFT, shift));
+        pageMask = (1 << pageShift) - 1;
+    }
+
+    /**
+     * It allocates the pages holding the given number of bytes
+     *
+     * @param bytes
+     */
+    void ensureCapacity(long bytes) {
+        int count = (int) ((bytes + pageMask) >>> pageShift);
+        if (count > pages.length) {
+            int length = pages.length;
+            pages = Arrays.copyOf(pages, Math.max(count, length + (length >> 1)));
+            for (int i = length; i < pages.length; i++) {
+                pages[i] = ByteBuffer.allocateDirect(pageMask + 1).order(ByteOrder.nativeOrder());
+            }
+        }
+    }
+
+    long capacity() {
+        return (long) pages.length << pageShift;
+    }
+
+    byte get(long position) {
+        return pages[(int) (position >>> pageShift)].get((int) position & pageMask);
+    }
+
+    void put(long position, byte value) {
+        pages[(int) (position >>> pageShift)].put((int) position & pageMask, value);
+    }
+
+    /**
+     * It copies bytes into the buffer, across pages if needed
+     *
+     * @param position
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    void put(long position, byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            ByteBuffer page = pages[(int) (position >>> pageShift)];
+            int start = (int) position & pageMask;
+            int count = Math.min(length, pageMask + 1 - start);
+            ByteBuffer target = page.duplicate();
+            target.position(start);
+            target.put(bytes, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * It copies bytes out of the buffer, across pages if needed
+     *
+     * @param position
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    void get(long position, byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            ByteBuffer page = pages[(int) (position >>> pageShift)];
+            int start = (int) position & pageMask;
+            int count = Math.min(length, pageMask + 1 - start);
+            ByteBuffer source = page.duplicate();
+            source.position(start);
+            source.get(bytes, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    int getInt(long position) {
+        return pages[(int) (position >>> pageShift)].getInt((int) position & pageMask);
+    }
+
+    void putInt(long position, int value) {
+        pages[(int) (position >>> pageShift)].putInt((int) position & pageMask, value);
+    }
+
+    long getLong(long position) {
+        return pages[(int) (position >>> pageShift)].getLong((int) position & pageMask);
+    }
+
+    void putLong(long position, long value) {
+        pages[(int) (position >>> pageShift)].putLong((int) position & pageMask, value);
+    }
+}
@@ -0,0 +1,183 @@
+package net.skim.index;
+
+import java.nio.charset.Charset;
+
+/**
+ * An open-addressing hash table of keys given as UTF-8 bytes, with the fingerprint and the byte offset of the row of
+ * every key. Everything lives in {@link OffHeapBuffer}s, so the table makes no object per key and its size doesn't
+ * weigh on garbage collection, however many keys there are.
+ * <p>
+ * Every key has an ordinal in insertion order, and a record of 32 bytes: the fingerprint, the offset, the position of
+ * the key bytes, their length and the hash of the key. Slots hold ordinals plus one, 0 being empty.
+ * <p>
+ * It is not thread-safe for writes, but concurrent lookups are safe once the table is fully built.
+ */
+public class OffHeapKeyTable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int RECORD_SIZE = 32;
+    private static final int FINGERPRINT = 0;
+    private static final int OFFSET = 8;
+    private static final int KEY_START = 16;
+    private static final int KEY_LENGTH = 24;
+    private static final int HASH = 28;
+    // expected number of bytes of a key, for sizing the pages
+    private static final int KEY_SIZE = 12;
+    private static final long MAX_CAPACITY = 1L << 32;
+
+    private final OffHeapBuffer records;
+    private final OffHeapBuffer keys;
+    private OffHeapBuffer slots;
+    private long mask;
+    private long keysLength;
+    private int size;
+
+    public OffHeapKeyTable() {
+        this(1024);
+    }
+
+    public OffHeapKeyTable(int expectedSize) {
+        long expected = Math.max(16, expectedSize);
+        records = new OffHeapBuffer(expected * RECORD_SIZE);
+        keys = new OffHeapBuffer(expected * KEY_SIZE);
+        records.ensureCapacity(expected * RECORD_SIZE);
+        keys.ensureCapacity(expected * KEY_SIZE);
+        allocateSlots(Long.highestOneBit(expected * 2 - 1) << 1);
+    }
+
+    /**
+     * It adds the key with the fingerprint and the offset of its row if it is not in the table yet. A key already
+     * in the table keeps its first row.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @param fingerprint
+     * @param rowOffset
+     * @return the ordinal of the key
+     */
+    public int add(byte[] bytes, int offset, int length, long fingerprint, long rowOffset) {
+        int hash = (int) Hashing.hashBytes(bytes, offset, length);
+        long slot = hash & 0xffffffffL & mask;
+        int entry;
+        while ((entry = slots.getInt(slot << 2)) != 0) {
+            if (equalsAt(entry - 1, hash, bytes, offset, length)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == Integer.MAX_VALUE - 1) {
+            throw new IllegalStateException("Too many keys for a single index: " + size);
+        }
+
+        int ordinal = size;
+        long record = (long) ordinal * RECORD_SIZE;
+        records.ensureCapacity(record + RECORD_SIZE);
+        keys.ensureCapacity(keysLength + length);
+        keys.put(keysLength, bytes, offset, length);
+        records.putLong(record + FINGERPRINT, fingerprint);
+        records.putLong(record + OFFSET, rowOffset);
+        records.putLong(record + KEY_START, keysLength);
+        records.putInt(record + KEY_LENGTH, length);
+        records.putInt(record + HASH, hash);
+        keysLength += length;
+        slots.putInt(slot << 2, ordinal + 1);
+        size++;
+        if (size * 2L > mask + 1) {
+            rehash((mask + 1) << 1);
+        }
+        return ordinal;
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return the ordinal of the key given as UTF-8 bytes, or -1 if it is not in the table
+     */
+    public int indexOf(byte[] bytes, int offset, int length) {
+        int hash = (int) Hashing.hashBytes(bytes, offset, length);
+        long slot = hash & 0xffffffffL & mask;
+        int entry;
+        while ((entry = slots.getInt(slot << 2)) != 0) {
+            if (equalsAt(entry - 1, hash, bytes, offset, length)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @param ordinal
+     * @return the key having the ordinal
+     */
+    public String getKey(int ordinal) {
+        checkOrdinal(ordinal);
+        long record = (long) ordinal * RECORD_SIZE;
+        byte[] bytes = new byte[records.getInt(record + KEY_LENGTH)];
+        keys.get(records.getLong(record + KEY_START), bytes, 0, bytes.length);
+        return new String(bytes, UTF_8);
+    }
+
+    public long getFingerprint(int ordinal) {
+        checkOrdinal(ordinal);
+        return records.getLong((long) ordinal * RECORD_SIZE + FINGERPRINT);
+    }
+
+    public long getOffset(int ordinal) {
+        checkOrdinal(ordinal);
+        return records.getLong((long) ordinal * RECORD_SIZE + OFFSET);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes allocated outside the heap
+     */
+    public long memoryUsage() {
+        return records.capacity() + keys.capacity() + slots.capacity();
+    }
+
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size);
+        }
+    }
+
+    private boolean equalsAt(int ordinal, int hash, byte[] bytes, int offset, int length) {
+        long record = (long) ordinal * RECORD_SIZE;
+        if (records.getInt(record + HASH) != hash || records.getInt(record + KEY_LENGTH) != length) {
+            return false;
+        }
+        long start = records.getLong(record + KEY_START);
+        for (int i = 0; i < length; i++) {
+            if (keys.get(start + i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void allocateSlots(long capacity) {
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("Too many keys for a single index: " + size);
+        }
+        slots = new OffHeapBuffer(capacity << 2);
+        slots.ensureCapacity(capacity << 2);
+        mask = capacity - 1;
+    }
+
+    private void rehash(long capacity) {
+        allocateSlots(capacity);
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            long slot = records.getInt((long) ordinal * RECORD_SIZE + HASH) & 0xffffffffL & mask;
+            while (slots.getInt(slot << 2) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.putInt(slot << 2, ordinal + 1);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package net.skim.index;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The input of {@link IndexSnapshot}, read sequentially from a memory-mapped file. The file is mapped in windows of
+ * at most {@link #WINDOW_SIZE} bytes, and primitive arrays are copied out of the mapping in bulk.
+ */
+class SnapshotInput implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final int WINDOW_SIZE = 1 << 28;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private ByteBuffer window;
+    private long windowStart;
+
+    SnapshotInput(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.length = channel.size();
+    }
+
+    int readByte() throws IOException {
+        return require(1).get() & 0xff;
+    }
+
+    int readInt() throws IOException {
+        return require(4).getInt();
+    }
+
+    long readLong() throws IOException {
+        return require(8).getLong();
+    }
+
+    String readString() throws IOException {
+        byte[] bytes = new byte[readLength(1)];
+        readBytes(bytes, bytes.length);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * It reads the length of an array, checking that the rest of the file can hold it
+     *
+     * @param elementSize bytes of an element
+     * @return the length
+     * @throws IOException if the length is not possible
+     */
+    int readLength(int elementSize) throws IOException {
+        int count = readInt();
+        if (count < 0 || (long) count * elementSize > length - position()) {
+            throw new IOException("Corrupted snapshot: a length of " + count);
+        }
+        return count;
+    }
+
+    void readBytes(byte[] values, int count) throws IOException {
+        for (int i = 0; i < count; ) {
+            int chunk = Math.min(count - i, WINDOW_SIZE);
+            require(chunk).get(values, i, chunk);
+            i += chunk;
+        }
+    }
+
+    void readInts(int[] values, int count) throws IOException {
+        for (int i = 0; i < count; ) {
+            int chunk = Math.min(count - i, WINDOW_SIZE / 4);
+            ByteBuffer buffer = require(chunk * 4);
+            buffer.asIntBuffer().get(values, i, chunk);
+            buffer.position(buffer.position() + chunk * 4);
+            i += chunk;
+        }
+    }
+
+    void readLongs(long[] values, int count) throws IOException {
+        for (int i = 0; i < count; ) {
+            int chunk = Math.min(count - i, WINDOW_SIZE / 8);
+            ByteBuffer buffer = require(chunk * 8);
+            buffer.asLongBuffer().get(values, i, chunk);
+            buffer.position(buffer.position() + chunk * 8);
+            i += chunk;
+        }
+    }
+
+    long position() {
+        return window == null ? 0 : windowStart + window.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    private ByteBuffer require(int bytes) throws IOException {
+        if (window == null || window.remaining() < bytes) {
+            long position = position();
+            if (position + bytes > length) {
+                throw new EOFException("The snapshot is truncated");
+            }
+            long size = Math.min(Math.max(WINDOW_SIZE, bytes), length - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            windowStart = position;
+        }
+        return window;
+    }
+}
@@ -0,0 +1,96 @@
+package net.skim.index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A big-endian binary output of {@link IndexSnapshot}. Primitive arrays are copied into a direct buffer in bulk
+ * instead of value by value.
+ */
+class SnapshotOutput implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    SnapshotOutput(File file) throws IOException {
+        channel = new FileOutputStream(file).getChannel();
+    }
+
+    void writeByte(int value) throws IOException {
+        require(1).put((byte) value);
+    }
+
+    void writeInt(int value) throws IOException {
+        require(4).putInt(value);
+    }
+
+    void writeLong(long value) throws IOException {
+        require(8).putLong(value);
+    }
+
+    /**
+     * It writes a string as its length and its UTF-8 bytes
+     */
+    void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeInt(bytes.length);
+        writeBytes(bytes, bytes.length);
+    }
+
+    void writeBytes(byte[] values, int length) throws IOException {
+        for (int i = 0; i < length; ) {
+            int chunk = Math.min(length - i, require(1).remaining());
+            buffer.put(values, i, chunk);
+            i += chunk;
+        }
+    }
+
+    void writeInts(int[] values, int length) throws IOException {
+        for (int i = 0; i < length; ) {
+            int chunk = Math.min(length - i, require(4).remaining() / 4);
+            buffer.asIntBuffer().put(values, i, chunk);
+            buffer.position(buffer.position() + chunk * 4);
+            i += chunk;
+        }
+    }
+
+    void writeLongs(long[] values, int length) throws IOException {
+        for (int i = 0; i < length; ) {
+            int chunk = Math.min(length - i, require(8).remaining() / 8);
+            buffer.asLongBuffer().put(values, i, chunk);
+            buffer.position(buffer.position() + chunk * 8);
+            i += chunk;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer require(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+        return buffer;
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
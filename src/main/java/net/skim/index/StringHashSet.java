@@ -0,0 +1,210 @@
+package net.skim.index;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash set of strings. Keys are kept as UTF-8 bytes in a single growing byte array instead of
+ * {@link String} objects, so a key costs its encoded length plus 12 bytes of bookkeeping. Like {@link LongHashSet},
+ * every key has an ordinal in insertion order.
+ * <p>
+ * It is not thread-safe for writes, but concurrent lookups are safe once the set is fully built.
+ */
+public class StringHashSet {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] data;
+    private int dataLength;
+    private int[] starts;
+    private int[] hashes;
+    private int[] slots;
+    private int mask;
+    private int size;
+
+    public StringHashSet() {
+        this(1024);
+    }
+
+    public StringHashSet(int expectedSize) {
+        int capacity = Hashing.tableCapacity(expectedSize);
+        int length = Math.max(16, expectedSize);
+        data = new byte[length * 8];
+        starts = new int[length + 1];
+        hashes = new int[length];
+        slots = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private StringHashSet(byte[] data, int dataLength, int[] starts, int[] hashes, int[] slots, int size) {
+        this.data = data;
+        this.dataLength = dataLength;
+        this.starts = starts;
+        this.hashes = hashes;
+        this.slots = slots;
+        this.mask = slots.length - 1;
+        this.size = size;
+    }
+
+    /**
+     * It adds the key if it is not in the set yet
+     *
+     * @param key
+     * @return the ordinal of the key
+     */
+    public int add(String key) {
+        byte[] bytes = key.getBytes(UTF_8);
+        return add(bytes, 0, bytes.length);
+    }
+
+    /**
+     * It adds the key given as UTF-8 bytes if it is not in the set yet. The bytes are copied.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return the ordinal of the key
+     */
+    public int add(byte[] bytes, int offset, int length) {
+        int hash = (int) Hashing.hashBytes(bytes, offset, length);
+        int slot = hash & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (hashes[entry - 1] == hash && equalsAt(entry - 1, bytes, offset, length)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int ordinal = size;
+        if (ordinal == hashes.length) {
+            int grown = LongHashSet.grownLength(hashes.length);
+            hashes = Arrays.copyOf(hashes, grown);
+            starts = Arrays.copyOf(starts, grown + 1);
+        }
+        if ((long) dataLength + length > data.length) {
+            long grown = Math.max((long) dataLength + length, (long) data.length + (data.length >> 1));
+            if (grown > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("String keys exceed 2GB. Use numeric keys or an off-heap index");
+            }
+            data = Arrays.copyOf(data, (int) grown);
+        }
+        System.arraycopy(bytes, offset, data, dataLength, length);
+        starts[ordinal] = dataLength;
+        dataLength += length;
+        starts[ordinal + 1] = dataLength;
+        hashes[ordinal] = hash;
+        slots[slot] = ordinal + 1;
+        size++;
+        if (size * 2 > slots.length) {
+            rehash(slots.length << 1);
+        }
+        return ordinal;
+    }
+
+    /**
+     * @param key
+     * @return the ordinal of the key, or -1 if it is not in the set
+     */
+    public int indexOf(String key) {
+        byte[] bytes = key.getBytes(UTF_8);
+        return indexOf(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return the ordinal of the key given as UTF-8 bytes, or -1 if it is not in the set
+     */
+    public int indexOf(byte[] bytes, int offset, int length) {
+        int hash = (int) Hashing.hashBytes(bytes, offset, length);
+        int slot = hash & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (hashes[entry - 1] == hash && equalsAt(entry - 1, bytes, offset, length)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean contains(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    public String get(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException("ordinal: " + ordinal + ", size: " + size);
+        }
+        return new String(data, starts[ordinal], starts[ordinal + 1] - starts[ordinal], UTF_8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate number of bytes held by the set
+     */
+    public long memoryUsage() {
+        return (long) data.length + 4L * starts.length + 4L * hashes.length + 4L * slots.length;
+    }
+
+    void writeTo(SnapshotOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(slots.length);
+        out.writeInt(dataLength);
+        out.writeBytes(data, dataLength);
+        out.writeInts(starts, size + 1);
+        out.writeInts(hashes, size);
+        out.writeInts(slots, slots.length);
+    }
+
+    static StringHashSet readFrom(SnapshotInput in) throws IOException {
+        int size = in.readLength(8);
+        int capacity = LongHashSet.readCapacity(in, size);
+        int dataLength = in.readLength(1);
+        byte[] data = new byte[Math.max(16, dataLength)];
+        in.readBytes(data, dataLength);
+        int[] starts = new int[Math.max(16, size) + 1];
+        in.readInts(starts, size + 1);
+        int[] hashes = new int[Math.max(16, size)];
+        in.readInts(hashes, size);
+        int[] slots = new int[capacity];
+        in.readInts(slots, capacity);
+        if (starts[size] != dataLength) {
+            throw new IOException("Corrupted snapshot: keys don't match their data");
+        }
+        return new StringHashSet(data, dataLength, starts, hashes, slots, size);
+    }
+
+    private boolean equalsAt(int ordinal, byte[] bytes, int offset, int length) {
+        int start = starts[ordinal];
+        if (starts[ordinal + 1] - start != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[start + i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        if (capacity > (1 << 30)) {
+            throw new IllegalStateException("Too many keys for a single index: " + size);
+        }
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            int slot = hashes[ordinal] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = ordinal + 1;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package net.skim.io;
+
+import net.skim.exception.ValidatorException;
+import net.skim.utils.ConcurrentUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A stream decompressing BGZF, the blocked gzip format of bgzip. A BGZF file is a series of gzip members of at most
+ * 64 KiB each, whose headers give their compressed lengths. Blocks can then be cut out of the stream without
+ * inflating them, and inflated on worker threads.
+ * <p>
+ * Compressed blocks are read ahead on the calling thread, and up to {@link #READ_AHEAD_PER_THREAD} blocks per thread
+ * are inflated at once. Bytes are returned in the order of the blocks.
+ */
+public class BgzfInputStream extends InputStream {
+    static final int HEADER_LENGTH = 18;
+    static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    private static final int READ_AHEAD_PER_THREAD = 4;
+
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final int readAhead;
+    private final Deque<Future<byte[]>> blocks = new ArrayDeque<Future<byte[]>>();
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private boolean endOfInput;
+
+    private byte[] block = new byte[0];
+    private int blockPosition;
+
+    /**
+     * @param in      the compressed stream, positioned at the start of a block
+     * @param threads number of threads inflating blocks. With one thread, blocks are inflated on the calling thread
+     */
+    public BgzfInputStream(InputStream in, int threads) {
+        this.in = in;
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads, ConcurrentUtils.daemonThreadFactory("bgzf")) : null;
+        this.readAhead = threads > 1 ? threads * READ_AHEAD_PER_THREAD : 1;
+    }
+
+    /**
+     * @param header the first bytes of a stream, at least {@link #HEADER_LENGTH} of them
+     * @param length number of bytes in the header array
+     * @return true if the bytes are the header of a BGZF block
+     */
+    static boolean isBlockHeader(byte[] header, int length) {
+        return length >= HEADER_LENGTH
+                && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8
+                && (header[3] & 0x04) != 0
+                && readShort(header, 10) == 6
+                && header[12] == 'B' && header[13] == 'C'
+                && readShort(header, 14) == 2;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return block[blockPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(length, block.length - blockPosition);
+        System.arraycopy(block, blockPosition, bytes, offset, count);
+        blockPosition += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        blocks.clear();
+        in.close();
+    }
+
+    /**
+     * It moves to the next block having bytes
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        while (blockPosition == block.length) {
+            while (!endOfInput && blocks.size() < readAhead) {
+                submitNextBlock();
+            }
+            if (blocks.isEmpty()) {
+                return false;
+            }
+            try {
+                block = ConcurrentUtils.get(blocks.removeFirst());
+            } catch (ValidatorException e) {
+                throw new IOException(e);
+            }
+            blockPosition = 0;
+        }
+        return true;
+    }
+
+    private void submitNextBlock() throws IOException {
+        int read = readFully(header, 0, HEADER_LENGTH);
+        if (read == 0) {
+            endOfInput = true;
+            return;
+        }
+        if (!isBlockHeader(header, read)) {
+            throw new IOException("Not a BGZF block");
+        }
+        int blockSize = readShort(header, 16) + 1;
+        if (blockSize < HEADER_LENGTH + 8) {
+            throw new IOException("Corrupted BGZF block: a block size of " + blockSize);
+        }
+        final byte[] compressed = new byte[blockSize - HEADER_LENGTH];
+        if (readFully(compressed, 0, compressed.length) < compressed.length) {
+            throw new EOFException("The BGZF block is truncated");
+        }
+        Callable<byte[]> task = new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                return inflate(compressed);
+            }
+        };
+        if (executor != null) {
+            blocks.addLast(executor.submit(task));
+        } else {
+            FutureTask<byte[]> inflated = new FutureTask<byte[]>(task);
+            inflated.run();
+            blocks.addLast(inflated);
+        }
+    }
+
+    /**
+     * @param compressed the deflated data of a block followed by its CRC-32 and its length
+     * @return the inflated data
+     * @throws IOException if the data is corrupted
+     */
+    static byte[] inflate(byte[] compressed) throws IOException {
+        int dataLength = compressed.length - 8;
+        int size = readInt(compressed, dataLength + 4);
+        if (size < 0 || size > MAX_BLOCK_SIZE) {
+            throw new IOException("Corrupted BGZF block: a length of " + size);
+        }
+        byte[] data = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed, 0, dataLength);
+            int inflated = 0;
+            while (inflated < size && !inflater.finished()) {
+                int count = inflater.inflate(data, inflated, size - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != size) {
+                throw new IOException("Corrupted BGZF block: " + inflated + " of " + size + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted BGZF block", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, size);
+        if ((int) crc.getValue() != readInt(compressed, dataLength)) {
+            throw new IOException("Corrupted BGZF block: CRC mismatch");
+        }
+        return data;
+    }
+
+    private int readFully(byte[] bytes, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(bytes, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+    }
+}
@@ -0,0 +1,263 @@
+package net.skim.io;
+
+import net.skim.exception.ValidatorException;
+import net.skim.index.Hashing;
+import net.skim.index.LongHashSet;
+import net.skim.index.LongList;
+import net.skim.utils.ConcurrentUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * It finds the byte ranges of two CSV files which are identical, so that only the other ranges need to be diffed.
+ * <p>
+ * The data records of each file are cut into content-defined blocks without parsing: a block ends after a record
+ * whose hash is a multiple of the average block length in records. Cuts depend only on the records themselves, so
+ * blocks of the two files line up again right after an inserted or removed record. Blocks having the same hash and
+ * length in both files are identical, and are matched one to one regardless of their positions. Blocks always end at
+ * record boundaries, so the remaining ranges can be parsed on their own.
+ * <p>
+ * Both files are split by {@link ChunkedCsvReader} and their ranges are hashed in parallel. A cut is forced at the
+ * end of every range, which costs a few unmatched blocks per range only.
+ * <p>
+ * Rows in identical blocks are left out of the diff entirely. That is only right if every ID is unique in each
+ * file: a duplicate of a skipped row found in a differing range is compared as if the skipped one didn't exist.
+ */
+public class BlockMatcher {
+    static final Logger log = LogManager.getLogger(BlockMatcher.class.getName());
+
+    public static final int DEFAULT_BLOCK_RECORDS = 64;
+
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
+    private final ChunkedCsvReader indexReader;
+    private final ChunkedCsvReader targetReader;
+    private int blockRecords = DEFAULT_BLOCK_RECORDS;
+
+    private long[] indexRanges;
+    private long[] targetRanges;
+    private long identicalBytes;
+
+    /**
+     * @param indexReader
+     * @param targetReader
+     * @throws ValidatorException if the files have different headers, so equal bytes don't mean equal rows
+     */
+    public BlockMatcher(ChunkedCsvReader indexReader, ChunkedCsvReader targetReader) throws ValidatorException {
+        if (!indexReader.getHeaderRecord().equals(targetReader.getHeaderRecord())) {
+            throw new ValidatorException("Files having different headers can't be matched by blocks");
+        }
+        this.indexReader = indexReader;
+        this.targetReader = targetReader;
+    }
+
+    /**
+     * @param blockRecords the average number of records in a block
+     */
+    public void setBlockRecords(int blockRecords) {
+        if (blockRecords <= 0) {
+            throw new IllegalArgumentException("blockRecords needs to be positive: " + blockRecords);
+        }
+        this.blockRecords = blockRecords;
+    }
+
+    /**
+     * It hashes the blocks of both files and matches them
+     *
+     * @param executor
+     * @param chunks       number of ranges of each file hashed in parallel
+     * @param minChunkSize the smallest range hashed by a thread
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public void match(ExecutorService executor, int chunks, long minChunkSize) throws IOException, ValidatorException {
+        List<Future<Blocks>> indexFutures = submit(executor, indexReader, chunks, minChunkSize);
+        List<Future<Blocks>> targetFutures = submit(executor, targetReader, chunks, minChunkSize);
+        Blocks indexBlocks = Blocks.concat(ConcurrentUtils.getAll(indexFutures));
+        Blocks targetBlocks = Blocks.concat(ConcurrentUtils.getAll(targetFutures));
+
+        // Counts the blocks of the target file by their keys, and matches the blocks of the index file against them
+        LongHashSet keys = new LongHashSet(targetBlocks.size());
+        int[] available = new int[Math.max(16, targetBlocks.size())];
+        for (int i = 0; i < targetBlocks.size(); i++) {
+            available[keys.add(targetBlocks.keys.get(i))]++;
+        }
+        int[] matched = new int[available.length];
+        BitSet indexIdentical = new BitSet(indexBlocks.size());
+        for (int i = 0; i < indexBlocks.size(); i++) {
+            int ordinal = keys.indexOf(indexBlocks.keys.get(i));
+            if (ordinal >= 0 && matched[ordinal] < available[ordinal]) {
+                matched[ordinal]++;
+                indexIdentical.set(i);
+            }
+        }
+        BitSet targetIdentical = new BitSet(targetBlocks.size());
+        for (int i = 0; i < targetBlocks.size(); i++) {
+            int ordinal = keys.indexOf(targetBlocks.keys.get(i));
+            if (matched[ordinal] > 0) {
+                matched[ordinal]--;
+                targetIdentical.set(i);
+            }
+        }
+
+        indexRanges = differingRanges(indexReader, indexBlocks, indexIdentical, chunks, minChunkSize);
+        targetRanges = differingRanges(targetReader, targetBlocks, targetIdentical, chunks, minChunkSize);
+        identicalBytes = indexBlocks.identicalBytes(indexIdentical);
+        log.debug(String.format("%d of %d blocks are identical, %d bytes of each file are skipped",
+                indexIdentical.cardinality(), indexBlocks.size(), identicalBytes));
+    }
+
+    /**
+     * @return start and end offsets of the ranges of the index file which need to be diffed, in pairs
+     */
+    public long[] getIndexRanges() {
+        return indexRanges;
+    }
+
+    /**
+     * @return start and end offsets of the ranges of the target file which need to be diffed, in pairs
+     */
+    public long[] getTargetRanges() {
+        return targetRanges;
+    }
+
+    /**
+     * @return bytes of the identical blocks in each file
+     */
+    public long getIdenticalBytes() {
+        return identicalBytes;
+    }
+
+    private List<Future<Blocks>> submit(ExecutorService executor, ChunkedCsvReader reader, int chunks, long minChunkSize) throws IOException, ValidatorException {
+        final File file = reader.getFile();
+        final CsvScanner scanner = reader.getScanner();
+        long[] starts = reader.split(executor, chunks, minChunkSize);
+        List<Future<Blocks>> futures = new ArrayList<Future<Blocks>>(starts.length - 1);
+        for (int i = 0; i < starts.length - 1; i++) {
+            final long start = starts[i];
+            final long end = starts[i + 1];
+            futures.add(executor.submit(new Callable<Blocks>() {
+                @Override
+                public Blocks call() throws Exception {
+                    return Blocks.read(file, start, end, blockRecords, scanner);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * It merges adjacent differing blocks into ranges. Ranges are kept short enough to be parsed in parallel.
+     */
+    private static long[] differingRanges(ChunkedCsvReader reader, Blocks blocks, BitSet identical, int chunks, long minChunkSize) {
+        long maxRangeLength = Math.max(minChunkSize, (reader.getFileLength() - reader.getDataStart()) / Math.max(1, chunks));
+        LongList ranges = new LongList();
+        long rangeStart = -1;
+        for (int i = 0; i < blocks.size(); i++) {
+            long start = blocks.starts.get(i);
+            if (rangeStart >= 0 && (identical.get(i) || start - rangeStart >= maxRangeLength)) {
+                ranges.add(rangeStart);
+                ranges.add(start);
+                rangeStart = -1;
+            }
+            if (rangeStart < 0 && !identical.get(i)) {
+                rangeStart = start;
+            }
+        }
+        if (rangeStart >= 0) {
+            ranges.add(rangeStart);
+            ranges.add(blocks.end);
+        }
+        return ranges.toArray();
+    }
+
+    /**
+     * Blocks of a range of a file, in file order. A block ends where the next one starts.
+     */
+    private static class Blocks {
+        private final LongList starts = new LongList();
+        private final LongList keys = new LongList();
+        private long end;
+
+        int size() {
+            return starts.size();
+        }
+
+        long identicalBytes(BitSet identical) {
+            long bytes = 0;
+            for (int i = identical.nextSetBit(0); i >= 0; i = identical.nextSetBit(i + 1)) {
+                bytes += (i + 1 < size() ? starts.get(i + 1) : end) - starts.get(i);
+            }
+            return bytes;
+        }
+
+        static Blocks concat(List<Blocks> ranges) {
+            Blocks all = new Blocks();
+            for (Blocks range : ranges) {
+                for (int i = 0; i < range.size(); i++) {
+                    all.starts.add(range.starts.get(i));
+                    all.keys.add(range.keys.get(i));
+                }
+                all.end = range.end;
+            }
+            return all;
+        }
+
+        /**
+         * It cuts a range starting at a record boundary into blocks. Line breaks inside quotes don't end records.
+         */
+        static Blocks read(File file, long start, long end, int blockRecords, CsvScanner scanner) throws IOException {
+            Blocks blocks = new Blocks();
+            blocks.end = end;
+            RangeInputStream in = new RangeInputStream(file, start, end);
+            try {
+                byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+                long offset = start;
+                long blockStart = start;
+                long blockHash = Hashing.FINGERPRINT_SEED;
+                long recordHash = Hashing.fnvBasis();
+                int state = CsvScanner.RECORD_START;
+                int read;
+                while ((read = in.read(buffer, 0, buffer.length)) > 0) {
+                    for (int i = 0; i < read; i++) {
+                        byte b = buffer[i];
+                        recordHash = Hashing.updateFnv(recordHash, b);
+                        state = scanner.next(state, b);
+                        if (state == CsvScanner.RECORD_START) {
+                            long mixed = Hashing.mix64(recordHash);
+                            blockHash = Hashing.combine(blockHash, mixed);
+                            recordHash = Hashing.fnvBasis();
+                            if ((mixed & Long.MAX_VALUE) % blockRecords == 0) {
+                                blocks.add(blockStart, blockHash, offset + i + 1);
+                                blockStart = offset + i + 1;
+                                blockHash = Hashing.FINGERPRINT_SEED;
+                            }
+                        }
+                    }
+                    offset += read;
+                }
+                if (blockStart < end) {
+                    blocks.add(blockStart, Hashing.combine(blockHash, Hashing.mix64(recordHash)), end);
+                }
+            } finally {
+                in.close();
+            }
+            return blocks;
+        }
+
+        private void add(long start, long hash, long end) {
+            starts.add(start);
+            // Blocks of the same records have the same length, so the length makes collisions even less likely
+            keys.add(Hashing.combine(hash, end - start));
+        }
+    }
+}
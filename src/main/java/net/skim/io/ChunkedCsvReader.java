@@ -0,0 +1,307 @@
+package net.skim.io;
+
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.utils.ConcurrentUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * It reads a CSV file in parallel. The file is split into byte ranges, and each range is parsed on its own thread
+ * with its own {@link com.univocity.parsers.csv.CsvParser}, or tokenized from its own mapping if it is mapped.
+ * <p>
+ * Split points are moved to real record boundaries. A line break inside a quoted field is not a boundary, so the
+ * {@link CsvScanner} state at every raw split point is needed. It is found without parsing: every range is scanned in
+ * parallel from each possible state, which maps the state at its start to the state at its end, and the maps are
+ * chained from the start of the data. From there, the first line break outside quotes is the end of the previous
+ * range.
+ */
+public class ChunkedCsvReader {
+    static final Logger log = LogManager.getLogger(ChunkedCsvReader.class.getName());
+
+    public static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final CsvParserSettings csvParserSettings;
+    private final CsvScanner scanner;
+    private final String headerRecord;
+    private final long dataStart;
+    private final long fileLength;
+    private boolean mapped;
+
+    /**
+     * It reads the header of the file
+     *
+     * @param file
+     * @param csvParserSettings
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public ChunkedCsvReader(File file, CsvParserSettings csvParserSettings) throws IOException, ValidatorException {
+        this.file = file;
+        this.csvParserSettings = csvParserSettings;
+        this.scanner = CsvScanner.of(csvParserSettings);
+        this.fileLength = file.length();
+        RecordReader reader = new RecordReader(new FileInputStream(file), scanner);
+        try {
+            headerRecord = reader.readRecord();
+            if (headerRecord == null) {
+                throw new ValidatorException("The input has no header: " + file.getAbsolutePath());
+            }
+            dataStart = reader.getPosition();
+        } finally {
+            reader.close();
+        }
+    }
+
+    public String getHeaderRecord() {
+        return headerRecord;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    CsvScanner getScanner() {
+        return scanner;
+    }
+
+    /**
+     * @return the offset of the first data record
+     */
+    long getDataStart() {
+        return dataStart;
+    }
+
+    long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * @param mapped true to read the ranges with {@link MappedRecordCursor} instead of {@link ParsingRecordCursor}
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped && MappedRecordCursor.supports(csvParserSettings);
+    }
+
+    /**
+     * It processes every range with a cursor of its own. Results are returned in the order of the ranges.
+     *
+     * @param executor
+     * @param chunks    number of ranges wanted. Ranges are at least {@link #MIN_CHUNK_SIZE} long unless the
+     *                  minimum is given
+     * @param processor
+     * @return results of the ranges in file order
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public <T> List<Future<T>> submit(ExecutorService executor, int chunks, final ChunkProcessor<T> processor) throws IOException, ValidatorException {
+        return submit(executor, chunks, MIN_CHUNK_SIZE, processor);
+    }
+
+    public <T> List<Future<T>> submit(ExecutorService executor, int chunks, long minChunkSize, final ChunkProcessor<T> processor) throws IOException, ValidatorException {
+        return submitRanges(executor, splitRanges(executor, chunks, minChunkSize, Long.MAX_VALUE), processor);
+    }
+
+    /**
+     * It splits the data records of the file into ranges starting at record boundaries, so they can be submitted a
+     * few at a time with {@link #submitRanges(ExecutorService, long[], ChunkProcessor)}
+     *
+     * @param executor
+     * @param chunks       number of ranges wanted at least
+     * @param minChunkSize the smallest range
+     * @param maxChunkSize the largest range wanted. More ranges are made for a long file
+     * @return start and end offsets of the ranges, in pairs
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public long[] splitRanges(ExecutorService executor, int chunks, long minChunkSize, long maxChunkSize) throws IOException, ValidatorException {
+        long count = Math.max(chunks, (fileLength - dataStart) / Math.max(1, maxChunkSize) + 1);
+        long[] starts = split(executor, (int) Math.min(Integer.MAX_VALUE, count), minChunkSize);
+        long[] ranges = new long[2 * (starts.length - 1)];
+        for (int i = 0; i < starts.length - 1; i++) {
+            ranges[2 * i] = starts[i];
+            ranges[2 * i + 1] = starts[i + 1];
+        }
+        return ranges;
+    }
+
+    /**
+     * It processes the given ranges only, each with a cursor of its own
+     *
+     * @param executor
+     * @param ranges    start and end offsets of the ranges, in pairs. Every range needs to start at a record boundary
+     * @param processor
+     * @return results of the ranges in the given order
+     */
+    public <T> List<Future<T>> submitRanges(ExecutorService executor, long[] ranges, final ChunkProcessor<T> processor) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(ranges.length / 2);
+        for (int i = 0; i < ranges.length; i += 2) {
+            final long start = ranges[i];
+            final long end = ranges[i + 1];
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    RecordCursor cursor = mapped
+                            ? new MappedRecordCursor(file, start, end, csvParserSettings, headerRecord, MappedRecordCursor.DEFAULT_WINDOW_SIZE)
+                            : new ParsingRecordCursor(new RangeInputStream(file, start, end), start, csvParserSettings, headerRecord);
+                    try {
+                        return processor.process(cursor);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * It splits the data records of the file into ranges starting at record boundaries
+     *
+     * @param executor
+     * @param chunks
+     * @param minChunkSize
+     * @return start offsets of the ranges followed by the length of the file
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    long[] split(ExecutorService executor, int chunks, long minChunkSize) throws IOException, ValidatorException {
+        long dataLength = fileLength - dataStart;
+        int count = (int) Math.max(1, Math.min(chunks, dataLength / Math.max(1, minChunkSize)));
+        if (count == 1) {
+            return new long[]{dataStart, fileLength};
+        }
+
+        final long[] rawStarts = new long[count + 1];
+        for (int i = 0; i <= count; i++) {
+            rawStarts[i] = dataStart + dataLength * i / count;
+        }
+
+        // The state at every raw split point comes from chaining the maps of the ranges before it
+        List<Future<int[]>> transitions = new ArrayList<Future<int[]>>(count);
+        for (int i = 0; i < count; i++) {
+            final int range = i;
+            transitions.add(executor.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() throws Exception {
+                    return transitions(rawStarts[range], rawStarts[range + 1]);
+                }
+            }));
+        }
+        List<int[]> maps = ConcurrentUtils.getAll(transitions);
+        final int[] states = new int[count];
+        states[0] = CsvScanner.RECORD_START;
+        for (int i = 1; i < count; i++) {
+            states[i] = maps.get(i - 1)[states[i - 1]];
+        }
+
+        List<Future<Long>> boundaries = new ArrayList<Future<Long>>(count - 1);
+        for (int i = 1; i < count; i++) {
+            final int range = i;
+            boundaries.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return findRecordStart(rawStarts[range], states[range]);
+                }
+            }));
+        }
+
+        List<Long> starts = new ArrayList<Long>(count + 1);
+        starts.add(dataStart);
+        for (Long start : ConcurrentUtils.getAll(boundaries)) {
+            if (start > starts.get(starts.size() - 1) && start < fileLength) {
+                starts.add(start);
+            }
+        }
+        starts.add(fileLength);
+
+        long[] result = new long[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        log.debug(String.format("%s is split into %d ranges", file.getName(), result.length - 1));
+        return result;
+    }
+
+    /**
+     * @param start
+     * @param end
+     * @return the state at the end of the range for every state at its start
+     * @throws IOException
+     */
+    private int[] transitions(long start, long end) throws IOException {
+        int[] states = new int[CsvScanner.STATES];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = i;
+        }
+        RangeInputStream in = new RangeInputStream(file, start, end);
+        try {
+            byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+            int[] next = new int[states.length];
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) > 0) {
+                for (int i = 0; i < states.length; i++) {
+                    // the states soon end up the same, and a state already scanned from isn't scanned again
+                    int same = 0;
+                    while (same < i && states[same] != states[i]) {
+                        same++;
+                    }
+                    next[i] = same < i ? next[same] : scanner.scan(states[i], buffer, 0, read);
+                }
+                System.arraycopy(next, 0, states, 0, states.length);
+            }
+            return states;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param position
+     * @param state    the state before the position
+     * @return the first record start at or after the position, or the length of the file
+     * @throws IOException
+     */
+    private long findRecordStart(long position, int state) throws IOException {
+        if (state == CsvScanner.RECORD_START) {
+            return position;
+        }
+        RangeInputStream in = new RangeInputStream(file, position, fileLength);
+        try {
+            byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+            long offset = position;
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    state = scanner.next(state, buffer[i]);
+                    if (state == CsvScanner.RECORD_START) {
+                        return offset + i + 1;
+                    }
+                }
+                offset += read;
+            }
+            return fileLength;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * It processes the records of a range
+     */
+    public interface ChunkProcessor<T> {
+        T process(RecordCursor cursor) throws IOException, ValidatorException;
+    }
+}
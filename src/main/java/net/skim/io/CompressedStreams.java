@@ -0,0 +1,86 @@
+package net.skim.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Utility class for gzip streams. Compressed inputs are told by their magic bytes rather than by their names, and
+ * BGZF, the blocked gzip of bgzip, is inflated in parallel by {@link BgzfInputStream}.
+ */
+public class CompressedStreams {
+    public static final String GZIP_SUFFIX = ".gz";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private CompressedStreams() {
+    }
+
+    /**
+     * It decompresses a stream if it is gzip or BGZF
+     *
+     * @param in
+     * @param threads number of threads inflating BGZF blocks
+     * @return a stream of the decompressed bytes, or of the bytes as they are if the stream is not compressed
+     * @throws IOException
+     */
+    public static InputStream decompress(InputStream in, int threads) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, BgzfInputStream.HEADER_LENGTH);
+        byte[] header = new byte[BgzfInputStream.HEADER_LENGTH];
+        int length = 0;
+        int read;
+        while (length < header.length && (read = pushback.read(header, length, header.length - length)) > 0) {
+            length += read;
+        }
+        pushback.unread(header, 0, length);
+        if (BgzfInputStream.isBlockHeader(header, length)) {
+            return new BgzfInputStream(pushback, threads);
+        } else if (isGzip(header, length)) {
+            return new GZIPInputStream(pushback, BUFFER_SIZE);
+        }
+        return pushback;
+    }
+
+    /**
+     * @param file
+     * @return true if the file starts with the magic bytes of gzip
+     * @throws IOException
+     */
+    public static boolean isGzip(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] header = new byte[2];
+            int length = in.read(header);
+            if (length == 1) {
+                length += Math.max(0, in.read(header, 1, 1));
+            }
+            return isGzip(header, length);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * It compresses a stream with gzip if the name of its file ends with {@link #GZIP_SUFFIX}
+     *
+     * @param out
+     * @param fileName
+     * @return the stream to be written
+     * @throws IOException
+     */
+    public static OutputStream compress(OutputStream out, String fileName) throws IOException {
+        if (fileName.endsWith(GZIP_SUFFIX)) {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        return out;
+    }
+
+    private static boolean isGzip(byte[] header, int length) {
+        return length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+    }
+}
@@ -0,0 +1,120 @@
+package net.skim.io;
+
+import com.univocity.parsers.csv.CsvFormat;
+import com.univocity.parsers.csv.CsvParserSettings;
+
+/**
+ * The quote state of raw CSV bytes, shared by everything finding records and fields without parsing them. It follows
+ * the rules of {@link com.univocity.parsers.csv.CsvParser}: a quote opens a quoted value only at the start of a field,
+ * after the leading whitespace the parser skips, and anywhere else it is a literal character, as in 5'10". In a quoted
+ * value two quotes are an escaped quote, and the characters after the closing quote are unquoted up to the delimiter.
+ * <p>
+ * The state after a byte depends only on the state before it and the byte, so it is looked up in a table. A delimiter
+ * or a line break outside quotes moves to {@link #FIELD_START} or {@link #RECORD_START}. A delimiter or a quote
+ * outside ASCII can't be matched byte by byte, so it is never matched.
+ */
+public final class CsvScanner {
+    /**
+     * The start of a record, before the first byte or after a line break ending the previous record
+     */
+    public static final int RECORD_START = 0;
+    /**
+     * The start of a field, after a delimiter
+     */
+    public static final int FIELD_START = 1;
+    /**
+     * Leading whitespace of a field, which doesn't keep a quote from opening a quoted value
+     */
+    public static final int BLANK = 2;
+    public static final int UNQUOTED = 3;
+    public static final int QUOTED = 4;
+    /**
+     * A quote in a quoted value, which closes it unless another quote follows
+     */
+    public static final int CLOSING_QUOTE = 5;
+    public static final int STATES = 6;
+
+    /**
+     * The scanner of the default settings of the parser
+     */
+    public static final CsvScanner DEFAULT = new CsvScanner(',', '"', true);
+
+    private final byte[] transitions = new byte[STATES << 8];
+
+    /**
+     * @param delimiter
+     * @param quote
+     * @param ignoreLeadingWhitespaces true if whitespace before a quote still lets it open a quoted value
+     */
+    public CsvScanner(char delimiter, char quote, boolean ignoreLeadingWhitespaces) {
+        int delimiterByte = delimiter < 0x80 ? delimiter : -1;
+        int quoteByte = quote < 0x80 ? quote : -1;
+        for (int state = 0; state < STATES; state++) {
+            for (int b = 0; b < 256; b++) {
+                transitions[state << 8 | b] = (byte) transition(state, b, delimiterByte, quoteByte, ignoreLeadingWhitespaces);
+            }
+        }
+    }
+
+    /**
+     * @param csvParserSettings
+     * @return the scanner following the format of the settings
+     */
+    public static CsvScanner of(CsvParserSettings csvParserSettings) {
+        CsvFormat format = csvParserSettings.getFormat();
+        return new CsvScanner(format.getDelimiter(), format.getQuote(), csvParserSettings.getIgnoreLeadingWhitespaces());
+    }
+
+    /**
+     * @param state the state before the byte
+     * @param b
+     * @return the state after the byte
+     */
+    public int next(int state, byte b) {
+        return transitions[state << 8 | (b & 0xff)];
+    }
+
+    /**
+     * @param state  the state before the first byte
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return the state after the last byte
+     */
+    public int scan(int state, byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            state = transitions[state << 8 | (buffer[i] & 0xff)];
+        }
+        return state;
+    }
+
+    private static int transition(int state, int b, int delimiter, int quote, boolean ignoreLeadingWhitespaces) {
+        switch (state) {
+            case QUOTED:
+                return b == quote ? CLOSING_QUOTE : QUOTED;
+            case CLOSING_QUOTE:
+                if (b == quote) {
+                    return QUOTED;
+                }
+                return separator(b, delimiter, UNQUOTED);
+            case UNQUOTED:
+                return separator(b, delimiter, UNQUOTED);
+            default:
+                if (b == quote) {
+                    return QUOTED;
+                }
+                if (b != delimiter && b != '\n' && ignoreLeadingWhitespaces && b <= ' ') {
+                    return BLANK;
+                }
+                return separator(b, delimiter, UNQUOTED);
+        }
+    }
+
+    private static int separator(int b, int delimiter, int otherwise) {
+        if (b == delimiter) {
+            return FIELD_START;
+        }
+        return b == '\n' ? RECORD_START : otherwise;
+    }
+}
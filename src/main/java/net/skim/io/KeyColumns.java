@@ -0,0 +1,186 @@
+package net.skim.io;
+
+import net.skim.exception.ValidatorException;
+import net.skim.index.IdIndex;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The columns rows are joined on. A key is one column, ID by default, or several columns such as Case Number and
+ * Date, whose values together identify a row.
+ * <p>
+ * A composite key is kept as its values separated by {@link KeyEncoder#SEPARATOR}, in the order of the columns, and a
+ * missing value is an empty component. The key of a single column is its value as it is, so numeric IDs keep being
+ * stored as numbers. Values containing the separator itself are not told apart from the keys they run into.
+ */
+public class KeyColumns {
+    public static final KeyColumns DEFAULT = new KeyColumns("ID");
+
+    private static final char DISPLAY_SEPARATOR = '|';
+
+    private final String[] names;
+
+    /**
+     * @param names
+     */
+    public KeyColumns(String... names) {
+        if (names == null || names.length == 0) {
+            throw new IllegalArgumentException("A key needs at least one column");
+        }
+        this.names = names.clone();
+    }
+
+    public KeyColumns(List<String> names) {
+        this(names == null ? null : names.toArray(new String[names.size()]));
+    }
+
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * @return true if the key is made of more than one column
+     */
+    public boolean isComposite() {
+        return names.length > 1;
+    }
+
+    /**
+     * @param columnName
+     * @return true if the column is part of the key, ignoring case like the exclusion of columns
+     */
+    public boolean contains(String columnName) {
+        for (String name : names) {
+            if (name.equalsIgnoreCase(columnName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param header
+     * @param fileName
+     * @return the positions of the key columns in the header, in the order of the key. Names are matched ignoring case
+     * like {@link #contains(String)}, and a column of the same case is taken first.
+     * @throws ValidatorException if a key column is not in the header
+     */
+    public int[] resolve(String[] header, String fileName) throws ValidatorException {
+        int[] positions = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            positions[i] = -1;
+            if (header != null) {
+                for (int j = 0; j < header.length && positions[i] < 0; j++) {
+                    if (names[i].equals(header[j])) {
+                        positions[i] = j;
+                    }
+                }
+                for (int j = 0; j < header.length && positions[i] < 0; j++) {
+                    if (names[i].equalsIgnoreCase(header[j])) {
+                        positions[i] = j;
+                    }
+                }
+            }
+            if (positions[i] < 0) {
+                throw new ValidatorException(String.format("%s has no %s column", fileName, names[i]));
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @param values   values of a row
+     * @param positions positions of the key columns, from {@link #resolve(String[], String)}
+     * @return the key of the row. The key of a single column is its value, null included
+     */
+    public static String keyOf(String[] values, int[] positions) {
+        if (positions.length == 1) {
+            return positions[0] < values.length ? values[positions[0]] : null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < positions.length; i++) {
+            if (i > 0) {
+                sb.append(KeyEncoder.SEPARATOR);
+            }
+            String value = positions[i] < values.length ? values[positions[i]] : null;
+            if (value != null) {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param cursor
+     * @param positions
+     * @return the key of the current record of the cursor, like {@link #keyOf(String[], int[])}
+     */
+    public static String keyOf(RecordCursor cursor, int[] positions) {
+        if (positions.length == 1) {
+            return cursor.getValue(positions[0]);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < positions.length; i++) {
+            if (i > 0) {
+                sb.append(KeyEncoder.SEPARATOR);
+            }
+            String value = cursor.getValue(positions[i]);
+            if (value != null) {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param key
+     * @return the key as it is written in results and logs, with its values separated by '|'
+     */
+    public static String display(String key) {
+        return key == null ? null : key.replace(KeyEncoder.SEPARATOR, DISPLAY_SEPARATOR);
+    }
+
+    /**
+     * It compares keys value by value with {@link IdIndex#compareIds(String, String)}, so rows sorted by the key
+     * columns one after another are in ascending order
+     *
+     * @param a
+     * @param b
+     * @return a negative number, zero, or a positive number as a is less than, equal to, or greater than b
+     */
+    public static int compareKeys(String a, String b) {
+        if (a == null || b == null || (a.indexOf(KeyEncoder.SEPARATOR) < 0 && b.indexOf(KeyEncoder.SEPARATOR) < 0)) {
+            return IdIndex.compareIds(a, b);
+        }
+        int startA = 0;
+        int startB = 0;
+        while (true) {
+            int endA = a.indexOf(KeyEncoder.SEPARATOR, startA);
+            int endB = b.indexOf(KeyEncoder.SEPARATOR, startB);
+            String valueA = a.substring(startA, endA < 0 ? a.length() : endA);
+            String valueB = b.substring(startB, endB < 0 ? b.length() : endB);
+            int order = IdIndex.compareIds(valueA.isEmpty() ? null : valueA, valueB.isEmpty() ? null : valueB);
+            if (order != 0 || endA < 0 || endB < 0) {
+                return order != 0 ? order : (endA < 0 ? (endB < 0 ? 0 : -1) : 1);
+            }
+            startA = endA + 1;
+            startB = endB + 1;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof KeyColumns && Arrays.equals(names, ((KeyColumns) o).names);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(names);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(names);
+    }
+}
@@ -0,0 +1,142 @@
+package net.skim.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * It encodes the key of a record as UTF-8 bytes into a buffer it reuses, so looking a row up by its key allocates
+ * nothing. The values of a composite key are separated by {@link #SEPARATOR}, and a missing value is empty.
+ * <p>
+ * {@link MappedRecordCursor} copies the bytes of the key fields straight from the mapping, and
+ * {@link net.skim.index.IdIndex} parses a numeric key from the bytes, so a single numeric ID never becomes a
+ * {@link String}.
+ * <p>
+ * An encoder is not thread-safe. Every reading thread has its own.
+ */
+public class KeyEncoder {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final char SEPARATOR = '\0';
+
+    private final int[] positions;
+    private byte[] bytes = new byte[64];
+    private int length;
+
+    /**
+     * @param positions positions of the key columns, from {@link KeyColumns#resolve(String[], String)}
+     */
+    public KeyEncoder(int[] positions) {
+        this.positions = positions.clone();
+    }
+
+    /**
+     * It encodes the key of the current record of a cursor
+     *
+     * @param cursor
+     */
+    public void encode(RecordCursor cursor) {
+        length = 0;
+        for (int i = 0; i < positions.length; i++) {
+            if (i > 0) {
+                append((byte) SEPARATOR);
+            }
+            cursor.appendValue(positions[i], this);
+        }
+    }
+
+    /**
+     * It encodes the key of parsed values
+     *
+     * @param values
+     */
+    public void encode(String[] values) {
+        length = 0;
+        for (int i = 0; i < positions.length; i++) {
+            if (i > 0) {
+                append((byte) SEPARATOR);
+            }
+            if (positions[i] < values.length && values[positions[i]] != null) {
+                append(values[positions[i]]);
+            }
+        }
+    }
+
+    /**
+     * @return the buffer holding the key. It is overwritten by the next key
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void append(byte b) {
+        if (length == bytes.length) {
+            bytes = Arrays.copyOf(bytes, length * 2);
+        }
+        bytes[length++] = b;
+    }
+
+    /**
+     * It appends bytes of a buffer, read with absolute gets
+     *
+     * @param buffer
+     * @param start
+     * @param end
+     */
+    public void append(ByteBuffer buffer, int start, int end) {
+        ensureCapacity(end - start);
+        for (int i = start; i < end; i++) {
+            bytes[length++] = buffer.get(i);
+        }
+    }
+
+    /**
+     * It appends the UTF-8 bytes of a value. Unpaired surrogates become '?', like {@link String#getBytes(Charset)}.
+     *
+     * @param value
+     */
+    public void append(CharSequence value) {
+        int count = value.length();
+        ensureCapacity(count * 3);
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[length++] = (byte) (0xC0 | (c >> 6));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[length++] = '?';
+            } else {
+                bytes[length++] = (byte) (0xE0 | (c >> 12));
+                bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * @return the key as a string, the same as {@link KeyColumns#keyOf(String[], int[])} except that a missing single
+     * value is empty
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, UTF_8);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(length + extra, bytes.length * 2));
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package net.skim.io;
+
+import com.univocity.parsers.common.ParsingContext;
+import com.univocity.parsers.csv.CsvFormat;
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.index.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A {@link RecordCursor} tokenizing records straight from a memory-mapped file. Nothing is copied or decoded while
+ * records are walked through: fields are byte ranges of the mapping, keys and fingerprints are computed from the
+ * bytes, and a value is decoded to a {@link String} only when it is asked for.
+ * <p>
+ * The file is mapped in windows of at most {@link #DEFAULT_WINDOW_SIZE} bytes. A record crossing the end of a window
+ * is mapped again from its start, so files of any size can be read.
+ * <p>
+ * It follows the rules of {@link com.univocity.parsers.csv.CsvParser} for the settings accepted by
+ * {@link #supports(CsvParserSettings)}, so both cursors give the same values and fingerprints. That includes the
+ * field selection of the settings: only the selected columns are returned and hashed, and fields after the last
+ * selected one are not tokenized at all.
+ */
+public class MappedRecordCursor implements RecordCursor {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long end;
+    private final long windowSize;
+    private final byte delimiter;
+    private final byte quote;
+    private final byte comment;
+    private final CsvScanner scanner;
+    private final String headerRecord;
+    private final String[] header;
+    private final int[] columns;
+    private final int fieldLimit;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLength;
+    private long position;
+    private long recordOffset = -1;
+    private int recordEnd;
+
+    private int fieldCount;
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private boolean[] escaped = new boolean[32];
+    private byte[] scratch = new byte[256];
+
+    /**
+     * It opens a whole file and reads its header
+     *
+     * @param file
+     * @param csvParserSettings
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public MappedRecordCursor(File file, CsvParserSettings csvParserSettings) throws IOException, ValidatorException {
+        this(file, 0, file.length(), csvParserSettings, null, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * It opens a range of a file having data records only
+     *
+     * @param file
+     * @param start             first byte of the range
+     * @param end               end of the range, exclusive
+     * @param csvParserSettings
+     * @param headerRecord      the header of the file. If null, the header is read from the start of the range
+     * @param windowSize        the largest part of the file mapped at once
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public MappedRecordCursor(File file, long start, long end, CsvParserSettings csvParserSettings, String headerRecord, long windowSize) throws IOException, ValidatorException {
+        if (!supports(csvParserSettings)) {
+            throw new ValidatorException("The parser settings are not supported by memory-mapped input");
+        }
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.end = Math.min(end, channel.size());
+        this.windowSize = Math.max(1024, Math.min(windowSize, Integer.MAX_VALUE));
+        CsvFormat format = csvParserSettings.getFormat();
+        this.delimiter = (byte) format.getDelimiter();
+        this.quote = (byte) format.getQuote();
+        this.comment = (byte) format.getComment();
+        this.scanner = CsvScanner.of(csvParserSettings);
+        this.position = start;
+        this.windowStart = start;
+
+        try {
+            if (headerRecord == null) {
+                if (!nextRecord()) {
+                    throw new ValidatorException("The input has no header: " + file.getAbsolutePath());
+                }
+                headerRecord = decode(recordStart(), recordEnd);
+            }
+        } catch (IOException | ValidatorException e) {
+            this.file.close();
+            throw e;
+        }
+        this.headerRecord = headerRecord;
+        ParsingContext context;
+        try {
+            context = ParsingRecordCursor.newHeaderParser(csvParserSettings, headerRecord).getContext();
+        } catch (ValidatorException e) {
+            this.file.close();
+            throw e;
+        }
+        this.header = context.selectedHeaders();
+        this.columns = context.extractedFieldIndexes();
+        int limit = Integer.MAX_VALUE;
+        if (columns != null) {
+            limit = 0;
+            for (int column : columns) {
+                limit = Math.max(limit, column + 1);
+            }
+        }
+        this.fieldLimit = limit;
+    }
+
+    /**
+     * @param csvParserSettings
+     * @return true if the values of the cursor are the same as those of the parser with these settings
+     */
+    public static boolean supports(CsvParserSettings csvParserSettings) {
+        CsvFormat format = csvParserSettings.getFormat();
+        return csvParserSettings.getKeepQuotes()
+                && csvParserSettings.getIgnoreLeadingWhitespaces()
+                && csvParserSettings.getIgnoreTrailingWhitespaces()
+                && csvParserSettings.getNullValue() == null
+                && csvParserSettings.getEmptyValue() == null
+                && csvParserSettings.getSkipEmptyLines()
+                && format.getQuote() == '"'
+                && format.getQuoteEscape() == '"'
+                && format.getDelimiter() < 0x80
+                && format.getComment() < 0x80;
+    }
+
+    @Override
+    public String[] getHeader() {
+        return header;
+    }
+
+    @Override
+    public String getHeaderRecord() {
+        return headerRecord;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (nextRecord()) {
+            if (window.get(recordStart()) == comment) {
+                continue;
+            }
+            tokenize(recordStart(), recordEnd);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long getOffset() {
+        return recordOffset;
+    }
+
+    @Override
+    public String[] getValues() {
+        String[] values = new String[valueCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getValue(i);
+        }
+        return values;
+    }
+
+    @Override
+    public String getValue(int column) {
+        int field = field(column);
+        if (field >= fieldCount || fieldStarts[field] == fieldEnds[field]) {
+            return null;
+        }
+        String value = decode(fieldStarts[field], fieldEnds[field]);
+        if (escaped[field]) {
+            // keeps the enclosing quotes like the parser does, and unescapes the inner ones
+            value = "\"" + value.substring(1, value.length() - 1).replace("\"\"", "\"") + "\"";
+        }
+        return value;
+    }
+
+    @Override
+    public void appendValue(int column, KeyEncoder key) {
+        int field = field(column);
+        if (field >= fieldCount || fieldStarts[field] == fieldEnds[field]) {
+            return;
+        }
+        int start = fieldStarts[field];
+        int stop = fieldEnds[field];
+        if (!escaped[field]) {
+            key.append(window, start, stop);
+            return;
+        }
+        // keeps the enclosing quotes like getValue does, and unescapes the inner ones
+        key.append(quote);
+        for (int i = start + 1; i < stop - 1; i++) {
+            byte b = window.get(i);
+            key.append(b);
+            if (b == quote && i + 1 < stop - 1 && window.get(i + 1) == quote) {
+                i++;
+            }
+        }
+        key.append(quote);
+    }
+
+    @Override
+    public long getFingerprint() {
+        long fingerprint = Hashing.FINGERPRINT_SEED;
+        int count = valueCount();
+        for (int i = 0; i < count; i++) {
+            fingerprint = Hashing.combine(fingerprint, hashValue(i));
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @param column
+     * @return the hash of a value, as {@link Hashing#hashChars(CharSequence)} of {@link #getValue(int)}
+     */
+    public long hashValue(int column) {
+        int field = field(column);
+        if (field >= fieldCount || fieldStarts[field] == fieldEnds[field]) {
+            return Hashing.nullHash();
+        }
+        int start = fieldStarts[field];
+        int stop = fieldEnds[field];
+        if (!escaped[field]) {
+            boolean ascii = true;
+            for (int i = start; i < stop && ascii; i++) {
+                ascii = window.get(i) >= 0;
+            }
+            if (ascii) {
+                return Hashing.hashAscii(window, start, stop);
+            }
+        }
+        return Hashing.hashChars(getValue(column));
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    /**
+     * @return the number of values of the current record. Like the parser, a record is padded with nulls to the
+     * number of selected columns
+     */
+    private int valueCount() {
+        return columns == null ? fieldCount : columns.length;
+    }
+
+    /**
+     * @param column
+     * @return the field of the record holding a value, or {@link #fieldCount} if the record doesn't have it
+     */
+    private int field(int column) {
+        if (columns == null) {
+            return Math.min(column, fieldCount);
+        }
+        return column < columns.length ? columns[column] : fieldCount;
+    }
+
+    private int recordStart() {
+        return (int) (recordOffset - windowStart);
+    }
+
+    /**
+     * It finds the next record, skipping empty lines, and makes sure the whole record is in the window
+     *
+     * @return false at the end of the range
+     * @throws IOException
+     */
+    private boolean nextRecord() throws IOException {
+        while (true) {
+            if (position >= end) {
+                return false;
+            }
+            if (window == null || position >= windowStart + windowLength) {
+                map(position, windowSize);
+            }
+            byte b = window.get((int) (position - windowStart));
+            if (b != '\n' && b != '\r') {
+                break;
+            }
+            position++;
+        }
+
+        recordOffset = position;
+        while (true) {
+            int start = recordStart();
+            int state = CsvScanner.RECORD_START;
+            int stop = -1;
+            for (int i = start; i < windowLength; i++) {
+                state = scanner.next(state, window.get(i));
+                if (state == CsvScanner.RECORD_START) {
+                    stop = i;
+                    break;
+                }
+            }
+            if (stop >= 0 || windowStart + windowLength >= end) {
+                int next = stop >= 0 ? stop + 1 : windowLength;
+                if (stop < 0) {
+                    stop = windowLength;
+                }
+                if (stop > start && window.get(stop - 1) == '\r') {
+                    stop--;
+                }
+                recordEnd = stop;
+                position = windowStart + next;
+                return true;
+            }
+            // The record crosses the end of the window, so it is mapped again from its start
+            map(recordOffset, Math.max(windowSize, 2L * (windowLength - start)));
+        }
+    }
+
+    private void map(long start, long size) throws IOException {
+        long length = Math.min(Math.min(size, Integer.MAX_VALUE), end - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        windowStart = start;
+        windowLength = (int) length;
+    }
+
+    /**
+     * It finds the fields of a record. Like the parser, unquoted fields are trimmed, and quoted fields keep their
+     * quotes and ignore whitespace around them.
+     */
+    private void tokenize(int start, int stop) {
+        fieldCount = 0;
+        int i = start;
+        while (true) {
+            while (i < stop && isWhitespace(window.get(i)) && window.get(i) != delimiter) {
+                i++;
+            }
+            int fieldStart = i;
+            int fieldEnd;
+            boolean fieldEscaped = false;
+            if (i < stop && window.get(i) == quote) {
+                i++;
+                while (i < stop) {
+                    if (window.get(i) == quote) {
+                        if (i + 1 < stop && window.get(i + 1) == quote) {
+                            fieldEscaped = true;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                fieldEnd = Math.min(i + 1, stop);
+                while (i < stop && window.get(i) != delimiter) {
+                    i++;
+                }
+            } else {
+                while (i < stop && window.get(i) != delimiter) {
+                    i++;
+                }
+                fieldEnd = i;
+                while (fieldEnd > fieldStart && isWhitespace(window.get(fieldEnd - 1))) {
+                    fieldEnd--;
+                }
+            }
+            addField(fieldStart, fieldEnd, fieldEscaped);
+            if (i >= stop || fieldCount == fieldLimit) {
+                break;
+            }
+            i++;
+        }
+    }
+
+    private void addField(int start, int end, boolean fieldEscaped) {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            escaped = Arrays.copyOf(escaped, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        escaped[fieldCount] = fieldEscaped;
+        fieldCount++;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    private String decode(int start, int stop) {
+        int length = stop - start;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = window.get(start + i);
+        }
+        return new String(scratch, 0, length, UTF_8);
+    }
+}
@@ -0,0 +1,230 @@
+package net.skim.io;
+
+import com.univocity.parsers.csv.CsvWriter;
+import net.skim.metrics.QueueGauge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dedicated output stage. Producers hand rows over in batches through a bounded queue, and a single writer thread
+ * writes the batches to a {@link Sink} in the order they were handed over. A full queue blocks the producer, so a
+ * slow output slows down the producer instead of filling the heap.
+ * <p>
+ * Rows of a producer are written in the order they were written to the pipeline. It is meant for a single producer
+ * thread; several producers need to synchronize on the pipeline.
+ * <p>
+ * The writer thread runs until the pipeline is closed or aborted, so a producer which may fail aborts it in a finally
+ * block.
+ */
+public class OutputPipeline implements Closeable, QueueGauge {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private static final String[] END_OF_OUTPUT = new String[0];
+
+    private final Sink sink;
+    private final int batchSize;
+    private final BlockingQueue<String[]> queue;
+    private final Thread writerThread;
+    private volatile Throwable failure;
+    private String[] batch;
+    private int batchCount;
+    private boolean closed;
+
+    public OutputPipeline(Sink sink) {
+        this(sink, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param sink
+     * @param batchSize     rows per batch
+     * @param queueCapacity batches waiting for the writer before the producer is blocked
+     */
+    public OutputPipeline(Sink sink, int batchSize, int queueCapacity) {
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<String[]>(queueCapacity);
+        this.batch = new String[batchSize];
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "output-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * It writes a row through the pipeline
+     *
+     * @param row
+     * @throws IOException if the writer thread failed
+     */
+    public void write(String row) throws IOException {
+        if (closed) {
+            throw new IOException("The output is closed");
+        }
+        batch[batchCount++] = row;
+        if (batchCount == batchSize) {
+            handOver();
+        }
+    }
+
+    /**
+     * @return batches waiting for the writer thread
+     */
+    @Override
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * It writes the remaining rows, waits for the writer thread and flushes the sink. The sink itself is not closed.
+     *
+     * @throws IOException if the writer thread failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (batchCount > 0) {
+            handOver();
+        }
+        closed = true;
+        put(END_OF_OUTPUT);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the output writer");
+        }
+        checkFailure();
+    }
+
+    /**
+     * It stops the writer thread without writing the rows not handed over yet, and waits for it. It does nothing once
+     * the writer thread has ended, so it can follow {@link #close()} in a finally block.
+     */
+    public void abort() {
+        closed = true;
+        if (!writerThread.isAlive()) {
+            return;
+        }
+        writerThread.interrupt();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handOver() throws IOException {
+        String[] full = batch;
+        int count = batchCount;
+        if (count < full.length) {
+            String[] shrunk = new String[count];
+            System.arraycopy(full, 0, shrunk, 0, count);
+            full = shrunk;
+        }
+        batch = new String[batchSize];
+        batchCount = 0;
+        put(full);
+    }
+
+    private void put(String[] rows) throws IOException {
+        try {
+            while (!queue.offer(rows, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while handing over rows");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable cause = failure;
+        if (cause != null) {
+            throw new IOException("Failed to write the output", cause);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                String[] rows = queue.take();
+                if (rows == END_OF_OUTPUT) {
+                    break;
+                }
+                sink.write(rows);
+            }
+            sink.flush();
+        } catch (Throwable e) {
+            failure = e;
+            // unblocks a producer waiting for space
+            queue.clear();
+        }
+    }
+
+    /**
+     * The destination of the rows. It is only called by the writer thread.
+     */
+    public interface Sink {
+        void write(String[] rows) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    /**
+     * @param csvWriter
+     * @return a sink writing every row as a raw line through the {@link CsvWriter}
+     */
+    public static Sink csvWriterSink(final CsvWriter csvWriter) {
+        return new Sink() {
+            @Override
+            public void write(String[] rows) {
+                for (String row : rows) {
+                    csvWriter.writeRow(row);
+                }
+            }
+
+            @Override
+            public void flush() {
+                csvWriter.flush();
+            }
+        };
+    }
+
+    /**
+     * @param writer
+     * @return a sink writing every row as a line. Each batch is joined in one buffer before it is written.
+     */
+    public static Sink writerSink(final Writer writer) {
+        return new Sink() {
+            private final StringBuilder buffer = new StringBuilder(1 << 16);
+
+            @Override
+            public void write(String[] rows) throws IOException {
+                buffer.setLength(0);
+                for (String row : rows) {
+                    buffer.append(row).append('\n');
+                }
+                writer.write(buffer.toString());
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writer.flush();
+            }
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package net.skim.io;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.index.Hashing;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link RecordCursor} which splits records with a {@link RecordReader} and parses them with a {@link CsvParser}.
+ * The parser is owned by the cursor, so cursors can be used on different threads.
+ */
+public class ParsingRecordCursor implements RecordCursor {
+    private final RecordReader reader;
+    private final CsvParser csvParser;
+    private final String[] header;
+    private final String headerRecord;
+    private String[] values;
+
+    public ParsingRecordCursor(InputStream in, CsvParserSettings csvParserSettings) throws IOException, ValidatorException {
+        reader = new RecordReader(in, CsvScanner.of(csvParserSettings));
+        headerRecord = reader.readRecord();
+        if (headerRecord == null) {
+            reader.close();
+            throw new ValidatorException("The input has no header");
+        }
+        try {
+            csvParser = newHeaderParser(csvParserSettings, headerRecord);
+        } catch (ValidatorException e) {
+            reader.close();
+            throw e;
+        }
+        header = csvParser.getContext().selectedHeaders();
+    }
+
+    /**
+     * It creates a cursor over a part of an input which doesn't have the header
+     *
+     * @param in                data records of the input
+     * @param startOffset       the byte offset of the first byte of the stream in the input
+     * @param csvParserSettings
+     * @param headerRecord      the header of the input
+     */
+    public ParsingRecordCursor(InputStream in, long startOffset, CsvParserSettings csvParserSettings, String headerRecord) {
+        reader = new RecordReader(in, startOffset, CsvScanner.of(csvParserSettings));
+        this.headerRecord = headerRecord;
+        csvParser = newRowParser(csvParserSettings, headerRecord);
+        header = csvParser.getContext().selectedHeaders();
+    }
+
+    /**
+     * It creates a parser which has already consumed the header, so it returns data rows from the first call
+     * of {@link CsvParser#parseLine(String)}
+     *
+     * @param csvParserSettings
+     * @param headerRecord
+     * @return a parser for data rows
+     */
+    public static CsvParser newRowParser(CsvParserSettings csvParserSettings, String headerRecord) {
+        CsvParser csvParser = new CsvParser(csvParserSettings);
+        csvParser.parseLine(headerRecord);
+        return csvParser;
+    }
+
+    /**
+     * It parses a header with the field selection of the settings, such as the columns excluded with
+     * {@link CsvParserSettings#excludeFields(String...)}
+     *
+     * @param csvParserSettings
+     * @param headerRecord
+     * @return the names of the selected columns, in the order of their values in parsed rows
+     * @throws ValidatorException if the settings select a column which is not in the header
+     */
+    public static String[] parseHeader(CsvParserSettings csvParserSettings, String headerRecord) throws ValidatorException {
+        return newHeaderParser(csvParserSettings, headerRecord).getContext().selectedHeaders();
+    }
+
+    static CsvParser newHeaderParser(CsvParserSettings csvParserSettings, String headerRecord) throws ValidatorException {
+        try {
+            return newRowParser(csvParserSettings, headerRecord);
+        } catch (IllegalStateException e) {
+            // univocity rejects selected or excluded fields missing from the header
+            throw new ValidatorException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String[] getHeader() {
+        return header;
+    }
+
+    @Override
+    public String getHeaderRecord() {
+        return headerRecord;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        while (reader.nextRecord()) {
+            values = csvParser.parseLine(reader.getRecord());
+            if (values != null) {
+                return true;
+            }
+        }
+        values = null;
+        return false;
+    }
+
+    @Override
+    public long getOffset() {
+        return reader.getRecordOffset();
+    }
+
+    @Override
+    public String[] getValues() {
+        return values;
+    }
+
+    @Override
+    public String getValue(int column) {
+        return column < values.length ? values[column] : null;
+    }
+
+    @Override
+    public void appendValue(int column, KeyEncoder key) {
+        String value = getValue(column);
+        if (value != null) {
+            key.append(value);
+        }
+    }
+
+    @Override
+    public long getFingerprint() {
+        return Hashing.fingerprint(values);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,71 @@
+package net.skim.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream of a byte range of a file
+ */
+public class RangeInputStream extends InputStream {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+
+    /**
+     * @param file
+     * @param start first byte of the range
+     * @param end   end of the range, exclusive
+     * @throws IOException
+     */
+    public RangeInputStream(File file, long start, long end) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.position = start;
+        this.end = Math.min(end, channel.size());
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (position >= end) {
+            return -1;
+        }
+        int toRead = (int) Math.min(length, end - position);
+        int read = channel.read(ByteBuffer.wrap(bytes, offset, toRead), position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    /**
+     * It moves to a position of the file, backwards as well as forwards
+     *
+     * @param position
+     */
+    public void seek(long position) {
+        this.position = position;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,83 @@
+package net.skim.io;
+
+/**
+ * Helpers finding fields in raw CSV records without parsing the whole record. They are used where only a field or
+ * two are needed, such as the key for partitioning.
+ */
+public final class RawFields {
+    private static final byte QUOTE = '"';
+
+    private RawFields() {
+    }
+
+    /**
+     * It finds a field in a raw record. Delimiters inside quotes are skipped.
+     *
+     * @param record
+     * @param length  length of the record in the array
+     * @param column  position of the field
+     * @param scanner the quote rules of the format
+     * @param range   receives the start (inclusive) and the end (exclusive) of the field
+     * @return false if the record has fewer fields
+     */
+    public static boolean find(byte[] record, int length, int column, CsvScanner scanner, int[] range) {
+        int field = 0;
+        int start = 0;
+        int state = CsvScanner.RECORD_START;
+        for (int i = 0; i < length; i++) {
+            state = scanner.next(state, record[i]);
+            if (state == CsvScanner.FIELD_START) {
+                if (field == column) {
+                    range[0] = start;
+                    range[1] = i;
+                    return true;
+                }
+                field++;
+                start = i + 1;
+            }
+        }
+        if (field == column) {
+            range[0] = start;
+            range[1] = length;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * It copies a field without its enclosing quotes, and with escaped quotes unescaped, so a field has the same bytes
+     * whether it is quoted or not
+     *
+     * @param record
+     * @param start
+     * @param end
+     * @param target receives the bytes. It needs to be at least end - start long
+     * @return the number of bytes copied
+     */
+    public static int unquote(byte[] record, int start, int end, byte[] target) {
+        return unquote(record, start, end, target, 0);
+    }
+
+    /**
+     * @param record
+     * @param start
+     * @param end
+     * @param target       receives the bytes. It needs room for end - start bytes from the target offset
+     * @param targetOffset
+     * @return the number of bytes copied
+     */
+    public static int unquote(byte[] record, int start, int end, byte[] target, int targetOffset) {
+        if (end - start >= 2 && record[start] == QUOTE && record[end - 1] == QUOTE) {
+            int length = targetOffset;
+            for (int i = start + 1; i < end - 1; i++) {
+                target[length++] = record[i];
+                if (record[i] == QUOTE && i + 1 < end - 1 && record[i + 1] == QUOTE) {
+                    i++;
+                }
+            }
+            return length - targetOffset;
+        }
+        System.arraycopy(record, start, target, targetOffset, end - start);
+        return end - start;
+    }
+}
@@ -0,0 +1,62 @@
+package net.skim.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A forward-only cursor over the data records of a CSV input. The header is read when the cursor is opened.
+ * <p>
+ * Values are those {@link com.univocity.parsers.csv.CsvParser} returns with the settings of the validator:
+ * unquoted values are trimmed and empty ones are null, and quoted values keep their quotes.
+ */
+public interface RecordCursor extends Closeable {
+
+    /**
+     * @return the column names of the input
+     */
+    String[] getHeader();
+
+    /**
+     * @return the header record as it is in the input
+     */
+    String getHeaderRecord();
+
+    /**
+     * It moves to the next data record
+     *
+     * @return false if there are no more records
+     * @throws IOException
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return the byte offset of the current record in the input
+     */
+    long getOffset();
+
+    /**
+     * @return the parsed values of the current record
+     */
+    String[] getValues();
+
+    /**
+     * @param column
+     * @return a value of the current record, or null if the record has fewer values
+     */
+    String getValue(int column);
+
+    /**
+     * It appends the UTF-8 bytes of a value of the current record to a key, without decoding it. A missing value
+     * appends nothing.
+     *
+     * @param column
+     * @param key
+     */
+    void appendValue(int column, KeyEncoder key);
+
+    /**
+     * @return the fingerprint of the current record, as {@link net.skim.index.Hashing#fingerprint(String[])} of its
+     * values
+     */
+    long getFingerprint();
+}
@@ -0,0 +1,112 @@
+package net.skim.io;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.exception.ValidatorException;
+import net.skim.utils.FileUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * It fetches records of a CSV file by their byte offsets. Offsets are expected in ascending order; the file is then
+ * read forward once, skipping everything between the requested records.
+ * <p>
+ * A local file is read with positional reads of its {@link java.nio.channels.FileChannel}, so skipping costs nothing
+ * and a smaller offset than the previous one only moves the position. Other files are read as streams, which are
+ * reopened for a smaller offset.
+ */
+public class RecordFetcher implements Closeable {
+    private final FileUtils fileUtils;
+    private final String fileName;
+    private final File localFile;
+    private final CsvParser csvParser;
+    private final CsvScanner scanner;
+    private RangeInputStream input;
+    private RecordReader reader;
+
+    public RecordFetcher(FileUtils fileUtils, String fileName, CsvParserSettings csvParserSettings, String headerRecord) {
+        this(fileUtils, fileName, fileUtils.getLocalFile(fileName), csvParserSettings, headerRecord);
+    }
+
+    /**
+     * @param file              a local, uncompressed file
+     * @param csvParserSettings
+     * @param headerRecord
+     */
+    public RecordFetcher(File file, CsvParserSettings csvParserSettings, String headerRecord) {
+        this(null, file.getPath(), file, csvParserSettings, headerRecord);
+    }
+
+    private RecordFetcher(FileUtils fileUtils, String fileName, File localFile, CsvParserSettings csvParserSettings, String headerRecord) {
+        this.fileUtils = fileUtils;
+        this.fileName = fileName;
+        this.localFile = localFile;
+        this.csvParser = ParsingRecordCursor.newRowParser(csvParserSettings, headerRecord);
+        this.scanner = CsvScanner.of(csvParserSettings);
+    }
+
+    /**
+     * @param offset byte offset of a record, as given by {@link RecordCursor#getOffset()}
+     * @return the parsed values of the record
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public String[] fetch(long offset) throws IOException, ValidatorException {
+        return parse(fetchRecord(offset));
+    }
+
+    /**
+     * @param offset byte offset of a record, as given by {@link RecordCursor#getOffset()}
+     * @return the text of the record, without its line break
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public String fetchRecord(long offset) throws IOException, ValidatorException {
+        if (reader == null || offset < reader.getPosition()) {
+            if (localFile != null) {
+                if (input == null) {
+                    input = new RangeInputStream(localFile, 0, Long.MAX_VALUE);
+                }
+                input.seek(offset);
+                reader = new RecordReader(input, offset, scanner);
+            } else {
+                close();
+                reader = new RecordReader(fileUtils.getFileInputStream(fileName), scanner);
+            }
+        }
+        reader.skipTo(offset);
+        if (!reader.nextRecord() || reader.getRecordOffset() != offset) {
+            throw new ValidatorException(String.format("No record at offset %d in %s", offset, fileName));
+        }
+        return reader.getRecord();
+    }
+
+    /**
+     * @return the length in bytes of the record fetched last, with its line break
+     */
+    public long getLastRecordLength() {
+        return reader.getPosition() - reader.getRecordOffset();
+    }
+
+    /**
+     * @param record the text of a record of the file
+     * @return the parsed values of the record
+     */
+    public String[] parse(String record) {
+        return csvParser.parseLine(record);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (input != null) {
+            input.close();
+            input = null;
+            reader = null;
+        } else if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package net.skim.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A reader splitting a CSV byte stream into records. Unlike {@link java.io.BufferedReader#readLine()}, it keeps track
+ * of quotes with a {@link CsvScanner}, so a quoted field having line breaks stays in one record. It also tracks the byte offset of every record,
+ * which is used to fetch the record again later without reading the whole file.
+ * <p>
+ * Trailing carriage returns are removed, and empty lines are skipped.
+ */
+public class RecordReader implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final CsvScanner scanner;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+    private long bufferOffset;
+
+    private byte[] record = new byte[1024];
+    private int recordLength;
+    private long recordOffset = -1;
+
+    public RecordReader(InputStream in) {
+        this(in, 0L);
+    }
+
+    /**
+     * @param in
+     * @param startOffset the byte offset of the first byte of the stream in its file
+     */
+    public RecordReader(InputStream in, long startOffset) {
+        this(in, startOffset, CsvScanner.DEFAULT);
+    }
+
+    /**
+     * @param in
+     * @param scanner the quote rules of the format
+     */
+    public RecordReader(InputStream in, CsvScanner scanner) {
+        this(in, 0L, scanner);
+    }
+
+    /**
+     * @param in
+     * @param startOffset the byte offset of the first byte of the stream in its file
+     * @param scanner     the quote rules of the format
+     */
+    public RecordReader(InputStream in, long startOffset, CsvScanner scanner) {
+        this.in = in;
+        this.bufferOffset = startOffset;
+        this.scanner = scanner;
+    }
+
+    /**
+     * It reads the next record
+     *
+     * @return the record without its line break, or null at the end of the stream
+     * @throws IOException
+     */
+    public String readRecord() throws IOException {
+        return nextRecord() ? getRecord() : null;
+    }
+
+    /**
+     * It moves to the next record. The record is available through {@link #getRecord()} and
+     * {@link #getRecordBytes()}.
+     *
+     * @return false at the end of the stream
+     * @throws IOException
+     */
+    public boolean nextRecord() throws IOException {
+        int state = CsvScanner.RECORD_START;
+        recordLength = 0;
+        recordOffset = -1;
+        while (true) {
+            if (bufferPosition == bufferLimit && !fill()) {
+                return finishRecord();
+            }
+            if (recordOffset < 0) {
+                // skips empty lines between records
+                byte first = buffer[bufferPosition];
+                if (first == '\n' || first == '\r') {
+                    bufferPosition++;
+                    continue;
+                }
+                recordOffset = bufferOffset + bufferPosition;
+            }
+
+            int start = bufferPosition;
+            int end = -1;
+            for (int i = start; i < bufferLimit; i++) {
+                state = scanner.next(state, buffer[i]);
+                if (state == CsvScanner.RECORD_START) {
+                    end = i;
+                    break;
+                }
+            }
+
+            if (end < 0) {
+                append(start, bufferLimit - start);
+                bufferPosition = bufferLimit;
+            } else {
+                append(start, end - start);
+                bufferPosition = end + 1;
+                return finishRecord();
+            }
+        }
+    }
+
+    /**
+     * @return the current record decoded as UTF-8
+     */
+    public String getRecord() {
+        return new String(record, 0, recordLength, UTF_8);
+    }
+
+    /**
+     * @return the internal buffer holding the current record. It is valid until the next call.
+     */
+    public byte[] getRecordBytes() {
+        return record;
+    }
+
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    /**
+     * @return the byte offset of the current record
+     */
+    public long getRecordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * @return the byte offset of the next byte to read
+     */
+    public long getPosition() {
+        return bufferOffset + bufferPosition;
+    }
+
+    /**
+     * It skips forward to the given byte offset, which needs to be the start of a record
+     *
+     * @param offset
+     * @throws IOException
+     */
+    public void skipTo(long offset) throws IOException {
+        long position = getPosition();
+        if (offset < position) {
+            throw new IOException(String.format("Can't skip backwards from %d to %d", position, offset));
+        }
+        if (offset <= bufferOffset + bufferLimit) {
+            bufferPosition = (int) (offset - bufferOffset);
+            return;
+        }
+
+        long remaining = offset - (bufferOffset + bufferLimit);
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException(String.format("Offset %d is beyond the end of the stream", offset));
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        bufferOffset = offset;
+        bufferPosition = 0;
+        bufferLimit = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean fill() throws IOException {
+        bufferOffset += bufferLimit;
+        bufferPosition = 0;
+        bufferLimit = 0;
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) == 0) {
+            // waits for data
+        }
+        if (read < 0) {
+            return false;
+        }
+        bufferLimit = read;
+        return true;
+    }
+
+    private void append(int start, int length) {
+        if (recordLength + length > record.length) {
+            record = Arrays.copyOf(record, Math.max(recordLength + length, record.length * 2));
+        }
+        System.arraycopy(buffer, start, record, recordLength, length);
+        recordLength += length;
+    }
+
+    private boolean finishRecord() {
+        if (recordOffset < 0) {
+            return false;
+        }
+        if (recordLength > 0 && record[recordLength - 1] == '\r') {
+            recordLength--;
+        }
+        return true;
+    }
+}
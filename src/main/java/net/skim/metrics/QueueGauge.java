@@ -0,0 +1,11 @@
+package net.skim.metrics;
+
+/**
+ * Anything holding work which is waiting to be done, such as a writer thread or a pool of workers
+ */
+public interface QueueGauge {
+    /**
+     * @return items waiting in the queue
+     */
+    int getQueueDepth();
+}
@@ -0,0 +1,95 @@
+package net.skim.metrics;
+
+/**
+ * It counts the rows read by one thread, and times the phases of one row in {@link RunMetrics#SAMPLE_INTERVAL} on
+ * average. Gaps between samples are random, as work done every so many rows, like growing a hash table or handing
+ * over a batch of output, would otherwise fall on the samples every time or never. The time of a phase runs from the
+ * previous mark, or from the end of the previous row, to the mark of the phase:
+ * <pre>
+ * while (cursor.next()) {
+ *     sampler.mark(Phase.PARSING);
+ *     ...
+ *     sampler.mark(Phase.LOOKUP);
+ *     sampler.endRow();
+ * }
+ * sampler.flush();
+ * </pre>
+ * Counts are added to the metrics every {@link #FLUSH_INTERVAL} rows and when flushed, so live values lag a little
+ * behind. A sampler is not thread-safe.
+ */
+public class RowSampler {
+    static final int FLUSH_INTERVAL = 1 << 16;
+
+    private final RunMetrics metrics;
+    private final boolean enabled;
+    private final long[] sampledNanos = new long[RunMetrics.Phase.values().length];
+    private long rows;
+    private long unflushedRows;
+    private long nextSample;
+    private int random;
+    private boolean sampled;
+    private long last;
+
+    RowSampler(RunMetrics metrics, boolean enabled) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.random = System.identityHashCode(this) | 1;
+        this.nextSample = nextGap();
+    }
+
+    /**
+     * It ends a phase of the current row
+     *
+     * @param phase
+     */
+    public void mark(RunMetrics.Phase phase) {
+        if (sampled) {
+            long now = System.nanoTime();
+            sampledNanos[phase.ordinal()] += now - last;
+            last = now;
+        }
+    }
+
+    /**
+     * It counts the current row, and starts the clock if the next row is a sample
+     */
+    public void endRow() {
+        if (!enabled) {
+            return;
+        }
+        rows++;
+        unflushedRows++;
+        if (unflushedRows == FLUSH_INTERVAL) {
+            flush();
+        }
+        sampled = rows == nextSample;
+        if (sampled) {
+            nextSample += nextGap();
+            last = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return a gap between 1 and twice the sample interval, by xorshift
+     */
+    private int nextGap() {
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        return 1 + (random >>> 1) % (2 * RunMetrics.SAMPLE_INTERVAL - 1);
+    }
+
+    /**
+     * It adds the rows and the sampled times counted so far to the metrics
+     */
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        metrics.addSamples(unflushedRows, sampledNanos);
+        unflushedRows = 0;
+        for (int i = 0; i < sampledNanos.length; i++) {
+            sampledNanos[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package net.skim.metrics;
+
+import net.skim.exception.ValidatorException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of a run: rows and bytes read, time spent in each {@link Phase}, the size of the index, the false positives
+ * of a key filter, work waiting in queues and the numbers of differing rows. They can be watched live as the MBean
+ * {@link #OBJECT_NAME}, and are written as a JSON summary at the end of the run.
+ * <p>
+ * Rows are counted by {@link RowSampler}s, one per reading thread. Only one row in {@link #SAMPLE_INTERVAL} is timed,
+ * so the clock is read a few times per thousand rows, and the times of the phases are scaled up from the samples.
+ * <p>
+ * {@link #DISABLED} measures nothing, and is used wherever no metrics are wanted.
+ */
+public class RunMetrics implements RunMetricsMBean {
+    static final Logger log = LogManager.getLogger(RunMetrics.class.getName());
+
+    public static final String OBJECT_NAME = "net.skim:type=RunMetrics";
+    public static final int SAMPLE_INTERVAL = 64;
+    public static final RunMetrics DISABLED = new RunMetrics(false, "", "", "");
+
+    /**
+     * Where the time of a run goes. Reading the input is counted as parsing.
+     */
+    public enum Phase {
+        PARSING, LOOKUP, HASHING, WRITING
+    }
+
+    private final boolean enabled;
+    private final String mode;
+    private final String indexFileName;
+    private final String targetFileName;
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+    private final AtomicLong addedRows = new AtomicLong();
+    private final AtomicLong removedRows = new AtomicLong();
+    private final AtomicLong changedRows = new AtomicLong();
+    private volatile long indexEntries;
+    private volatile long indexBytes;
+    private volatile long filterBytes;
+    private volatile double filterExpectedFalsePositiveRate;
+    private final AtomicLong filterRejectedRows = new AtomicLong();
+    private final AtomicLong filterFalsePositives = new AtomicLong();
+    private final List<QueueGauge> queues = new CopyOnWriteArrayList<QueueGauge>();
+
+    private ObjectName registeredName;
+
+    /**
+     * @param mode           the diff engine of the run
+     * @param indexFileName
+     * @param targetFileName
+     */
+    public RunMetrics(String mode, String indexFileName, String targetFileName) {
+        this(true, mode, indexFileName, targetFileName);
+    }
+
+    private RunMetrics(boolean enabled, String mode, String indexFileName, String targetFileName) {
+        this.enabled = enabled;
+        this.mode = mode;
+        this.indexFileName = indexFileName;
+        this.targetFileName = targetFileName;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return a sampler for the rows read by the calling thread
+     */
+    public RowSampler newSampler() {
+        return new RowSampler(this, enabled);
+    }
+
+    /**
+     * @param bytes bytes of an input read in a pass
+     */
+    public void addBytes(long bytes) {
+        if (enabled) {
+            bytesRead.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * @param phase
+     * @param nanos measured time, not sampled
+     */
+    public void addTime(Phase phase, long nanos) {
+        if (enabled) {
+            phaseNanos.addAndGet(phase.ordinal(), nanos);
+        }
+    }
+
+    void addSamples(long rows, long[] sampledNanos) {
+        if (enabled) {
+            rowsRead.addAndGet(rows);
+            for (int i = 0; i < sampledNanos.length; i++) {
+                phaseNanos.addAndGet(i, sampledNanos[i] * SAMPLE_INTERVAL);
+            }
+        }
+    }
+
+    public void addAdded(long rows) {
+        if (enabled) {
+            addedRows.addAndGet(rows);
+        }
+    }
+
+    public void addRemoved(long rows) {
+        if (enabled) {
+            removedRows.addAndGet(rows);
+        }
+    }
+
+    public void addChanged(long rows) {
+        if (enabled) {
+            changedRows.addAndGet(rows);
+        }
+    }
+
+    /**
+     * @param entries IDs in the index
+     * @param bytes   estimated memory used by the index
+     */
+    public void setIndex(long entries, long bytes) {
+        if (enabled) {
+            indexEntries = entries;
+            indexBytes = bytes;
+        }
+    }
+
+    /**
+     * @param bytes                     memory taken by the key filter of the index
+     * @param expectedFalsePositiveRate the false-positive rate expected from the keys in the filter
+     */
+    public void setFilter(long bytes, double expectedFalsePositiveRate) {
+        if (enabled) {
+            filterBytes = bytes;
+            filterExpectedFalsePositiveRate = expectedFalsePositiveRate;
+        }
+    }
+
+    /**
+     * @param rejectedRows   rows the key filter ruled out
+     * @param falsePositives rows the key filter let through although their keys are not in the index
+     */
+    public void addFilterResults(long rejectedRows, long falsePositives) {
+        if (enabled) {
+            filterRejectedRows.addAndGet(rejectedRows);
+            filterFalsePositives.addAndGet(falsePositives);
+        }
+    }
+
+    /**
+     * It adds a queue to the queue depth, until the run is finished
+     *
+     * @param queue
+     */
+    public void watch(QueueGauge queue) {
+        if (enabled) {
+            queues.add(queue);
+        }
+    }
+
+    /**
+     * It adds the tasks waiting for the workers of an executor to the queue depth, until the run is finished
+     *
+     * @param executor
+     */
+    public void watch(ExecutorService executor) {
+        if (enabled && executor instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            queues.add(new QueueGauge() {
+                @Override
+                public int getQueueDepth() {
+                    return pool.getQueue().size();
+                }
+            });
+        }
+    }
+
+    /**
+     * It stops the clock and releases the watched queues
+     */
+    public void finish() {
+        if (!enabled || endNanos != 0) {
+            return;
+        }
+        endNanos = System.nanoTime();
+        queues.clear();
+        log.debug(String.format("%d rows, %d bytes in %d ms: %.0f rows/s, %.0f bytes/s", getRowsRead(), getBytesRead(),
+                getElapsedMillis(), getRowsPerSecond(), getBytesPerSecond()));
+    }
+
+    /**
+     * It registers the metrics as the MBean {@link #OBJECT_NAME}, replacing those of an earlier run
+     *
+     * @throws ValidatorException
+     */
+    public void register() throws ValidatorException {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException e) {
+            throw new ValidatorException("The metrics can't be registered", e);
+        }
+    }
+
+    public void unregister() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            log.debug("The metrics are already unregistered");
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public String getMode() {
+        return mode;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return endNanos != 0;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        return perSecond(getRowsRead());
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return perSecond(getBytesRead());
+    }
+
+    @Override
+    public long getParsingMillis() {
+        return getPhaseMillis(Phase.PARSING);
+    }
+
+    @Override
+    public long getLookupMillis() {
+        return getPhaseMillis(Phase.LOOKUP);
+    }
+
+    @Override
+    public long getHashingMillis() {
+        return getPhaseMillis(Phase.HASHING);
+    }
+
+    @Override
+    public long getWritingMillis() {
+        return getPhaseMillis(Phase.WRITING);
+    }
+
+    public long getPhaseMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos.get(phase.ordinal()));
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (QueueGauge queue : queues) {
+            depth += queue.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getIndexEntries() {
+        return indexEntries;
+    }
+
+    @Override
+    public long getIndexBytes() {
+        return indexBytes;
+    }
+
+    @Override
+    public long getFilterBytes() {
+        return filterBytes;
+    }
+
+    @Override
+    public double getFilterExpectedFalsePositiveRate() {
+        return filterExpectedFalsePositiveRate;
+    }
+
+    /**
+     * @return the share of the rows whose keys are not in the index that the key filter let through
+     */
+    @Override
+    public double getFilterFalsePositiveRate() {
+        long falsePositives = filterFalsePositives.get();
+        long absent = filterRejectedRows.get() + falsePositives;
+        return absent > 0 ? (double) falsePositives / absent : 0;
+    }
+
+    public long getFilterFalsePositives() {
+        return filterFalsePositives.get();
+    }
+
+    @Override
+    public long getHeapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return the sum of the peak usages of the heap pools since the JVM started
+     */
+    public long getPeakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    @Override
+    public long getAddedRows() {
+        return addedRows.get();
+    }
+
+    @Override
+    public long getRemovedRows() {
+        return removedRows.get();
+    }
+
+    @Override
+    public long getChangedRows() {
+        return changedRows.get();
+    }
+
+    /**
+     * It writes the summary of the run into a file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void writeSummary(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return the summary of the run as a JSON object
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\n");
+        appendField(sb, "mode", quote(mode));
+        appendField(sb, "indexFile", quote(indexFileName));
+        appendField(sb, "targetFile", quote(targetFileName));
+        appendField(sb, "finished", String.valueOf(isFinished()));
+        appendField(sb, "elapsedMillis", String.valueOf(getElapsedMillis()));
+        appendField(sb, "rowsRead", String.valueOf(getRowsRead()));
+        appendField(sb, "bytesRead", String.valueOf(getBytesRead()));
+        appendField(sb, "rowsPerSecond", String.format(Locale.ROOT, "%.1f", getRowsPerSecond()));
+        appendField(sb, "bytesPerSecond", String.format(Locale.ROOT, "%.1f", getBytesPerSecond()));
+        StringBuilder phases = new StringBuilder("{");
+        for (Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0) {
+                phases.append(", ");
+            }
+            phases.append(quote(phase.name().toLowerCase(Locale.ROOT))).append(": ").append(getPhaseMillis(phase));
+        }
+        appendField(sb, "phaseMillis", phases.append('}').toString());
+        appendField(sb, "indexEntries", String.valueOf(getIndexEntries()));
+        appendField(sb, "indexBytes", String.valueOf(getIndexBytes()));
+        if (getFilterBytes() > 0) {
+            appendField(sb, "filter", String.format(Locale.ROOT,
+                    "{\"bytes\": %d, \"expectedFalsePositiveRate\": %.6f, \"falsePositiveRate\": %.6f, \"rejectedRows\": %d, \"falsePositives\": %d}",
+                    getFilterBytes(), getFilterExpectedFalsePositiveRate(), getFilterFalsePositiveRate(),
+                    filterRejectedRows.get(), getFilterFalsePositives()));
+        }
+        appendField(sb, "heapUsedBytes", String.valueOf(getHeapUsedBytes()));
+        appendField(sb, "peakHeapBytes", String.valueOf(getPeakHeapBytes()));
+        appendField(sb, "addedRows", String.valueOf(getAddedRows()));
+        appendField(sb, "removedRows", String.valueOf(getRemovedRows()));
+        appendField(sb, "changedRows", String.valueOf(getChangedRows()));
+        // replaces the comma after the last field
+        sb.setLength(sb.length() - 2);
+        return sb.append("\n}\n").toString();
+    }
+
+    private double perSecond(long count) {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        long nanos = end - startNanos;
+        return nanos > 0 ? count * 1e9 / nanos : 0;
+    }
+
+    private static void appendField(StringBuilder sb, String name, String value) {
+        sb.append("  ").append(quote(name)).append(": ").append(value).append(",\n");
+    }
+
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,49 @@
+package net.skim.metrics;
+
+/**
+ * Attributes of a run published over JMX. Times of the phases are measured on samples of the rows, so they are
+ * estimates which add up across threads, and may be larger than the elapsed time.
+ */
+public interface RunMetricsMBean {
+    String getMode();
+
+    boolean isFinished();
+
+    long getElapsedMillis();
+
+    long getRowsRead();
+
+    long getBytesRead();
+
+    double getRowsPerSecond();
+
+    double getBytesPerSecond();
+
+    long getParsingMillis();
+
+    long getLookupMillis();
+
+    long getHashingMillis();
+
+    long getWritingMillis();
+
+    int getQueueDepth();
+
+    long getIndexEntries();
+
+    long getIndexBytes();
+
+    long getFilterBytes();
+
+    double getFilterExpectedFalsePositiveRate();
+
+    double getFilterFalsePositiveRate();
+
+    long getHeapUsedBytes();
+
+    long getAddedRows();
+
+    long getRemovedRows();
+
+    long getChangedRows();
+}
@@ -0,0 +1,126 @@
+package net.skim.server;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A client sending a comparison to a {@link DiffServer} and exiting with its status. It takes the arguments of the
+ * command line, optionally preceded by "--port PORT", and relative paths are resolved against its working directory.
+ * It reads the secret of the server from the file the server writes into the home directory of the user.
+ * <p>
+ * It only uses the JDK, so it starts without loading the parsers and the logging of a comparison.
+ */
+public class DiffClient {
+    public static final int DEFAULT_PORT = 7878;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final String EXIT = "exit ";
+
+    /**
+     * The directory the servers write their secrets into
+     */
+    public static final File DEFAULT_SECRET_DIRECTORY = new File(System.getProperty("user.home"), ".csv-validator");
+
+    private DiffClient() {
+    }
+
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+        if (arguments.size() >= 2 && "--port".equals(arguments.get(0))) {
+            port = Integer.parseInt(arguments.get(1));
+            arguments = arguments.subList(2, arguments.size());
+        }
+        try {
+            System.exit(send(port, new File("").getAbsoluteFile(), arguments, new PrintWriter(new OutputStreamWriter(System.err, UTF_8), true)));
+        } catch (ConnectException | NoSuchFileException e) {
+            System.err.println(String.format("No server on port %d. It is started with --serve", port));
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(2);
+        }
+    }
+
+    /**
+     * It sends a comparison to the server on the loopback interface with the secret from its default file, and waits
+     * for its end
+     *
+     * @param port
+     * @param workingDirectory the directory relative paths are resolved against
+     * @param arguments        the arguments of the command line
+     * @param err              the writer of the messages of the server
+     * @return the exit status of the comparison
+     * @throws IOException if the secret can't be read, or the server can't be reached or closes the connection early
+     */
+    public static int send(int port, File workingDirectory, List<String> arguments, PrintWriter err) throws IOException {
+        return send(port, readSecret(DEFAULT_SECRET_DIRECTORY, port), workingDirectory, arguments, err);
+    }
+
+    /**
+     * It sends a comparison to the server on the loopback interface and waits for its end
+     *
+     * @param port
+     * @param secret           the secret of the server
+     * @param workingDirectory the directory relative paths are resolved against
+     * @param arguments        the arguments of the command line
+     * @param err              the writer of the messages of the server
+     * @return the exit status of the comparison
+     * @throws IOException if the server can't be reached or closes the connection early
+     */
+    public static int send(int port, String secret, File workingDirectory, List<String> arguments, PrintWriter err) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), UTF_8));
+            writer.write(secret);
+            writer.write('\n');
+            writer.write(workingDirectory.getPath());
+            writer.write('\n');
+            for (String argument : arguments) {
+                if (argument.isEmpty() || argument.indexOf('\n') >= 0) {
+                    throw new IOException("An argument can't be empty or have line breaks: " + argument);
+                }
+                writer.write(argument);
+                writer.write('\n');
+            }
+            writer.write('\n');
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(EXIT)) {
+                    return Integer.parseInt(line.substring(EXIT.length()).trim());
+                }
+                err.println(line);
+            }
+            throw new EOFException("The server closed the connection");
+        }
+    }
+
+    /**
+     * @param directory the directory the server writes its secret into
+     * @param port
+     * @return the secret of the server on the port
+     * @throws IOException if the server hasn't written it
+     */
+    public static String readSecret(File directory, int port) throws IOException {
+        return new String(Files.readAllBytes(secretFile(directory, port).toPath()), UTF_8).trim();
+    }
+
+    /**
+     * @param directory
+     * @param port
+     * @return the file the server on the port writes its secret into
+     */
+    static File secretFile(File directory, int port) {
+        return new File(directory, "server-" + port + ".secret");
+    }
+}
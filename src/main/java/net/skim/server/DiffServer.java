@@ -0,0 +1,236 @@
+package net.skim.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A server taking comparisons from {@link DiffClient}s on a port of the loopback interface, so they run in a JVM
+ * whose classes are loaded and compiled already. Comparisons run on a pool of workers.
+ * <p>
+ * Any local user can connect to the port, so the server draws a random secret when it starts and writes it into a file
+ * only its user can read, in {@link DiffClient#DEFAULT_SECRET_DIRECTORY} by default. A request without the secret is
+ * rejected before it runs.
+ * <p>
+ * A request is a line of UTF-8 text with the secret, a line with the working directory of the client, a line per
+ * argument and an empty line. The response is the messages of the comparison, a line each, and a last line
+ * "exit STATUS".
+ */
+public class DiffServer implements Closeable {
+    static final Logger log = LogManager.getLogger(DiffServer.class.getName());
+
+    // time a client may take to send its request
+    private static final int READ_TIMEOUT = 30000;
+    private static final int ERROR_STATUS = 2;
+    private static final int SECRET_BYTES = 32;
+
+    /**
+     * It runs a comparison
+     */
+    public interface Handler {
+
+        /**
+         * @param args             the arguments of the command line
+         * @param workingDirectory the working directory of the client
+         * @param err              the writer of the messages sent to the client
+         * @return the exit status
+         */
+        int handle(String[] args, File workingDirectory, PrintWriter err);
+    }
+
+    private final int port;
+    private final int workers;
+    private final Handler handler;
+    private final File secretDirectory;
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private byte[] secret;
+    private File secretFile;
+
+    /**
+     * @param port    the port, or 0 for any free port
+     * @param workers number of comparisons running at the same time
+     * @param handler
+     */
+    public DiffServer(int port, int workers, Handler handler) {
+        this(port, workers, DiffClient.DEFAULT_SECRET_DIRECTORY, handler);
+    }
+
+    /**
+     * @param port            the port, or 0 for any free port
+     * @param workers         number of comparisons running at the same time
+     * @param secretDirectory the directory the secret is written into
+     * @param handler
+     */
+    public DiffServer(int port, int workers, File secretDirectory, Handler handler) {
+        this.port = port;
+        this.workers = Math.max(1, workers);
+        this.secretDirectory = secretDirectory;
+        this.handler = handler;
+    }
+
+    /**
+     * It binds the port and writes the secret
+     *
+     * @throws IOException if the port can't be bound or the secret can't be written
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        try {
+            writeSecret();
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        executor = Executors.newFixedThreadPool(workers);
+        log.info(String.format("Listening on %s:%d with %d workers, secret in %s", serverSocket.getInetAddress().getHostAddress(),
+                serverSocket.getLocalPort(), workers, secretFile));
+    }
+
+    /**
+     * @return the bound port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * It takes requests until the server is closed
+     *
+     * @throws IOException
+     */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            try {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        if (secretFile != null && !secretFile.delete()) {
+            log.warn(String.format("Unable to delete %s", secretFile));
+        }
+    }
+
+    /**
+     * It draws a secret and writes it into a file readable by the user only, where the file system has permissions
+     *
+     * @throws IOException
+     */
+    private void writeSecret() throws IOException {
+        byte[] bytes = new byte[SECRET_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        String text = sb.toString();
+
+        Files.createDirectories(secretDirectory.toPath());
+        File file = DiffClient.secretFile(secretDirectory, getPort());
+        Path path = file.toPath();
+        // a file left by another server is replaced, never written through, so its permissions can't be kept
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(path);
+            file.setReadable(false, false);
+            file.setWritable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(true, true);
+        }
+        Files.write(path, text.getBytes(DiffClient.UTF_8));
+        secret = text.getBytes(DiffClient.UTF_8);
+        secretFile = file;
+    }
+
+    private void handle(Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), DiffClient.UTF_8));
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), DiffClient.UTF_8), true);
+            String requestSecret = reader.readLine();
+            if (requestSecret == null || !MessageDigest.isEqual(secret, requestSecret.getBytes(DiffClient.UTF_8))) {
+                log.warn(String.format("A request from port %d is rejected: wrong secret", socket.getPort()));
+                writer.println("The request is rejected: the secret of the server doesn't match");
+                writer.println(DiffClient.EXIT + ERROR_STATUS);
+                return;
+            }
+            String workingDirectory = reader.readLine();
+            List<String> args = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                args.add(line);
+            }
+            if (workingDirectory == null || line == null) {
+                log.warn("A request ended early");
+                return;
+            }
+            socket.setSoTimeout(0);
+            long start = System.nanoTime();
+            int status;
+            try {
+                status = handler.handle(args.toArray(new String[args.size()]), new File(workingDirectory), writer);
+            } catch (RuntimeException e) {
+                log.error(String.format("%s failed: %s", args, e));
+                writer.println(e);
+                status = ERROR_STATUS;
+            }
+            log.debug(String.format("%s: exit %d in %d ms", args, status, (System.nanoTime() - start) / 1000000));
+            writer.println(DiffClient.EXIT + status);
+            writer.flush();
+        } catch (IOException e) {
+            log.error(String.format("Failed to handle a request: %s", e));
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // closing
+        }
+    }
+}
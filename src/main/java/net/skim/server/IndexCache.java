@@ -0,0 +1,109 @@
+package net.skim.server;
+
+import net.skim.diff.FingerprintDiffEngine;
+import net.skim.diff.IndexedFile;
+import net.skim.exception.ValidatorException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Indexes of the fingerprint mode kept in memory between comparisons, so a file compared again isn't indexed again.
+ * An index is kept for a local file only, and is used while the file has the same size and modification time and the
+ * options the index depends on are the same. Indexes are evicted least recently used first once their total size is
+ * over the capacity.
+ * <p>
+ * An indexed file is never modified by a comparison, so one is shared by comparisons running at the same time.
+ */
+public class IndexCache {
+    static final Logger log = LogManager.getLogger(IndexCache.class.getName());
+
+    private final long capacity;
+    private final LinkedHashMap<String, IndexedFile> indexes = new LinkedHashMap<String, IndexedFile>(16, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity bytes of indexes kept
+     */
+    public IndexCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * It returns the index of a file from the cache, or builds it and keeps it
+     *
+     * @param fileName
+     * @param settings the options the index depends on, such as the key columns
+     * @param engine   the engine building the index if it is not in the cache
+     * @return the indexed file
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public IndexedFile get(String fileName, String settings, FingerprintDiffEngine engine) throws IOException, ValidatorException {
+        File file = new File(fileName);
+        if (!file.isFile()) {
+            return engine.buildIndex(fileName);
+        }
+        String key = file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified() + "|" + settings;
+        synchronized (this) {
+            IndexedFile indexedFile = indexes.get(key);
+            if (indexedFile != null) {
+                hits++;
+                log.debug(String.format("Index is taken from the cache: %s", fileName));
+                return indexedFile;
+            }
+            misses++;
+        }
+        IndexedFile indexedFile = engine.buildIndex(fileName);
+        put(key, indexedFile);
+        return indexedFile;
+    }
+
+    private synchronized void put(String key, IndexedFile indexedFile) {
+        long bytes = indexedFile.getIndex().memoryUsage();
+        if (bytes > capacity) {
+            log.debug(String.format("Index of %d bytes is too large for the cache: %s", bytes, indexedFile.getFileName()));
+            return;
+        }
+        IndexedFile replaced = indexes.put(key, indexedFile);
+        if (replaced != null) {
+            size -= replaced.getIndex().memoryUsage();
+        }
+        size += bytes;
+        Iterator<Map.Entry<String, IndexedFile>> eldest = indexes.entrySet().iterator();
+        while (size > capacity && eldest.hasNext()) {
+            Map.Entry<String, IndexedFile> entry = eldest.next();
+            if (entry.getValue() != indexedFile) {
+                size -= entry.getValue().getIndex().memoryUsage();
+                eldest.remove();
+                log.debug(String.format("Index is evicted from the cache: %s", entry.getValue().getFileName()));
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return indexes.size();
+    }
+
+    /**
+     * @return the bytes of the indexes kept
+     */
+    public synchronized long memoryUsage() {
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
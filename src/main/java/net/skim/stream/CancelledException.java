@@ -0,0 +1,13 @@
+package net.skim.stream;
+
+import java.io.IOException;
+
+/**
+ * It stops a comparison whose differences are no longer wanted
+ */
+class CancelledException extends IOException {
+
+    CancelledException() {
+        super("The comparison was cancelled");
+    }
+}
@@ -0,0 +1,227 @@
+package net.skim.stream;
+
+import com.univocity.parsers.csv.CsvParserSettings;
+import net.skim.diff.ColumnSchema;
+import net.skim.diff.ColumnSchemaFilter;
+import net.skim.diff.DiffEventListener;
+import net.skim.diff.DiffListener;
+import net.skim.diff.FingerprintDiffEngine;
+import net.skim.exception.ValidatorException;
+import net.skim.io.KeyColumns;
+import net.skim.utils.ConcurrentUtils;
+import net.skim.utils.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The entry point of the comparison as a library. It compares a baseline with a candidate and hands the differences
+ * over as they are found, with no result file: to a {@link DiffListener}, such as a {@link DiffEventListener}, to a
+ * {@link DiffIterator} or to a {@link DiffPublisher}. Rows only in the candidate are added, and rows only in the
+ * baseline are removed.
+ * <p>
+ * The baseline is indexed with a {@link FingerprintDiffEngine}, which reads rows of both inputs again by their
+ * offsets, so input streams are copied into temporary files first and deleted after the comparison. Compressed
+ * inputs are recognized by their content. The streams are read to their end but not closed.
+ * <p>
+ * Failures are thrown, never exit the JVM. The settings are read when a comparison starts, and comparisons may run at
+ * the same time.
+ */
+public class CsvDiff {
+    static final Logger log = LogManager.getLogger(CsvDiff.class.getName());
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    static final ThreadFactory THREADS = ConcurrentUtils.daemonThreadFactory("diff-stream");
+
+    private final CsvParserSettings csvParserSettings;
+    private KeyColumns keyColumns = KeyColumns.DEFAULT;
+    private ColumnSchema columnSchema = ColumnSchema.EXACT;
+    private int threads = 1;
+    private boolean offHeap;
+    private File tempDirectory;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    public CsvDiff() {
+        csvParserSettings = new CsvParserSettings();
+        csvParserSettings.setKeepQuotes(true);
+        csvParserSettings.setHeaderExtractionEnabled(true);
+    }
+
+    public CsvParserSettings getCsvParserSettings() {
+        return csvParserSettings;
+    }
+
+    /**
+     * @param keyColumns the columns identifying a row, ID by default
+     */
+    public void setKeyColumns(KeyColumns keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * @param columnSchema how the values of common rows are compared. Changed rows whose values are all equivalent
+     *                     are dropped
+     */
+    public void setColumnSchema(ColumnSchema columnSchema) {
+        this.columnSchema = columnSchema;
+    }
+
+    /**
+     * @param threads number of threads reading a local candidate file
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param offHeap true if the index is kept outside the heap
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @param tempDirectory the directory input streams are copied into, the default temporary directory if null
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * @param bufferSize number of differences an iterator holds before the comparison waits for them to be taken
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = Math.max(1, bufferSize);
+    }
+
+    /**
+     * It compares two files and reports the differences to the listener on the calling thread
+     *
+     * @param baseline
+     * @param candidate
+     * @param listener
+     * @return true if there are no differences
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public boolean diff(Path baseline, Path candidate, DiffListener listener) throws IOException, ValidatorException {
+        return files(baseline, candidate).run(listener);
+    }
+
+    /**
+     * It compares two streams and reports the differences to the listener on the calling thread
+     *
+     * @param baseline
+     * @param candidate
+     * @param listener
+     * @return true if there are no differences
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public boolean diff(InputStream baseline, InputStream candidate, DiffListener listener) throws IOException, ValidatorException {
+        return streams(baseline, candidate).run(listener);
+    }
+
+    /**
+     * @param baseline
+     * @param candidate
+     * @return an iterator over the differences of two files, which needs to be closed if it isn't read to its end
+     */
+    public DiffIterator iterator(Path baseline, Path candidate) {
+        return new DiffIterator(files(baseline, candidate), columnSchema, bufferSize);
+    }
+
+    /**
+     * @param baseline
+     * @param candidate
+     * @return an iterator over the differences of two streams, which needs to be closed if it isn't read to its end
+     */
+    public DiffIterator iterator(InputStream baseline, InputStream candidate) {
+        return new DiffIterator(streams(baseline, candidate), columnSchema, bufferSize);
+    }
+
+    /**
+     * @param baseline
+     * @param candidate
+     * @return a publisher of the differences of two files, which starts comparing once subscribed
+     */
+    public DiffPublisher publisher(Path baseline, Path candidate) {
+        return new DiffPublisher(files(baseline, candidate), columnSchema);
+    }
+
+    /**
+     * @param baseline
+     * @param candidate
+     * @return a publisher of the differences of two streams, which starts comparing once subscribed
+     */
+    public DiffPublisher publisher(InputStream baseline, InputStream candidate) {
+        return new DiffPublisher(streams(baseline, candidate), columnSchema);
+    }
+
+    private DiffTask files(Path baseline, Path candidate) {
+        final String baselineName = baseline.toString();
+        final String candidateName = candidate.toString();
+        return new DiffTask() {
+            @Override
+            public boolean run(DiffListener listener) throws IOException, ValidatorException {
+                return compare(baselineName, candidateName, listener);
+            }
+        };
+    }
+
+    private DiffTask streams(final InputStream baseline, final InputStream candidate) {
+        return new DiffTask() {
+            @Override
+            public boolean run(DiffListener listener) throws IOException, ValidatorException {
+                File baselineFile = spool(baseline);
+                File candidateFile = null;
+                try {
+                    candidateFile = spool(candidate);
+                    return compare(baselineFile.getPath(), candidateFile.getPath(), listener);
+                } finally {
+                    delete(baselineFile);
+                    delete(candidateFile);
+                }
+            }
+        };
+    }
+
+    private boolean compare(String baselineName, String candidateName, DiffListener listener) throws IOException, ValidatorException {
+        FileUtils fileUtils = new FileUtils(baselineName, candidateName);
+        fileUtils.setDecompressionThreads(threads);
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(csvParserSettings, fileUtils, threads);
+        engine.setKeyColumns(keyColumns);
+        engine.setOffHeap(offHeap);
+        if (columnSchema.isExact()) {
+            return engine.diff(baselineName, candidateName, listener);
+        }
+        ColumnSchemaFilter filter = new ColumnSchemaFilter(listener, columnSchema);
+        return engine.diff(baselineName, candidateName, filter) || !filter.hasDifferences();
+    }
+
+    private File spool(InputStream in) throws IOException {
+        File file = File.createTempFile("csv-diff-", ".csv", tempDirectory);
+        try {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            delete(file);
+            throw e;
+        }
+        log.debug(String.format("%d bytes are copied into %s", file.length(), file));
+        return file;
+    }
+
+    private static void delete(File file) {
+        if (file != null && !file.delete()) {
+            log.warn(String.format("Unable to delete %s", file));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.skim.stream;
+
+import net.skim.diff.ColumnSchema;
+import net.skim.diff.DiffEvent;
+import net.skim.diff.DiffEventListener;
+import net.skim.exception.DiffFailedException;
+import net.skim.exception.ValidatorException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * It iterates over the differences of a comparison running on another thread. The differences wait in a bounded
+ * queue, and the comparison waits while the queue is full, so it runs no further ahead than the queue.
+ * <p>
+ * A failure of the comparison is thrown by {@link #hasNext()} as a {@link DiffFailedException}. Closing the iterator
+ * before its end stops the comparison.
+ */
+public class DiffIterator implements Iterator<DiffEvent>, Closeable {
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private volatile boolean closed;
+    private boolean finished;
+    private DiffEvent next;
+
+    DiffIterator(final DiffTask task, final ColumnSchema schema, int bufferSize) {
+        queue = new ArrayBlockingQueue<Object>(Math.max(1, bufferSize));
+        CsvDiff.THREADS.newThread(new Runnable() {
+            @Override
+            public void run() {
+                Object end = END;
+                try {
+                    task.run(new DiffEventListener(schema) {
+                        @Override
+                        protected void onEvent(DiffEvent event) throws IOException {
+                            put(event);
+                        }
+                    });
+                } catch (CancelledException e) {
+                    return;
+                } catch (IOException | ValidatorException | RuntimeException e) {
+                    end = e;
+                }
+                try {
+                    put(end);
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }).start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (finished || closed) {
+            return false;
+        }
+        Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DiffFailedException("Interrupted while waiting for a difference", e);
+        }
+        if (item instanceof DiffEvent) {
+            next = (DiffEvent) item;
+            return true;
+        }
+        finished = true;
+        if (item instanceof Exception) {
+            Exception e = (Exception) item;
+            throw new DiffFailedException(e.getMessage(), e);
+        }
+        return false;
+    }
+
+    @Override
+    public DiffEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        DiffEvent event = next;
+        next = null;
+        return event;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * It stops the comparison if it is still running
+     */
+    @Override
+    public void close() {
+        closed = true;
+        // makes room for a difference being put, so the comparison sees it is closed
+        queue.clear();
+    }
+
+    private void put(Object item) throws IOException {
+        if (closed) {
+            throw new CancelledException();
+        }
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the iterator");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package net.skim.stream;
+
+import net.skim.diff.ColumnSchema;
+import net.skim.diff.DiffEvent;
+import net.skim.diff.DiffEventListener;
+import net.skim.exception.ValidatorException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * It publishes the differences of a comparison to a {@link DiffSubscriber}, like a java.util.concurrent.Flow.Publisher.
+ * The comparison runs on its own thread once subscribed, and waits whenever the differences requested so far are
+ * delivered, so a slow subscriber holds it back instead of letting differences pile up.
+ * <p>
+ * A publisher runs its comparison once, so it takes a single subscriber.
+ */
+public class DiffPublisher {
+    private final DiffTask task;
+    private final ColumnSchema schema;
+    private boolean subscribed;
+
+    DiffPublisher(DiffTask task, ColumnSchema schema) {
+        this.task = task;
+        this.schema = schema;
+    }
+
+    /**
+     * @param subscriber
+     */
+    public void subscribe(final DiffSubscriber subscriber) {
+        synchronized (this) {
+            if (subscribed) {
+                Demand rejected = new Demand();
+                rejected.cancel();
+                subscriber.onSubscribe(rejected);
+                subscriber.onError(new IllegalStateException("A publisher takes a single subscriber"));
+                return;
+            }
+            subscribed = true;
+        }
+        final Demand demand = new Demand();
+        subscriber.onSubscribe(demand);
+        CsvDiff.THREADS.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run(new DiffEventListener(schema) {
+                        @Override
+                        protected void onEvent(DiffEvent event) throws IOException {
+                            demand.take();
+                            subscriber.onNext(event);
+                        }
+                    });
+                } catch (CancelledException e) {
+                    if (demand.getError() != null) {
+                        subscriber.onError(demand.getError());
+                    }
+                    return;
+                } catch (IOException | ValidatorException | RuntimeException e) {
+                    if (!demand.isCancelled()) {
+                        subscriber.onError(e);
+                    }
+                    return;
+                }
+                if (!demand.isCancelled()) {
+                    subscriber.onComplete();
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * The differences requested and not delivered yet
+     */
+    private static class Demand implements DiffSubscription {
+        private long requested;
+        private boolean cancelled;
+        private IllegalArgumentException error;
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("A request needs to be positive: " + n);
+                cancelled = true;
+            } else {
+                requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        /**
+         * It waits until a difference is requested
+         *
+         * @throws CancelledException if the subscription is cancelled
+         * @throws InterruptedIOException
+         */
+        synchronized void take() throws IOException {
+            while (requested == 0 && !cancelled) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a request");
+                }
+            }
+            if (cancelled) {
+                throw new CancelledException();
+            }
+            if (requested != Long.MAX_VALUE) {
+                requested--;
+            }
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        synchronized IllegalArgumentException getError() {
+            return error;
+        }
+    }
+}
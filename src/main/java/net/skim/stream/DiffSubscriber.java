@@ -0,0 +1,37 @@
+package net.skim.stream;
+
+import net.skim.diff.DiffEvent;
+
+/**
+ * It receives the differences of a {@link DiffPublisher}, as many as it requests, like a
+ * java.util.concurrent.Flow.Subscriber. Methods are called one at a time, on a thread of the publisher.
+ */
+public interface DiffSubscriber {
+
+    /**
+     * It is called once before any other method
+     *
+     * @param subscription the subscription the differences are requested from
+     */
+    void onSubscribe(DiffSubscription subscription);
+
+    /**
+     * It is called for a requested difference
+     *
+     * @param event
+     */
+    void onNext(DiffEvent event);
+
+    /**
+     * It is called once if the comparison fails. No method is called after it.
+     *
+     * @param throwable an {@link java.io.IOException}, a {@link net.skim.exception.ValidatorException} or an
+     *                  {@link IllegalArgumentException} for a request which isn't positive
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * It is called once after all differences. No method is called after it.
+     */
+    void onComplete();
+}
@@ -0,0 +1,21 @@
+package net.skim.stream;
+
+/**
+ * The link between a {@link DiffPublisher} and its {@link DiffSubscriber}, like a
+ * java.util.concurrent.Flow.Subscription. Its methods may be called from any thread.
+ */
+public interface DiffSubscription {
+
+    /**
+     * It asks for more differences. The comparison waits while the differences requested so far are delivered.
+     *
+     * @param n the number of differences, Long.MAX_VALUE for all of them
+     */
+    void request(long n);
+
+    /**
+     * It stops the comparison. Differences may still be delivered while it stops, but neither
+     * {@link DiffSubscriber#onComplete()} nor {@link DiffSubscriber#onError(Throwable)} is called.
+     */
+    void cancel();
+}
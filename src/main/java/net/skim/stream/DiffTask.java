@@ -0,0 +1,20 @@
+package net.skim.stream;
+
+import net.skim.diff.DiffListener;
+import net.skim.exception.ValidatorException;
+
+import java.io.IOException;
+
+/**
+ * A comparison of two inputs, run when its differences are wanted
+ */
+interface DiffTask {
+
+    /**
+     * @param listener
+     * @return true if there are no differences
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    boolean run(DiffListener listener) throws IOException, ValidatorException;
+}
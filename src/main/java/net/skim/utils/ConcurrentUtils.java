@@ -0,0 +1,91 @@
+package net.skim.utils;
+
+import net.skim.exception.ValidatorException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility class for tasks running on worker threads
+ */
+public class ConcurrentUtils {
+
+    private ConcurrentUtils() {
+    }
+
+    /**
+     * It waits for a task and returns its result. A failure is thrown as it was thrown by the task.
+     *
+     * @param future
+     * @return result of the task
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public static <T> T get(Future<T> future) throws IOException, ValidatorException {
+        return getAll(Collections.singletonList(future)).get(0);
+    }
+
+    /**
+     * It waits for all tasks and returns their results in order. If a task fails, the others are cancelled and
+     * the failure is thrown as it was thrown by the task.
+     *
+     * @param futures
+     * @return results of the tasks
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public static <T> List<T> getAll(List<Future<T>> futures) throws IOException, ValidatorException {
+        List<T> results = new ArrayList<T>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new ValidatorException("Interrupted while waiting for workers", e);
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ValidatorException) {
+                throw (ValidatorException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ValidatorException(cause);
+        }
+        return results;
+    }
+
+    /**
+     * @param prefix prefix of the thread names
+     * @return a factory of daemon threads, so idle workers never keep the JVM alive
+     */
+    public static ThreadFactory daemonThreadFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static <T> void cancelAll(List<Future<T>> futures) {
+        for (Future<T> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -1,10 +1,18 @@
 package net.skim.utils;
 
+import com.univocity.parsers.csv.CsvParserSettings;
 import net.skim.exception.ValidatorException;
+import net.skim.index.FingerprintIndex;
+import net.skim.index.IndexSnapshot;
+import net.skim.io.CompressedStreams;
+import net.skim.io.MappedRecordCursor;
+import net.skim.io.ParsingRecordCursor;
+import net.skim.io.RecordCursor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.net.URISyntaxException;
 import java.net.URL;
 
 /**
@@ -13,15 +21,15 @@ import java.net.URL;
 public class FileUtils {
     static final Logger log = LogManager.getLogger(FileUtils.class.getName());
 
-    private final String COMMON_ROWS_IN_TARGET_FILE = "common_rows_target.txt";
-    private final String COMMON_ROWS_IN_INDEX_FILE = "common_rows_index.txt";
-
     private String indexFileName;
     private String targetFileName;
+    private boolean swapped;
     private InputStream indexFileInputStream;
     private InputStream targetFileInputStream;
     private boolean fromResources;
     private ClassLoader loader;
+    private File snapshotDirectory;
+    private int decompressionThreads = 1;
 
     public FileUtils(String fileOneName, String fileTwoName) throws ValidatorException {
         this(fileOneName, fileTwoName, null);
@@ -56,7 +64,8 @@ public class FileUtils {
     public void setFileNamesBySize(String fileOneName, String fileTwoName) throws ValidatorException {
         log.debug(String.format("fileOneName: %s, fileTwoName: %s", fileOneName, fileTwoName));
         try {
-            if (getFileSize(fileOneName) <= getFileSize(fileTwoName)) {
+            swapped = getFileSize(fileOneName) > getFileSize(fileTwoName);
+            if (!swapped) {
                 indexFileName = fileOneName;
                 targetFileName = fileTwoName;
             } else {
@@ -67,6 +76,7 @@ public class FileUtils {
             throw new ValidatorException(e);
         } catch (IllegalArgumentException | IOException e) {
             log.warn(String.format("Can't calculate file size. The first file will be indexed: %s", e));
+            swapped = false;
             indexFileName = fileOneName;
             targetFileName = fileTwoName;
         }
@@ -81,6 +91,20 @@ public class FileUtils {
         targetFileInputStream = getFileInputStream(targetFileName);
     }
 
+    /**
+     * @param decompressionThreads number of threads inflating an input in the blocked gzip format, BGZF
+     */
+    public void setDecompressionThreads(int decompressionThreads) {
+        this.decompressionThreads = Math.max(1, decompressionThreads);
+    }
+
+    /**
+     * Gets OutputStream of the given file. The file is compressed with gzip if its name ends with ".gz".
+     *
+     * @param fileName
+     * @return OutputStream of the file
+     * @throws ValidatorException if the file can't be created
+     */
     public OutputStream getFileOutputStream(String fileName) throws ValidatorException {
         OutputStream ous = null;
 
@@ -95,7 +119,7 @@ public class FileUtils {
                 }
             }
 
-            ous = new FileOutputStream(fileName);
+            ous = CompressedStreams.compress(new FileOutputStream(fileName), fileName);
             if (ous == null) {
                 throw new FileNotFoundException(String.format("Unable to create the file: %s", fileName));
             }
@@ -107,12 +131,14 @@ public class FileUtils {
     }
 
     /**
-     * Gets Reader of the given file
+     * Gets InputStream of the given file, from the resources if a ClassLoader is given. A gzip or BGZF file is
+     * decompressed while it is read.
      *
      * @param fileName
-     * @return Reader of the file. If the file doesn't exist or any errors occurs while accessing the file, returns null
+     * @return InputStream of the file
+     * @throws ValidatorException if the file doesn't exist or any errors occurs while accessing the file
      */
-    private InputStream getFileInputStream(String fileName) throws ValidatorException {
+    public InputStream getFileInputStream(String fileName) throws ValidatorException {
         if (fileName == null) {
             throw new ValidatorException("fileName is null");
         }
@@ -138,7 +164,156 @@ public class FileUtils {
                 throw new ValidatorException(e);
             }
         }
-        return ins;
+        try {
+            return CompressedStreams.decompress(ins, decompressionThreads);
+        } catch (IOException e) {
+            try {
+                ins.close();
+            } catch (IOException closing) {
+                // closing
+            }
+            throw new ValidatorException(e);
+        }
+    }
+
+    /**
+     * Gets the given file as a local file, which can be read at any position. A resource is a local file if the
+     * ClassLoader loads it from a directory. A compressed file is never a local file, as its offsets are those of
+     * the decompressed bytes.
+     *
+     * @param fileName
+     * @return the local file, or null if the file can only be read as a stream
+     */
+    public File getLocalFile(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        File file = null;
+        if (fromResources) {
+            URL url = loader.getResource(fileName);
+            if (url == null || !"file".equals(url.getProtocol())) {
+                return null;
+            }
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                log.debug(String.format("%s is not a local file: %s", url, e));
+                return null;
+            }
+        } else {
+            file = new File(fileName);
+        }
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return CompressedStreams.isGzip(file) ? null : file;
+        } catch (IOException e) {
+            log.debug(String.format("%s can't be read: %s", file, e));
+            return null;
+        }
+    }
+
+    /**
+     * @param fileName
+     * @return true if the file is a local file which can be memory-mapped. Resources are always read as streams.
+     */
+    public boolean isMappable(String fileName) {
+        return !fromResources && getLocalFile(fileName) != null;
+    }
+
+    /**
+     * Gets a cursor over the records of the given file. Local files are memory-mapped if the settings allow it, and
+     * other files are read as streams.
+     *
+     * @param fileName
+     * @param csvParserSettings
+     * @return a cursor whose header is already read
+     * @throws IOException
+     * @throws ValidatorException
+     */
+    public RecordCursor openRecordCursor(String fileName, CsvParserSettings csvParserSettings) throws IOException, ValidatorException {
+        if (isMappable(fileName) && MappedRecordCursor.supports(csvParserSettings)) {
+            log.debug(String.format("%s will be memory-mapped", fileName));
+            return new MappedRecordCursor(getLocalFile(fileName), csvParserSettings);
+        }
+        return new ParsingRecordCursor(getFileInputStream(fileName), csvParserSettings);
+    }
+
+    /**
+     * @param snapshotDirectory directory of the index snapshots. If null, a snapshot is kept next to its file
+     */
+    public void setSnapshotDirectory(File snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * Gets the snapshot file of the given file, as "&lt;file name&gt;.fpidx" in the snapshot directory or next to the
+     * file. Snapshots of different files having the same name in the same snapshot directory replace each other.
+     *
+     * @param fileName
+     * @return the snapshot file, or null if the file is not a local file and can't have a snapshot
+     */
+    public File getSnapshotFile(String fileName) {
+        File file = fromResources ? null : getLocalFile(fileName);
+        if (file == null) {
+            return null;
+        }
+        File directory = snapshotDirectory != null ? snapshotDirectory : file.getAbsoluteFile().getParentFile();
+        return new File(directory, file.getName() + IndexSnapshot.SUFFIX);
+    }
+
+    /**
+     * Loads the index snapshot of the given file if it is still valid. A snapshot which can't be read is deleted,
+     * so it is rebuilt.
+     *
+     * @param fileName
+     * @param settingsSignature a signature of the settings the fingerprints are computed with
+     * @return the snapshot, or null if there is no valid snapshot
+     */
+    public IndexSnapshot loadSnapshot(String fileName, long settingsSignature) {
+        File snapshotFile = getSnapshotFile(fileName);
+        if (snapshotFile == null) {
+            return null;
+        }
+        try {
+            IndexSnapshot snapshot = IndexSnapshot.read(snapshotFile, getLocalFile(fileName), settingsSignature);
+            if (snapshot == null) {
+                log.debug(String.format("No valid snapshot of %s: %s", fileName, snapshotFile.getAbsolutePath()));
+            }
+            return snapshot;
+        } catch (IOException e) {
+            log.warn(String.format("The snapshot of %s will be rebuilt: %s", fileName, e));
+            if (snapshotFile.exists() && !snapshotFile.delete()) {
+                log.warn(String.format("Can't delete %s", snapshotFile.getAbsolutePath()));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Saves the index snapshot of the given file. A snapshot which can't be written is only logged, as it is not
+     * needed for the result.
+     *
+     * @param fileName
+     * @param settingsSignature
+     * @param headerRecord      the header of the file
+     * @param index
+     * @return true if the snapshot is saved
+     */
+    public boolean saveSnapshot(String fileName, long settingsSignature, String headerRecord, FingerprintIndex index) {
+        File snapshotFile = getSnapshotFile(fileName);
+        if (snapshotFile == null) {
+            return false;
+        }
+        try {
+            IndexSnapshot.write(snapshotFile, getLocalFile(fileName), settingsSignature, headerRecord, index);
+            log.debug(String.format("Snapshot of %s is saved: %s", fileName, snapshotFile.getAbsolutePath()));
+            return true;
+        } catch (IOException e) {
+            log.warn(String.format("Can't save the snapshot of %s: %s", fileName, e));
+            return false;
+        }
     }
 
     public InputStream getIndexFileInputStream() {
@@ -149,6 +324,13 @@ public class FileUtils {
         return targetFileInputStream;
     }
 
+    /**
+     * @return true if the second file is the index file because it is smaller than the first one
+     */
+    public boolean isSwapped() {
+        return swapped;
+    }
+
     public String getIndexFileName() {
         return indexFileName;
     }
@@ -184,12 +366,4 @@ public class FileUtils {
         }
         return fileSizeByte;
     }
-
-    public String getCommonRowsInTargetFile() {
-        return COMMON_ROWS_IN_TARGET_FILE;
-    }
-
-    public String getCommonRowsInIndexFile() {
-        return COMMON_ROWS_IN_INDEX_FILE;
-    }
 }
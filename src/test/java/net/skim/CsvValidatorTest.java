@@ -9,6 +9,9 @@ import com.univocity.parsers.csv.CsvWriter;
 import com.univocity.parsers.csv.CsvWriterSettings;
 
 import net.skim.exception.ValidatorException;
+import net.skim.index.BloomFilter;
+import net.skim.index.CommonRows;
+import net.skim.index.IdIndex;
 import net.skim.utils.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
@@ -17,9 +20,19 @@ import org.junit.rules.TemporaryFolder;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import static net.skim.TestFiles.writeFile;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -35,8 +48,6 @@ public class CsvValidatorTest {
 
     private static final String SAMPLE_FILE_ONE = "sample_1.csv";
     private static final String SAMPLE_FILE_TWO = "sample_2.csv";
-    private static final String SAMPLE_COMMON_ROW_ONE = "sample_common_rows_index.txt";
-    private static final String SAMPLE_COMMON_ROW_TWO = "sample_common_rows_target.txt";
 
     private ArrayList<String> expectedIndexedIdList;
     private CsvValidator cv;
@@ -86,23 +97,205 @@ public class CsvValidatorTest {
 
     @Test
     public void testGetIndexedIdList() {
-        ArrayList<String> actualIndexedIdList = null;
+        IdIndex actualIndexedIdList = null;
         try {
             initExpectedIndexedIdList();
             actualIndexedIdList = cv.getIndexedIdList(SAMPLE_FILE_ONE, csvParser, csvWriter, true);
-        } catch (IOException e) {
+        } catch (IOException | ValidatorException e) {
             fail("No exception");
         }
-        assertEquals("It needs to be the same", expectedIndexedIdList, actualIndexedIdList);
+        ArrayList<String> actualIds = new ArrayList<>(actualIndexedIdList.size());
+        for (int i = 0; i < actualIndexedIdList.size(); i++) {
+            actualIds.add(actualIndexedIdList.get(i));
+        }
+        assertEquals("It needs to be the same", expectedIndexedIdList, actualIds);
+        for (String id : expectedIndexedIdList) {
+            assertTrue("It needs to be indexed", actualIndexedIdList.contains(id));
+        }
     }
 
     @Test
-    public void testCompareCommonRows() {
-        try {
-            boolean result = cv.compareCommonRows(SAMPLE_COMMON_ROW_ONE, SAMPLE_COMMON_ROW_TWO, csvWriter, true);
-            assertTrue("It needs to be true", result);
-        } catch (IOException e) {
-            fail("No exception");
+    public void testFilteredTargetPass() throws Exception {
+        File indexFile = copyResource(SAMPLE_FILE_ONE);
+        File targetFile = copyResource(SAMPLE_FILE_TWO);
+        // a filter so full that it lets every key through
+        BloomFilter filter = new BloomFilter(128, 0);
+        for (int i = 0; i < 10000; i++) {
+            byte[] key = String.valueOf(i).getBytes(StandardCharsets.UTF_8);
+            filter.add(key, 0, key.length);
         }
+
+        CommonRows candidates = cv.readTargetWithFilter(targetFile.getAbsolutePath(), csvParser, csvWriter, filter);
+        assertEquals("Every target row needs to be a candidate", 6, candidates.size());
+        cv.readIndexAndWriteAsync(indexFile.getAbsolutePath(), csvParser, csvWriter, candidates);
+        assertEquals(3, cv.verifyCandidates(targetFile.getAbsolutePath(), csvWriter, candidates));
+        assertTrue("It needs to be true", cv.compareCommonRows(indexFile.getAbsolutePath(), targetFile.getAbsolutePath(), csvWriter, candidates));
+        csvWriter.close();
+
+        String result = new String(Files.readAllBytes(tmpFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(result, result.contains("8036342,"));
+        assertTrue(result, result.contains("8036371,"));
+        assertFalse(result, result.contains("8036350,"));
+    }
+
+    private File copyResource(String name) throws IOException {
+        File file = tempFolder.newFile();
+        Files.copy(getClass().getClassLoader().getResourceAsStream(name), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    @Test
+    public void testCompareCommonRows() throws Exception {
+        File indexFile = copyResource(SAMPLE_FILE_ONE);
+        File targetFile = copyResource(SAMPLE_FILE_TWO);
+        IdIndex indexedIdList = cv.getIndexedIdList(indexFile.getAbsolutePath(), csvParser, csvWriter);
+        CommonRows commonRows = cv.readTargetAndWriteAsync(targetFile.getAbsolutePath(), csvParser, csvWriter, indexedIdList);
+        cv.readIndexAndWriteAsync(indexFile.getAbsolutePath(), csvParser, csvWriter, commonRows);
+        assertEquals(3, commonRows.size());
+
+        boolean result = cv.compareCommonRows(indexFile.getAbsolutePath(), targetFile.getAbsolutePath(), csvWriter, commonRows);
+        assertTrue("It needs to be true", result);
+    }
+
+    @Test
+    public void testCompareRowsInDifferentOrder() throws Exception {
+        File indexFile = writeFile(tempFolder.newFile(), "ID,Name,Location\n1,a,x\n2,b,\"first line\nsecond line\"\n3,c,z\n4,d,w\n");
+        File targetFile = writeFile(tempFolder.newFile(), "ID,Name,Location\r\n4,d,w\r\n3,changed,z\r\n\r\n2,b,\"first line\nsecond line\"\r\n5,e,v\r\n");
+        IdIndex indexedIdList = cv.getIndexedIdList(indexFile.getAbsolutePath(), csvParser, csvWriter);
+        CommonRows commonRows = cv.readTargetAndWriteAsync(targetFile.getAbsolutePath(), csvParser, csvWriter, indexedIdList);
+        cv.readIndexAndWriteAsync(indexFile.getAbsolutePath(), csvParser, csvWriter, commonRows);
+        assertEquals(3, commonRows.size());
+
+        assertFalse("It needs to be false", cv.compareCommonRows(indexFile.getAbsolutePath(), targetFile.getAbsolutePath(), csvWriter, commonRows));
+        csvWriter.close();
+
+        List<String> result = Files.readAllLines(tmpFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("ID,Name,Location", "5, e, v", "1, a, x", "3, c, z", "3, changed, z"), result);
+    }
+
+    @Test
+    public void testStrayQuotesInEveryMode() throws Exception {
+        // A quote inside an unquoted field is a literal, and only a quote at the start of a field opens a quoted value
+        File indexFile = writeFile(tempFolder, "index.csv", "ID,Name,Height\n1,a,5ft\n2,b,5'10\"\n3,c,6ft\n"
+                + "4,d,\"7ft\ntall\"\n6,f, \"6'2\"\", slim\"\n7,g,1\"\n");
+        File targetFile = writeFile(tempFolder, "target.csv", "ID,Name,Height\n1,a,5ft\n2,b,5'10\"\n3,c,6ftX\n"
+                + "4,d,\"7ft\ntall\"\n6,f, \"6'2\"\", slim\"\n5,e,1\n");
+        List<String> expected = univocityDiff(indexFile, targetFile);
+        assertEquals(Arrays.asList("3", "3", "5", "7"), expected);
+
+        String[][] modes = {{"-m", "fingerprint"}, {"-m", "fingerprint", "-t", "4", "--skip-identical"},
+                {"-m", "partitioned"}, {"-m", "sortmerge"}, {"-m", "mergejoin"}, {"-m", "legacy"}};
+        for (String[] mode : modes) {
+            File result = new File(tempFolder.getRoot(), "result.csv");
+            List<String> args = new ArrayList<>(Arrays.asList(mode));
+            args.addAll(Arrays.asList("-o", result.getPath(), indexFile.getPath(), targetFile.getPath()));
+            assertEquals(0, CsvValidator.run(args.toArray(new String[args.size()]), null, null, null));
+
+            List<String> ids = new ArrayList<>();
+            for (String[] row : newParser().parseAll(result)) {
+                ids.add(row[0]);
+            }
+            Collections.sort(ids);
+            assertEquals(Arrays.toString(mode), expected, ids);
+        }
+    }
+
+    @Test
+    public void testFailedRunsReleaseWriterThreads() throws Exception {
+        File indexFile = writeFile(tempFolder, "index.csv", "ID,Name\n1,a\n2,b\n");
+        File targetFile = writeFile(tempFolder, "target.csv", "ID,Name\n1,a\n3,c\n");
+        File result = new File(tempFolder.getRoot(), "result.csv");
+        int before = TestThreads.count("output-writer");
+
+        String[] modes = {"fingerprint", "partitioned", "sortmerge", "mergejoin", "legacy"};
+        String[] formats = {"rows", "cells", "binary"};
+        for (String mode : modes) {
+            for (String format : formats) {
+                String[] args = {"-m", mode, "-f", format, "-k", "NoSuchColumn", "-o", result.getPath(),
+                        indexFile.getPath(), targetFile.getPath()};
+                assertEquals(mode + " " + format, 2, CsvValidator.run(args, null, null, null));
+            }
+        }
+        assertEquals(before, TestThreads.count("output-writer"));
+    }
+
+    @Test
+    public void testCellsFollowArgumentOrder() throws Exception {
+        // The second file is smaller, so it is indexed, and the sides still follow the arguments
+        File larger = writeFile(tempFolder, "larger.csv", "ID,Name\n1,first\n2,b\n3,only in larger\n");
+        File smaller = writeFile(tempFolder, "smaller.csv", "ID,Name\n1,second\n2,b\n");
+        File result = new File(tempFolder.getRoot(), "result.csv");
+
+        String[] args = {"-f", "cells", "-o", result.getPath(), larger.getPath(), smaller.getPath()};
+        assertEquals(0, CsvValidator.run(args, null, null, null));
+        assertEquals(Arrays.asList("op,key,column,left,right", "-,3", "~,1,Name,first,second"),
+                Files.readAllLines(result.toPath(), StandardCharsets.UTF_8));
+
+        args = new String[]{"-f", "cells", "-o", result.getPath(), smaller.getPath(), larger.getPath()};
+        assertEquals(0, CsvValidator.run(args, null, null, null));
+        assertEquals(Arrays.asList("op,key,column,left,right", "+,3", "~,1,Name,second,first"),
+                Files.readAllLines(result.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLegacyMetricsCountBytes() throws Exception {
+        File larger = writeFile(tempFolder, "larger.csv", "ID,Name\r\n1,\u00e9\r\n2,\u00fc\r\n");
+        File smaller = writeFile(tempFolder, "smaller.csv", "ID,Name\r\n1,\u00e9\r\n2,x\r\n");
+        File summary = new File(tempFolder.getRoot(), "metrics.json");
+        File result = new File(tempFolder.getRoot(), "result.csv");
+
+        String[] args = {"-m", "legacy", "--metrics", summary.getPath(), "-o", result.getPath(), larger.getPath(), smaller.getPath()};
+        assertEquals(0, CsvValidator.run(args, null, null, null));
+
+        // The target file once, the index file twice, and both sides of the common rows, in bytes
+        long expected = larger.length() + 2 * smaller.length() + (6 + 5) + (6 + 6);
+        String json = new String(Files.readAllBytes(summary.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"bytesRead\": " + expected + ","));
+    }
+
+    @Test
+    public void testErrorsExitWithTwo() throws Exception {
+        File indexFile = writeFile(tempFolder, "index.csv", "ID,Name\n1,a\n");
+        File targetFile = writeFile(tempFolder, "target.csv", "ID,Name\n1,b\n");
+        File result = new File(tempFolder.getRoot(), "result.csv");
+        File missing = new File(tempFolder.getRoot(), "missing.txt");
+
+        String[][] failures = {{"--no-such-option", indexFile.getPath(), targetFile.getPath()},
+                {"--schema", missing.getPath(), "-o", result.getPath(), indexFile.getPath(), targetFile.getPath()},
+                {"-o", result.getPath(), indexFile.getPath(), missing.getPath()},
+                {"-c", indexFile.getPath(), missing.getPath()}};
+        for (String[] args : failures) {
+            assertEquals(Arrays.toString(args), 2, CsvValidator.run(args, null, null, null));
+        }
+        assertEquals(0, CsvValidator.run(new String[]{"-o", result.getPath(), indexFile.getPath(), targetFile.getPath()}, null, null, null));
+    }
+
+    /**
+     * @return the IDs of the added and removed rows and twice those of the changed rows, as the parser reads them
+     */
+    private static List<String> univocityDiff(File indexFile, File targetFile) {
+        Map<String, List<String>> index = new HashMap<>();
+        for (String[] row : newParser().parseAll(indexFile)) {
+            index.put(row[0], Arrays.asList(row));
+        }
+        List<String> ids = new ArrayList<>();
+        for (String[] row : newParser().parseAll(targetFile)) {
+            List<String> indexRow = index.remove(row[0]);
+            if (indexRow == null) {
+                ids.add(row[0]);
+            } else if (!indexRow.equals(Arrays.asList(row))) {
+                ids.add(row[0]);
+                ids.add(row[0]);
+            }
+        }
+        ids.addAll(index.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static CsvParser newParser() {
+        CsvParserSettings settings = new CsvParserSettings();
+        settings.setHeaderExtractionEnabled(true);
+        return new CsvParser(settings);
     }
 }
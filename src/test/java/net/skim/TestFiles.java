@@ -0,0 +1,82 @@
+package net.skim;
+
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Files the tests write their inputs into, in UTF-8.
+ */
+public final class TestFiles {
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TestFiles() {
+    }
+
+    /**
+     * @param folder
+     * @param name
+     * @param contents
+     * @return a new file of the folder with the contents
+     * @throws IOException
+     */
+    public static File writeFile(TemporaryFolder folder, String name, String contents) throws IOException {
+        return writeFile(folder.newFile(name), contents);
+    }
+
+    /**
+     * @param file     the file, which is replaced if it exists
+     * @param contents
+     * @return the file
+     * @throws IOException
+     */
+    public static File writeFile(File file, String contents) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * @param folder
+     * @param name
+     * @param contents
+     * @return a new file of the folder with the contents compressed by gzip
+     * @throws IOException
+     */
+    public static File writeGzipFile(TemporaryFolder folder, String name, String contents) throws IOException {
+        File file = folder.newFile(name);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(gzip(contents));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * @param contents
+     * @return the contents compressed by gzip
+     * @throws IOException
+     */
+    public static byte[] gzip(String contents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(contents.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,23 @@
+package net.skim;
+
+/**
+ * Threads the tests check for leaks.
+ */
+public final class TestThreads {
+    private TestThreads() {
+    }
+
+    /**
+     * @param name
+     * @return the live threads of the name
+     */
+    public static int count(String name) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && name.equals(thread.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+package net.skim.batch;
+
+import net.skim.CsvValidator;
+import net.skim.diff.DiffListener;
+import net.skim.diff.FingerprintDiffEngine;
+import net.skim.diff.IndexedFile;
+import net.skim.diff.MeasuredListener;
+import net.skim.exception.ValidatorException;
+import net.skim.metrics.RunMetrics;
+import net.skim.utils.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for BaselineRunner.
+ */
+public class BaselineRunnerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testPairBaseline() throws Exception {
+        File outDirectory = tempFolder.getRoot();
+        List<BatchPair> pairs = BatchManifest.pairBaseline("base.csv", Arrays.asList("east/r.csv.gz", "west/r.csv"), outDirectory);
+
+        assertEquals(2, pairs.size());
+        assertEquals("base.csv", pairs.get(0).getFileOneName());
+        assertEquals("east/r.csv.gz", pairs.get(0).getFileTwoName());
+        assertEquals(new File(outDirectory, "r.diff.csv").getPath(), pairs.get(0).getResultFileName());
+        assertEquals(new File(outDirectory, "1_r.diff.csv").getPath(), pairs.get(1).getResultFileName());
+    }
+
+    @Test
+    public void testRunCandidates() throws Exception {
+        File baselineFile = writeFile(tempFolder, "base.csv", "ID,Value\n1,a\n2,b\n3,c\n");
+        List<String> candidates = new ArrayList<String>();
+        candidates.add(writeFile(tempFolder, "same.csv", "ID,Value\n3,c\n1,a\n2,b\n").getPath());
+        candidates.add(writeFile(tempFolder, "changed.csv", "ID,Value\n1,a\n2,x\n3,c\n4,d\n").getPath());
+        candidates.add(writeFile(tempFolder, "removed.csv", "ID,Value\n1,a\n").getPath());
+        candidates.add(new File(tempFolder.getRoot(), "missing.csv").getPath());
+        File outDirectory = new File(tempFolder.getRoot(), "out");
+        List<BatchPair> pairs = BatchManifest.pairBaseline(baselineFile.getPath(), candidates, outDirectory);
+
+        FileUtils fileUtils = new FileUtils(baselineFile.getPath(), baselineFile.getPath());
+        final FingerprintDiffEngine engine = new FingerprintDiffEngine(new CsvValidator().getCsvParserSettings(), fileUtils, 1);
+        IndexedFile baseline = engine.buildIndex(baselineFile.getPath());
+        BaselineRunner runner = new BaselineRunner(2, new BaselineRunner.CandidateComparator() {
+            @Override
+            public boolean compare(BatchPair pair, IndexedFile baseline, RunMetrics metrics) throws IOException, ValidatorException {
+                DiffListener listener = new MeasuredListener(new NullListener(), metrics);
+                return engine.diff(baseline, pair.getFileTwoName(), listener);
+            }
+        });
+        runner.run(baseline, pairs, outDirectory);
+
+        assertEquals(1, runner.getCount(BatchRunner.Status.EQUAL));
+        assertEquals(2, runner.getCount(BatchRunner.Status.DIFFERENT));
+        assertEquals(1, runner.getCount(BatchRunner.Status.FAILED));
+
+        BufferedReader reader = new BufferedReader(new FileReader(new File(outDirectory, BaselineRunner.SUMMARY_FILE_NAME)));
+        try {
+            assertEquals("candidate,result,status,added,removed,changed,millis,error", reader.readLine());
+            assertTrue(reader.readLine().startsWith(candidates.get(0) + "," + pairs.get(0).getResultFileName() + ",EQUAL,0,0,0,"));
+            assertTrue("Rows only in the candidate need to be added", reader.readLine().startsWith(candidates.get(1) + "," + pairs.get(1).getResultFileName() + ",DIFFERENT,1,0,1,"));
+            assertTrue("Rows only in the baseline need to be removed", reader.readLine().startsWith(candidates.get(2) + "," + pairs.get(2).getResultFileName() + ",DIFFERENT,0,2,0,"));
+            assertTrue(reader.readLine().contains(",FAILED,"));
+            assertNull(reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static class NullListener implements DiffListener {
+        @Override
+        public void onHeader(String[] header) {
+        }
+
+        @Override
+        public void onAdded(String id, String[] targetRow) {
+        }
+
+        @Override
+        public void onRemoved(String id, String[] indexRow) {
+        }
+
+        @Override
+        public void onChanged(String id, String[] indexRow, String[] targetRow) {
+        }
+
+        @Override
+        public void onFinish() {
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package net.skim.batch;
+
+import net.skim.CsvValidator;
+import net.skim.diff.EquivalenceChecker;
+import net.skim.exception.ValidatorException;
+import net.skim.utils.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for BatchRunner, BatchManifest and MemoryBudget.
+ */
+public class BatchRunnerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadManifest() throws Exception {
+        File directory = tempFolder.newFolder("in");
+        File outDirectory = tempFolder.newFolder("out");
+        File manifest = new File(directory, "pairs.txt");
+        writeFile(manifest, "# nightly\n\na.csv,b.csv\nc.csv.gz\td.csv\tcd.csv\n/data/a.csv,/data/b.csv\n");
+
+        List<BatchPair> pairs = BatchManifest.read(manifest, outDirectory);
+
+        assertEquals(3, pairs.size());
+        assertEquals(new File(directory, "a.csv").getPath(), pairs.get(0).getFileOneName());
+        assertEquals(new File(directory, "b.csv").getPath(), pairs.get(0).getFileTwoName());
+        assertEquals(new File(outDirectory, "a.diff.csv").getPath(), pairs.get(0).getResultFileName());
+        assertEquals(new File(outDirectory, "cd.csv").getPath(), pairs.get(1).getResultFileName());
+        assertEquals(new File("/data/a.csv").getPath(), pairs.get(2).getFileOneName());
+        assertEquals("Result files need to be unique", new File(outDirectory, "1_a.diff.csv").getPath(), pairs.get(2).getResultFileName());
+    }
+
+    @Test(expected = ValidatorException.class)
+    public void testReadMalformedManifest() throws Exception {
+        File manifest = tempFolder.newFile("pairs.txt");
+        writeFile(manifest, "a.csv\n");
+        BatchManifest.read(manifest, tempFolder.getRoot());
+    }
+
+    @Test
+    public void testPairDirectories() throws Exception {
+        File one = tempFolder.newFolder("one");
+        File two = tempFolder.newFolder("two");
+        writeFile(new File(one, "x.csv"), "ID\n1\n");
+        writeFile(new File(one, "y.csv"), "ID\n1\n");
+        writeFile(new File(two, "x.csv"), "ID\n1\n");
+        writeFile(new File(two, "z.csv"), "ID\n1\n");
+
+        List<BatchPair> pairs = BatchManifest.pairDirectories(one, two, tempFolder.getRoot());
+
+        assertEquals(1, pairs.size());
+        assertEquals(new File(one, "x.csv").getPath(), pairs.get(0).getFileOneName());
+        assertEquals(new File(two, "x.csv").getPath(), pairs.get(0).getFileTwoName());
+    }
+
+    @Test
+    public void testRunPairs() throws Exception {
+        File one = tempFolder.newFolder("one");
+        File two = tempFolder.newFolder("two");
+        File outDirectory = new File(tempFolder.getRoot(), "out");
+        for (int i = 0; i < 8; i++) {
+            writeFile(new File(one, "f" + i + ".csv"), "ID,Value\n1,a\n2,b\n");
+            writeFile(new File(two, "f" + i + ".csv"), i % 2 == 0 ? "ID,Value\n2,b\n1,a\n" : "ID,Value\n1,a\n2,c\n");
+        }
+        writeFile(new File(one, "g.csv"), "ID,Value\n1,a\n");
+        writeFile(new File(two, "g.csv"), "ID,Value\n1,\"a\n");
+        List<BatchPair> pairs = BatchManifest.pairDirectories(one, two, outDirectory);
+
+        final CsvValidator cv = new CsvValidator();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        BatchRunner runner = new BatchRunner(4, 1 << 20, new BatchRunner.PairComparator() {
+            @Override
+            public boolean compare(BatchPair pair, FileUtils fileUtils) throws IOException, ValidatorException {
+                int count = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), count));
+                }
+                try {
+                    if (pair.getFileOneName().endsWith("g.csv")) {
+                        throw new IOException("Unclosed quote");
+                    }
+                    EquivalenceChecker checker = new EquivalenceChecker(cv.getCsvParserSettings(), fileUtils, 1);
+                    return checker.check(pair.getFileOneName(), pair.getFileTwoName());
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        });
+        runner.run(pairs, outDirectory);
+
+        assertEquals(4, runner.getCount(BatchRunner.Status.EQUAL));
+        assertEquals(4, runner.getCount(BatchRunner.Status.DIFFERENT));
+        assertEquals("A failing pair needs to leave the others alone", 1, runner.getCount(BatchRunner.Status.FAILED));
+        assertTrue("No more pairs than workers need to run at the same time", maxRunning.get() <= 4);
+
+        BufferedReader reader = new BufferedReader(new FileReader(new File(outDirectory, BatchRunner.SUMMARY_FILE_NAME)));
+        try {
+            assertEquals("file1,file2,result,status,millis,error", reader.readLine());
+            int lines = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                if (line.contains("g.csv")) {
+                    assertTrue(line, line.contains(",FAILED,"));
+                    assertTrue(line, line.endsWith("java.io.IOException: Unclosed quote"));
+                }
+            }
+            assertEquals("Every pair needs a line in the summary", 9, lines);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100);
+        assertEquals(60, budget.acquire(60));
+
+        final AtomicLong granted = new AtomicLong(-1);
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    granted.set(budget.acquire(500));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiting.start();
+        waiting.join(200);
+        assertEquals("The job needs to wait for the whole budget", -1, granted.get());
+
+        budget.release(60);
+        waiting.join(5000);
+        assertEquals("A job larger than the budget needs to be clamped", 100, granted.get());
+        assertEquals(0, budget.getAvailable());
+        budget.release(100);
+        assertEquals(100, budget.getAvailable());
+    }
+}
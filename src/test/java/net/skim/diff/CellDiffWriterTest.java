@@ -0,0 +1,93 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvWriter;
+import com.univocity.parsers.csv.CsvWriterSettings;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for CellDiffWriter and BinaryCellDiffWriter.
+ */
+public class CellDiffWriterTest {
+    private static final String[] HEADER = {"ID", "Name", "Location", "Note"};
+
+    @Test
+    public void testCells() throws Exception {
+        StringWriter out = new StringWriter();
+        CsvWriterSettings csvWriterSettings = new CsvWriterSettings();
+        csvWriterSettings.setInputEscaped(true);
+        csvWriterSettings.getFormat().setLineSeparator("\n");
+        CsvWriter csvWriter = new CsvWriter(out, csvWriterSettings);
+
+        writeDiff(new CellDiffWriter(csvWriter));
+        csvWriter.close();
+
+        assertEquals("op,key,column,left,right\n"
+                + "+,3\n"
+                + "-,4\n"
+                + "~,1,Location,\"(1, 2)\",\"(1, 3)\"\n"
+                + "~,1,Note,,x\n", out.toString());
+    }
+
+    @Test
+    public void testSwappedSides() throws Exception {
+        StringWriter out = new StringWriter();
+        CsvWriterSettings csvWriterSettings = new CsvWriterSettings();
+        csvWriterSettings.setInputEscaped(true);
+        csvWriterSettings.getFormat().setLineSeparator("\n");
+        CsvWriter csvWriter = new CsvWriter(out, csvWriterSettings);
+
+        writeDiff(new SwappedSidesWriter(new CellDiffWriter(csvWriter)));
+        csvWriter.close();
+
+        assertEquals("op,key,column,left,right\n"
+                + "-,3\n"
+                + "+,4\n"
+                + "~,1,Location,\"(1, 3)\",\"(1, 2)\"\n"
+                + "~,1,Note,x,\n", out.toString());
+    }
+
+    @Test
+    public void testBinaryCells() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeDiff(new BinaryCellDiffWriter(out));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(DiffEventWriter.HEADER, in.readUnsignedByte());
+        assertEquals(4, in.readInt());
+        for (String name : HEADER) {
+            assertEquals(name, DiffEventReader.readValue(in));
+        }
+        assertEquals(DiffEventWriter.ADDED, in.readUnsignedByte());
+        assertEquals("3", DiffEventReader.readValue(in));
+        assertEquals(DiffEventWriter.REMOVED, in.readUnsignedByte());
+        assertEquals("4", DiffEventReader.readValue(in));
+        assertEquals(DiffEventWriter.CHANGED, in.readUnsignedByte());
+        assertEquals("1", DiffEventReader.readValue(in));
+        assertEquals(2, in.readInt());
+        assertEquals(2, in.readInt());
+        assertEquals("\"(1, 2)\"", DiffEventReader.readValue(in));
+        assertEquals("\"(1, 3)\"", DiffEventReader.readValue(in));
+        assertEquals(3, in.readInt());
+        assertEquals(null, DiffEventReader.readValue(in));
+        assertEquals("x", DiffEventReader.readValue(in));
+        assertEquals(DiffEventWriter.FINISH, in.readUnsignedByte());
+        assertEquals(-1, in.read());
+    }
+
+    private static void writeDiff(DiffListener listener) throws Exception {
+        listener.onHeader(HEADER);
+        listener.onAdded("3", new String[]{"3", "c", "z", null});
+        listener.onRemoved("4", new String[]{"4", "d", "w", null});
+        listener.onChanged("1", new String[]{"1", "a", "\"(1, 2)\""}, new String[]{"1", "a", "\"(1, 3)\"", "x"});
+        // Trailing nulls are not a difference
+        listener.onChanged("2", new String[]{"2", "b"}, new String[]{"2", "b", null});
+        listener.onFinish();
+    }
+}
@@ -0,0 +1,153 @@
+package net.skim.diff;
+
+import com.univocity.parsers.csv.CsvWriter;
+import com.univocity.parsers.csv.CsvWriterSettings;
+import net.skim.CsvValidator;
+import net.skim.exception.ValidatorException;
+import net.skim.utils.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for ColumnSchema, its comparators and ColumnSchemaFilter.
+ */
+public class ColumnSchemaTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testNumeric() {
+        ColumnComparator exact = ColumnComparators.numeric(0);
+        assertTrue(exact.equivalent("41.807814371", "41.8078143710"));
+        assertTrue("Quotes and whitespace need to be ignored", exact.equivalent("\"1e3\"", " 1000 "));
+        assertFalse(exact.equivalent("41.807814371", "41.807814372"));
+        assertFalse(exact.equivalent("41.8", "N/A"));
+
+        ColumnComparator tolerant = ColumnComparators.numeric(1e-6);
+        assertTrue(tolerant.equivalent("41.807814371", "41.8078144"));
+        assertFalse(tolerant.equivalent("41.807814371", "41.80782"));
+    }
+
+    @Test
+    public void testDateTime() {
+        ColumnComparator comparator = ColumnComparators.dateTime();
+        assertTrue(comparator.equivalent("04/21/2011 12:05:00 AM", "2011-04-21T00:05:00"));
+        assertTrue(comparator.equivalent("02/04/2016 06:33:39 PM", "2016-02-04 18:33:39"));
+        assertFalse(comparator.equivalent("04/21/2011 12:05:00 AM", "2011-04-21T12:05:00"));
+        assertFalse("Trailing text needs to fail the parse", comparator.equivalent("2011-04-21", "2011-04-21 junk"));
+        assertFalse(comparator.equivalent("13/45/2011", "2011-13-45"));
+
+        ColumnComparator custom = ColumnComparators.dateTime("dd.MM.yyyy", "yyyyMMdd");
+        assertTrue(custom.equivalent("21.04.2011", "20110421"));
+        assertFalse(custom.equivalent("21.04.2011", "2011-04-21"));
+    }
+
+    @Test
+    public void testText() {
+        ColumnComparator comparator = ColumnComparators.text(true, true);
+        assertTrue(comparator.equivalent("TO PROPERTY", " to  property "));
+        assertTrue(comparator.equivalent("\"Apt 1\"", "apt\t1"));
+        assertFalse(comparator.equivalent("TO PROPERTY", "TOPROPERTY"));
+        assertFalse(comparator.equivalent("TO PROPERTY", "TO PROPERTY X"));
+
+        assertFalse(ColumnComparators.text(true, false).equivalent("a b", "A  B"));
+        assertTrue(ColumnComparators.text(true, false).equivalent("a b", "A B"));
+        assertFalse(ColumnComparators.text(false, true).equivalent("a b", "A  B"));
+        assertTrue(ColumnComparators.text(false, true).equivalent("a b", " a  b"));
+    }
+
+    @Test
+    public void testReadSchema() throws Exception {
+        File file = writeFile(tempFolder, "schema.txt", "# types\n\nLatitude = numeric 0.001\nUpdated On = datetime MM/dd/yyyy | yyyy-MM-dd\n"
+                + "Description = text ignore-case\nBlock = exact\n");
+        ColumnSchema schema = ColumnSchema.read(file);
+        assertFalse(schema.isExact());
+        assertEquals(4, schema.getColumns().size());
+
+        RowComparator comparator = schema.resolve(new String[]{"ID", "Block", "Description", "Updated On", "Latitude"});
+        assertTrue(comparator.equivalent(new String[]{"1", "A", "Theft", "02/04/2016", "41.8071"},
+                new String[]{"1", "A", "THEFT", "2016-02-04", "41.807"}));
+        assertFalse(comparator.equivalent(new String[]{"1", "A", "Theft", "02/04/2016", "41.8071"},
+                new String[]{"1", "a", "THEFT", "2016-02-04", "41.807"}));
+        assertFalse("A missing value needs to differ", comparator.equivalent(new String[]{"1", "A", "Theft"},
+                new String[]{"1", "A", null}));
+    }
+
+    @Test(expected = ValidatorException.class)
+    public void testReadUnknownType() throws Exception {
+        ColumnSchema.read(writeFile(tempFolder, "schema.txt", "Latitude = decimal\n"));
+    }
+
+    @Test
+    public void testFilterEquivalentRows() throws Exception {
+        File one = writeFile(tempFolder, "one.csv", "ID,Date,Latitude,Description\n"
+                + "1,04/21/2011 12:05:00 AM,41.807814371,TO PROPERTY\n"
+                + "2,04/26/2011 07:30:00 AM,41.91654447,UNLAWFUL ENTRY\n"
+                + "3,04/24/2011 04:10:00 PM,41.919556662,TO VEHICLE\n");
+        File two = writeFile(tempFolder, "two.csv", "ID,Date,Latitude,Description\n"
+                + "1,2011-04-21T00:05:00,41.8078143710,to property\n"
+                + "2,04/26/2011 07:30:00 AM,41.91654447,FORCIBLE ENTRY\n"
+                + "3,2011-04-24T16:10:00,41.919556662,TO VEHICLE\n");
+        ColumnSchema schema = ColumnSchema.read(writeFile(tempFolder, "schema.txt", "Date = datetime\nLatitude = numeric\nDescription = text\n"));
+
+        FileUtils fileUtils = new FileUtils(one.getPath(), two.getPath());
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(new CsvValidator().getCsvParserSettings(), fileUtils, 1);
+        StringWriter out = new StringWriter();
+        CsvWriterSettings csvWriterSettings = new CsvWriterSettings();
+        csvWriterSettings.setInputEscaped(true);
+        csvWriterSettings.getFormat().setLineSeparator("\n");
+        CsvWriter csvWriter = new CsvWriter(out, csvWriterSettings);
+        ColumnSchemaFilter filter = new ColumnSchemaFilter(new CellDiffWriter(csvWriter, schema), schema);
+
+        assertFalse(engine.diff(one.getPath(), two.getPath(), filter));
+        csvWriter.close();
+
+        assertTrue(filter.hasDifferences());
+        assertEquals(2, filter.getEquivalentRows());
+        assertEquals("op,key,column,left,right\n"
+                + "~,2,Description,UNLAWFUL ENTRY,FORCIBLE ENTRY\n", out.toString());
+    }
+
+    @Test
+    public void testFilterOnlyEquivalentRows() throws Exception {
+        ColumnSchema schema = ColumnSchema.read(writeFile(tempFolder, "schema.txt", "Latitude = numeric\n"));
+        DiffListener listener = new DiffListener() {
+            @Override
+            public void onHeader(String[] header) {
+            }
+
+            @Override
+            public void onAdded(String id, String[] targetRow) {
+                fail();
+            }
+
+            @Override
+            public void onRemoved(String id, String[] indexRow) {
+                fail();
+            }
+
+            @Override
+            public void onChanged(String id, String[] indexRow, String[] targetRow) {
+                fail("An equivalent row needs to be dropped");
+            }
+
+            @Override
+            public void onFinish() {
+            }
+        };
+        ColumnSchemaFilter filter = new ColumnSchemaFilter(listener, schema);
+        filter.onHeader(new String[]{"ID", "Latitude"});
+        filter.onChanged("1", new String[]{"1", "41.8"}, new String[]{"1", "41.80"});
+        filter.onFinish();
+
+        assertFalse(filter.hasDifferences());
+        assertEquals(1, filter.getEquivalentRows());
+    }
+}
@@ -0,0 +1,83 @@
+package net.skim.diff;
+
+import net.skim.CsvValidator;
+import net.skim.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for EquivalenceChecker.
+ */
+public class EquivalenceCheckerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SAMPLE_FILE_ONE = "sample_1.csv";
+    private static final String SAMPLE_FILE_TWO = "sample_2.csv";
+
+    private CsvValidator cv;
+
+    @Before
+    public void setUp() throws Exception {
+        cv = new CsvValidator();
+    }
+
+    @Test
+    public void testCheckSamples() throws Exception {
+        FileUtils fileUtils = new FileUtils(SAMPLE_FILE_ONE, SAMPLE_FILE_TWO, this.getClass().getClassLoader());
+        EquivalenceChecker checker = new EquivalenceChecker(cv.getCsvParserSettings(), fileUtils, 2);
+
+        assertFalse("It needs to be false", checker.check(SAMPLE_FILE_ONE, SAMPLE_FILE_TWO));
+        assertTrue("It needs to be true", checker.check(SAMPLE_FILE_ONE, SAMPLE_FILE_ONE));
+    }
+
+    @Test
+    public void testCheckInAnyOrder() throws Exception {
+        StringBuilder one = new StringBuilder("ID,Value,Location\n");
+        StringBuilder two = new StringBuilder("ID,Value,Location\r\n");
+        for (int i = 0; i < 2000; i++) {
+            one.append(i).append(",v").append(i).append(",\"(1,\n2)\"\n");
+            int j = 1999 - i;
+            two.append(j).append(", v").append(j).append(" ,\"(1,\n2)\"\r\n");
+        }
+        File fileOne = writeFile(tempFolder, "one.csv", one.toString());
+        File fileTwo = writeFile(tempFolder, "two.csv", two.toString());
+        FileUtils fileUtils = new FileUtils(fileOne.getAbsolutePath(), fileTwo.getAbsolutePath());
+        EquivalenceChecker checker = new EquivalenceChecker(cv.getCsvParserSettings(), fileUtils, 4);
+        checker.setMinChunkSize(1024);
+
+        assertTrue("Order and whitespace need not to matter", checker.check(fileOne.getAbsolutePath(), fileTwo.getAbsolutePath()));
+
+        File changed = writeFile(tempFolder, "changed.csv", one.toString().replace("\n1500,v1500,", "\n1500,v1501,"));
+        assertFalse("It needs to be false", checker.check(fileOne.getAbsolutePath(), changed.getAbsolutePath()));
+        File longer = writeFile(tempFolder, "longer.csv", one.toString() + "2000,v2000,x\n");
+        assertFalse("It needs to be false", checker.check(fileOne.getAbsolutePath(), longer.getAbsolutePath()));
+        assertFalse("It needs to be false", checker.check(longer.getAbsolutePath(), fileOne.getAbsolutePath()));
+    }
+
+    @Test
+    public void testCheckHeadersAndExcludedColumns() throws Exception {
+        File fileOne = writeFile(tempFolder, "one.csv", "ID,Name,Description\n1,a,old\n");
+        File fileTwo = writeFile(tempFolder, "two.csv", "ID,Name,Description\n1,a,new\n");
+        File reordered = writeFile(tempFolder, "reordered.csv", "ID,Description,Name\n1,old,a\n");
+        FileUtils fileUtils = new FileUtils(fileOne.getAbsolutePath(), fileTwo.getAbsolutePath());
+
+        EquivalenceChecker checker = new EquivalenceChecker(cv.getCsvParserSettings(), fileUtils, 1);
+        assertFalse("It needs to be false", checker.check(fileOne.getAbsolutePath(), fileTwo.getAbsolutePath()));
+        assertFalse("Headers need to be the same", checker.check(fileOne.getAbsolutePath(), reordered.getAbsolutePath()));
+
+        cv.excludeColumns(Arrays.asList("Description"));
+        checker = new EquivalenceChecker(cv.getCsvParserSettings(), fileUtils, 1);
+        assertTrue("Excluded columns need not to be compared", checker.check(fileOne.getAbsolutePath(), fileTwo.getAbsolutePath()));
+    }
+}
@@ -0,0 +1,398 @@
+package net.skim.diff;
+
+import net.skim.CsvValidator;
+import net.skim.io.KeyColumns;
+import net.skim.metrics.RunMetrics;
+import net.skim.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.skim.TestFiles.writeFile;
+import static net.skim.TestFiles.writeGzipFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for FingerprintDiffEngine.
+ */
+public class FingerprintDiffEngineTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SAMPLE_FILE_ONE = "sample_1.csv";
+    private static final String SAMPLE_FILE_TWO = "sample_2.csv";
+
+    private CsvValidator cv;
+
+    @Before
+    public void setUp() throws Exception {
+        cv = new CsvValidator();
+    }
+
+    @Test
+    public void testDiffSamples() throws Exception {
+        FileUtils fileUtils = new FileUtils(SAMPLE_FILE_ONE, SAMPLE_FILE_TWO, this.getClass().getClassLoader());
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils);
+        RecordingListener listener = new RecordingListener();
+
+        boolean result = engine.diff(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), listener);
+
+        assertFalse("It needs to be false", result);
+        assertEquals(Arrays.asList("8036341", "8036351", "8036352", "8036355"), listener.added);
+        assertEquals(Arrays.asList("8036337", "8036342", "8036371"), listener.removed);
+        assertTrue("No rows are changed", listener.changed.isEmpty());
+        assertTrue("It needs to be finished", listener.finished);
+    }
+
+    @Test
+    public void testDiffExcludedColumns() throws Exception {
+        File index = writeFile(tempFolder, "index.csv", "ID,Name,Description\n"
+                + "1,a,old text\n"
+                + "2,b,same\n");
+        File target = writeFile(tempFolder, "target.csv", "ID,Name,Description\n"
+                + "1,a,\"new, longer text\"\n"
+                + "2,c,same\n");
+        cv.excludeColumns(Arrays.asList("Description"));
+        FileUtils fileUtils = new FileUtils(index.getAbsolutePath(), target.getAbsolutePath());
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils);
+        RecordingListener listener = new RecordingListener();
+
+        engine.diff(index.getAbsolutePath(), target.getAbsolutePath(), listener);
+
+        assertEquals(Arrays.asList("2"), listener.changed);
+        assertEquals(Arrays.asList("2", "c"), Arrays.asList(listener.changedRows.get(1)));
+    }
+
+    @Test
+    public void testDiffChangedAndMultiLineRows() throws Exception {
+        File index = writeFile(tempFolder, "index.csv", "ID,Name,Location\r\n"
+                + "1,a,\"(1, 2)\"\r\n"
+                + "2,b,\"first line\nsecond line\"\r\n"
+                + "3,c,x\r\n");
+        File target = writeFile(tempFolder, "target.csv", "ID,Name,Location\n"
+                + "3,c,x\n"
+                + "2,b,\"first line\nchanged line\"\n"
+                + "\n"
+                + "1,a,\"(1, 2)\"\n");
+        FileUtils fileUtils = new FileUtils(index.getAbsolutePath(), target.getAbsolutePath());
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils);
+        RecordingListener listener = new RecordingListener();
+
+        boolean result = engine.diff(index.getAbsolutePath(), target.getAbsolutePath(), listener);
+
+        assertFalse("It needs to be false", result);
+        assertTrue("No rows are added", listener.added.isEmpty());
+        assertTrue("No rows are removed", listener.removed.isEmpty());
+        assertEquals(Arrays.asList("2"), listener.changed);
+        assertEquals("\"first line\nsecond line\"", listener.changedRows.get(0)[2]);
+        assertEquals("\"first line\nchanged line\"", listener.changedRows.get(1)[2]);
+    }
+
+    @Test
+    public void testDiffInParallel() throws Exception {
+        StringBuilder index = new StringBuilder("ID,Value,Location\n");
+        StringBuilder target = new StringBuilder("ID,Value,Location\n");
+        for (int i = 0; i < 2000; i++) {
+            index.append(i).append(",v").append(i).append(",\"(1,\n2)\"\n");
+            if (i % 100 == 1) {
+                continue;
+            }
+            target.append(i).append(i % 100 == 2 ? ",changed" : ",v" + i).append(",\"(1,\n2)\"\n");
+        }
+        target.append("5000,new,x\n");
+        File indexFile = writeFile(tempFolder, "index.csv", index.toString());
+        File targetFile = writeFile(tempFolder, "target.csv", target.toString());
+        FileUtils fileUtils = new FileUtils(indexFile.getAbsolutePath(), targetFile.getAbsolutePath());
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils, 4);
+        engine.setMinChunkSize(1024);
+        RecordingListener listener = new RecordingListener();
+
+        assertFalse("It needs to be false", engine.diff(indexFile.getAbsolutePath(), targetFile.getAbsolutePath(), listener));
+
+        assertEquals(Arrays.asList("5000"), listener.added);
+        assertEquals(20, listener.removed.size());
+        assertEquals("1", listener.removed.get(0));
+        assertEquals("1901", listener.removed.get(19));
+        assertEquals(20, listener.changed.size());
+        assertEquals("changed", listener.changedRows.get(1)[1]);
+    }
+
+    @Test
+    public void testDiffOffHeap() throws Exception {
+        StringBuilder index = new StringBuilder("ID,Value\n");
+        StringBuilder target = new StringBuilder("ID,Value\n");
+        for (int i = 0; i < 2000; i++) {
+            String id = i % 3 == 0 ? "HT" + i : String.valueOf(i);
+            index.append(id).append(",v").append(i).append("\n");
+            if (i % 100 == 1) {
+                continue;
+            }
+            target.append(id).append(i % 100 == 2 ? ",changed" : ",v" + i).append("\n");
+        }
+        target.append("5000,new\n");
+        File indexFile = writeFile(tempFolder, "index.csv", index.toString());
+        File targetFile = writeFile(tempFolder, "target.csv", target.toString());
+        FileUtils fileUtils = new FileUtils(indexFile.getAbsolutePath(), targetFile.getAbsolutePath());
+        for (int threads : new int[]{1, 4}) {
+            FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils, threads);
+            engine.setMinChunkSize(1024);
+            engine.setOffHeap(true);
+            RecordingListener listener = new RecordingListener();
+
+            IndexedFile indexedFile = engine.buildIndex(indexFile.getAbsolutePath());
+            assertTrue("It needs to be off-heap", indexedFile.getIndex().isOffHeap());
+            assertFalse("It needs to be false", engine.diff(indexedFile, targetFile.getAbsolutePath(), listener));
+
+            assertEquals(Arrays.asList("5000"), listener.added);
+            assertEquals(20, listener.removed.size());
+            assertEquals("1", listener.removed.get(0));
+            assertEquals("HT1101", listener.removed.get(11));
+            assertEquals(20, listener.changed.size());
+            assertEquals("changed", listener.changedRows.get(1)[1]);
+        }
+    }
+
+    @Test
+    public void testDiffOffHeapInSmallHeap() throws Exception {
+        File indexFile = tempFolder.newFile("index.csv");
+        File targetFile = tempFolder.newFile("target.csv");
+        Writer index = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8");
+        Writer target = new OutputStreamWriter(new FileOutputStream(targetFile), "UTF-8");
+        try {
+            index.write("ID,Name,Value\n");
+            target.write("ID,Name,Value\n");
+            for (int i = 0; i < 600000; i++) {
+                index.write(i + ",name" + i + "," + i * 3 + "\n");
+                if (i % 1000 != 7) {
+                    target.write(i + ",name" + i + "," + (i % 500 == 3 ? i * 3 + 1 : i * 3) + "\n");
+                }
+            }
+        } finally {
+            index.close();
+            target.close();
+        }
+
+        // Rows held on the heap for the whole file need more than the heap of the child JVM
+        String javaCommand = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        for (String threads : new String[]{"1", "2"}) {
+            File resultFile = new File(tempFolder.getRoot(), "result_" + threads + ".csv");
+            File logFile = new File(tempFolder.getRoot(), "log_" + threads + ".txt");
+            Process process = new ProcessBuilder(javaCommand, "-Xmx16m", "-XX:MaxDirectMemorySize=256m",
+                    "-cp", System.getProperty("java.class.path"), CsvValidator.class.getName(),
+                    "--off-heap", "-t", threads, "-o", resultFile.getPath(), indexFile.getPath(), targetFile.getPath())
+                    .redirectErrorStream(true)
+                    .redirectOutput(logFile)
+                    .start();
+
+            assertEquals("It needs to run in a small heap with " + threads + " threads", 0, process.waitFor());
+            List<String> lines = Files.readAllLines(resultFile.toPath(), Charset.forName("UTF-8"));
+            assertEquals("A header, 600 removed rows and 1200 changed rows of two lines", 1 + 600 + 2 * 1200, lines.size());
+        }
+    }
+
+    @Test
+    public void testDiffSkippingIdenticalBlocks() throws Exception {
+        StringBuilder index = new StringBuilder("ID,Value,Location\n");
+        StringBuilder target = new StringBuilder("ID,Value,Location\n");
+        for (int i = 0; i < 3000; i++) {
+            String row = i + ",v" + i + ",\"(1,\n2)\"\n";
+            index.append(row);
+            if (i == 700) {
+                target.append("700,changed,x\n");
+            } else if (i == 2100) {
+                target.append("9000,new,x\n");
+            } else if (i != 1500) {
+                target.append(row);
+            }
+        }
+        File indexFile = writeFile(tempFolder, "index.csv", index.toString());
+        File targetFile = writeFile(tempFolder, "target.csv", target.toString());
+        FileUtils fileUtils = new FileUtils(indexFile.getAbsolutePath(), targetFile.getAbsolutePath());
+        for (int threads : new int[]{1, 4}) {
+            FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils, threads);
+            engine.setMinChunkSize(4096);
+            engine.setSkipIdenticalBlocks(true);
+            RecordingListener listener = new RecordingListener();
+
+            assertFalse("It needs to be false", engine.diff(indexFile.getAbsolutePath(), targetFile.getAbsolutePath(), listener));
+
+            assertEquals(Arrays.asList("9000"), listener.added);
+            assertEquals(Arrays.asList("1500", "2100"), listener.removed);
+            assertEquals(Arrays.asList("700"), listener.changed);
+            assertEquals("changed", listener.changedRows.get(1)[1]);
+        }
+    }
+
+    @Test
+    public void testDiffCompositeKey() throws Exception {
+        StringBuilder index = new StringBuilder("Case Number,Date,Block\n");
+        StringBuilder target = new StringBuilder("Case Number,Date,Block\n");
+        for (int i = 0; i < 1000; i++) {
+            // Every case number is in two rows, told apart by the date
+            String row = "HT" + (i / 2) + ",\"05/0" + (1 + i % 2) + "/2011, 10:00\",block " + i + "\n";
+            index.append(row);
+            if (i == 7) {
+                target.append("HT3,\"05/02/2011, 10:00\",changed\n");
+            } else if (i != 500) {
+                target.append(row);
+            }
+        }
+        target.append("HT3,\"05/03/2011, 10:00\",new\n");
+        File indexFile = writeFile(tempFolder, "index.csv", index.toString());
+        File targetFile = writeFile(tempFolder, "target.csv", target.toString());
+        FileUtils fileUtils = new FileUtils(indexFile.getAbsolutePath(), targetFile.getAbsolutePath());
+        for (int threads : new int[]{1, 4}) {
+            FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils, threads);
+            engine.setMinChunkSize(1024);
+            engine.setKeyColumns(new KeyColumns("Case Number", "Date"));
+            RecordingListener listener = new RecordingListener();
+
+            assertFalse("It needs to be false", engine.diff(indexFile.getAbsolutePath(), targetFile.getAbsolutePath(), listener));
+
+            assertEquals(Arrays.asList("HT3|\"05/03/2011, 10:00\""), listener.added);
+            assertEquals(Arrays.asList("HT250|\"05/01/2011, 10:00\""), listener.removed);
+            assertEquals(Arrays.asList("HT3|\"05/02/2011, 10:00\""), listener.changed);
+            assertEquals("changed", listener.changedRows.get(1)[2]);
+        }
+    }
+
+    @Test
+    public void testDiffWithSnapshot() throws Exception {
+        File index = writeFile(tempFolder, "index.csv", "ID,Name\n1,a\n2,b\n");
+        File target = writeFile(tempFolder, "target.csv", "ID,Name\n1,a\n2,c\n3,d\n");
+        File snapshots = tempFolder.newFolder("snapshots");
+        FileUtils fileUtils = new FileUtils(index.getAbsolutePath(), target.getAbsolutePath());
+        fileUtils.setSnapshotDirectory(snapshots);
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils);
+        engine.setSnapshots(true);
+
+        RecordingListener listener = new RecordingListener();
+        engine.diff(index.getAbsolutePath(), target.getAbsolutePath(), listener);
+        File snapshotFile = fileUtils.getSnapshotFile(index.getAbsolutePath());
+        assertEquals(new File(snapshots, "index.csv.fpidx"), snapshotFile);
+        assertTrue("The snapshot needs to be saved", snapshotFile.isFile());
+
+        RecordingListener loaded = new RecordingListener();
+        engine.diff(index.getAbsolutePath(), target.getAbsolutePath(), loaded);
+        assertEquals(Arrays.asList("3"), loaded.added);
+        assertEquals(Arrays.asList("2"), loaded.changed);
+        assertEquals("b", loaded.changedRows.get(0)[1]);
+
+        writeFile(index, "ID,Name\n1,z\n2,c\n");
+        RecordingListener rebuilt = new RecordingListener();
+        engine.diff(index.getAbsolutePath(), target.getAbsolutePath(), rebuilt);
+        assertEquals(Arrays.asList("1"), rebuilt.changed);
+        assertEquals("z", rebuilt.changedRows.get(0)[1]);
+    }
+
+    @Test
+    public void testDiffCompressedFiles() throws Exception {
+        File index = writeGzipFile(tempFolder, "index.csv.gz", "ID,Name\n1,a\n2,b\n3,c\n");
+        File target = writeGzipFile(tempFolder, "target.csv.gz", "ID,Name\n3,c\n2,x\n4,d\n");
+        FileUtils fileUtils = new FileUtils(index.getAbsolutePath(), target.getAbsolutePath());
+        assertNull("Compressed files are read as streams", fileUtils.getLocalFile(index.getAbsolutePath()));
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils, 4);
+        RecordingListener listener = new RecordingListener();
+
+        assertFalse("It needs to be false", engine.diff(index.getAbsolutePath(), target.getAbsolutePath(), listener));
+
+        assertEquals(Arrays.asList("4"), listener.added);
+        assertEquals(Arrays.asList("1"), listener.removed);
+        assertEquals(Arrays.asList("2"), listener.changed);
+        assertEquals("b", listener.changedRows.get(0)[1]);
+    }
+
+    @Test
+    public void testDiffWithMetrics() throws Exception {
+        StringBuilder index = new StringBuilder("ID,Value\n");
+        StringBuilder target = new StringBuilder("ID,Value\n");
+        for (int i = 0; i < 1000; i++) {
+            index.append(i).append(",v").append(i).append('\n');
+            if (i != 10) {
+                target.append(i).append(i == 20 ? ",changed" : ",v" + i).append('\n');
+            }
+        }
+        target.append("5000,new\n");
+        File indexFile = writeFile(tempFolder, "index.csv", index.toString());
+        File targetFile = writeFile(tempFolder, "target.csv", target.toString());
+        FileUtils fileUtils = new FileUtils(indexFile.getAbsolutePath(), targetFile.getAbsolutePath());
+        for (int threads : new int[]{1, 4}) {
+            RunMetrics metrics = new RunMetrics("fingerprint", indexFile.getAbsolutePath(), targetFile.getAbsolutePath());
+            FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils, threads);
+            engine.setMinChunkSize(1024);
+            engine.setMetrics(metrics);
+            RecordingListener listener = new RecordingListener();
+
+            engine.diff(indexFile.getAbsolutePath(), targetFile.getAbsolutePath(), new MeasuredListener(listener, metrics));
+            metrics.finish();
+
+            assertEquals(Arrays.asList("5000"), listener.added);
+            assertEquals(2000, metrics.getRowsRead());
+            assertEquals(indexFile.length() + targetFile.length(), metrics.getBytesRead());
+            assertEquals(1000, metrics.getIndexEntries());
+            assertTrue("The index takes memory", metrics.getIndexBytes() > 0);
+            assertEquals(1, metrics.getAddedRows());
+            assertEquals(1, metrics.getRemovedRows());
+            assertEquals(1, metrics.getChangedRows());
+        }
+    }
+
+    @Test
+    public void testDiffEqualFiles() throws Exception {
+        FileUtils fileUtils = new FileUtils(SAMPLE_FILE_ONE, SAMPLE_FILE_ONE, this.getClass().getClassLoader());
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(cv.getCsvParserSettings(), fileUtils);
+        RecordingListener listener = new RecordingListener();
+
+        assertTrue("It needs to be true", engine.diff(SAMPLE_FILE_ONE, SAMPLE_FILE_ONE, listener));
+        assertTrue("No differences", listener.added.isEmpty() && listener.removed.isEmpty() && listener.changed.isEmpty());
+    }
+
+    static class RecordingListener implements DiffListener {
+        final List<String> added = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        final List<String> changed = new ArrayList<>();
+        final List<String[]> changedRows = new ArrayList<>();
+        boolean finished;
+
+        @Override
+        public void onHeader(String[] header) {
+        }
+
+        @Override
+        public void onAdded(String id, String[] targetRow) {
+            added.add(id);
+        }
+
+        @Override
+        public void onRemoved(String id, String[] indexRow) {
+            removed.add(id);
+        }
+
+        @Override
+        public void onChanged(String id, String[] indexRow, String[] targetRow) {
+            changed.add(id);
+            changedRows.add(indexRow);
+            changedRows.add(targetRow);
+        }
+
+        @Override
+        public void onFinish() {
+            finished = true;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package net.skim.diff;
+
+import net.skim.CsvValidator;
+import net.skim.exception.ValidatorException;
+import net.skim.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for MergeJoinDiffEngine.
+ */
+public class MergeJoinDiffEngineTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SAMPLE_FILE_ONE = "sample_1.csv";
+    private static final String SAMPLE_FILE_TWO = "sample_2.csv";
+
+    private CsvValidator cv;
+
+    @Before
+    public void setUp() throws Exception {
+        cv = new CsvValidator();
+    }
+
+    @Test
+    public void testDiffSortedSamples() throws Exception {
+        FileUtils fileUtils = new FileUtils(SAMPLE_FILE_ONE, SAMPLE_FILE_TWO, this.getClass().getClassLoader());
+        MergeJoinDiffEngine engine = new MergeJoinDiffEngine(cv.getCsvParserSettings(), fileUtils, 1, tempFolder.getRoot());
+        engine.setStreaming(true);
+        FingerprintDiffEngineTest.RecordingListener listener = new FingerprintDiffEngineTest.RecordingListener();
+
+        boolean result = engine.diff(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), listener);
+
+        assertFalse("It needs to be false", result);
+        assertEquals(Arrays.asList("8036341", "8036351", "8036352", "8036355"), listener.added);
+        assertEquals(Arrays.asList("8036337", "8036342", "8036371"), listener.removed);
+        assertTrue("No rows are changed", listener.changed.isEmpty());
+        assertTrue("It needs to be finished", listener.finished);
+    }
+
+    @Test
+    public void testDiffSortedFiles() throws Exception {
+        File index = writeFile(tempFolder, "index.csv", "ID,Name\n9,a\n10,b\n10,duplicate\n12,c\nHT1,d\n");
+        File target = writeFile(tempFolder, "target.csv", "ID,Name\n9,a\n10,changed\n11,e\nHT1,d\n");
+        FileUtils fileUtils = new FileUtils(index.getAbsolutePath(), target.getAbsolutePath());
+        MergeJoinDiffEngine engine = new MergeJoinDiffEngine(cv.getCsvParserSettings(), fileUtils, 1, tempFolder.getRoot());
+        FingerprintDiffEngineTest.RecordingListener listener = new FingerprintDiffEngineTest.RecordingListener();
+
+        assertFalse("It needs to be false", engine.diff(index.getAbsolutePath(), target.getAbsolutePath(), listener));
+
+        assertEquals(Arrays.asList("11"), listener.added);
+        assertEquals(Arrays.asList("12"), listener.removed);
+        assertEquals(Arrays.asList("10"), listener.changed);
+        assertEquals("b", listener.changedRows.get(0)[1]);
+        assertEquals("changed", listener.changedRows.get(1)[1]);
+        assertTrue("It needs to be finished", listener.finished);
+        assertEquals("The spill needs to be deleted", 2, tempFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testFallBackOnUnsortedFiles() throws Exception {
+        File index = writeFile(tempFolder, "index.csv", "ID,Name\n1,a\n2,b\n3,c\n");
+        File target = writeFile(tempFolder, "target.csv", "ID,Name\n3,c\n2,changed\n4,d\n");
+        FileUtils fileUtils = new FileUtils(index.getAbsolutePath(), target.getAbsolutePath());
+        MergeJoinDiffEngine engine = new MergeJoinDiffEngine(cv.getCsvParserSettings(), fileUtils, 1, tempFolder.getRoot());
+        FingerprintDiffEngineTest.RecordingListener listener = new FingerprintDiffEngineTest.RecordingListener();
+
+        assertFalse("It needs to be false", engine.diff(index.getAbsolutePath(), target.getAbsolutePath(), listener));
+
+        assertEquals(Arrays.asList("4"), listener.added);
+        assertEquals(Arrays.asList("1"), listener.removed);
+        assertEquals(Arrays.asList("2"), listener.changed);
+    }
+
+    @Test
+    public void testStreamingFailsOnUnsortedFiles() throws Exception {
+        File index = writeFile(tempFolder, "index.csv", "ID,Name\n1,a\n2,b\n");
+        File target = writeFile(tempFolder, "target.csv", "ID,Name\n2,b\n1,a\n");
+        FileUtils fileUtils = new FileUtils(index.getAbsolutePath(), target.getAbsolutePath());
+        MergeJoinDiffEngine engine = new MergeJoinDiffEngine(cv.getCsvParserSettings(), fileUtils);
+        engine.setStreaming(true);
+        try {
+            engine.diff(index.getAbsolutePath(), target.getAbsolutePath(), new FingerprintDiffEngineTest.RecordingListener());
+            fail("It needs to fail");
+        } catch (ValidatorException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not sorted"));
+        }
+    }
+}
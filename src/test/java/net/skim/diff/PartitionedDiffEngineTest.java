@@ -0,0 +1,76 @@
+package net.skim.diff;
+
+import net.skim.CsvValidator;
+import net.skim.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for PartitionedDiffEngine.
+ */
+public class PartitionedDiffEngineTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SAMPLE_FILE_ONE = "sample_1.csv";
+    private static final String SAMPLE_FILE_TWO = "sample_2.csv";
+
+    private CsvValidator cv;
+
+    @Before
+    public void setUp() throws Exception {
+        cv = new CsvValidator();
+    }
+
+    @Test
+    public void testDiffSamples() throws Exception {
+        FileUtils fileUtils = new FileUtils(SAMPLE_FILE_ONE, SAMPLE_FILE_TWO, this.getClass().getClassLoader());
+        PartitionedDiffEngine engine = new PartitionedDiffEngine(cv.getCsvParserSettings(), fileUtils, 4, 5, tempFolder.getRoot());
+        FingerprintDiffEngineTest.RecordingListener listener = new FingerprintDiffEngineTest.RecordingListener();
+
+        boolean result = engine.diff(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), listener);
+
+        assertFalse("It needs to be false", result);
+        assertEquals(Arrays.asList("8036341", "8036351", "8036352", "8036355"), sorted(listener.added));
+        assertEquals(Arrays.asList("8036337", "8036342", "8036371"), sorted(listener.removed));
+        assertTrue("No rows are changed", listener.changed.isEmpty());
+        assertTrue("It needs to be finished", listener.finished);
+        assertEquals("Temporary files need to be deleted", 0, tempFolder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void testDiffIsDeterministic() throws Exception {
+        FileUtils fileUtils = new FileUtils(SAMPLE_FILE_ONE, SAMPLE_FILE_TWO, this.getClass().getClassLoader());
+        List<String> first = null;
+        for (int run = 0; run < 3; run++) {
+            PartitionedDiffEngine engine = new PartitionedDiffEngine(cv.getCsvParserSettings(), fileUtils, 3, 7, tempFolder.getRoot());
+            FingerprintDiffEngineTest.RecordingListener listener = new FingerprintDiffEngineTest.RecordingListener();
+            engine.diff(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), listener);
+            List<String> events = new ArrayList<>(listener.added);
+            events.addAll(listener.removed);
+            if (first == null) {
+                first = events;
+            } else {
+                assertEquals("The order needs not to depend on scheduling", first, events);
+            }
+        }
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<>(values);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,117 @@
+package net.skim.diff;
+
+import net.skim.CsvValidator;
+import net.skim.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for SortMergeDiffEngine.
+ */
+public class SortMergeDiffEngineTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SAMPLE_FILE_ONE = "sample_1.csv";
+    private static final String SAMPLE_FILE_TWO = "sample_2.csv";
+
+    private CsvValidator cv;
+
+    @Before
+    public void setUp() throws Exception {
+        cv = new CsvValidator();
+    }
+
+    @Test
+    public void testDiffSamples() throws Exception {
+        FileUtils fileUtils = new FileUtils(SAMPLE_FILE_ONE, SAMPLE_FILE_TWO, this.getClass().getClassLoader());
+        SortMergeDiffEngine engine = new SortMergeDiffEngine(cv.getCsvParserSettings(), fileUtils, 1024, tempFolder.getRoot());
+        FingerprintDiffEngineTest.RecordingListener listener = new FingerprintDiffEngineTest.RecordingListener();
+
+        boolean result = engine.diff(fileUtils.getIndexFileName(), fileUtils.getTargetFileName(), listener);
+
+        assertFalse("It needs to be false", result);
+        assertEquals(Arrays.asList("8036341", "8036351", "8036352", "8036355"), listener.added);
+        assertEquals(Arrays.asList("8036337", "8036342", "8036371"), listener.removed);
+        assertTrue("No rows are changed", listener.changed.isEmpty());
+        assertEquals("Run files need to be deleted", 0, tempFolder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void testDiffWithManyRuns() throws Exception {
+        StringBuilder index = new StringBuilder("ID,Value\n");
+        StringBuilder target = new StringBuilder("ID,Value\n");
+        List<String> expectedAdded = new ArrayList<>();
+        List<String> expectedRemoved = new ArrayList<>();
+        List<String> expectedChanged = new ArrayList<>();
+        for (int i = 999; i >= 0; i--) {
+            String id = String.valueOf(i);
+            if (i % 10 != 1) {
+                index.append(id).append(",v").append(i).append('\n');
+            } else {
+                expectedAdded.add(id);
+            }
+            if (i % 10 == 2) {
+                expectedRemoved.add(id);
+            } else if (i % 10 == 3) {
+                target.append(id).append(",changed").append('\n');
+                expectedChanged.add(id);
+            } else {
+                target.append(id).append(",v").append(i).append('\n');
+            }
+        }
+        File indexFile = writeFile(tempFolder, "index.csv", index.toString());
+        File targetFile = writeFile(tempFolder, "target.csv", target.toString());
+        File runDirectory = tempFolder.newFolder();
+        FileUtils fileUtils = new FileUtils(indexFile.getAbsolutePath(), targetFile.getAbsolutePath());
+        // A tiny budget spills every few keys, so runs are merged in more than one pass
+        SortMergeDiffEngine engine = new SortMergeDiffEngine(cv.getCsvParserSettings(), fileUtils, 512, runDirectory);
+        FingerprintDiffEngineTest.RecordingListener listener = new FingerprintDiffEngineTest.RecordingListener();
+
+        assertFalse("It needs to be false", engine.diff(indexFile.getAbsolutePath(), targetFile.getAbsolutePath(), listener));
+
+        Collections.sort(expectedAdded);
+        Collections.sort(expectedRemoved);
+        Collections.sort(expectedChanged);
+        assertEquals(expectedAdded, listener.added);
+        assertEquals(expectedRemoved, listener.removed);
+        assertEquals(expectedChanged, listener.changed);
+        assertEquals("changed", listener.changedRows.get(1)[1]);
+        assertEquals(0, runDirectory.listFiles().length);
+    }
+
+    @Test
+    public void testDiffEmptyAndLongKeys() throws Exception {
+        // A key over 64 KB and an empty key, which has no value, are written to the runs like any other key
+        StringBuilder longKey = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            longKey.append((char) ('a' + i % 26));
+        }
+        File indexFile = writeFile(tempFolder, "index.csv", "ID,Value\n1,a\n,empty\n,duplicate\n" + longKey + ",long\n");
+        File targetFile = writeFile(tempFolder, "target.csv", "ID,Value\n" + longKey + ",long\n,changed\n1,a\n2,b\n");
+        FileUtils fileUtils = new FileUtils(indexFile.getAbsolutePath(), targetFile.getAbsolutePath());
+        SortMergeDiffEngine engine = new SortMergeDiffEngine(cv.getCsvParserSettings(), fileUtils, 64, tempFolder.newFolder());
+        FingerprintDiffEngineTest.RecordingListener listener = new FingerprintDiffEngineTest.RecordingListener();
+
+        assertFalse("It needs to be false", engine.diff(indexFile.getAbsolutePath(), targetFile.getAbsolutePath(), listener));
+
+        assertEquals(Arrays.asList("2"), listener.added);
+        assertTrue("No rows are removed", listener.removed.isEmpty());
+        assertEquals(Arrays.asList((String) null), listener.changed);
+        assertEquals(Arrays.asList(null, "changed"), Arrays.asList(listener.changedRows.get(1)));
+    }
+}
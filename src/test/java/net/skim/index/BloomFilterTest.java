@@ -0,0 +1,56 @@
+package net.skim.index;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for BloomFilter.
+ */
+public class BloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(1 << 20, 10000);
+        for (int i = 0; i < 10000; i++) {
+            byte[] key = String.valueOf(8036341 + i).getBytes(StandardCharsets.UTF_8);
+            filter.add(key, 0, key.length);
+        }
+        for (int i = 0; i < 10000; i++) {
+            byte[] key = String.valueOf(8036341 + i).getBytes(StandardCharsets.UTF_8);
+            assertTrue("It needs to be let through", filter.mightContain(key, 0, key.length));
+        }
+        assertEquals(10000, filter.getInsertions());
+        assertTrue("It needs to be sized for the keys", filter.memoryUsage() < 1 << 20);
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(1 << 20, 0);
+        assertEquals("It needs to fill the ceiling", 1 << 20, filter.memoryUsage());
+
+        filter = new BloomFilter(16 * 1024, 100000);
+        assertEquals("It needs to stay under the ceiling", 16 * 1024, filter.memoryUsage());
+        for (int i = 0; i < 10000; i++) {
+            byte[] key = ("HT" + i).getBytes(StandardCharsets.UTF_8);
+            filter.add(key, 0, key.length);
+        }
+        int falsePositives = 0;
+        int absent = 100000;
+        for (int i = 0; i < absent; i++) {
+            byte[] key = ("JA" + i).getBytes(StandardCharsets.UTF_8);
+            if (filter.mightContain(key, 0, key.length)) {
+                falsePositives++;
+            }
+        }
+        double expected = filter.expectedFalsePositiveRate();
+        double observed = (double) falsePositives / absent;
+        assertTrue(observed + " vs " + expected, observed < expected * 2 + 0.001);
+        byte[] key = "JA1".getBytes(StandardCharsets.UTF_8);
+        assertFalse("An empty filter needs to rule out everything", new BloomFilter(1024, 10).mightContain(key, 0, key.length));
+    }
+}
@@ -0,0 +1,84 @@
+package net.skim.index;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for IdIndex.
+ */
+public class IdIndexTest {
+
+    @Test
+    public void testNumericIds() {
+        IdIndex index = new IdIndex(4);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("It needs to be the next ordinal", i, index.add(String.valueOf(8036341 + i * 7)));
+        }
+        assertTrue("It needs to be numeric", index.isNumeric());
+        assertEquals(10000, index.size());
+        assertEquals(0, index.add("8036341"));
+        assertEquals(5, index.indexOf(String.valueOf(8036341 + 5 * 7)));
+        assertFalse("It needs not to be found", index.contains("8036342"));
+        assertFalse("Leading zeros make a different ID", index.contains("08036341"));
+    }
+
+    @Test
+    public void testSwitchToStrings() {
+        IdIndex index = new IdIndex();
+        index.add("915");
+        index.add("1310");
+        assertEquals(2, index.add("0915"));
+        assertFalse("It needs to fall back to strings", index.isNumeric());
+        assertEquals(0, index.indexOf("915"));
+        assertEquals(1, index.indexOf("1310"));
+        assertEquals(2, index.indexOf("0915"));
+        assertEquals("HT259212", index.get(index.add("HT259212")));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void testByteIds() throws Exception {
+        IdIndex index = new IdIndex();
+        byte[] bytes = "x8036341 HT259212".getBytes("UTF-8");
+        assertEquals(0, index.add(bytes, 1, 7));
+        assertTrue("It needs to be numeric", index.isNumeric());
+        assertEquals(0, index.indexOf("8036341"));
+        assertEquals(-1, index.indexOf(bytes, 0, 8));
+        assertEquals(1, index.add(bytes, 9, 8));
+        assertFalse("It needs to fall back to strings", index.isNumeric());
+        assertEquals(0, index.indexOf(bytes, 1, 7));
+        assertEquals(1, index.indexOf("HT259212"));
+        assertEquals(8036341, IdIndex.parseCanonicalLong(bytes, 1, 7));
+        assertEquals(-1, IdIndex.parseCanonicalLong("0915".getBytes("UTF-8"), 0, 4));
+    }
+
+    @Test
+    public void testNullIds() throws Exception {
+        IdIndex index = new IdIndex();
+        index.add("915");
+        assertEquals("A null ID needs to be the empty ID", 1, index.add(null));
+        assertEquals(1, index.indexOf(""));
+        assertEquals(1, index.indexOf(null));
+        assertEquals(1, index.add(new byte[0], 0, 0));
+
+        FingerprintIndex[] indexes = {new FingerprintIndex(4), FingerprintIndex.offHeap(4)};
+        for (FingerprintIndex fingerprints : indexes) {
+            assertEquals(0, fingerprints.add(null, 7, 0));
+            assertEquals(0, fingerprints.add("", 8, 10));
+            assertEquals(0, fingerprints.indexOf(null));
+            assertEquals("", fingerprints.getId(0));
+        }
+    }
+
+    @Test
+    public void testCompareIds() {
+        assertTrue("Numbers are compared by value", IdIndex.compareIds("915", "1310") < 0);
+        assertTrue("Numbers come first", IdIndex.compareIds("1310", "0915") < 0);
+        assertTrue("Other IDs are lexicographic", IdIndex.compareIds("HT259212", "HT259213") < 0);
+        assertTrue("Null comes first", IdIndex.compareIds(null, "1") < 0);
+        assertEquals(0, IdIndex.compareIds("8036341", "8036341"));
+    }
+}
@@ -0,0 +1,115 @@
+package net.skim.index;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test for IndexSnapshot.
+ */
+public class IndexSnapshotTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testNumericRoundTrip() throws Exception {
+        File source = writeFile(tempFolder, "source.csv", "ID,Value\n1,a\n");
+        File snapshotFile = new File(tempFolder.getRoot(), "source.csv" + IndexSnapshot.SUFFIX);
+        FingerprintIndex index = new FingerprintIndex(4);
+        for (int i = 0; i < 5000; i++) {
+            index.add(String.valueOf(8036341 + i), i * 31L, i * 9L);
+        }
+        index.add("8036341", 7, 7);
+
+        IndexSnapshot.write(snapshotFile, source, 42, "ID,Value", index);
+        IndexSnapshot snapshot = IndexSnapshot.read(snapshotFile, source, 42);
+
+        assertNotNull("It needs to be loaded", snapshot);
+        assertEquals("ID,Value", snapshot.getHeaderRecord());
+        FingerprintIndex loaded = snapshot.getIndex();
+        assertEquals(5000, loaded.size());
+        assertEquals(1, loaded.getDuplicates());
+        int ordinal = loaded.indexOf("8036441");
+        assertEquals(100, ordinal);
+        assertEquals(3100L, loaded.getFingerprint(ordinal));
+        assertEquals(900L, loaded.getOffset(ordinal));
+        assertEquals(5000, loaded.add("8036341000", 1, 1));
+    }
+
+    @Test
+    public void testStringRoundTrip() throws Exception {
+        File source = writeFile(tempFolder, "source.csv", "ID,Value\nHT1,a\n");
+        File snapshotFile = new File(tempFolder.getRoot(), "source.csv" + IndexSnapshot.SUFFIX);
+        FingerprintIndex index = new FingerprintIndex(4);
+        index.add("915", 1, 10);
+        index.add("HT259212", 2, 20);
+        index.add("0915", 3, 30);
+
+        IndexSnapshot.write(snapshotFile, source, 42, "ID,Value", index);
+        FingerprintIndex loaded = IndexSnapshot.read(snapshotFile, source, 42).getIndex();
+
+        assertEquals(3, loaded.size());
+        assertEquals(1, loaded.indexOf("HT259212"));
+        assertEquals(2, loaded.indexOf("0915"));
+        assertEquals("915", loaded.getId(0));
+        assertEquals(30L, loaded.getOffset(2));
+    }
+
+    @Test
+    public void testStaleSnapshot() throws Exception {
+        File source = writeFile(tempFolder, "source.csv", "ID,Value\n1,a\n");
+        File snapshotFile = new File(tempFolder.getRoot(), "source.csv" + IndexSnapshot.SUFFIX);
+        FingerprintIndex index = new FingerprintIndex(4);
+        index.add("1", 1, 9);
+        IndexSnapshot.write(snapshotFile, source, 42, "ID,Value", index);
+
+        assertNull("Other settings need another snapshot", IndexSnapshot.read(snapshotFile, source, 43));
+        long lastModified = source.lastModified();
+        RandomAccessFile file = new RandomAccessFile(source, "rw");
+        try {
+            file.seek(11);
+            file.write('b');
+        } finally {
+            file.close();
+        }
+        source.setLastModified(lastModified);
+        assertNull("A changed file needs a new snapshot", IndexSnapshot.read(snapshotFile, source, 42));
+        assertNull("A missing snapshot is not loaded", IndexSnapshot.read(new File(tempFolder.getRoot(), "none"), source, 42));
+    }
+
+    @Test
+    public void testEditInTheMiddle() throws Exception {
+        StringBuilder sb = new StringBuilder("ID,Value\n");
+        for (int i = 0; sb.length() < 3 << 20; i++) {
+            sb.append(i).append(",a\n");
+        }
+        File source = writeFile(tempFolder, "source.csv", sb.toString());
+        File snapshotFile = new File(tempFolder.getRoot(), "source.csv" + IndexSnapshot.SUFFIX);
+        FingerprintIndex index = new FingerprintIndex(4);
+        index.add("1", 1, 9);
+        IndexSnapshot.write(snapshotFile, source, 42, "ID,Value", index);
+        assertNotNull(IndexSnapshot.read(snapshotFile, source, 42));
+
+        long lastModified = source.lastModified();
+        RandomAccessFile file = new RandomAccessFile(source, "rw");
+        try {
+            file.seek(source.length() / 2);
+            int b = file.read();
+            file.seek(source.length() / 2);
+            file.write(b == '0' ? '1' : '0');
+        } finally {
+            file.close();
+        }
+        source.setLastModified(lastModified);
+        assertNull("An edit in the middle of the file needs a new snapshot", IndexSnapshot.read(snapshotFile, source, 42));
+    }
+}
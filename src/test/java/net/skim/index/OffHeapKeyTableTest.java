@@ -0,0 +1,51 @@
+package net.skim.index;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test for OffHeapKeyTable.
+ */
+public class OffHeapKeyTableTest {
+
+    @Test
+    public void testAddAndLookUp() {
+        // Keys of a small table run over many pages and grow the slots many times
+        OffHeapKeyTable table = new OffHeapKeyTable(16);
+        for (int i = 0; i < 20000; i++) {
+            byte[] key = ("HT" + i).getBytes(StandardCharsets.UTF_8);
+            assertEquals("It needs to be the next ordinal", i, table.add(key, 0, key.length, i * 31L, i * 250L));
+        }
+        byte[] duplicate = "HT7".getBytes(StandardCharsets.UTF_8);
+        assertEquals(7, table.add(duplicate, 0, duplicate.length, -1, -1));
+        assertEquals("The first row needs to be kept", 7 * 31L, table.getFingerprint(7));
+        assertEquals(20000, table.size());
+
+        for (int i = 0; i < 20000; i++) {
+            byte[] key = ("xHT" + i).getBytes(StandardCharsets.UTF_8);
+            int ordinal = table.indexOf(key, 1, key.length - 1);
+            assertEquals(i, ordinal);
+            assertEquals(i * 250L, table.getOffset(ordinal));
+            assertEquals("HT" + i, table.getKey(ordinal));
+        }
+        byte[] missing = "HT20000".getBytes(StandardCharsets.UTF_8);
+        assertEquals(-1, table.indexOf(missing, 0, missing.length));
+        assertEquals(-1, table.indexOf(missing, 0, 0));
+    }
+
+    @Test
+    public void testEmptyAndMultiByteKeys() {
+        OffHeapKeyTable table = new OffHeapKeyTable();
+        byte[] empty = new byte[0];
+        byte[] key = "Größe\0日本".getBytes(StandardCharsets.UTF_8);
+        assertEquals(0, table.add(empty, 0, 0, 1, 2));
+        assertEquals(1, table.add(key, 0, key.length, 3, 4));
+        assertEquals(0, table.indexOf(empty, 0, 0));
+        assertEquals(1, table.indexOf(key, 0, key.length));
+        assertEquals("", table.getKey(0));
+        assertEquals("Größe\0日本", table.getKey(1));
+    }
+}
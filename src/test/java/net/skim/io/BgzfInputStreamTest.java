@@ -0,0 +1,121 @@
+package net.skim.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for BgzfInputStream.
+ */
+public class BgzfInputStreamTest {
+
+    @Test
+    public void testReadBlocks() throws Exception {
+        byte[] data = sampleData();
+        byte[] compressed = bgzf(data, 10000);
+
+        for (int threads : new int[]{1, 4}) {
+            InputStream in = CompressedStreams.decompress(new ByteArrayInputStream(compressed), threads);
+            assertTrue("It needs to be read as BGZF", in instanceof BgzfInputStream);
+            assertArrayEquals(data, readAll(in));
+        }
+    }
+
+    @Test
+    public void testReadGzipAndPlainBytes() throws Exception {
+        byte[] data = sampleData();
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(gzip);
+        out.write(data);
+        out.close();
+
+        assertArrayEquals(data, readAll(CompressedStreams.decompress(new ByteArrayInputStream(gzip.toByteArray()), 4)));
+        assertArrayEquals(data, readAll(CompressedStreams.decompress(new ByteArrayInputStream(data), 4)));
+        byte[] tiny = {'I'};
+        assertArrayEquals(tiny, readAll(CompressedStreams.decompress(new ByteArrayInputStream(tiny), 4)));
+    }
+
+    @Test
+    public void testCorruptedBlock() throws Exception {
+        byte[] compressed = bgzf(sampleData(), 10000);
+        // flips a byte of the CRC of the first block
+        int firstBlockSize = (compressed[16] & 0xff | (compressed[17] & 0xff) << 8) + 1;
+        compressed[firstBlockSize - 8] ^= 1;
+        try {
+            readAll(CompressedStreams.decompress(new ByteArrayInputStream(compressed), 2));
+            fail("It needs to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("CRC"));
+        }
+    }
+
+    private static byte[] sampleData() {
+        StringBuilder contents = new StringBuilder("ID,Value,Location\n");
+        for (int i = 0; i < 20000; i++) {
+            contents.append(i).append(",v").append(i * 7).append(",\"(1,\n2)\"\n");
+        }
+        return contents.toString().getBytes();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * It compresses data as bgzip does, followed by the empty end-of-file block
+     */
+    private static byte[] bgzf(byte[] data, int blockSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int start = 0; start < data.length; start += blockSize) {
+            writeBlock(out, Arrays.copyOfRange(data, start, Math.min(data.length, start + blockSize)));
+        }
+        writeBlock(out, new byte[0]);
+        return out.toByteArray();
+    }
+
+    private static void writeBlock(ByteArrayOutputStream out, byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] deflated = new byte[data.length + 1024];
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        int blockSize = BgzfInputStream.HEADER_LENGTH + length + 8;
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0}, 0, 16);
+        writeShort(out, blockSize - 1);
+        out.write(deflated, 0, length);
+        writeShort(out, (int) crc.getValue());
+        writeShort(out, (int) (crc.getValue() >>> 16));
+        writeShort(out, data.length);
+        writeShort(out, data.length >>> 16);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+}
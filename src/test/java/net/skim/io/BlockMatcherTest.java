@@ -0,0 +1,114 @@
+package net.skim.io;
+
+import net.skim.CsvValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for BlockMatcher.
+ */
+public class BlockMatcherTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final int HEADER_LENGTH = "ID,Value,Location\n".length();
+
+    private CsvValidator cv;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        cv = new CsvValidator();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDifferingRangesOnly() throws Exception {
+        StringBuilder index = new StringBuilder("ID,Value,Location\n");
+        StringBuilder target = new StringBuilder("ID,Value,Location\n");
+        for (int i = 0; i < 5000; i++) {
+            String row = i + ",v" + i + ",\"(1,\n2)\"\n";
+            index.append(row);
+            if (i == 1000) {
+                target.append("1000,changed,x\n");
+            } else if (i != 3000) {
+                target.append(row);
+            }
+        }
+        File indexFile = writeFile(tempFolder, "index.csv", index.toString());
+        File targetFile = writeFile(tempFolder, "target.csv", target.toString());
+        BlockMatcher matcher = new BlockMatcher(new ChunkedCsvReader(indexFile, cv.getCsvParserSettings()),
+                new ChunkedCsvReader(targetFile, cv.getCsvParserSettings()));
+        matcher.setBlockRecords(16);
+
+        matcher.match(executor, 4, 4096);
+
+        long[] indexRanges = matcher.getIndexRanges();
+        long[] targetRanges = matcher.getTargetRanges();
+        assertTrue("Most bytes need to be skipped", matcher.getIdenticalBytes() > indexFile.length() * 3 / 4);
+        assertTrue("The changed row needs to be in a range", contains(indexFile, indexRanges, "1000,v1000,"));
+        assertTrue("The changed row needs to be in a range", contains(targetFile, targetRanges, "1000,changed,"));
+        assertTrue("The removed row needs to be in a range", contains(indexFile, indexRanges, "3000,v3000,"));
+        assertEquals(indexFile.length() - HEADER_LENGTH - matcher.getIdenticalBytes(), length(indexRanges));
+        assertEquals(targetFile.length() - HEADER_LENGTH - matcher.getIdenticalBytes(), length(targetRanges));
+    }
+
+    @Test
+    public void testEqualFiles() throws Exception {
+        File indexFile = writeFile(tempFolder, "index.csv", "ID,Value\n1,a\n2,b\n");
+        File targetFile = writeFile(tempFolder, "target.csv", "ID,Value\n1,a\n2,b\n");
+        BlockMatcher matcher = new BlockMatcher(new ChunkedCsvReader(indexFile, cv.getCsvParserSettings()),
+                new ChunkedCsvReader(targetFile, cv.getCsvParserSettings()));
+
+        matcher.match(executor, 4, 4096);
+
+        assertEquals(0, matcher.getIndexRanges().length);
+        assertEquals(0, matcher.getTargetRanges().length);
+        assertEquals(8, matcher.getIdenticalBytes());
+    }
+
+    private static long length(long[] ranges) {
+        long length = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            length += ranges[i + 1] - ranges[i];
+        }
+        return length;
+    }
+
+    private static boolean contains(File file, long[] ranges, String record) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            for (int i = 0; i < ranges.length; i += 2) {
+                byte[] bytes = new byte[(int) (ranges[i + 1] - ranges[i])];
+                in.seek(ranges[i]);
+                in.readFully(bytes);
+                String range = new String(bytes, "UTF-8");
+                if (range.startsWith(record) || range.contains("\n" + record)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+}
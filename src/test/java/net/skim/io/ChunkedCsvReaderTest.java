@@ -0,0 +1,127 @@
+package net.skim.io;
+
+import com.univocity.parsers.csv.CsvParser;
+import net.skim.CsvValidator;
+import net.skim.exception.ValidatorException;
+import net.skim.utils.ConcurrentUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for ChunkedCsvReader.
+ */
+public class ChunkedCsvReaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private CsvValidator cv;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        cv = new CsvValidator();
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSplitOnRecordBoundaries() throws Exception {
+        // Quoted fields have commas and line breaks, so many raw split points are inside quotes
+        StringBuilder contents = new StringBuilder("ID,Description,Location\n");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String location = i % 3 == 0 ? "\"(41.8, -87.6)\nline " + i + "\"" : "\"(41.8, -87.6)\"";
+            contents.append(i).append(",\"said \"\"hi\"\"\",").append(location).append(i % 7 == 0 ? "\r\n" : "\n");
+            expected.add(String.valueOf(i));
+        }
+        File file = tempFolder.newFile("quoted.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(contents.toString());
+        } finally {
+            writer.close();
+        }
+
+        ChunkedCsvReader reader = new ChunkedCsvReader(file, cv.getCsvParserSettings());
+        assertEquals("ID,Description,Location", reader.getHeaderRecord());
+        long[] starts = reader.split(executor, 16, 1);
+        assertTrue("It needs to be split", starts.length > 2);
+
+        List<String> actual = new ArrayList<>();
+        for (List<String> chunk : ConcurrentUtils.getAll(reader.submit(executor, 16, 1, new ChunkedCsvReader.ChunkProcessor<List<String>>() {
+            @Override
+            public List<String> process(RecordCursor cursor) throws IOException, ValidatorException {
+                List<String> ids = new ArrayList<>();
+                while (cursor.next()) {
+                    String[] values = cursor.getValues();
+                    assertEquals("It needs to be a whole record", 3, values.length);
+                    ids.add(values[0]);
+                }
+                return ids;
+            }
+        }))) {
+            actual.addAll(chunk);
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testSplitWithStrayQuotes() throws Exception {
+        // Quotes inside unquoted fields are literals, so counting quotes would take most split points as quoted
+        StringBuilder contents = new StringBuilder("ID,Height,Note\n");
+        for (int i = 0; i < 500; i++) {
+            String note = i % 5 == 0 ? "\"first\nsecond, \"\"third\"\"\"" : i % 5 == 1 ? " \"spaced\"" : "5'10\" tall";
+            contents.append(i).append(",").append(i % 2 == 0 ? "5'10\"" : "6ft").append(",").append(note).append("\n");
+        }
+        File file = writeFile(tempFolder, "stray.csv", contents.toString());
+        List<List<String>> expected = new ArrayList<>();
+        CsvParser parser = new CsvParser(cv.getCsvParserSettings());
+        for (String[] row : parser.parseAll(file)) {
+            expected.add(Arrays.asList(row));
+        }
+        assertEquals(500, expected.size());
+
+        for (boolean mapped : new boolean[]{false, true}) {
+            ChunkedCsvReader reader = new ChunkedCsvReader(file, cv.getCsvParserSettings());
+            reader.setMapped(mapped);
+            assertTrue("It needs to be split", reader.split(executor, 16, 1).length > 2);
+            List<List<String>> actual = new ArrayList<>();
+            for (List<List<String>> chunk : ConcurrentUtils.getAll(reader.submit(executor, 16, 1, new ChunkedCsvReader.ChunkProcessor<List<List<String>>>() {
+                @Override
+                public List<List<String>> process(RecordCursor cursor) throws IOException, ValidatorException {
+                    List<List<String>> rows = new ArrayList<>();
+                    while (cursor.next()) {
+                        rows.add(Arrays.asList(cursor.getValues()));
+                    }
+                    return rows;
+                }
+            }))) {
+                actual.addAll(chunk);
+            }
+            assertEquals("mapped: " + mapped, expected, actual);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package net.skim.io;
+
+import net.skim.CsvValidator;
+import net.skim.exception.ValidatorException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for MappedRecordCursor.
+ */
+public class MappedRecordCursorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private CsvValidator cv;
+
+    @Before
+    public void setUp() throws Exception {
+        cv = new CsvValidator();
+    }
+
+    @Test
+    public void testSameAsParser() throws Exception {
+        StringBuilder contents = new StringBuilder("ID,Name,Location,Note\r\n");
+        for (int i = 0; i < 300; i++) {
+            contents.append(i).append(", name ").append(i).append(" ,\"(41.8, -87.6)\n")
+                    .append("line\",\"say \"\"hi\"\" ").append(i % 5 == 0 ? "café" : "").append("\"\r\n");
+            contents.append(i + 1000).append(",,\"\",").append(i % 2 == 0 ? "x\t" : "").append("\n\n");
+        }
+        contents.append("9999,last,row,without line break");
+        File file = tempFolder.newFile("mixed.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(contents.toString());
+        } finally {
+            writer.close();
+        }
+
+        RecordCursor expected = new ParsingRecordCursor(new FileInputStream(file), cv.getCsvParserSettings());
+        // A tiny window makes records cross the end of the mapping
+        MappedRecordCursor actual = new MappedRecordCursor(file, 0, file.length(), cv.getCsvParserSettings(), null, 1024);
+        int[] keyPositions = new KeyColumns("ID", "Note", "Name").resolve(actual.getHeader(), file.getName());
+        KeyEncoder expectedKey = new KeyEncoder(keyPositions);
+        KeyEncoder actualKey = new KeyEncoder(keyPositions);
+        try {
+            assertEquals(expected.getHeaderRecord(), actual.getHeaderRecord());
+            assertArrayEquals(expected.getHeader(), actual.getHeader());
+            int records = 0;
+            while (expected.next()) {
+                assertTrue("It needs to have the record", actual.next());
+                assertEquals(expected.getOffset(), actual.getOffset());
+                assertArrayEquals(expected.getValues(), actual.getValues());
+                assertEquals(expected.getFingerprint(), actual.getFingerprint());
+                assertEquals(expected.getValue(0), actual.getValue(0));
+                expectedKey.encode(expected);
+                actualKey.encode(actual);
+                assertEquals(expectedKey.toString(), actualKey.toString());
+                records++;
+            }
+            assertFalse("It needs to have no more records", actual.next());
+            assertEquals(601, records);
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    @Test
+    public void testExcludedColumns() throws Exception {
+        File file = tempFolder.newFile("wide.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("ID,Description,Name,Location,Note\n"
+                    + "1,\"long, text\",a,\"(1, 2)\",x\n"
+                    + "2,,b\n"
+                    + "3,\"say \"\"hi\"\"\",c,,y,extra\n");
+        } finally {
+            writer.close();
+        }
+        cv.excludeColumns(Arrays.asList("description", "Location", "Note"));
+
+        RecordCursor expected = new ParsingRecordCursor(new FileInputStream(file), cv.getCsvParserSettings());
+        MappedRecordCursor actual = new MappedRecordCursor(file, cv.getCsvParserSettings());
+        try {
+            assertArrayEquals(new String[]{"ID", "Name"}, actual.getHeader());
+            assertArrayEquals(expected.getHeader(), actual.getHeader());
+            int records = 0;
+            while (expected.next()) {
+                assertTrue("It needs to have the record", actual.next());
+                assertArrayEquals(expected.getValues(), actual.getValues());
+                assertEquals(expected.getFingerprint(), actual.getFingerprint());
+                records++;
+            }
+            assertFalse("It needs to have no more records", actual.next());
+            assertEquals(3, records);
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    @Test
+    public void testCompositeKey() throws Exception {
+        File file = tempFolder.newFile("keys.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("ID,Case Number,Date\n"
+                    + "1,HT259212,05/05/2011\n"
+                    + "2,\"say \"\"hi\"\"\",\n");
+        } finally {
+            writer.close();
+        }
+        MappedRecordCursor cursor = new MappedRecordCursor(file, cv.getCsvParserSettings());
+        try {
+            KeyEncoder key = new KeyEncoder(new KeyColumns("Case Number", "Date").resolve(cursor.getHeader(), file.getName()));
+            assertTrue("It needs to have the record", cursor.next());
+            key.encode(cursor);
+            assertEquals("HT259212\0" + "05/05/2011", key.toString());
+            assertEquals("HT259212|05/05/2011", KeyColumns.display(key.toString()));
+            assertTrue("It needs to have the record", cursor.next());
+            key.encode(cursor);
+            assertEquals("\"say \"hi\"\"\0", key.toString());
+            assertEquals(KeyColumns.keyOf(cursor.getValues(), new int[]{1, 2}), key.toString());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testKeyColumnCase() throws Exception {
+        KeyColumns keyColumns = new KeyColumns("id", "name");
+        assertTrue("Exclusion needs to ignore case", keyColumns.contains("ID"));
+        assertArrayEquals("Resolving needs to ignore case like exclusion", new int[]{0, 2},
+                keyColumns.resolve(new String[]{"ID", "Note", "Name"}, "upper.csv"));
+        assertArrayEquals("A column of the same case needs to come first", new int[]{1, 2},
+                keyColumns.resolve(new String[]{"ID", "id", "name"}, "mixed.csv"));
+    }
+
+    @Test(expected = ValidatorException.class)
+    public void testMissingKeyColumn() throws Exception {
+        new KeyColumns("ID", "Date").resolve(new String[]{"ID", "Name"}, "narrow.csv");
+    }
+
+    @Test(expected = ValidatorException.class)
+    public void testExcludedColumnNotInHeader() throws Exception {
+        File file = tempFolder.newFile("narrow.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("ID,Name\n1,a\n");
+        } finally {
+            writer.close();
+        }
+        cv.excludeColumns(Arrays.asList("Description"));
+        new MappedRecordCursor(file, cv.getCsvParserSettings()).close();
+    }
+}
@@ -0,0 +1,59 @@
+package net.skim.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test for OutputPipeline.
+ */
+public class OutputPipelineTest {
+
+    @Test
+    public void testOrderIsKept() throws Exception {
+        StringWriter writer = new StringWriter();
+        OutputPipeline output = new OutputPipeline(OutputPipeline.writerSink(writer), 7, 2);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            output.write("row " + i);
+            expected.append("row ").append(i).append('\n');
+        }
+        output.close();
+        assertEquals(expected.toString(), writer.toString());
+    }
+
+    @Test
+    public void testWriterFailureIsReported() throws Exception {
+        final List<String> written = new ArrayList<>();
+        OutputPipeline output = new OutputPipeline(new OutputPipeline.Sink() {
+            @Override
+            public void write(String[] rows) throws IOException {
+                if (!written.isEmpty()) {
+                    throw new IOException("disk full");
+                }
+                written.addAll(Arrays.asList(rows));
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, 2, 1);
+        try {
+            for (int i = 0; i < 100; i++) {
+                output.write("row " + i);
+            }
+            output.close();
+            fail("It needs to fail");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        assertEquals(Arrays.asList("row 0", "row 1"), written);
+    }
+}
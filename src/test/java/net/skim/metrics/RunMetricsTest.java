@@ -0,0 +1,122 @@
+package net.skim.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for RunMetrics.
+ */
+public class RunMetricsTest {
+
+    private RunMetrics metrics;
+
+    @After
+    public void tearDown() throws Exception {
+        if (metrics != null) {
+            metrics.unregister();
+        }
+    }
+
+    @Test
+    public void testSamplerCountsRows() throws Exception {
+        metrics = new RunMetrics("fingerprint", "index.csv", "target.csv");
+        RowSampler sampler = metrics.newSampler();
+        int rows = RowSampler.FLUSH_INTERVAL + 100;
+        for (int i = 0; i < rows; i++) {
+            sampler.mark(RunMetrics.Phase.PARSING);
+            sampler.endRow();
+        }
+        assertEquals(RowSampler.FLUSH_INTERVAL, metrics.getRowsRead());
+
+        sampler.flush();
+        assertEquals(rows, metrics.getRowsRead());
+        sampler.flush();
+        assertEquals(rows, metrics.getRowsRead());
+    }
+
+    @Test
+    public void testDisabledMetrics() throws Exception {
+        RowSampler sampler = RunMetrics.DISABLED.newSampler();
+        sampler.mark(RunMetrics.Phase.PARSING);
+        sampler.endRow();
+        sampler.flush();
+        RunMetrics.DISABLED.addAdded(1);
+        RunMetrics.DISABLED.setIndex(10, 100);
+
+        assertFalse("It needs to be false", RunMetrics.DISABLED.isEnabled());
+        assertEquals(0, RunMetrics.DISABLED.getRowsRead());
+        assertEquals(0, RunMetrics.DISABLED.getAddedRows());
+        assertEquals(0, RunMetrics.DISABLED.getIndexEntries());
+    }
+
+    @Test
+    public void testQueueDepth() throws Exception {
+        metrics = new RunMetrics("legacy", "index.csv", "target.csv");
+        metrics.watch(new QueueGauge() {
+            @Override
+            public int getQueueDepth() {
+                return 3;
+            }
+        });
+        assertEquals(3, metrics.getQueueDepth());
+
+        metrics.finish();
+        assertTrue("It needs to be finished", metrics.isFinished());
+        assertEquals(0, metrics.getQueueDepth());
+    }
+
+    @Test
+    public void testJsonSummary() throws Exception {
+        metrics = new RunMetrics("fingerprint", "C:\\data\\index \"a\".csv", "target.csv");
+        metrics.addBytes(2048);
+        metrics.addTime(RunMetrics.Phase.WRITING, 5000000);
+        metrics.setIndex(7, 1024);
+        metrics.addAdded(1);
+        metrics.addRemoved(2);
+        metrics.addChanged(3);
+        metrics.finish();
+
+        String json = metrics.toJson();
+        assertTrue(json, json.startsWith("{\n  \"mode\": \"fingerprint\",\n"));
+        assertTrue(json, json.contains("\"indexFile\": \"C:\\\\data\\\\index \\\"a\\\".csv\",\n"));
+        assertTrue(json, json.contains("\"bytesRead\": 2048,\n"));
+        assertTrue(json, json.contains("\"phaseMillis\": {\"parsing\": 0, \"lookup\": 0, \"hashing\": 0, \"writing\": 5},\n"));
+        assertTrue(json, json.contains("\"indexEntries\": 7,\n"));
+        assertTrue(json, json.contains("\"addedRows\": 1,\n"));
+        assertTrue(json, json.contains("\"removedRows\": 2,\n"));
+        assertTrue(json, json.endsWith("\"changedRows\": 3\n}\n"));
+        assertFalse(json, json.contains("\"filter\""));
+
+        metrics.setFilter(4096, 0.01);
+        metrics.addFilterResults(99, 1);
+        json = metrics.toJson();
+        assertTrue(json, json.contains("\"filter\": {\"bytes\": 4096, \"expectedFalsePositiveRate\": 0.010000, \"falsePositiveRate\": 0.010000, \"rejectedRows\": 99, \"falsePositives\": 1},\n"));
+    }
+
+    @Test
+    public void testRegister() throws Exception {
+        metrics = new RunMetrics("fingerprint", "index.csv", "target.csv");
+        metrics.addChanged(4);
+        metrics.register();
+        // A later run replaces the MBean of an earlier one
+        RunMetrics later = new RunMetrics("legacy", "index.csv", "target.csv");
+        later.register();
+        metrics = later;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(RunMetrics.OBJECT_NAME);
+        assertEquals("legacy", server.getAttribute(name, "Mode"));
+        assertEquals(0L, server.getAttribute(name, "ChangedRows"));
+
+        later.unregister();
+        assertFalse("It needs to be unregistered", server.isRegistered(name));
+    }
+}
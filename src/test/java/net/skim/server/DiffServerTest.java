@@ -0,0 +1,192 @@
+package net.skim.server;
+
+import net.skim.CsvValidator;
+import net.skim.TestThreads;
+import net.skim.diff.FingerprintDiffEngine;
+import net.skim.diff.IndexedFile;
+import net.skim.utils.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for DiffServer, DiffClient and IndexCache.
+ */
+public class DiffServerTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testRequestIsRelayed() throws Exception {
+        final File directory = tempFolder.getRoot();
+        File secrets = tempFolder.newFolder("secrets");
+        DiffServer server = new DiffServer(0, 1, secrets, new DiffServer.Handler() {
+            @Override
+            public int handle(String[] args, File workingDirectory, PrintWriter err) {
+                err.println(workingDirectory.getPath() + ":" + Arrays.toString(args));
+                return args.length;
+            }
+        });
+        server.start();
+        startServing(server);
+        try {
+            StringWriter messages = new StringWriter();
+            String secret = DiffClient.readSecret(secrets, server.getPort());
+            int status = DiffClient.send(server.getPort(), secret, directory, Arrays.asList("-k", "ID", "a b.csv"), new PrintWriter(messages));
+
+            assertEquals(3, status);
+            assertEquals(directory.getPath() + ":[-k, ID, a b.csv]", messages.toString().trim());
+        } finally {
+            server.close();
+        }
+        assertEquals("The secret needs to be deleted with the server", 0, secrets.list().length);
+    }
+
+    @Test
+    public void testWrongSecretIsRejected() throws Exception {
+        File secrets = tempFolder.newFolder("secrets");
+        final boolean[] handled = new boolean[1];
+        DiffServer server = new DiffServer(0, 1, secrets, new DiffServer.Handler() {
+            @Override
+            public int handle(String[] args, File workingDirectory, PrintWriter err) {
+                handled[0] = true;
+                return 0;
+            }
+        });
+        server.start();
+        startServing(server);
+        try {
+            File secretFile = DiffClient.secretFile(secrets, server.getPort());
+            if (Files.getFileStore(secretFile.toPath()).supportsFileAttributeView("posix")) {
+                assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(secretFile.toPath())));
+            }
+            StringWriter messages = new StringWriter();
+            int status = DiffClient.send(server.getPort(), "wrong", tempFolder.getRoot(), Arrays.asList("a.csv", "b.csv"), new PrintWriter(messages));
+
+            assertEquals(2, status);
+            assertTrue(messages.toString().contains("secret"));
+            assertFalse("A request with a wrong secret can't run", handled[0]);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testComparisonsShareTheIndex() throws Exception {
+        writeFile(tempFolder, "one.csv", "ID,Value\n1,a\n2,b\n");
+        writeFile(tempFolder, "two.csv", "ID,Value\n2,b\n1,a\n");
+        writeFile(tempFolder, "three.csv", "ID,Value\n1,a\n2,x\n");
+        final IndexCache cache = new IndexCache(1 << 20);
+        File secrets = tempFolder.newFolder("secrets");
+        DiffServer server = new DiffServer(0, 2, secrets, new DiffServer.Handler() {
+            @Override
+            public int handle(String[] args, File workingDirectory, PrintWriter err) {
+                return CsvValidator.run(args, workingDirectory, cache, err);
+            }
+        });
+        server.start();
+        startServing(server);
+        try {
+            File directory = tempFolder.getRoot();
+            StringWriter messages = new StringWriter();
+            PrintWriter err = new PrintWriter(messages);
+            String secret = DiffClient.readSecret(secrets, server.getPort());
+
+            assertEquals(0, DiffClient.send(server.getPort(), secret, directory, Arrays.asList("-o", "equal.csv", "one.csv", "two.csv"), err));
+            assertEquals(0, DiffClient.send(server.getPort(), secret, directory, Arrays.asList("-o", "changed.csv", "one.csv", "three.csv"), err));
+            File result = new File(directory, "changed.csv");
+            assertTrue("Paths need to be resolved against the directory of the client", result.isFile());
+            assertTrue(result.length() > new File(directory, "equal.csv").length());
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.getHits());
+
+            assertEquals(2, DiffClient.send(server.getPort(), secret, directory, Arrays.asList("--no-such-option", "one.csv", "two.csv"), err));
+            assertTrue("Usage needs to be sent to the client", messages.toString().contains("usage"));
+            assertEquals(2, DiffClient.send(server.getPort(), secret, directory, Arrays.asList("--jmx", "one.csv", "two.csv"), err));
+            assertTrue("Requests can't register the MBean", messages.toString().contains("--jmx can't be used"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testFailedRequestsReleaseThreads() throws Exception {
+        writeFile(tempFolder, "one.csv", "ID,Value\n1,a\n2,b\n");
+        writeFile(tempFolder, "two.csv", "ID,Value\n1,a\n3,c\n");
+        final IndexCache cache = new IndexCache(1 << 20);
+        File secrets = tempFolder.newFolder("secrets");
+        DiffServer server = new DiffServer(0, 2, secrets, new DiffServer.Handler() {
+            @Override
+            public int handle(String[] args, File workingDirectory, PrintWriter err) {
+                return CsvValidator.run(args, workingDirectory, cache, err);
+            }
+        });
+        server.start();
+        startServing(server);
+        try {
+            File directory = tempFolder.getRoot();
+            PrintWriter err = new PrintWriter(new StringWriter());
+            String secret = DiffClient.readSecret(secrets, server.getPort());
+            int before = TestThreads.count("output-writer");
+
+            for (String format : Arrays.asList("rows", "cells", "rows", "cells")) {
+                int status = DiffClient.send(server.getPort(), secret, directory,
+                        Arrays.asList("-f", format, "-k", "NoSuchColumn", "-o", "result.csv", "one.csv", "two.csv"), err);
+                assertEquals(2, status);
+            }
+            assertEquals("A failed request can't leave its writer running", before, TestThreads.count("output-writer"));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testCacheDropsChangedFiles() throws Exception {
+        File file = writeFile(tempFolder, "one.csv", "ID,Value\n1,a\n2,b\n");
+        FileUtils fileUtils = new FileUtils(file.getPath(), file.getPath());
+        FingerprintDiffEngine engine = new FingerprintDiffEngine(new CsvValidator().getCsvParserSettings(), fileUtils, 1);
+        IndexCache cache = new IndexCache(1 << 20);
+
+        IndexedFile first = cache.get(file.getPath(), "ID", engine);
+        assertSame(first, cache.get(file.getPath(), "ID", engine));
+        assertNotSame("Other settings need another index", first, cache.get(file.getPath(), "Value", engine));
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), Charset.forName("UTF-8"));
+        try {
+            writer.write("3,c\n");
+        } finally {
+            writer.close();
+        }
+        assertNotSame("A changed file needs a new index", first, cache.get(file.getPath(), "ID", engine));
+        assertEquals(3, cache.size());
+
+        IndexCache small = new IndexCache(1);
+        small.get(file.getPath(), "ID", engine);
+        assertEquals("An index larger than the cache can't be kept", 0, small.size());
+    }
+
+    private static void startServing(final DiffServer server) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,161 @@
+package net.skim.stream;
+
+import net.skim.diff.ColumnComparator;
+import net.skim.diff.ColumnComparators;
+import net.skim.diff.ColumnSchema;
+import net.skim.diff.DiffEvent;
+import net.skim.diff.DiffEventListener;
+import net.skim.exception.DiffFailedException;
+import net.skim.exception.ValidatorException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static net.skim.TestFiles.gzip;
+import static net.skim.TestFiles.writeFile;
+import static org.junit.Assert.*;
+
+/**
+ * Unit test for CsvDiff.
+ */
+public class CsvDiffTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String BASELINE = "ID,Name,Amount\n1,a,10\n2,b,20\n3,\"c, d\",30\n";
+    private static final String CANDIDATE = "ID,Name,Amount\n3,\"c, e\",30\n1,a,10.001\n4,x,40\n";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testListener() throws Exception {
+        File baseline = writeFile(tempFolder, "baseline.csv", BASELINE);
+        File candidate = writeFile(tempFolder, "candidate.csv", CANDIDATE);
+        final List<String> events = new ArrayList<String>();
+
+        boolean equal = new CsvDiff().diff(baseline.toPath(), candidate.toPath(), new DiffEventListener() {
+            @Override
+            protected void onEvent(DiffEvent event) {
+                events.add(event.toString());
+            }
+        });
+
+        assertFalse(equal);
+        Collections.sort(events);
+        assertEquals(Arrays.asList("ADDED 4 [4, x, 40]", "CHANGED 1, Amount: 10 -> 10.001",
+                "CHANGED 3, Name: c, d -> c, e", "REMOVED 2 [2, b, 20]"), events);
+        assertTrue(new CsvDiff().diff(baseline.toPath(), baseline.toPath(), new DiffEventListener() {
+            @Override
+            protected void onEvent(DiffEvent event) {
+                fail("Equal files have no differences");
+            }
+        }));
+    }
+
+    @Test
+    public void testIteratorOverStreams() throws Exception {
+        CsvDiff csvDiff = new CsvDiff();
+        Map<String, ColumnComparator> comparators = new HashMap<String, ColumnComparator>();
+        comparators.put("Amount", ColumnComparators.numeric(0.01));
+        csvDiff.setColumnSchema(new ColumnSchema(comparators));
+        csvDiff.setTempDirectory(tempFolder.getRoot());
+        csvDiff.setBufferSize(1);
+
+        Map<String, DiffEvent> events = new HashMap<String, DiffEvent>();
+        DiffIterator iterator = csvDiff.iterator(new ByteArrayInputStream(gzip(BASELINE)), new ByteArrayInputStream(CANDIDATE.getBytes(UTF_8)));
+        try {
+            while (iterator.hasNext()) {
+                DiffEvent event = iterator.next();
+                events.put(event.getId(), event);
+            }
+        } finally {
+            iterator.close();
+        }
+
+        assertEquals("Equivalent changes need to be dropped", new HashSet<String>(Arrays.asList("2", "3", "4")), events.keySet());
+        DiffEvent changed = events.get("3");
+        assertEquals(DiffEvent.Type.CHANGED, changed.getType());
+        assertArrayEquals(new int[]{1}, changed.getChangedColumns());
+        assertEquals("Name", changed.getColumnName(1));
+        assertEquals("c, d", changed.getIndexValue(1));
+        assertEquals("c, e", changed.getTargetValue(1));
+        assertNull(events.get("4").getIndexRow());
+        assertEquals("Streams need to be copied into temporary files and deleted", 0, tempFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testIteratorFailure() throws Exception {
+        File baseline = writeFile(tempFolder, "baseline.csv", BASELINE);
+        DiffIterator iterator = new CsvDiff().iterator(baseline.toPath(), new File(tempFolder.getRoot(), "missing.csv").toPath());
+        try {
+            iterator.hasNext();
+            fail("A missing file needs to fail the iterator");
+        } catch (DiffFailedException e) {
+            assertTrue(e.getCause() instanceof ValidatorException);
+        }
+    }
+
+    @Test
+    public void testIteratorClosedEarly() throws Exception {
+        StringBuilder sb = new StringBuilder("ID,Value\n");
+        for (int i = 0; i < 10000; i++) {
+            sb.append(i).append(",v\n");
+        }
+        File baseline = writeFile(tempFolder, "baseline.csv", "ID,Value\n");
+        File candidate = writeFile(tempFolder, "candidate.csv", sb.toString());
+        CsvDiff csvDiff = new CsvDiff();
+        csvDiff.setBufferSize(4);
+
+        DiffIterator iterator = csvDiff.iterator(baseline.toPath(), candidate.toPath());
+        assertEquals(DiffEvent.Type.ADDED, iterator.next().getType());
+        iterator.close();
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testPublisherBackpressure() throws Exception {
+        File baseline = writeFile(tempFolder, "baseline.csv", BASELINE);
+        File candidate = writeFile(tempFolder, "candidate.csv", CANDIDATE);
+        final List<DiffEvent> events = Collections.synchronizedList(new ArrayList<DiffEvent>());
+        final CountDownLatch first = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final DiffSubscription[] subscription = new DiffSubscription[1];
+
+        new CsvDiff().publisher(baseline.toPath(), candidate.toPath()).subscribe(new DiffSubscriber() {
+            @Override
+            public void onSubscribe(DiffSubscription s) {
+                subscription[0] = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(DiffEvent event) {
+                events.add(event);
+                first.countDown();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                fail(throwable.toString());
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        assertFalse("Only the requested differences can be delivered", done.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, events.size());
+        subscription[0].request(Long.MAX_VALUE);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(4, events.size());
+    }
+}